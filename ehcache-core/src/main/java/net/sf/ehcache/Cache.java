@@ -32,6 +32,7 @@ import net.sf.ehcache.cluster.ClusterScheme;
 import net.sf.ehcache.cluster.ClusterSchemeNotAvailableException;
 import net.sf.ehcache.concurrent.CacheLockProvider;
 import net.sf.ehcache.concurrent.LockType;
+import net.sf.ehcache.concurrent.ReadWriteLockSync;
 import net.sf.ehcache.concurrent.StripedReadWriteLockSync;
 import net.sf.ehcache.concurrent.Sync;
 import net.sf.ehcache.config.AbstractCacheConfigurationListener;
@@ -72,10 +73,15 @@ import net.sf.ehcache.search.attribute.UnknownAttributeException;
 import net.sf.ehcache.search.expression.BaseCriteria;
 import static net.sf.ehcache.statistics.StatisticBuilder.operation;
 import net.sf.ehcache.statistics.StatisticsGateway;
+import net.sf.ehcache.statistics.extended.HotKeyTracker;
+import net.sf.ehcache.statistics.extended.MissRatioCurveEstimator;
+import net.sf.ehcache.store.AbstractStore;
+import net.sf.ehcache.store.ComputingStore;
 import net.sf.ehcache.store.CopyingCacheStore;
 import net.sf.ehcache.store.ElementValueComparator;
 import net.sf.ehcache.store.LegacyStoreWrapper;
 import net.sf.ehcache.store.LruMemoryStore;
+import net.sf.ehcache.store.MappingIterator;
 import net.sf.ehcache.store.MemoryStore;
 import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
 import net.sf.ehcache.store.Policy;
@@ -83,6 +89,7 @@ import net.sf.ehcache.store.Store;
 import net.sf.ehcache.store.StoreListener;
 import net.sf.ehcache.store.StoreQuery;
 import net.sf.ehcache.store.StoreQuery.Ordering;
+import net.sf.ehcache.store.StreamingStore;
 import net.sf.ehcache.store.TerracottaStore;
 import net.sf.ehcache.store.TerracottaTransactionalCopyingCacheStore;
 import net.sf.ehcache.store.TxCopyingCacheStore;
@@ -103,6 +110,7 @@ import net.sf.ehcache.util.NamedThreadFactory;
 import net.sf.ehcache.util.PropertyUtil;
 import net.sf.ehcache.util.TimeUtil;
 import net.sf.ehcache.util.VmUtils;
+import net.sf.ehcache.writer.BatchingCacheWriterManager;
 import net.sf.ehcache.writer.CacheWriter;
 import net.sf.ehcache.writer.CacheWriterFactory;
 import net.sf.ehcache.writer.CacheWriterManager;
@@ -122,8 +130,10 @@ import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -135,6 +145,7 @@ import java.util.concurrent.AbstractExecutorService;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -215,6 +226,8 @@ public class Cache implements InternalEhcache, StoreListener {
     private static final int EXECUTOR_CORE_POOL_SIZE = 1;
     private static final String EHCACHE_CLUSTERREDSTORE_MAX_CONCURRENCY_PROP = "ehcache.clusteredStore.maxConcurrency";
     private static final int DEFAULT_EHCACHE_CLUSTERREDSTORE_MAX_CONCURRENCY = 4096;
+    private static final String LOADER_BATCH_WINDOW_MILLIS_PROP = "net.sf.ehcache.loader.batchWindowMillis";
+    private static final long DEFAULT_LOADER_BATCH_WINDOW_MILLIS = 1;
 
     static {
         try {
@@ -242,6 +255,8 @@ public class Cache implements InternalEhcache, StoreListener {
 
     private volatile CacheLockProvider lockProvider;
 
+    private volatile Pool localHeapPool;
+
     private volatile RegisteredEventListeners registeredEventListeners;
 
     private final List<CacheExtension> registeredCacheExtensions = new CopyOnWriteArrayList<CacheExtension>();
@@ -263,11 +278,16 @@ public class Cache implements InternalEhcache, StoreListener {
 
     private final ReentrantLock cacheWriterManagerInitLock = new ReentrantLock();
 
+    /**
+     * Orders the acquisition of key locks whose identity hash codes collide, see {@link #writeLockAll(Collection)}
+     */
+    private final ReentrantLock batchLockTieBreaker = new ReentrantLock();
+
     private volatile CacheWriter registeredCacheWriter;
 
-    private final OperationObserver<GetOutcome> getObserver = operation(GetOutcome.class).named("get").of(this).tag("cache").build();
-    private final OperationObserver<PutOutcome> putObserver = operation(PutOutcome.class).named("put").of(this).tag("cache").build();
-    private final OperationObserver<RemoveOutcome> removeObserver = operation(RemoveOutcome.class).named("remove").of(this).tag("cache").build();
+    private final OperationObserver<GetOutcome> getObserver = operation(GetOutcome.class).named("get").of(this).tag("cache").sampled().build();
+    private final OperationObserver<PutOutcome> putObserver = operation(PutOutcome.class).named("put").of(this).tag("cache").sampled().build();
+    private final OperationObserver<RemoveOutcome> removeObserver = operation(RemoveOutcome.class).named("remove").of(this).tag("cache").sampled().build();
     private final OperationObserver<GetAllOutcome> getAllObserver = operation(GetAllOutcome.class).named("getAll").of(this)
             .tag("cache", "bulk").build();
     private final OperationObserver<PutAllOutcome> putAllObserver = operation(PutAllOutcome.class).named("putAll").of(this)
@@ -276,13 +296,13 @@ public class Cache implements InternalEhcache, StoreListener {
             .tag("cache", "bulk").build();
     private final OperationObserver<SearchOutcome> searchObserver = operation(SearchOutcome.class).named("search").of(this).tag("cache").build();
     private final OperationObserver<CacheOperationOutcomes.ReplaceOneArgOutcome> replace1Observer = operation(CacheOperationOutcomes.ReplaceOneArgOutcome.class).named("replace1").of(this)
-            .tag("cache").build();
+            .tag("cache").sampled().build();
     private final OperationObserver<CacheOperationOutcomes.ReplaceTwoArgOutcome> replace2Observer = operation(CacheOperationOutcomes.ReplaceTwoArgOutcome.class).named("replace2").of(this)
-            .tag("cache").build();
+            .tag("cache").sampled().build();
     private final OperationObserver<PutIfAbsentOutcome> putIfAbsentObserver = operation(PutIfAbsentOutcome.class).named("putIfAbsent").of(this)
-            .tag("cache").build();
+            .tag("cache").sampled().build();
     private final OperationObserver<RemoveElementOutcome> removeElementObserver = operation(RemoveElementOutcome.class).named("removeElement").of(this)
-            .tag("cache").build();
+            .tag("cache").sampled().build();
 
     /**
      * A ThreadPoolExecutor which uses a thread pool to schedule loads in the order in which they are requested.
@@ -297,6 +317,37 @@ public class Cache implements InternalEhcache, StoreListener {
      */
     private volatile ExecutorService executorService;
 
+    /**
+     * Merges the concurrent loads of {@link #getAllWithLoader(Collection, Object)} into batches run on the executor service.
+     */
+    private final LoadCoordinator loadCoordinator = new LoadCoordinator(new LoadCoordinator.BatchLoader() {
+        @Override
+        public Map<?, ?> loadAll(Set<Object> keys, Object argument) {
+            // keys that turned up in the meantime aren't loaded again
+            Map<Object, Object> values = new HashMap<Object, Object>(keys.size());
+            Set<Object> nonLoadedKeys = new HashSet<Object>(keys.size());
+            for (Object key : keys) {
+                Element element = getQuiet(key);
+                if (element == null) {
+                    nonLoadedKeys.add(key);
+                } else {
+                    values.put(key, element.getObjectValue());
+                }
+            }
+            Map<?, ?> loaded = loadWithRegisteredLoaders(argument, nonLoadedKeys);
+            for (Entry<?, ?> e : loaded.entrySet()) {
+                put(new Element(e.getKey(), e.getValue()));
+                values.put(e.getKey(), e.getValue());
+            }
+            return values;
+        }
+    }, new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            getExecutorService().execute(command);
+        }
+    }, Long.getLong(LOADER_BATCH_WINDOW_MILLIS_PROP, DEFAULT_LOADER_BATCH_WINDOW_MILLIS));
+
     private volatile TransactionManagerLookup transactionManagerLookup;
 
     private volatile boolean allowDisable = true;
@@ -307,6 +358,12 @@ public class Cache implements InternalEhcache, StoreListener {
 
     private StatisticsGateway statistics;
 
+    private HotKeyTracker hotKeyTracker;
+
+    private MissRatioCurveEstimator missRatioCurve;
+
+    private volatile RefreshAheadManager refreshAheadManager;
+
     private CacheClusterStateStatisticsListener clusterStateListener = null;
 
     private AbstractCacheConfigurationListener configListener;
@@ -859,7 +916,7 @@ public class Cache implements InternalEhcache, StoreListener {
             CacheConfiguration.CacheEventListenerFactoryConfiguration factoryConfiguration =
                     (CacheConfiguration.CacheEventListenerFactoryConfiguration) cacheEventListenerConfiguration;
             CacheEventListener cacheEventListener = createCacheEventListener(factoryConfiguration, loader);
-            registeredEventListeners.registerListener(cacheEventListener, factoryConfiguration.getListenFor());
+            registeredEventListeners.registerListener(cacheEventListener, factoryConfiguration);
         }
     }
 
@@ -1086,6 +1143,11 @@ public class Cache implements InternalEhcache, StoreListener {
                         + " cache because its status is not STATUS_UNINITIALISED");
             }
 
+            if (configuration.getRefreshAheadConfiguration() != null && configuration.getTransactionalMode().isTransactional()) {
+                throw new InvalidConfigurationException("Refresh ahead is not supported on transactional caches. "
+                        + "Please reconfigure cache '" + getName() + "' without refreshAhead or with transactionalMode = off");
+            }
+
             // on-heap pool configuration
             final Pool onHeapPool;
             if (configuration.getMaxBytesLocalHeap() > 0) {
@@ -1097,6 +1159,7 @@ public class Cache implements InternalEhcache, StoreListener {
             } else {
                 onHeapPool = new UnboundedPool();
             }
+            localHeapPool = onHeapPool;
 
             // on-disk pool configuration
             final Pool onDiskPool;
@@ -1232,6 +1295,10 @@ public class Cache implements InternalEhcache, StoreListener {
             initialiseCacheWriterManager(false);
             initialiseRegisteredCacheExtensions();
             initialiseRegisteredCacheLoaders();
+            if (configuration.getRefreshAheadConfiguration() != null) {
+                refreshAheadManager = new RefreshAheadManager(this, configuration.getRefreshAheadConfiguration());
+                StatisticsManager.associate(this).withChild(refreshAheadManager);
+            }
 
             Object context = compoundStore.getInternalContext();
             if (context instanceof CacheLockProvider) {
@@ -1242,6 +1309,8 @@ public class Cache implements InternalEhcache, StoreListener {
 
             StatisticsManager.associate(this).withChild(compoundStore);
             statistics = new StatisticsGateway(this, cacheManager.getStatisticsExecutor());
+            hotKeyTracker = statistics.getExtended().hotKeys();
+            missRatioCurve = statistics.getExtended().missRatioCurve();
         }
 
         if (!isTerracottaClustered()) {
@@ -1557,9 +1626,17 @@ public class Cache implements InternalEhcache, StoreListener {
     }
 
     /**
-     * {@inheritDoc}
+     * Puts a collection of elements in the cache, as {@link #putAll(Collection)} does.
+     * <p/>
+     * This is the bulk counterpart of {@link #put(Element, boolean)}, used for instance to load the elements fetched
+     * from a cache peer during bootstrap.
+     *
+     * @param elements the elements to put
+     * @param doNotNotifyCacheReplicators whether the puts are coming from a cache peer, in which case they should not
+     * initiate a further notification to the cache replicators
+     * @throws IllegalStateException if the cache is not {@link Status#STATUS_ALIVE}
      */
-    private void putAll(Collection<Element> elements, boolean doNotNotifyCacheReplicators) throws IllegalArgumentException,
+    public void putAll(Collection<Element> elements, boolean doNotNotifyCacheReplicators) throws IllegalArgumentException,
                                                                                                   IllegalStateException, CacheException {
         putAllInternal(elements, doNotNotifyCacheReplicators);
     }
@@ -1572,6 +1649,181 @@ public class Cache implements InternalEhcache, StoreListener {
         putInternal(element, false, true);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void putAllWithWriter(Collection<Element> elements) throws IllegalArgumentException, IllegalStateException,
+                                                                     CacheException {
+        putAllObserver.begin();
+        initialiseCacheWriterManager(true);
+        checkStatus();
+
+        if (disabled || elements.isEmpty()) {
+            putAllObserver.end(PutAllOutcome.IGNORED);
+            return;
+        }
+
+        final List<Element> toWrite = new ArrayList<Element>(elements.size());
+        for (Element element : elements) {
+            if (element != null && element.getObjectKey() != null) {
+                hotKeyTracker.record(element.getObjectKey());
+                missRatioCurve.recordPut(element.getObjectKey());
+                element.resetAccessStatistics();
+                applyDefaultsToElementWithoutLifespanSet(element);
+                element.updateUpdateStatistics();
+                toWrite.add(element);
+            }
+        }
+
+        backOffIfDiskSpoolFull();
+
+        final List<Object> keys = new ArrayList<Object>(toWrite.size());
+        for (Element element : toWrite) {
+            keys.add(element.getObjectKey());
+        }
+        // the keys are held for the writer and the store update, as putWithWriter holds its key for both
+        RuntimeException failure = null;
+        Error error = null;
+        List<Sync> locks = writeLockAll(keys);
+        try {
+            // the writer goes first, so that the elements it fails to write never reach the cache
+            final List<Element> notWritten = new ArrayList<Element>(toWrite);
+            try {
+                writeAll(cacheWriterManager, notWritten);
+            } catch (CacheWriterManagerException e) {
+                failure = e.getCause();
+            } catch (Error e) {
+                // the elements written before still reach the cache
+                error = e;
+            }
+            if (!notWritten.isEmpty()) {
+                toWrite.removeAll(identitySetOf(notWritten));
+            }
+            if (!toWrite.isEmpty()) {
+                compoundStore.putAll(toWrite);
+            }
+        } finally {
+            unlockAll(locks);
+        }
+
+        if (!toWrite.isEmpty()) {
+            for (Element element : toWrite) {
+                notifyPutInternalListeners(element, false, false);
+            }
+        }
+        putAllObserver.end(PutAllOutcome.COMPLETED);
+        if (error != null) {
+            throw error;
+        } else if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Writes elements through a writer manager, in batches if it supports them and one by one otherwise. The elements that
+     * were written are removed from the collection.
+     */
+    private static void writeAll(CacheWriterManager manager, Collection<Element> elements) throws CacheException {
+        if (manager instanceof BatchingCacheWriterManager) {
+            ((BatchingCacheWriterManager) manager).putAll(elements);
+        } else {
+            try {
+                for (Iterator<Element> it = elements.iterator(); it.hasNext();) {
+                    manager.put(it.next());
+                    it.remove();
+                }
+            } catch (CacheWriterManagerException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                throw new CacheWriterManagerException(e);
+            }
+        }
+    }
+
+    /**
+     * Deletes entries through a writer manager, in batches if it supports them and one by one otherwise. The entries that
+     * were deleted are removed from the collection.
+     */
+    private static void deleteAll(CacheWriterManager manager, Collection<CacheEntry> entries) throws CacheException {
+        if (manager instanceof BatchingCacheWriterManager) {
+            ((BatchingCacheWriterManager) manager).removeAll(entries);
+        } else {
+            try {
+                for (Iterator<CacheEntry> it = entries.iterator(); it.hasNext();) {
+                    manager.remove(it.next());
+                    it.remove();
+                }
+            } catch (CacheWriterManagerException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                throw new CacheWriterManagerException(e);
+            }
+        }
+    }
+
+    /**
+     * Write locks the keys of a batch, each distinct lock once.
+     * <p/>
+     * Locks are acquired in the order of their identity hash codes so that concurrent batches can't deadlock, the tie breaker
+     * being held while acquiring locks whose hash codes collide.
+     *
+     * @param keys the keys
+     * @return the acquired locks, to be released with {@link #unlockAll(List)}
+     */
+    private List<Sync> writeLockAll(Collection<?> keys) {
+        Map<Object, Sync> distinct = new IdentityHashMap<Object, Sync>();
+        for (Object key : keys) {
+            Sync sync = getLockForKey(key);
+            // some lock providers hand out a new sync wrapping the same lock for each call
+            distinct.put(sync instanceof ReadWriteLockSync ? ((ReadWriteLockSync) sync).getReadWriteLock() : sync, sync);
+        }
+        List<Entry<Object, Sync>> ordered = new ArrayList<Entry<Object, Sync>>(distinct.entrySet());
+        Collections.sort(ordered, new Comparator<Entry<Object, Sync>>() {
+            @Override
+            public int compare(Entry<Object, Sync> a, Entry<Object, Sync> b) {
+                int ha = System.identityHashCode(a.getKey());
+                int hb = System.identityHashCode(b.getKey());
+                return ha < hb ? -1 : (ha == hb ? 0 : 1);
+            }
+        });
+        boolean tie = false;
+        for (int i = 1; i < ordered.size() && !tie; i++) {
+            tie = System.identityHashCode(ordered.get(i - 1).getKey()) == System.identityHashCode(ordered.get(i).getKey());
+        }
+
+        List<Sync> locked = new ArrayList<Sync>(ordered.size());
+        if (tie) {
+            batchLockTieBreaker.lock();
+        }
+        try {
+            for (Entry<Object, Sync> entry : ordered) {
+                entry.getValue().lock(LockType.WRITE);
+                locked.add(entry.getValue());
+            }
+        } catch (RuntimeException e) {
+            unlockAll(locked);
+            throw e;
+        } finally {
+            if (tie) {
+                batchLockTieBreaker.unlock();
+            }
+        }
+        return locked;
+    }
+
+    private static void unlockAll(List<Sync> locks) {
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            locks.get(i).unlock(LockType.WRITE);
+        }
+    }
+
+    private static <T> Set<T> identitySetOf(Collection<T> items) {
+        Set<T> set = Collections.newSetFromMap(new IdentityHashMap<T, Boolean>());
+        set.addAll(items);
+        return set;
+    }
+
     private void putInternal(Element element, boolean doNotNotifyCacheReplicators, boolean useCacheWriter) {
         putObserver.begin();
         if (useCacheWriter) {
@@ -1601,6 +1853,8 @@ public class Cache implements InternalEhcache, StoreListener {
             return;
         }
 
+        hotKeyTracker.record(element.getObjectKey());
+        missRatioCurve.recordPut(element.getObjectKey());
         element.resetAccessStatistics();
 
         applyDefaultsToElementWithoutLifespanSet(element);
@@ -1646,6 +1900,8 @@ public class Cache implements InternalEhcache, StoreListener {
 
         compoundStore.putAll(elements);
         for (Element element : elements) {
+            hotKeyTracker.record(element.getObjectKey());
+            missRatioCurve.recordPut(element.getObjectKey());
             element.resetAccessStatistics();
             applyDefaultsToElementWithoutLifespanSet(element);
             notifyPutInternalListeners(element, doNotNotifyCacheReplicators, false);
@@ -1762,6 +2018,8 @@ public class Cache implements InternalEhcache, StoreListener {
             return null;
         }
 
+        hotKeyTracker.record(key);
+        missRatioCurve.recordGet(key);
         Element element = compoundStore.get(key);
         if (element == null) {
             getObserver.end(GetOutcome.MISS_NOT_FOUND);
@@ -1774,6 +2032,10 @@ public class Cache implements InternalEhcache, StoreListener {
             element.updateAccessStatistics();
         }
         getObserver.end(GetOutcome.HIT);
+        RefreshAheadManager refreshAhead = refreshAheadManager;
+        if (refreshAhead != null) {
+            refreshAhead.accessed(element);
+        }
         return element;
     }
 
@@ -1794,6 +2056,10 @@ public class Cache implements InternalEhcache, StoreListener {
             return Collections.EMPTY_MAP;
         }
 
+        for (Object key : keys) {
+            hotKeyTracker.record(key);
+            missRatioCurve.recordGet(key);
+        }
         Map<Object, Element> elements = compoundStore.getAll(keys);
         Set<Object> expired = new HashSet<Object>();
         for (Entry<Object, Element> entry : elements.entrySet()) {
@@ -1954,48 +2220,32 @@ public class Cache implements InternalEhcache, StoreListener {
         if (registeredCacheLoaders.size() > 0) {
             Object key = null;
             try {
-                map = new HashMap<Object, Object>(keys.size());
-
                 for (Object key1 : keys) {
                     key = key1;
                     Element element = get(key);
 
-                    if (element == null) {
+                    if (element == null && key != null) {
                         missingKeys.add(key);
                     } else {
-                        map.put(key, element.getObjectValue());
-                    }
-                }
-
-                //now load everything that's missing.
-                Future future = asynchronousLoadAll(missingKeys, loaderArgument);
-
-                //wait for result
-                long cacheLoaderTimeoutMillis = configuration.getCacheLoaderTimeoutMillis();
-                if (cacheLoaderTimeoutMillis > 0) {
-                    try {
-                        future.get(cacheLoaderTimeoutMillis, TimeUnit.MILLISECONDS);
-                    } catch (TimeoutException e) {
-                        throw new LoaderTimeoutException("Timeout on load for key " + key, e);
+                        map.put(key, element == null ? null : element.getObjectValue());
                     }
-                } else {
-                    future.get();
                 }
 
-                for (Object missingKey : missingKeys) {
-                    key = missingKey;
-                    Element element = get(key);
-                    if (element != null) {
-                        map.put(key, element.getObjectValue());
-                    } else {
-                        map.put(key, null);
+                // load everything that's missing, joining the loads of concurrent callers, and wait for the loaded values
+                if (!missingKeys.isEmpty()) {
+                    long cacheLoaderTimeoutMillis = configuration.getCacheLoaderTimeoutMillis();
+                    long deadline = System.currentTimeMillis() + cacheLoaderTimeoutMillis;
+                    for (Entry<Object, LoadCoordinator.PendingLoad> load : loadCoordinator.load(missingKeys, loaderArgument).entrySet()) {
+                        key = load.getKey();
+                        if (cacheLoaderTimeoutMillis > 0) {
+                            map.put(key, load.getValue().get(Math.max(1, deadline - System.currentTimeMillis())));
+                        } else {
+                            map.put(key, load.getValue().get(0));
+                        }
                     }
                 }
-
             } catch (InterruptedException e) {
                 throw new CacheException(e.getMessage() + " for key " + key, e);
-            } catch (ExecutionException e) {
-                throw new CacheException(e.getMessage() + " for key " + key, e);
             }
         } else {
             for (Object key : keys) {
@@ -2164,6 +2414,34 @@ public class Cache implements InternalEhcache, StoreListener {
         return getKeys();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public Iterator<Element> entryIterator(boolean skipExpired) throws IllegalStateException {
+        return splittableEntryIterator(skipExpired);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public SplittableIterator<Element> splittableEntryIterator(boolean skipExpired) throws IllegalStateException {
+        checkStatus();
+        SplittableIterator<Element> entries;
+        if (compoundStore instanceof StreamingStore) {
+            entries = ((StreamingStore) compoundStore).entryIterator();
+        } else {
+            entries = AbstractStore.keyListEntryIterator(compoundStore);
+        }
+        if (!skipExpired) {
+            return entries;
+        }
+        return new MappingIterator(entries, new MappingIterator.Mapping() {
+            public Element map(Element element) {
+                return element.isExpired(configuration) ? null : element;
+            }
+        });
+    }
+
     /**
      * This shouldn't be necessary once we got rid of this stupid locking layer!
      *
@@ -2402,6 +2680,75 @@ public class Cache implements InternalEhcache, StoreListener {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void removeAllWithWriter(Collection<?> keys) throws IllegalStateException, CacheException {
+        removeAllObserver.begin();
+        initialiseCacheWriterManager(true);
+        checkStatus();
+
+        if (disabled || keys.isEmpty()) {
+            removeAllObserver.end(RemoveAllOutcome.IGNORED);
+            return;
+        }
+
+        final List<Object> nonNullKeys = new ArrayList<Object>(keys.size());
+        for (Object key : keys) {
+            if (key != null) {
+                nonNullKeys.add(key);
+            }
+        }
+
+        // the keys are held from the snapshot of their elements to the store update, as removeWithWriter holds its key
+        final List<Object> deletedKeys = new ArrayList<Object>(nonNullKeys.size());
+        RuntimeException failure = null;
+        Error error = null;
+        List<Sync> locks = writeLockAll(nonNullKeys);
+        try {
+            final Map<Object, Element> current = compoundStore.getAllQuiet(nonNullKeys);
+            final List<CacheEntry> toDelete = new ArrayList<CacheEntry>(nonNullKeys.size());
+            for (Object key : nonNullKeys) {
+                toDelete.add(new CacheEntry(key, current.get(key)));
+            }
+
+            // the writer goes first, so that the keys it fails to delete stay in the cache
+            final List<CacheEntry> notDeleted = new ArrayList<CacheEntry>(toDelete);
+            try {
+                deleteAll(cacheWriterManager, notDeleted);
+            } catch (CacheWriterManagerException e) {
+                failure = e.getCause();
+            } catch (Error e) {
+                // the keys deleted before still leave the cache
+                error = e;
+            }
+            if (!notDeleted.isEmpty()) {
+                toDelete.removeAll(identitySetOf(notDeleted));
+            }
+            for (CacheEntry entry : toDelete) {
+                deletedKeys.add(entry.getKey());
+            }
+            if (!deletedKeys.isEmpty()) {
+                compoundStore.removeAll(deletedKeys);
+            }
+        } finally {
+            unlockAll(locks);
+        }
+
+        if (!deletedKeys.isEmpty()) {
+            for (Object key : deletedKeys) {
+                notifyRemoveInternalListeners(key, false, true, false, new Element(key, null));
+            }
+        }
+        removeAllObserver.end(RemoveAllOutcome.COMPLETED);
+        if (error != null) {
+            throw error;
+        } else if (failure != null) {
+            throw failure;
+        }
+    }
+
     /**
      * Removes or expires an {@link Element} from the Cache after an attempt to get it determined that it should be expired.
      * This also removes it from any stores it may be in.
@@ -2590,6 +2937,10 @@ public class Cache implements InternalEhcache, StoreListener {
             executorService.shutdown();
         }
 
+        if (refreshAheadManager != null) {
+            refreshAheadManager.dispose();
+        }
+
         disposeRegisteredCacheExtensions();
         disposeRegisteredCacheLoaders();
 
@@ -2945,6 +3296,17 @@ public class Cache implements InternalEhcache, StoreListener {
         return compoundStore;
     }
 
+    /**
+     * Gets the pool the on-heap tier of this cache draws from.
+     *
+     * @return the on-heap pool of this cache
+     * @throws IllegalStateException if the cache is not {@link Status#STATUS_ALIVE}
+     */
+    final Pool getOnHeapPool() throws IllegalStateException {
+        checkStatus();
+        return localHeapPool;
+    }
+
     /**
      * Get the optional store management bean for this cache.
      */
@@ -3438,6 +3800,7 @@ public class Cache implements InternalEhcache, StoreListener {
      * @return null if not present in the underlying SoR or if no loader available, otherwise the loaded object
      */
     private Object loadValueUsingLoader(final Object key, final CacheLoader specificLoader, final Object argument) {
+        final long start = System.nanoTime();
         Object value = null;
         if (specificLoader != null) {
             if (argument == null) {
@@ -3448,10 +3811,21 @@ public class Cache implements InternalEhcache, StoreListener {
         } else if (!registeredCacheLoaders.isEmpty()) {
             value = loadWithRegisteredLoaders(argument, key);
         }
+        RefreshAheadManager refreshAhead = refreshAheadManager;
+        if (refreshAhead != null) {
+            refreshAhead.loaded(System.nanoTime() - start);
+        }
         return value;
     }
 
-    private Object loadWithRegisteredLoaders(Object argument, Object key) throws CacheException {
+    /**
+     * Loads the value of a key with the registered loaders, the first non-null value wins.
+     *
+     * @param argument the loader argument, may be null
+     * @param key the key to load
+     * @return the loaded value, null if no loader found one
+     */
+    Object loadWithRegisteredLoaders(Object argument, Object key) throws CacheException {
 
         Object value = null;
 
@@ -3515,6 +3889,8 @@ public class Cache implements InternalEhcache, StoreListener {
      * @return A map of loaded elements
      */
     Map loadWithRegisteredLoaders(Object argument, Set<Object> nonLoadedKeys) {
+        final long start = System.nanoTime();
+        final boolean timed = !nonLoadedKeys.isEmpty() && !registeredCacheLoaders.isEmpty();
         Map result = new HashMap();
         for (CacheLoader registeredCacheLoader : registeredCacheLoaders) {
             if (nonLoadedKeys.isEmpty()) {
@@ -3532,6 +3908,11 @@ public class Cache implements InternalEhcache, StoreListener {
                 result.putAll(resultForThisCacheLoader);
             }
         }
+        RefreshAheadManager refreshAhead = refreshAheadManager;
+        if (refreshAhead != null && timed) {
+            // a bulk load counts as one load: its keys are waited for as long as a single one
+            refreshAhead.loaded(System.nanoTime() - start);
+        }
         return result;
     }
 
@@ -3938,6 +4319,142 @@ public class Cache implements InternalEhcache, StoreListener {
         return result;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Element compute(Object key, ElementRemapper remapper) throws NullPointerException, IllegalArgumentException,
+            CacheException {
+        if (remapper == null) {
+            throw new NullPointerException();
+        }
+        return computeInternal(key, remapper);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Element computeIfAbsent(Object key, final ElementRemapper remapper) throws NullPointerException,
+            IllegalArgumentException, CacheException {
+        if (remapper == null) {
+            throw new NullPointerException();
+        }
+        return computeInternal(key, new ElementRemapper() {
+            @Override
+            public Element remap(Object k, Element current) {
+                return current == null ? remapper.remap(k, null) : current;
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Element computeIfPresent(Object key, final ElementRemapper remapper) throws NullPointerException,
+            IllegalArgumentException, CacheException {
+        if (remapper == null) {
+            throw new NullPointerException();
+        }
+        return computeInternal(key, new ElementRemapper() {
+            @Override
+            public Element remap(Object k, Element current) {
+                return current == null ? null : remapper.remap(k, current);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Element merge(final Element element, final ElementMerger merger) throws NullPointerException,
+            IllegalArgumentException, CacheException {
+        if (merger == null) {
+            throw new NullPointerException();
+        }
+        return computeInternal(element.getObjectKey(), new ElementRemapper() {
+            @Override
+            public Element remap(Object k, Element current) {
+                return current == null ? element : merger.merge(current, element);
+            }
+        });
+    }
+
+    private Element computeInternal(final Object key, final ElementRemapper remapper) {
+        checkStatus();
+
+        checkCASOperationSupported();
+
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        if (configuration.getTransactionalMode().isTransactional()) {
+            throw new CacheException("Compute operations are not supported by transactional caches");
+        }
+
+        if (disabled) {
+            return null;
+        }
+
+        backOffIfDiskSpoolFull();
+        // the unexpired element given to the remapper and the element it computed
+        final Element[] outcome = new Element[2];
+        ElementRemapper computation = new ElementRemapper() {
+            @Override
+            public Element remap(Object k, Element current) {
+                Element live = current == null || isExpired(current) ? null : current;
+                Element computed = remapper.remap(k, live);
+                if (computed != null && computed != live) {
+                    if (!key.equals(computed.getObjectKey())) {
+                        throw new IllegalArgumentException("The key of the computed element must be equal to the key");
+                    }
+                    hotKeyTracker.record(key);
+                    missRatioCurve.recordPut(key);
+                    computed.resetAccessStatistics();
+                    applyDefaultsToElementWithoutLifespanSet(computed);
+                    computed.updateUpdateStatistics();
+                }
+                outcome[0] = live;
+                outcome[1] = computed;
+                return computed;
+            }
+        };
+
+        Element previous;
+        Sync sync = getLockForKey(key);
+        sync.lock(LockType.WRITE);
+        try {
+            if (compoundStore instanceof ComputingStore) {
+                previous = ((ComputingStore) compoundStore).compute(key, computation);
+            } else {
+                previous = AbstractStore.applyRemapper(compoundStore, key, computation);
+            }
+        } finally {
+            sync.unlock(LockType.WRITE);
+        }
+
+        Element live = outcome[0];
+        Element computed = outcome[1];
+        if (computed == null) {
+            if (previous != null) {
+                if (live == null) {
+                    notifyRemoveInternalListeners(key, true, true, false, previous);
+                } else {
+                    removeObserver.begin();
+                    notifyRemoveInternalListeners(key, false, true, false, previous);
+                    removeObserver.end(RemoveOutcome.SUCCESS);
+                }
+            }
+        } else if (computed != live) {
+            putObserver.begin();
+            notifyPutInternalListeners(computed, false, live != null);
+            putObserver.end(live == null ? PutOutcome.ADDED : PutOutcome.UPDATED);
+        }
+        return computed;
+    }
+
     private void checkCASOperationSupported() {
         checkCASOperationSupported(false);
     }
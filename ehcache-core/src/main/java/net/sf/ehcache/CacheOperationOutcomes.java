@@ -102,6 +102,18 @@ public interface CacheOperationOutcomes {
         EXCEPTION
     };
 
+    /**
+     * The outcomes for the search result cache.
+     */
+    enum SearchResultCacheOutcome {
+        /** results served from the result cache. */
+        HIT,
+        /** results computed by the search manager. */
+        MISS,
+        /** cached results discarded by a conflicting mutation. */
+        INVALIDATION
+    };
+
     /**
      * The eviction outcomes.
      */
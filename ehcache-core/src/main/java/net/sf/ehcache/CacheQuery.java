@@ -26,6 +26,7 @@ import net.sf.ehcache.search.Attribute;
 import net.sf.ehcache.search.Direction;
 import net.sf.ehcache.search.ExecutionHints;
 import net.sf.ehcache.search.Query;
+import net.sf.ehcache.search.QueryProfile;
 import net.sf.ehcache.search.Results;
 import net.sf.ehcache.search.SearchException;
 import net.sf.ehcache.search.aggregator.Aggregator;
@@ -190,6 +191,24 @@ class CacheQuery implements Query, StoreQuery {
         this.hints = params;
         return cache.executeQuery(snapshot());
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public QueryProfile explain() throws SearchException {
+        ExecutionHints params = new ExecutionHints().setProfiling(true);
+        if (hints != null) {
+            params.setResultBatchSize(hints.getResultBatchSize());
+        }
+        ExecutionHints previous = hints;
+        Results results = execute(params);
+        try {
+            return results.getProfile();
+        } finally {
+            hints = previous;
+            results.discard();
+        }
+    }
     
 
     /**
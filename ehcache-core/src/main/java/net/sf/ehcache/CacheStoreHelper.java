@@ -16,6 +16,7 @@
 
 package net.sf.ehcache;
 
+import net.sf.ehcache.pool.Pool;
 import net.sf.ehcache.store.Store;
 
 /**
@@ -46,4 +47,13 @@ public class CacheStoreHelper {
         return cache.getStore();
     }
 
+    /**
+     * Returns the pool the on-heap tier of the cache draws from
+     *
+     * @return the on-heap pool of the cache
+     */
+    public Pool getOnHeapPool() {
+        return cache.getOnHeapPool();
+    }
+
 }
@@ -35,6 +35,7 @@ import net.sf.ehcache.writer.CacheWriterManager;
 import java.beans.PropertyChangeListener;
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -151,6 +152,24 @@ public interface Ehcache extends Cloneable {
      */
     void putWithWriter(Element element) throws IllegalArgumentException, IllegalStateException, CacheException;
 
+    /**
+     * Puts a collection of elements in to the cache, writing them through a CacheWriter. If no CacheWriter has been
+     * registered for the cache, then this method throws an exception.
+     * <p/>
+     * The elements are handed to the CacheWriter first, in batches of {@code writeAll} calls for write-through caches, and
+     * only the elements the writer accepted are then put in the cache. If the writer fails, the elements it didn't write
+     * are left untouched in the cache and the writer's exception is rethrown.
+     * <p/>
+     * For each element that is put the registered {@code CacheEventListener}s are notified of a newly put item,
+     * regardless of whether the individual put is a new put or an update. Null elements and elements with null keys are
+     * ignored.
+     *
+     * @param elements the collection of elements to be put in the cache
+     * @throws IllegalStateException if the cache is not {@link Status#STATUS_ALIVE}
+     * @throws CacheException        if no CacheWriter was registered
+     */
+    void putAllWithWriter(Collection<Element> elements) throws IllegalArgumentException, IllegalStateException, CacheException;
+
     /**
      * Put an element in the cache if no element is currently mapped to the elements key.
      *
@@ -210,6 +229,65 @@ public interface Ehcache extends Cloneable {
      */
     Element replace(Element element) throws NullPointerException;
 
+    /**
+     * Computes the element mapped to a key from the element currently mapped to it, atomically.
+     * <p/>
+     * The remapper is called once, while the write lock of the key is held. Heap and disk stores compute under the lock
+     * they take to write the key, so that no other write to it can interleave; other stores compute under the lock
+     * {@link #acquireWriteLockOnKey(Object)} takes. Expired elements are given to the remapper as null.
+     * <p/>
+     * The element the remapper returns is put as {@link #put(Element)} would, with the same statistics and event
+     * notifications, and without calling the CacheWriter. Returning null removes the key as {@link #remove(Object)}
+     * would, and returning the current element leaves the cache untouched.
+     *
+     * @param key the key
+     * @param remapper computes the new element of the key
+     * @return the element now mapped to the key, or null if none
+     * @throws NullPointerException if the key or the remapper is null
+     * @throws IllegalArgumentException if the remapper returns an element with another key
+     * @throws CacheException if the cache is transactional, or replicated as CAS operations cannot be
+     */
+    Element compute(Object key, ElementRemapper remapper) throws NullPointerException, IllegalArgumentException, CacheException;
+
+    /**
+     * Computes the element mapped to a key if none is, as {@link #compute(Object, ElementRemapper)} does.
+     * The remapper is only called, with null, when no element is mapped to the key.
+     *
+     * @param key the key
+     * @param remapper computes the element of the key
+     * @return the element now mapped to the key, either the current or the computed one, or null if none
+     * @throws NullPointerException if the key or the remapper is null
+     * @throws IllegalArgumentException if the remapper returns an element with another key
+     * @throws CacheException if the cache is transactional, or replicated as CAS operations cannot be
+     */
+    Element computeIfAbsent(Object key, ElementRemapper remapper) throws NullPointerException, IllegalArgumentException, CacheException;
+
+    /**
+     * Computes the element mapped to a key if one is, as {@link #compute(Object, ElementRemapper)} does.
+     * The remapper is only called when an element is mapped to the key.
+     *
+     * @param key the key
+     * @param remapper computes the new element of the key
+     * @return the element now mapped to the key, or null if none
+     * @throws NullPointerException if the key or the remapper is null
+     * @throws IllegalArgumentException if the remapper returns an element with another key
+     * @throws CacheException if the cache is transactional, or replicated as CAS operations cannot be
+     */
+    Element computeIfPresent(Object key, ElementRemapper remapper) throws NullPointerException, IllegalArgumentException, CacheException;
+
+    /**
+     * Merges an element into the element mapped to its key, as {@link #compute(Object, ElementRemapper)} does.
+     * The element is put if no element is mapped to its key, otherwise the merger is called to combine them.
+     *
+     * @param element the element to merge
+     * @param merger combines the current element and the given one
+     * @return the element now mapped to the key, or null if none
+     * @throws NullPointerException if the element, its key or the merger is null
+     * @throws IllegalArgumentException if the merger returns an element with another key
+     * @throws CacheException if the cache is transactional, or replicated as CAS operations cannot be
+     */
+    Element merge(Element element, ElementMerger merger) throws NullPointerException, IllegalArgumentException, CacheException;
+
     /**
      * Gets an element from the cache. Updates Element Statistics
      * <p/>
@@ -333,6 +411,35 @@ public interface Ehcache extends Cloneable {
     @Deprecated
     List getKeysNoDuplicateCheck() throws IllegalStateException;
 
+    /**
+     * Returns a weakly consistent iterator over the elements of the cache.
+     * <p/>
+     * Heap and disk stores are walked segment by segment, in place, without copying their keys. The iterator reflects the state of the cache at
+     * some point at or since its creation and never throws {@link java.util.ConcurrentModificationException}.
+     * Elements are returned as {@link #getQuiet(Object)} would: neither their statistics nor the eviction state of the
+     * stores are updated. Stores that cannot be walked in place, such as transactional, clustered or other authoritative
+     * tiers, are not streamed: their whole key list is copied up front, as {@link #getKeys()} does, and each element is then
+     * read through {@link #getQuiet(Object)}.
+     * <p/>
+     * The iterator does not support removal.
+     *
+     * @param skipExpired whether to skip expired elements
+     * @return an iterator over the elements of the cache
+     * @throws IllegalStateException if the cache is not {@link Status#STATUS_ALIVE}
+     */
+    Iterator<Element> entryIterator(boolean skipExpired) throws IllegalStateException;
+
+    /**
+     * Returns a weakly consistent iterator over the elements of the cache, as {@link #entryIterator(boolean)} does,
+     * that can be split for the elements to be traversed by several threads in parallel.
+     * Splits hand over whole segments of the stores.
+     *
+     * @param skipExpired whether to skip expired elements
+     * @return a splittable iterator over the elements of the cache
+     * @throws IllegalStateException if the cache is not {@link Status#STATUS_ALIVE}
+     */
+    SplittableIterator<Element> splittableEntryIterator(boolean skipExpired) throws IllegalStateException;
+
     /**
      * Removes an {@link Element} from the Cache. This also removes it from any
      * stores it may be in.
@@ -453,6 +560,23 @@ public interface Ehcache extends Cloneable {
      */
     boolean removeWithWriter(Object key) throws IllegalStateException, CacheException;
 
+    /**
+     * Removes the given keys from the Cache, removing them through a CacheWriter as well. If no CacheWriter has been
+     * registered for the cache, then this method throws an exception.
+     * <p/>
+     * The entries are handed to the CacheWriter first, in batches of {@code deleteAll} calls for write-through caches, and
+     * only the keys the writer deleted are then removed from the cache. If the writer fails, the keys it didn't delete are
+     * left untouched in the cache and the writer's exception is rethrown.
+     * <p/>
+     * Also notifies the CacheEventListener for every removed key, irrespective of whether the key was present in the cache.
+     * Null keys are ignored.
+     *
+     * @param keys a collection of keys to operate on
+     * @throws IllegalStateException if the cache is not {@link Status#STATUS_ALIVE}
+     * @throws CacheException        if no CacheWriter was registered
+     */
+    void removeAllWithWriter(Collection<?> keys) throws IllegalStateException, CacheException;
+
     /**
      * Removes all cached items.
      * <p />
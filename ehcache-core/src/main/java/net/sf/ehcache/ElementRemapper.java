@@ -0,0 +1,36 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache;
+
+/**
+ * Computes the element to map to a key from the element currently mapped to it.
+ * Used by the compute operations of {@link Ehcache}, which call it once, while holding the lock of the key.
+ *
+ * @author Terracotta
+ */
+public interface ElementRemapper {
+
+    /**
+     * Computes the element to map to a key.
+     * Returning the current element leaves the mapping untouched and returning null removes it.
+     *
+     * @param key the key
+     * @param current the element currently mapped to the key, or null
+     * @return the element to map to the key, whose key must be equal to the key, or null
+     */
+    Element remap(Object key, Element current);
+}
@@ -0,0 +1,258 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coordinates the loads of missing keys across concurrent callers.
+ * <p>
+ * A key that is already being loaded, with an equal loader argument, is not loaded again: the caller waits for the load in
+ * flight. Keys requested by different callers within a short window are gathered into a single batch per loader argument,
+ * loaded with one call to the batch loader on the executor. The loaded values are handed directly to the waiting callers.
+ *
+ * @author Terracotta
+ */
+final class LoadCoordinator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LoadCoordinator.class);
+
+    private static final Object NO_ARGUMENT = new Object();
+
+    private final BatchLoader loader;
+    private final Executor executor;
+    private final long windowNanos;
+
+    private final ConcurrentMap<LoadKey, PendingLoad> inFlight = new ConcurrentHashMap<LoadKey, PendingLoad>();
+    private final Map<Object, Batch> openBatches = new HashMap<Object, Batch>();
+
+    /**
+     * Create a coordinator.
+     *
+     * @param loader the batch loader, responsible for storing the loaded values
+     * @param executor the executor running the batch loads
+     * @param windowMillis how long a batch stays open for more keys
+     */
+    LoadCoordinator(BatchLoader loader, Executor executor, long windowMillis) {
+        this.loader = loader;
+        this.executor = executor;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    }
+
+    /**
+     * Load the given keys, joining the loads already in flight.
+     *
+     * @param keys the keys to load
+     * @param argument the loader argument, may be null
+     * @return the pending load of every key, in the iteration order of the keys
+     */
+    Map<Object, PendingLoad> load(Collection<?> keys, Object argument) {
+        final Map<Object, PendingLoad> loads = new LinkedHashMap<Object, PendingLoad>(keys.size());
+        List<PendingLoad> created = null;
+        for (Object key : keys) {
+            if (loads.containsKey(key)) {
+                continue;
+            }
+            LoadKey loadKey = new LoadKey(key, argument);
+            PendingLoad load = inFlight.get(loadKey);
+            if (load == null) {
+                PendingLoad newLoad = new PendingLoad(loadKey);
+                load = inFlight.putIfAbsent(loadKey, newLoad);
+                if (load == null) {
+                    load = newLoad;
+                    if (created == null) {
+                        created = new ArrayList<PendingLoad>();
+                    }
+                    created.add(newLoad);
+                }
+            }
+            loads.put(key, load);
+        }
+        if (created != null) {
+            enqueue(argument, created);
+        }
+        return loads;
+    }
+
+    private void enqueue(Object argument, List<PendingLoad> loads) {
+        final Object batchKey = argument == null ? NO_ARGUMENT : argument;
+        final Batch batch;
+        synchronized (openBatches) {
+            Batch open = openBatches.get(batchKey);
+            if (open != null) {
+                open.loads.addAll(loads);
+                return;
+            }
+            batch = new Batch(batchKey, argument);
+            batch.loads.addAll(loads);
+            openBatches.put(batchKey, batch);
+        }
+        try {
+            executor.execute(batch);
+        } catch (RuntimeException e) {
+            synchronized (openBatches) {
+                openBatches.remove(batchKey);
+            }
+            batch.complete(new HashMap<Object, Object>());
+            throw e;
+        }
+    }
+
+    /**
+     * Loads a batch of keys and stores the loaded values
+     */
+    interface BatchLoader {
+
+        /**
+         * Load the given keys and store the values found.
+         *
+         * @param keys the keys to load
+         * @param argument the loader argument, may be null
+         * @return the loaded values, keys not found may be missing
+         */
+        Map<?, ?> loadAll(Set<Object> keys, Object argument);
+    }
+
+    /**
+     * The load of a single key, completed once the batch it belongs to was loaded
+     */
+    static final class PendingLoad {
+
+        private final LoadKey key;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Object value;
+
+        private PendingLoad(LoadKey key) {
+            this.key = key;
+        }
+
+        /**
+         * Wait for the load to complete.
+         *
+         * @param timeoutMillis the longest time to wait, 0 to wait forever
+         * @return the loaded value, null if the key wasn't found or the load failed
+         * @throws InterruptedException if interrupted while waiting
+         * @throws LoaderTimeoutException if the load didn't complete in time
+         */
+        Object get(long timeoutMillis) throws InterruptedException {
+            if (timeoutMillis > 0) {
+                if (!done.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                    throw new LoaderTimeoutException("Timeout on load for key " + key.key);
+                }
+            } else {
+                done.await();
+            }
+            return value;
+        }
+
+        private void complete(Object loaded) {
+            value = loaded;
+            done.countDown();
+        }
+    }
+
+    /**
+     * Keys requested within the window for one loader argument
+     */
+    private final class Batch implements Runnable {
+
+        private final Object batchKey;
+        private final Object argument;
+        private final long openedAt = System.nanoTime();
+        private final List<PendingLoad> loads = new ArrayList<PendingLoad>();
+
+        Batch(Object batchKey, Object argument) {
+            this.batchKey = batchKey;
+            this.argument = argument;
+        }
+
+        @Override
+        public void run() {
+            long remaining;
+            while ((remaining = openedAt + windowNanos - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, remaining);
+            }
+            synchronized (openBatches) {
+                openBatches.remove(batchKey);
+            }
+
+            Set<Object> keys = new LinkedHashSet<Object>(loads.size());
+            for (PendingLoad load : loads) {
+                keys.add(load.key.key);
+            }
+            Map<?, ?> loaded = null;
+            try {
+                loaded = loader.loadAll(keys, argument);
+            } catch (Throwable e) {
+                LOG.error("Problem during load. Load will not be completed. Cause was " + e.getCause(), e);
+            } finally {
+                complete(loaded == null ? new HashMap<Object, Object>() : loaded);
+            }
+        }
+
+        private void complete(Map<?, ?> loaded) {
+            for (PendingLoad load : loads) {
+                load.complete(loaded.get(load.key.key));
+                inFlight.remove(load.key, load);
+            }
+        }
+    }
+
+    /**
+     * A key with the loader argument it's loaded with
+     */
+    private static final class LoadKey {
+
+        private final Object key;
+        private final Object argument;
+
+        LoadKey(Object key, Object argument) {
+            this.key = key;
+            this.argument = argument;
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() * 31 + (argument == null ? 0 : argument.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof LoadKey)) {
+                return false;
+            }
+            LoadKey other = (LoadKey) obj;
+            return key.equals(other.key) && (argument == null ? other.argument == null : argument.equals(other.argument));
+        }
+    }
+}
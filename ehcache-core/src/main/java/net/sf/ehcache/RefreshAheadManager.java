@@ -0,0 +1,337 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.ehcache.config.RefreshAheadConfiguration;
+import net.sf.ehcache.util.NamedThreadFactory;
+import net.sf.ehcache.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terracotta.statistics.Statistic;
+
+/**
+ * Refreshes the entries of a cache ahead of their expiry, through the registered cache loaders.
+ * <p>
+ * Every hit decides whether to refresh the entry with probabilistic early expiration (XFetch): the entry is refreshed
+ * once <code>now + meanLoadTime * beta * -ln(random)</code> reaches its expiration time. Entries created together thus
+ * become eligible at different times, and entries that are slow to load are refreshed earlier. The mean load time is a
+ * moving average over the loads of the whole cache, single or bulk, as measured on misses, bulk loads and refreshes.
+ * Until a load was timed, it is taken to be a configured fraction of the time to live of the entry hit.
+ * <p>
+ * Pending refreshes are performed in decreasing order of the hit count of their entry; once the backlog is full, the refresh
+ * of the least frequently accessed entry is dropped. A key is marked while queued or being refreshed, and isn't queued again
+ * in the meantime. A refresh only replaces the entry it was triggered by, so that a value put in the meantime is kept.
+ * <p>
+ * A refresh is wasted when it fails, loads nothing, loses the race against an update, or when the refreshed entry expires or
+ * leaves the cache before being read.
+ *
+ * @author Terracotta
+ */
+public final class RefreshAheadManager {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RefreshAheadManager.class);
+
+    private static final double LOAD_TIME_SMOOTHING = 0.2;
+    private static final long SWEEP_INTERVAL_MILLIS = 1000;
+
+    private final Cache cache;
+    private final double beta;
+    private final double initialLoadTimeFraction;
+    private final int maximumBacklogItems;
+    private final Thread[] workers;
+
+    private final ConcurrentSkipListSet<Refresh> backlog = new ConcurrentSkipListSet<Refresh>();
+    private final AtomicInteger backlogSize = new AtomicInteger();
+    private final Semaphore queued = new Semaphore(0);
+    private final ConcurrentMap<Object, Refresh> pending = new ConcurrentHashMap<Object, Refresh>();
+    private final ConcurrentMap<Object, Long> unread = new ConcurrentHashMap<Object, Long>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong lastSweep = new AtomicLong();
+
+    private final AtomicLong refreshedCount = new AtomicLong();
+    private final AtomicLong wastedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private volatile long lagMillis;
+    private volatile double meanLoadMillis;
+    private volatile boolean running = true;
+
+    /**
+     * Create a manager and start its refresh threads.
+     *
+     * @param cache the cache to refresh
+     * @param configuration the refresh ahead configuration
+     */
+    RefreshAheadManager(Cache cache, RefreshAheadConfiguration configuration) {
+        this.cache = cache;
+        this.beta = configuration.getBeta();
+        this.initialLoadTimeFraction = configuration.getInitialLoadTimeFraction();
+        this.maximumBacklogItems = configuration.getMaximumBacklogItems();
+        this.workers = new Thread[configuration.getNumberOfThreads()];
+        ThreadFactory threadFactory = new NamedThreadFactory(cache.getName() + " refresh-ahead thread", true);
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = threadFactory.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    processRefreshes();
+                }
+            });
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Record a hit on an element, possibly triggering its refresh.
+     *
+     * @param element the element hit, its access statistics already updated
+     */
+    void accessed(Element element) {
+        if (!unread.isEmpty()) {
+            unread.remove(element.getObjectKey());
+        }
+        long expirationTime = element.getExpirationTime();
+        if (expirationTime == Long.MAX_VALUE || beta == 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        double loadMillis = meanLoadMillis;
+        if (loadMillis == 0) {
+            loadMillis = initialLoadTimeFraction * (expirationTime - element.getLatestOfCreationAndUpdateTime());
+        }
+        double margin = loadMillis * beta * -Math.log(ThreadLocalRandom.current().nextDouble());
+        if (now + margin >= expirationTime) {
+            offer(element);
+        }
+    }
+
+    /**
+     * Record the time taken to load a value.
+     *
+     * @param nanos the load time in nanoseconds
+     */
+    void loaded(long nanos) {
+        double millis = nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        double mean = meanLoadMillis;
+        meanLoadMillis = mean == 0 ? millis : mean + LOAD_TIME_SMOOTHING * (millis - mean);
+    }
+
+    /**
+     * Stop the refresh threads, dropping the pending refreshes.
+     */
+    void dispose() {
+        running = false;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        backlog.clear();
+        pending.clear();
+        unread.clear();
+    }
+
+    private void offer(Element element) {
+        Object key = element.getObjectKey();
+        Refresh refresh = new Refresh(element, sequence.incrementAndGet());
+        if (pending.putIfAbsent(key, refresh) != null) {
+            return;
+        }
+        backlog.add(refresh);
+        if (backlogSize.incrementAndGet() > maximumBacklogItems) {
+            Refresh dropped = backlog.pollLast();
+            if (dropped != null) {
+                backlogSize.decrementAndGet();
+                pending.remove(dropped.key, dropped);
+                droppedCount.incrementAndGet();
+            }
+        }
+        queued.release();
+    }
+
+    private void processRefreshes() {
+        while (running) {
+            try {
+                if (!queued.tryAcquire(SWEEP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    sweepUnread();
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                continue;
+            }
+            Refresh refresh = backlog.pollFirst();
+            if (refresh == null) {
+                continue;
+            }
+            backlogSize.decrementAndGet();
+            try {
+                refresh(refresh);
+            } catch (Throwable t) {
+                wastedCount.incrementAndGet();
+                if (running) {
+                    LOG.warn("Could not refresh element " + refresh.key + " of cache " + cache.getName(), t);
+                }
+            } finally {
+                pending.remove(refresh.key, refresh);
+            }
+            sweepUnread();
+        }
+    }
+
+    private void refresh(Refresh refresh) {
+        long start = System.nanoTime();
+        Object value = cache.loadWithRegisteredLoaders(null, refresh.key);
+        loaded(System.nanoTime() - start);
+        if (value == null) {
+            wastedCount.incrementAndGet();
+            return;
+        }
+
+        Element fresh = new Element(refresh.key, value);
+        boolean replaced;
+        if (cache.getCacheEventNotificationService().hasCacheReplicators()) {
+            // replication can't guarantee CAS operations
+            cache.put(fresh);
+            replaced = true;
+        } else {
+            replaced = cache.replace(refresh.element, fresh);
+        }
+        if (replaced) {
+            refreshedCount.incrementAndGet();
+            lagMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - refresh.queuedAt);
+            if (unread.put(refresh.key, fresh.getExpirationTime()) != null) {
+                wastedCount.incrementAndGet();
+            }
+        } else {
+            wastedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Count the refreshed entries that expired or left the cache before being read
+     */
+    private void sweepUnread() {
+        long now = System.currentTimeMillis();
+        long last = lastSweep.get();
+        if (now - last < SWEEP_INTERVAL_MILLIS || unread.isEmpty() || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        for (Iterator<Map.Entry<Object, Long>> it = unread.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Object, Long> entry = it.next();
+            if (entry.getValue() <= now || !cache.isKeyInCache(entry.getKey())) {
+                if (unread.remove(entry.getKey(), entry.getValue())) {
+                    wastedCount.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the number of entries refreshed ahead of their expiry.
+     *
+     * @return the refresh count
+     */
+    @Statistic(name = "refreshed", tags = "refresh-ahead")
+    public long getRefreshedCount() {
+        return refreshedCount.get();
+    }
+
+    /**
+     * Gets the number of refreshes that failed, lost the race against an update, or whose entry wasn't read again.
+     *
+     * @return the wasted refresh count
+     */
+    @Statistic(name = "wasted", tags = "refresh-ahead")
+    public long getWastedCount() {
+        return wastedCount.get();
+    }
+
+    /**
+     * Gets the time the latest refresh took from being triggered to completing.
+     *
+     * @return the refresh lag in milliseconds
+     */
+    @Statistic(name = "refresh-lag", tags = "refresh-ahead")
+    public long getRefreshLagMillis() {
+        return lagMillis;
+    }
+
+    /**
+     * Gets the number of refreshes dropped because the backlog was full.
+     *
+     * @return the dropped refresh count
+     */
+    @Statistic(name = "dropped", tags = "refresh-ahead")
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Gets the number of refreshes waiting for a thread.
+     *
+     * @return the backlog
+     */
+    @Statistic(name = "backlog", tags = "refresh-ahead")
+    public long getBacklogCount() {
+        return Math.max(0, backlogSize.get());
+    }
+
+    /**
+     * A pending refresh, ordered by decreasing hit count then by arrival
+     */
+    private static final class Refresh implements Comparable<Refresh> {
+
+        private final Object key;
+        private final Element element;
+        private final long hits;
+        private final long sequence;
+        private final long queuedAt = System.nanoTime();
+
+        Refresh(Element element, long sequence) {
+            this.key = element.getObjectKey();
+            this.element = element;
+            this.hits = element.getHitCount();
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Refresh other) {
+            if (hits != other.hits) {
+                return hits > other.hits ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Refresh && ((Refresh) obj).sequence == sequence;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (sequence ^ (sequence >>> 32));
+        }
+    }
+}
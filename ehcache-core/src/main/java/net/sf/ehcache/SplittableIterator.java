@@ -0,0 +1,37 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache;
+
+import java.util.Iterator;
+
+/**
+ * An iterator that can hand part of its remaining elements to another iterator, so that they can be traversed by
+ * several threads in parallel.
+ *
+ * @param <E> the type of the elements
+ * @author Terracotta
+ */
+public interface SplittableIterator<E> extends Iterator<E> {
+
+    /**
+     * Splits off part of the elements this iterator has not returned yet.
+     * The elements of the returned iterator are no longer returned by this one.
+     *
+     * @return an iterator over part of the remaining elements, or null if they cannot be split
+     */
+    SplittableIterator<E> trySplit();
+}
@@ -24,6 +24,7 @@ import net.sf.ehcache.Element;
 import net.sf.ehcache.config.PersistenceConfiguration.Strategy;
 import net.sf.ehcache.config.PinningConfiguration.Store;
 import net.sf.ehcache.config.TerracottaConfiguration.Consistency;
+import net.sf.ehcache.event.EventOverflowPolicy;
 import net.sf.ehcache.event.NotificationScope;
 import net.sf.ehcache.search.attribute.DynamicAttributesExtractor;
 import net.sf.ehcache.store.MemoryStoreEvictionPolicy;
@@ -356,6 +357,11 @@ public class CacheConfiguration implements Cloneable {
      */
     protected volatile PinningConfiguration pinningConfiguration;
 
+    /**
+     * The RefreshAheadConfiguration.
+     */
+    protected volatile RefreshAheadConfiguration refreshAheadConfiguration;
+
     /**
      * The CacheWriterConfiguration.
      */
@@ -471,6 +477,10 @@ public class CacheConfiguration implements Cloneable {
             config.cacheWriterConfiguration = cacheWriterConfiguration.clone();
         }
 
+        if (refreshAheadConfiguration != null) {
+            config.refreshAheadConfiguration = refreshAheadConfiguration.clone();
+        }
+
         cloneCacheLoaderConfigurations(config);
 
         cloneCacheDecoratorConfigurations(config);
@@ -2090,7 +2100,33 @@ public class CacheConfiguration implements Cloneable {
      * Configuration for the CacheEventListenerFactory.
      */
     public static final class CacheEventListenerFactoryConfiguration extends FactoryConfiguration<CacheEventListenerFactoryConfiguration> {
+
+        /**
+         * Default number of dispatch threads of an asynchronously notified listener
+         */
+        public static final int DEFAULT_DISPATCH_THREADS = 1;
+
+        /**
+         * Default maximum number of events pending for an asynchronously notified listener
+         */
+        public static final int DEFAULT_DISPATCH_QUEUE_SIZE = 1000;
+
+        /**
+         * Default maximum number of events a dispatch thread takes from its queue at once
+         */
+        public static final int DEFAULT_DISPATCH_BATCH_SIZE = 100;
+
+        /**
+         * Default policy applied to events raised while the queue of an asynchronously notified listener is full
+         */
+        public static final EventOverflowPolicy DEFAULT_DISPATCH_OVERFLOW_POLICY = EventOverflowPolicy.BLOCK;
+
         private NotificationScope notificationScope = NotificationScope.ALL;
+        private boolean asynchronous;
+        private int dispatchThreads = DEFAULT_DISPATCH_THREADS;
+        private int dispatchQueueSize = DEFAULT_DISPATCH_QUEUE_SIZE;
+        private int dispatchBatchSize = DEFAULT_DISPATCH_BATCH_SIZE;
+        private EventOverflowPolicy dispatchOverflowPolicy = DEFAULT_DISPATCH_OVERFLOW_POLICY;
 
         /**
          * Used by BeanHandler to set the mode during parsing. Convert listenFor string to uppercase and
@@ -2118,6 +2154,148 @@ public class CacheConfiguration implements Cloneable {
         public NotificationScope getListenFor() {
             return this.notificationScope;
         }
+
+        /**
+         * Sets whether the listener is notified on dispatch threads of its own rather than on the threads raising the events.
+         * Events on a given key are still delivered in the order they were raised in.
+         *
+         * @param asynchronous true to notify the listener asynchronously
+         */
+        public void setAsynchronous(boolean asynchronous) {
+            this.asynchronous = asynchronous;
+        }
+
+        /**
+         * @return this factory configuration instance
+         * @see #setAsynchronous(boolean)
+         */
+        public final CacheEventListenerFactoryConfiguration asynchronous(boolean asynchronous) {
+            setAsynchronous(asynchronous);
+            return this;
+        }
+
+        /**
+         * Whether the listener is notified asynchronously.
+         */
+        public boolean isAsynchronous() {
+            return asynchronous;
+        }
+
+        /**
+         * Sets the number of threads notifying an asynchronous listener. Events are split between the threads by key hash.
+         *
+         * @param dispatchThreads the number of threads, must be positive
+         */
+        public void setDispatchThreads(int dispatchThreads) {
+            if (dispatchThreads < 1) {
+                throw new IllegalArgumentException("Dispatch threads must be a positive number");
+            }
+            this.dispatchThreads = dispatchThreads;
+        }
+
+        /**
+         * @return this factory configuration instance
+         * @see #setDispatchThreads(int)
+         */
+        public final CacheEventListenerFactoryConfiguration dispatchThreads(int dispatchThreads) {
+            setDispatchThreads(dispatchThreads);
+            return this;
+        }
+
+        /**
+         * Gets the number of threads notifying an asynchronous listener.
+         */
+        public int getDispatchThreads() {
+            return dispatchThreads;
+        }
+
+        /**
+         * Sets the maximum number of events pending for an asynchronous listener, shared out between its threads.
+         *
+         * @param dispatchQueueSize the maximum number of pending events, must be positive
+         */
+        public void setDispatchQueueSize(int dispatchQueueSize) {
+            if (dispatchQueueSize < 1) {
+                throw new IllegalArgumentException("Dispatch queue size must be a positive number");
+            }
+            this.dispatchQueueSize = dispatchQueueSize;
+        }
+
+        /**
+         * @return this factory configuration instance
+         * @see #setDispatchQueueSize(int)
+         */
+        public final CacheEventListenerFactoryConfiguration dispatchQueueSize(int dispatchQueueSize) {
+            setDispatchQueueSize(dispatchQueueSize);
+            return this;
+        }
+
+        /**
+         * Gets the maximum number of events pending for an asynchronous listener.
+         */
+        public int getDispatchQueueSize() {
+            return dispatchQueueSize;
+        }
+
+        /**
+         * Sets the maximum number of events a dispatch thread takes from its queue at once.
+         *
+         * @param dispatchBatchSize the batch size, must be positive
+         */
+        public void setDispatchBatchSize(int dispatchBatchSize) {
+            if (dispatchBatchSize < 1) {
+                throw new IllegalArgumentException("Dispatch batch size must be a positive number");
+            }
+            this.dispatchBatchSize = dispatchBatchSize;
+        }
+
+        /**
+         * @return this factory configuration instance
+         * @see #setDispatchBatchSize(int)
+         */
+        public final CacheEventListenerFactoryConfiguration dispatchBatchSize(int dispatchBatchSize) {
+            setDispatchBatchSize(dispatchBatchSize);
+            return this;
+        }
+
+        /**
+         * Gets the maximum number of events a dispatch thread takes from its queue at once.
+         */
+        public int getDispatchBatchSize() {
+            return dispatchBatchSize;
+        }
+
+        /**
+         * Used by BeanHandler to set the overflow policy during parsing. Convert the policy string to uppercase and
+         * look up enum constant in EventOverflowPolicy.
+         *
+         * @param dispatchOverflowPolicy one of block, drop_oldest or coalesce
+         */
+        public void setDispatchOverflowPolicy(String dispatchOverflowPolicy) {
+            if (dispatchOverflowPolicy == null) {
+                throw new IllegalArgumentException("dispatchOverflowPolicy must be non-null");
+            }
+            this.dispatchOverflowPolicy = EventOverflowPolicy.valueOf(dispatchOverflowPolicy.toUpperCase());
+        }
+
+        /**
+         * @return this factory configuration instance
+         * @see #setDispatchOverflowPolicy(String)
+         */
+        public final CacheEventListenerFactoryConfiguration dispatchOverflowPolicy(EventOverflowPolicy dispatchOverflowPolicy) {
+            if (dispatchOverflowPolicy == null) {
+                throw new IllegalArgumentException("dispatchOverflowPolicy must be non-null");
+            }
+            this.dispatchOverflowPolicy = dispatchOverflowPolicy;
+            return this;
+        }
+
+        /**
+         * Gets what happens to events raised while the queue of an asynchronous listener is full.
+         */
+        public EventOverflowPolicy getDispatchOverflowPolicy() {
+            return dispatchOverflowPolicy;
+        }
     }
 
     /**
@@ -2282,6 +2460,22 @@ public class CacheConfiguration implements Cloneable {
         return this;
     }
 
+    /**
+     * Allows BeanHandler to add the RefreshAheadConfiguration to the configuration.
+     */
+    public final void addRefreshAhead(RefreshAheadConfiguration refreshAheadConfiguration) {
+        this.refreshAheadConfiguration = refreshAheadConfiguration;
+    }
+
+    /**
+     * @return this configuration instance
+     * @see #addRefreshAhead(RefreshAheadConfiguration)
+     */
+    public final CacheConfiguration refreshAhead(RefreshAheadConfiguration refreshAheadConfiguration) {
+        addRefreshAhead(refreshAheadConfiguration);
+        return this;
+    }
+
     /**
      * @return this configuration instance
      * @see #addTerracotta(TerracottaConfiguration)
@@ -2735,6 +2929,15 @@ public class CacheConfiguration implements Cloneable {
         return pinningConfiguration;
     }
 
+    /**
+     * Accessor
+     *
+     * @return the refresh ahead configuration, null if entries are not refreshed ahead of their expiry
+     */
+    public RefreshAheadConfiguration getRefreshAheadConfiguration() {
+        return refreshAheadConfiguration;
+    }
+
     /**
      * Accessor
      *
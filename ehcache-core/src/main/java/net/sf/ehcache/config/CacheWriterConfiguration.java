@@ -82,6 +82,36 @@ public class CacheWriterConfiguration implements Cloneable {
      */
     public static final int DEFAULT_WRITE_BEHIND_MAX_QUEUE_SIZE = 0;
 
+    /**
+     * Default write behind journaling behavior
+     */
+    public static final boolean DEFAULT_WRITE_BEHIND_JOURNAL = false;
+
+    /**
+     * Default adaptive write batching behavior
+     */
+    public static final boolean DEFAULT_ADAPTIVE_WRITE_BATCHING = false;
+
+    /**
+     * Default target write lag in milliseconds for adaptive write batching
+     */
+    public static final long DEFAULT_TARGET_WRITE_LAG_MILLIS = 5000;
+
+    /**
+     * Default number of writer threads per write behind queue
+     */
+    public static final int DEFAULT_WRITE_BEHIND_WRITER_THREADS = 1;
+
+    /**
+     * Default number of elements per writer call for bulk write-through operations
+     */
+    public static final int DEFAULT_WRITE_THROUGH_BATCH_SIZE = 1000;
+
+    /**
+     * Default number of batches written concurrently by bulk write-through operations
+     */
+    public static final int DEFAULT_WRITE_THROUGH_CONCURRENCY = 1;
+
     /**
      * Represents how elements are written to the {@link net.sf.ehcache.writer.CacheWriter}
      */
@@ -133,6 +163,12 @@ public class CacheWriterConfiguration implements Cloneable {
     private int retryAttemptDelaySeconds = DEFAULT_RETRY_ATTEMPT_DELAY_SECONDS;
     private int writeBehindConcurrency = DEFAULT_WRITE_BEHIND_CONCURRENCY;
     private int writeBehindMaxQueueSize = DEFAULT_WRITE_BEHIND_MAX_QUEUE_SIZE;
+    private boolean writeBehindJournal = DEFAULT_WRITE_BEHIND_JOURNAL;
+    private boolean adaptiveWriteBatching = DEFAULT_ADAPTIVE_WRITE_BATCHING;
+    private long targetWriteLagMillis = DEFAULT_TARGET_WRITE_LAG_MILLIS;
+    private int writeBehindWriterThreads = DEFAULT_WRITE_BEHIND_WRITER_THREADS;
+    private int writeThroughBatchSize = DEFAULT_WRITE_THROUGH_BATCH_SIZE;
+    private int writeThroughConcurrency = DEFAULT_WRITE_THROUGH_CONCURRENCY;
     private CacheWriterFactoryConfiguration cacheWriterFactoryConfiguration;
 
     /**
@@ -223,6 +259,75 @@ public class CacheWriterConfiguration implements Cloneable {
         return this.notifyListenersOnException;
     }
 
+    /**
+     * Sets the number of elements handed to each {@code writeAll} or {@code deleteAll} call of the
+     * {@link net.sf.ehcache.writer.CacheWriter} by the bulk write-through operations, such as
+     * {@link net.sf.ehcache.Ehcache#putAllWithWriter(java.util.Collection)}.
+     * <p/>
+     * This is only applicable to write through mode.
+     * <p/>
+     * Defaults to {@value #DEFAULT_WRITE_THROUGH_BATCH_SIZE}.
+     *
+     * @param writeThroughBatchSize the number of elements per writer call, at least 1
+     */
+    public void setWriteThroughBatchSize(int writeThroughBatchSize) {
+        if (writeThroughBatchSize < 1) {
+            throw new IllegalArgumentException("Write through batch size must be at least 1");
+        }
+        this.writeThroughBatchSize = writeThroughBatchSize;
+    }
+
+    /**
+     * @return this configuration instance
+     * @see #setWriteThroughBatchSize(int)
+     */
+    public CacheWriterConfiguration writeThroughBatchSize(int writeThroughBatchSize) {
+        setWriteThroughBatchSize(writeThroughBatchSize);
+        return this;
+    }
+
+    /**
+     * Get the number of elements per writer call of bulk write-through operations
+     */
+    public int getWriteThroughBatchSize() {
+        return writeThroughBatchSize;
+    }
+
+    /**
+     * Sets the number of batches bulk write-through operations write concurrently. With a value greater than 1, the batches
+     * of a single bulk operation are handed to the {@link net.sf.ehcache.writer.CacheWriter} from as many threads, so the
+     * writer has to be thread safe.
+     * <p/>
+     * This is only applicable to write through mode.
+     * <p/>
+     * Defaults to {@value #DEFAULT_WRITE_THROUGH_CONCURRENCY}.
+     *
+     * @param writeThroughConcurrency the number of concurrent batches, has to be at least 1
+     */
+    public void setWriteThroughConcurrency(int writeThroughConcurrency) {
+        if (writeThroughConcurrency < 1) {
+            this.writeThroughConcurrency = DEFAULT_WRITE_THROUGH_CONCURRENCY;
+        } else {
+            this.writeThroughConcurrency = writeThroughConcurrency;
+        }
+    }
+
+    /**
+     * @return this configuration instance
+     * @see #setWriteThroughConcurrency(int)
+     */
+    public CacheWriterConfiguration writeThroughConcurrency(int writeThroughConcurrency) {
+        setWriteThroughConcurrency(writeThroughConcurrency);
+        return this;
+    }
+
+    /**
+     * Get the number of batches bulk write-through operations write concurrently
+     */
+    public int getWriteThroughConcurrency() {
+        return writeThroughConcurrency;
+    }
+
     /**
      * Set the minimum number of seconds to wait before writing behind. If set to a value greater than 0, it permits
      * operations to build up in the queue. This is different from the maximum write delay in that by waiting a minimum
@@ -359,6 +464,103 @@ public class CacheWriterConfiguration implements Cloneable {
         return writeCoalescing;
     }
 
+    /**
+     * Sets whether to journal the write-behind queue to disk. If set to {@code true}, queued operations are appended to
+     * a journal in the disk store path before being acknowledged to the caller, and operations still pending when the
+     * cache was last shut down or crashed are replayed into the queue when the cache is created again.
+     * Keys and values must be {@code Serializable}.
+     * <p/>
+     * This is only applicable to write behind mode on standalone caches.
+     * <p/>
+     * Defaults to {@value #DEFAULT_WRITE_BEHIND_JOURNAL}.
+     *
+     * @param writeBehindJournal {@code true} to journal the write-behind queue; or {@code false} to keep it in memory only
+     */
+    public void setWriteBehindJournal(boolean writeBehindJournal) {
+        this.writeBehindJournal = writeBehindJournal;
+    }
+
+    /**
+     * @return this configuration instance
+     * @see #setWriteBehindJournal(boolean)
+     */
+    public CacheWriterConfiguration writeBehindJournal(boolean writeBehindJournal) {
+        setWriteBehindJournal(writeBehindJournal);
+        return this;
+    }
+
+    /**
+     * Check whether the write-behind queue is journaled to disk
+     */
+    public boolean getWriteBehindJournal() {
+        return writeBehindJournal;
+    }
+
+    /**
+     * Sets whether to adapt the batch size and dispatch rate of write-behind batches to the observed behavior of the
+     * {@link net.sf.ehcache.writer.CacheWriter}. If set to {@code true}, the batch size is halved whenever a batch fails or
+     * takes longer than a quarter of the target write lag, and grows back additively while batches complete quickly. The
+     * dispatch rate follows the same scheme, bounded by the rate limit. Batches are dispatched without waiting for them to
+     * fill up, or for the rate to allow it, once the oldest queued operation exceeds the target write lag or the queue is
+     * half full. The configured batch size is used as the upper bound, and the minimum write delay is not applied.
+     * <p/>
+     * This is only applicable to write behind mode with write batching enabled.
+     * <p/>
+     * Defaults to {@value #DEFAULT_ADAPTIVE_WRITE_BATCHING}.
+     *
+     * @param adaptiveWriteBatching {@code true} to adapt batch size and rate; or {@code false} to use the configured values
+     */
+    public void setAdaptiveWriteBatching(boolean adaptiveWriteBatching) {
+        this.adaptiveWriteBatching = adaptiveWriteBatching;
+    }
+
+    /**
+     * @return this configuration instance
+     * @see #setAdaptiveWriteBatching(boolean)
+     */
+    public CacheWriterConfiguration adaptiveWriteBatching(boolean adaptiveWriteBatching) {
+        setAdaptiveWriteBatching(adaptiveWriteBatching);
+        return this;
+    }
+
+    /**
+     * Check whether write-behind batches are adapted to the observed writer behavior
+     */
+    public boolean getAdaptiveWriteBatching() {
+        return adaptiveWriteBatching;
+    }
+
+    /**
+     * Sets the target end-to-end lag, in milliseconds, between an operation being queued and being written when adaptive
+     * write batching is enabled.
+     * <p/>
+     * Defaults to {@value #DEFAULT_TARGET_WRITE_LAG_MILLIS}.
+     *
+     * @param targetWriteLagMillis the target write lag in milliseconds
+     */
+    public void setTargetWriteLagMillis(long targetWriteLagMillis) {
+        if (targetWriteLagMillis < 1) {
+            throw new IllegalArgumentException("Target write lag must be at least 1 millisecond");
+        }
+        this.targetWriteLagMillis = targetWriteLagMillis;
+    }
+
+    /**
+     * @return this configuration instance
+     * @see #setTargetWriteLagMillis(long)
+     */
+    public CacheWriterConfiguration targetWriteLagMillis(long targetWriteLagMillis) {
+        setTargetWriteLagMillis(targetWriteLagMillis);
+        return this;
+    }
+
+    /**
+     * Get the target write lag in milliseconds used by adaptive write batching
+     */
+    public long getTargetWriteLagMillis() {
+        return targetWriteLagMillis;
+    }
+
     /**
      * Sets whether to batch write operations. If set to {@code true}, {@link net.sf.ehcache.writer.CacheWriter#writeAll} and {@code CacheWriter#deleteAll}
      * will be called rather than {@link net.sf.ehcache.writer.CacheWriter#write} and {@link net.sf.ehcache.writer.CacheWriter#delete} being called for each key. Resources such
@@ -600,6 +802,38 @@ public class CacheWriterConfiguration implements Cloneable {
         return this;
     }
 
+    /**
+     * Configures the number of threads each write behind queue uses to call the writer. Operations are split into lanes by
+     * key hash, one per thread, so operations on the same key are still written in order, while coalescing and batching
+     * apply to the whole queue.
+     * @param writeBehindWriterThreads number of writer threads per queue, has to be at least 1
+     */
+    public void setWriteBehindWriterThreads(int writeBehindWriterThreads) {
+        if (writeBehindWriterThreads < 1) {
+            this.writeBehindWriterThreads = DEFAULT_WRITE_BEHIND_WRITER_THREADS;
+        } else {
+            this.writeBehindWriterThreads = writeBehindWriterThreads;
+        }
+    }
+
+    /**
+     * Accessor
+     * @return the number of writer threads per write behind queue
+     */
+    public int getWriteBehindWriterThreads() {
+        return writeBehindWriterThreads;
+    }
+
+    /**
+     * @param writeBehindWriterThreads number of writer threads per queue, has to be at least 1
+     * @return this configuration instance
+     * @see #setWriteBehindWriterThreads(int)
+     */
+    public CacheWriterConfiguration writeBehindWriterThreads(int writeBehindWriterThreads) {
+        this.setWriteBehindWriterThreads(writeBehindWriterThreads);
+        return this;
+    }
+
     /**
      * Overrided hashCode()
      */
@@ -621,6 +855,12 @@ public class CacheWriterConfiguration implements Cloneable {
         result = prime * result + (writeCoalescing ? primeTwo : primeThree);
         result = prime * result + ((writeMode == null) ? 0 : writeMode.hashCode());
         result = prime * result + writeBehindConcurrency;
+        result = prime * result + (writeBehindJournal ? primeTwo : primeThree);
+        result = prime * result + (adaptiveWriteBatching ? primeTwo : primeThree);
+        result = prime * result + (int) (targetWriteLagMillis ^ (targetWriteLagMillis >>> 32));
+        result = prime * result + writeBehindWriterThreads;
+        result = prime * result + writeThroughBatchSize;
+        result = prime * result + writeThroughConcurrency;
         return result;
     }
 
@@ -676,6 +916,24 @@ public class CacheWriterConfiguration implements Cloneable {
         if (writeBehindConcurrency != other.writeBehindConcurrency) {
             return false;
         }
+        if (writeBehindJournal != other.writeBehindJournal) {
+            return false;
+        }
+        if (adaptiveWriteBatching != other.adaptiveWriteBatching) {
+            return false;
+        }
+        if (targetWriteLagMillis != other.targetWriteLagMillis) {
+            return false;
+        }
+        if (writeBehindWriterThreads != other.writeBehindWriterThreads) {
+            return false;
+        }
+        if (writeThroughBatchSize != other.writeThroughBatchSize) {
+            return false;
+        }
+        if (writeThroughConcurrency != other.writeThroughConcurrency) {
+            return false;
+        }
         if (writeMode == null) {
             if (other.writeMode != null) {
                 return false;
@@ -0,0 +1,217 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.config;
+
+/**
+ * Class to hold the refresh ahead configuration of a cache.
+ * <p/>
+ * When present, a hit on an entry that expires may trigger a background reload of its value through the registered
+ * cache loaders. The probability of an early refresh grows as the entry nears its expiry, weighted by how long loads
+ * take, and refreshes of frequently accessed entries are performed first.
+ *
+ * @author Terracotta
+ */
+public class RefreshAheadConfiguration implements Cloneable {
+
+    /**
+     * Default weight of the load time in the early refresh decision
+     */
+    public static final double DEFAULT_BETA = 1.0;
+
+    /**
+     * Default number of refresh threads
+     */
+    public static final int DEFAULT_NUMBER_OF_THREADS = 1;
+
+    /**
+     * Default maximum number of pending refreshes
+     */
+    public static final int DEFAULT_MAXIMUM_BACKLOG_ITEMS = 1000;
+
+    /**
+     * Default estimate of the load time before any load was timed, as a fraction of the time to live of the entry
+     */
+    public static final double DEFAULT_INITIAL_LOAD_TIME_FRACTION = 0.01;
+
+    private volatile double beta = DEFAULT_BETA;
+    private volatile double initialLoadTimeFraction = DEFAULT_INITIAL_LOAD_TIME_FRACTION;
+    private volatile int numberOfThreads = DEFAULT_NUMBER_OF_THREADS;
+    private volatile int maximumBacklogItems = DEFAULT_MAXIMUM_BACKLOG_ITEMS;
+
+    /**
+     * Clone method
+     */
+    @Override
+    public RefreshAheadConfiguration clone() {
+        try {
+            return (RefreshAheadConfiguration) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Sets how eagerly entries are refreshed ahead of their expiry. An entry is refreshed when its remaining time to live,
+     * less the mean load time multiplied by beta and by a random exponential factor, reaches zero. Higher values refresh
+     * earlier, 0 disables early refreshes.
+     *
+     * @param beta the weight of the load time, must not be negative
+     */
+    public void setBeta(double beta) {
+        if (beta < 0 || Double.isNaN(beta)) {
+            throw new IllegalArgumentException("Beta must be a non-negative number");
+        }
+        this.beta = beta;
+    }
+
+    /**
+     * Sets the weight of the load time, parsed from a string.
+     *
+     * @param beta the weight of the load time, must not be negative
+     * @see #setBeta(double)
+     */
+    public void setBeta(String beta) {
+        if (beta == null) {
+            throw new IllegalArgumentException("Beta must be non-null");
+        }
+        setBeta(Double.parseDouble(beta));
+    }
+
+    /**
+     * @param beta the weight of the load time
+     * @return this configuration instance
+     * @see #setBeta(double)
+     */
+    public RefreshAheadConfiguration beta(double beta) {
+        setBeta(beta);
+        return this;
+    }
+
+    /**
+     * Gets the weight of the load time in the early refresh decision.
+     *
+     * @return the beta value
+     */
+    public double getBeta() {
+        return beta;
+    }
+
+    /**
+     * Sets the load time assumed until a load was timed, as a fraction of the time to live of the entry hit. Without it
+     * no entry would be refreshed early before the first miss.
+     *
+     * @param initialLoadTimeFraction the fraction of the time to live, between 0 and 1
+     */
+    public void setInitialLoadTimeFraction(double initialLoadTimeFraction) {
+        if (!(initialLoadTimeFraction >= 0 && initialLoadTimeFraction <= 1)) {
+            throw new IllegalArgumentException("Initial load time fraction must be between 0 and 1");
+        }
+        this.initialLoadTimeFraction = initialLoadTimeFraction;
+    }
+
+    /**
+     * Sets the initial load time fraction, parsed from a string.
+     *
+     * @param initialLoadTimeFraction the fraction of the time to live, between 0 and 1
+     * @see #setInitialLoadTimeFraction(double)
+     */
+    public void setInitialLoadTimeFraction(String initialLoadTimeFraction) {
+        if (initialLoadTimeFraction == null) {
+            throw new IllegalArgumentException("Initial load time fraction must be non-null");
+        }
+        setInitialLoadTimeFraction(Double.parseDouble(initialLoadTimeFraction));
+    }
+
+    /**
+     * @param initialLoadTimeFraction the fraction of the time to live
+     * @return this configuration instance
+     * @see #setInitialLoadTimeFraction(double)
+     */
+    public RefreshAheadConfiguration initialLoadTimeFraction(double initialLoadTimeFraction) {
+        setInitialLoadTimeFraction(initialLoadTimeFraction);
+        return this;
+    }
+
+    /**
+     * Gets the load time assumed until a load was timed, as a fraction of the time to live of the entry hit.
+     *
+     * @return the initial load time fraction
+     */
+    public double getInitialLoadTimeFraction() {
+        return initialLoadTimeFraction;
+    }
+
+    /**
+     * Sets the number of threads performing refreshes.
+     *
+     * @param numberOfThreads the number of threads, values lower than 1 are treated as 1
+     */
+    public void setNumberOfThreads(int numberOfThreads) {
+        this.numberOfThreads = Math.max(1, numberOfThreads);
+    }
+
+    /**
+     * @param numberOfThreads the number of threads
+     * @return this configuration instance
+     * @see #setNumberOfThreads(int)
+     */
+    public RefreshAheadConfiguration numberOfThreads(int numberOfThreads) {
+        setNumberOfThreads(numberOfThreads);
+        return this;
+    }
+
+    /**
+     * Gets the number of threads performing refreshes.
+     *
+     * @return the number of threads
+     */
+    public int getNumberOfThreads() {
+        return numberOfThreads;
+    }
+
+    /**
+     * Sets the maximum number of refreshes waiting for a thread. Once reached, the refresh of the least frequently accessed
+     * entry is dropped.
+     *
+     * @param maximumBacklogItems the maximum number of pending refreshes, must be positive
+     */
+    public void setMaximumBacklogItems(int maximumBacklogItems) {
+        if (maximumBacklogItems < 1) {
+            throw new IllegalArgumentException("Maximum backlog items must be a positive number");
+        }
+        this.maximumBacklogItems = maximumBacklogItems;
+    }
+
+    /**
+     * @param maximumBacklogItems the maximum number of pending refreshes
+     * @return this configuration instance
+     * @see #setMaximumBacklogItems(int)
+     */
+    public RefreshAheadConfiguration maximumBacklogItems(int maximumBacklogItems) {
+        setMaximumBacklogItems(maximumBacklogItems);
+        return this;
+    }
+
+    /**
+     * Gets the maximum number of refreshes waiting for a thread.
+     *
+     * @return the maximum number of pending refreshes
+     */
+    public int getMaximumBacklogItems() {
+        return maximumBacklogItems;
+    }
+}
@@ -47,6 +47,21 @@ public class Searchable {
      */
     public static final boolean DYNAMIC_INDEXING_DEFAULT = false;
 
+    /**
+     * Default number of query results retained by the search result cache (0 disables it)
+     */
+    public static final int RESULT_CACHE_SIZE_DEFAULT = 0;
+
+    /**
+     * Default for maintaining primitive attribute columns
+     */
+    public static final boolean COLUMNAR_ATTRIBUTES_DEFAULT = false;
+
+    /**
+     * Default slow query threshold in milliseconds (0 disables slow query logging)
+     */
+    public static final long SLOW_QUERY_THRESHOLD_MILLIS_DEFAULT = 0;
+
     /**
      * The defined search attributes (if any) indexed by name
      */
@@ -55,6 +70,9 @@ public class Searchable {
     private boolean keys;
     private boolean values;
     private boolean allowDynamicIndexing = DYNAMIC_INDEXING_DEFAULT;
+    private int resultCacheSize = RESULT_CACHE_SIZE_DEFAULT;
+    private boolean columnarAttributes = COLUMNAR_ATTRIBUTES_DEFAULT;
+    private long slowQueryThresholdMillis = SLOW_QUERY_THRESHOLD_MILLIS_DEFAULT;
 
     /**
      * Constructor
@@ -232,4 +250,101 @@ public class Searchable {
     public void allowDynamicIndexing(boolean allow) {
         setAllowDynamicIndexing(allow);
     }
+
+    /**
+     * Get the maximum number of distinct queries whose results are retained by the search result cache
+     *
+     * @return result cache size, 0 if result caching is disabled
+     */
+    public int getResultCacheSize() {
+        return resultCacheSize;
+    }
+
+    /**
+     * Set the maximum number of distinct queries whose results are retained by the search result cache. Cached results are
+     * invalidated whenever a mutation touches an element matching the cached query's criteria.
+     *
+     * @param resultCacheSize number of cached query results, 0 to disable result caching
+     */
+    public void setResultCacheSize(int resultCacheSize) {
+        checkDynamicChange();
+        if (resultCacheSize < 0) {
+            throw new InvalidConfigurationException("Search result cache size must be non-negative: " + resultCacheSize);
+        }
+        this.resultCacheSize = resultCacheSize;
+    }
+
+    /**
+     * Set the maximum number of distinct queries whose results are retained by the search result cache
+     *
+     * @param resultCacheSize number of cached query results, 0 to disable result caching
+     * @return this
+     */
+    public Searchable resultCacheSize(int resultCacheSize) {
+        setResultCacheSize(resultCacheSize);
+        return this;
+    }
+
+    /**
+     * Are numeric search attributes also kept in primitive columns?
+     *
+     * @return true if columnar attributes are maintained
+     */
+    public boolean isColumnarAttributes() {
+        return columnarAttributes;
+    }
+
+    /**
+     * Toggle the maintenance of primitive (int, long and double) columns for the search attributes. Aggregation-only queries
+     * filtering on numeric ranges are then evaluated over these columns rather than over the cache elements.
+     *
+     * @param columnarAttributes true to maintain attribute columns
+     */
+    public void setColumnarAttributes(boolean columnarAttributes) {
+        checkDynamicChange();
+        this.columnarAttributes = columnarAttributes;
+    }
+
+    /**
+     * Toggle the maintenance of primitive columns for the search attributes
+     *
+     * @param columnarAttributes true to maintain attribute columns
+     * @return this
+     */
+    public Searchable columnarAttributes(boolean columnarAttributes) {
+        setColumnarAttributes(columnarAttributes);
+        return this;
+    }
+
+    /**
+     * Get the execution time above which queries are logged as slow
+     *
+     * @return slow query threshold in milliseconds, 0 if slow query logging is disabled
+     */
+    public long getSlowQueryThresholdMillis() {
+        return slowQueryThresholdMillis;
+    }
+
+    /**
+     * Set the execution time above which queries are logged (at WARN level) and counted as slow
+     *
+     * @param slowQueryThresholdMillis slow query threshold in milliseconds, 0 to disable slow query logging
+     */
+    public void setSlowQueryThresholdMillis(long slowQueryThresholdMillis) {
+        if (slowQueryThresholdMillis < 0) {
+            throw new InvalidConfigurationException("Slow query threshold must be non-negative: " + slowQueryThresholdMillis);
+        }
+        this.slowQueryThresholdMillis = slowQueryThresholdMillis;
+    }
+
+    /**
+     * Set the execution time above which queries are logged and counted as slow
+     *
+     * @param slowQueryThresholdMillis slow query threshold in milliseconds, 0 to disable slow query logging
+     * @return this
+     */
+    public Searchable slowQueryThresholdMillis(long slowQueryThresholdMillis) {
+        setSlowQueryThresholdMillis(slowQueryThresholdMillis);
+        return this;
+    }
 }
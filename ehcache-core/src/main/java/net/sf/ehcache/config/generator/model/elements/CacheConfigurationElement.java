@@ -25,6 +25,7 @@ import net.sf.ehcache.config.CopyStrategyConfiguration;
 import net.sf.ehcache.config.ElementValueComparatorConfiguration;
 import net.sf.ehcache.config.PersistenceConfiguration;
 import net.sf.ehcache.config.PinningConfiguration;
+import net.sf.ehcache.config.RefreshAheadConfiguration;
 import net.sf.ehcache.config.SizeOfPolicyConfiguration;
 import net.sf.ehcache.config.TerracottaConfiguration;
 import net.sf.ehcache.config.generator.model.NodeElement;
@@ -146,6 +147,17 @@ public class CacheConfigurationElement extends SimpleNodeElement {
             CacheEventListenerFactoryConfiguration factoryConfiguration = (CacheEventListenerFactoryConfiguration) child
                     .getFactoryConfiguration();
             child.addAttribute(new SimpleNodeAttribute("listenFor", factoryConfiguration.getListenFor()));
+            child.addAttribute(new SimpleNodeAttribute("asynchronous", factoryConfiguration.isAsynchronous()).optional(true)
+                    .defaultValue(false));
+            child.addAttribute(new SimpleNodeAttribute("dispatchThreads", factoryConfiguration.getDispatchThreads()).optional(true)
+                    .defaultValue(CacheEventListenerFactoryConfiguration.DEFAULT_DISPATCH_THREADS));
+            child.addAttribute(new SimpleNodeAttribute("dispatchQueueSize", factoryConfiguration.getDispatchQueueSize())
+                    .optional(true).defaultValue(CacheEventListenerFactoryConfiguration.DEFAULT_DISPATCH_QUEUE_SIZE));
+            child.addAttribute(new SimpleNodeAttribute("dispatchBatchSize", factoryConfiguration.getDispatchBatchSize())
+                    .optional(true).defaultValue(CacheEventListenerFactoryConfiguration.DEFAULT_DISPATCH_BATCH_SIZE));
+            child.addAttribute(new SimpleNodeAttribute("dispatchOverflowPolicy",
+                    factoryConfiguration.getDispatchOverflowPolicy().name().toLowerCase()).optional(true).defaultValue(
+                    CacheEventListenerFactoryConfiguration.DEFAULT_DISPATCH_OVERFLOW_POLICY.name().toLowerCase()));
             element.addChildElement(child);
         }
         addAllFactoryConfigsAsChildElements(element, "cacheExtensionFactory", cacheConfiguration.getCacheExtensionConfigurations());
@@ -162,6 +174,7 @@ public class CacheConfigurationElement extends SimpleNodeElement {
         addAllFactoryConfigsAsChildElements(element, "cacheDecoratorFactory", cacheConfiguration.getCacheDecoratorConfigurations());
         addTerracottaConfigurationElement(element, cacheConfiguration);
         addPinningElement(element, cacheConfiguration);
+        addRefreshAheadElement(element, cacheConfiguration);
         addSearchElement(element, cacheConfiguration);
     }
 
@@ -242,4 +255,11 @@ public class CacheConfigurationElement extends SimpleNodeElement {
         }
     }
 
+    private static void addRefreshAheadElement(NodeElement element, CacheConfiguration cacheConfiguration) {
+        RefreshAheadConfiguration refreshAheadConfiguration = cacheConfiguration.getRefreshAheadConfiguration();
+        if (refreshAheadConfiguration != null) {
+            element.addChildElement(new RefreshAheadConfigurationElement(element, refreshAheadConfiguration));
+        }
+    }
+
 }
@@ -72,6 +72,18 @@ public class CacheWriterConfigurationElement extends SimpleNodeElement {
                 true).defaultValue(CacheWriterConfiguration.DEFAULT_WRITE_BEHIND_CONCURRENCY));
         addAttribute(new SimpleNodeAttribute("writeBehindMaxQueueSize", cacheWriterConfiguration.getWriteBehindMaxQueueSize()).optional(
                 true).defaultValue(CacheWriterConfiguration.DEFAULT_WRITE_BEHIND_MAX_QUEUE_SIZE));
+        addAttribute(new SimpleNodeAttribute("writeBehindJournal", cacheWriterConfiguration.getWriteBehindJournal()).optional(true)
+                .defaultValue(CacheWriterConfiguration.DEFAULT_WRITE_BEHIND_JOURNAL));
+        addAttribute(new SimpleNodeAttribute("adaptiveWriteBatching", cacheWriterConfiguration.getAdaptiveWriteBatching()).optional(true)
+                .defaultValue(CacheWriterConfiguration.DEFAULT_ADAPTIVE_WRITE_BATCHING));
+        addAttribute(new SimpleNodeAttribute("targetWriteLagMillis", cacheWriterConfiguration.getTargetWriteLagMillis()).optional(true)
+                .defaultValue(CacheWriterConfiguration.DEFAULT_TARGET_WRITE_LAG_MILLIS));
+        addAttribute(new SimpleNodeAttribute("writeBehindWriterThreads", cacheWriterConfiguration.getWriteBehindWriterThreads()).optional(
+                true).defaultValue(CacheWriterConfiguration.DEFAULT_WRITE_BEHIND_WRITER_THREADS));
+        addAttribute(new SimpleNodeAttribute("writeThroughBatchSize", cacheWriterConfiguration.getWriteThroughBatchSize()).optional(true)
+                .defaultValue(CacheWriterConfiguration.DEFAULT_WRITE_THROUGH_BATCH_SIZE));
+        addAttribute(new SimpleNodeAttribute("writeThroughConcurrency", cacheWriterConfiguration.getWriteThroughConcurrency()).optional(
+                true).defaultValue(CacheWriterConfiguration.DEFAULT_WRITE_THROUGH_CONCURRENCY));
 
         CacheWriterFactoryConfiguration cacheWriterFactoryConfiguration = cacheWriterConfiguration.getCacheWriterFactoryConfiguration();
         if (cacheWriterFactoryConfiguration != null) {
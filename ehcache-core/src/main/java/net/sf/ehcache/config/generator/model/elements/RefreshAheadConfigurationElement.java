@@ -0,0 +1,61 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.config.generator.model.elements;
+
+import net.sf.ehcache.config.RefreshAheadConfiguration;
+import net.sf.ehcache.config.generator.model.NodeElement;
+import net.sf.ehcache.config.generator.model.SimpleNodeAttribute;
+import net.sf.ehcache.config.generator.model.SimpleNodeElement;
+
+/**
+ * {@link NodeElement} representing the {@link RefreshAheadConfiguration}
+ *
+ * @author Terracotta
+ *
+ */
+public class RefreshAheadConfigurationElement extends SimpleNodeElement {
+
+    private final RefreshAheadConfiguration refreshAheadConfiguration;
+
+    /**
+     * Constructor accepting the parent and the {@link RefreshAheadConfiguration}
+     *
+     * @param parent
+     * @param refreshAheadConfiguration
+     */
+    public RefreshAheadConfigurationElement(NodeElement parent, RefreshAheadConfiguration refreshAheadConfiguration) {
+        super(parent, "refreshAhead");
+        this.refreshAheadConfiguration = refreshAheadConfiguration;
+        init();
+    }
+
+    private void init() {
+        if (refreshAheadConfiguration == null) {
+            return;
+        }
+
+        addAttribute(new SimpleNodeAttribute("beta", String.valueOf(refreshAheadConfiguration.getBeta())).optional(true).defaultValue(
+                String.valueOf(RefreshAheadConfiguration.DEFAULT_BETA)));
+        addAttribute(new SimpleNodeAttribute("initialLoadTimeFraction", String.valueOf(refreshAheadConfiguration.getInitialLoadTimeFraction()))
+                .optional(true).defaultValue(String.valueOf(RefreshAheadConfiguration.DEFAULT_INITIAL_LOAD_TIME_FRACTION)));
+        addAttribute(new SimpleNodeAttribute("numberOfThreads", refreshAheadConfiguration.getNumberOfThreads()).optional(true)
+                .defaultValue(RefreshAheadConfiguration.DEFAULT_NUMBER_OF_THREADS));
+        addAttribute(new SimpleNodeAttribute("maximumBacklogItems", refreshAheadConfiguration.getMaximumBacklogItems()).optional(true)
+                .defaultValue(RefreshAheadConfiguration.DEFAULT_MAXIMUM_BACKLOG_ITEMS));
+    }
+
+}
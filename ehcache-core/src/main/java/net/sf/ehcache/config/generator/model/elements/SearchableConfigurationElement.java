@@ -57,6 +57,12 @@ public class SearchableConfigurationElement extends SimpleNodeElement {
         addAttribute(new SimpleNodeAttribute("values", searchable.values()).optional(true).defaultValue(Searchable.VALUES_DEFAULT));
         addAttribute(new SimpleNodeAttribute("allowDynamicIndexing", searchable.isDynamicIndexingAllowed()).optional(true)
                 .defaultValue(Searchable.DYNAMIC_INDEXING_DEFAULT));
+        addAttribute(new SimpleNodeAttribute("resultCacheSize", searchable.getResultCacheSize()).optional(true)
+                .defaultValue(Searchable.RESULT_CACHE_SIZE_DEFAULT));
+        addAttribute(new SimpleNodeAttribute("columnarAttributes", searchable.isColumnarAttributes()).optional(true)
+                .defaultValue(Searchable.COLUMNAR_ATTRIBUTES_DEFAULT));
+        addAttribute(new SimpleNodeAttribute("slowQueryThresholdMillis", searchable.getSlowQueryThresholdMillis()).optional(true)
+                .defaultValue(Searchable.SLOW_QUERY_THRESHOLD_MILLIS_DEFAULT));
     }
 
 }
@@ -19,6 +19,7 @@ package net.sf.ehcache.constructs;
 import java.beans.PropertyChangeListener;
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -27,6 +28,9 @@ import net.sf.ehcache.CacheException;
 import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
+import net.sf.ehcache.ElementMerger;
+import net.sf.ehcache.ElementRemapper;
+import net.sf.ehcache.SplittableIterator;
 import net.sf.ehcache.Status;
 import net.sf.ehcache.bootstrap.BootstrapCacheLoader;
 import net.sf.ehcache.config.CacheConfiguration;
@@ -141,6 +145,13 @@ public class EhcacheDecoratorAdapter implements InternalEhcache {
         underlyingCache.putWithWriter(element);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void putAllWithWriter(Collection<Element> elements) throws IllegalArgumentException, IllegalStateException, CacheException {
+        underlyingCache.putAllWithWriter(elements);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -379,6 +390,20 @@ public class EhcacheDecoratorAdapter implements InternalEhcache {
         return underlyingCache.getKeysNoDuplicateCheck();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public Iterator<Element> entryIterator(boolean skipExpired) throws IllegalStateException {
+        return underlyingCache.entryIterator(skipExpired);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public SplittableIterator<Element> splittableEntryIterator(boolean skipExpired) throws IllegalStateException {
+        return underlyingCache.splittableEntryIterator(skipExpired);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -568,6 +593,13 @@ public class EhcacheDecoratorAdapter implements InternalEhcache {
         return underlyingCache.removeWithWriter(key);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void removeAllWithWriter(Collection<?> keys) throws IllegalStateException, CacheException {
+        underlyingCache.removeAllWithWriter(keys);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -685,6 +717,36 @@ public class EhcacheDecoratorAdapter implements InternalEhcache {
         return underlyingCache.replace(element);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public Element compute(Object key, ElementRemapper remapper) throws NullPointerException, IllegalArgumentException, CacheException {
+        return underlyingCache.compute(key, remapper);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Element computeIfAbsent(Object key, ElementRemapper remapper) throws NullPointerException, IllegalArgumentException,
+            CacheException {
+        return underlyingCache.computeIfAbsent(key, remapper);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Element computeIfPresent(Object key, ElementRemapper remapper) throws NullPointerException, IllegalArgumentException,
+            CacheException {
+        return underlyingCache.computeIfPresent(key, remapper);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Element merge(Element element, ElementMerger merger) throws NullPointerException, IllegalArgumentException, CacheException {
+        return underlyingCache.merge(element, merger);
+    }
+
     /**
      * {@inheritDoc}
      *
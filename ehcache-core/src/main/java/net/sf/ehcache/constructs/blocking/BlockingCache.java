@@ -21,11 +21,17 @@ import static net.sf.ehcache.statistics.StatisticBuilder.operation;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 import net.sf.ehcache.CacheException;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
+import net.sf.ehcache.ElementMerger;
+import net.sf.ehcache.ElementRemapper;
 import net.sf.ehcache.concurrent.CacheLockProvider;
 import net.sf.ehcache.concurrent.LockType;
 import net.sf.ehcache.concurrent.StripedReadWriteLockSync;
@@ -64,12 +70,18 @@ import org.terracotta.statistics.observer.OperationObserver;
  * - Brian Goetz
  * <p/>
  * Further improvements to hashing suggested by Joe Bowbeer.
+ * <p/>
+ * A BlockingCache can instead be created with per key blocking. The first thread to miss on a key then installs an
+ * in-flight placeholder for that key, only threads reading that same key wait on it, and no other key ever blocks behind
+ * a slow load. Clustered caches always use the cluster wide locks.
  *
  * @author Greg Luck
  * @version $Id$
  */
 public class BlockingCache extends EhcacheDecoratorAdapter {
 
+    private static final Object NULL_KEY = new Object();
+
     /**
      * The amount of time to block a thread before a LockTimeoutException is thrown
      */
@@ -77,6 +89,8 @@ public class BlockingCache extends EhcacheDecoratorAdapter {
 
     private final int stripes;
     private final AtomicReference<CacheLockProvider> cacheLockProviderReference;
+    private final boolean perKeyBlocking;
+    private final ConcurrentMap<Object, InFlight> inFlight = new ConcurrentHashMap<Object, InFlight>();
 
     private final OperationObserver<GetOutcome> getObserver = operation(GetOutcome.class).named("get").of(this).tag("blocking-cache").build();
 
@@ -90,9 +104,26 @@ public class BlockingCache extends EhcacheDecoratorAdapter {
      * @since 1.2
      */
     public BlockingCache(final Ehcache cache, int numberOfStripes) throws CacheException {
+        this(cache, numberOfStripes, false);
+    }
+
+    /**
+     * Creates a BlockingCache which decorates the supplied cache.
+     *
+     * @param cache          a backing ehcache.
+     * @param perKeyBlocking if true, a miss only blocks the readers of the same key rather than of a whole stripe of keys.
+     *                       Ignored for clustered caches.
+     * @throws CacheException shouldn't happen
+     */
+    public BlockingCache(final Ehcache cache, boolean perKeyBlocking) throws CacheException {
+        this(cache, StripedReadWriteLockSync.DEFAULT_NUMBER_OF_MUTEXES, perKeyBlocking);
+    }
+
+    private BlockingCache(final Ehcache cache, int numberOfStripes, boolean perKeyBlocking) throws CacheException {
         super(cache);
         this.stripes = numberOfStripes;
         this.cacheLockProviderReference = new AtomicReference<CacheLockProvider>();
+        this.perKeyBlocking = perKeyBlocking && !cache.getCacheConfiguration().isTerracottaClustered();
     }
 
     /**
@@ -124,6 +155,15 @@ public class BlockingCache extends EhcacheDecoratorAdapter {
         }
     }
 
+    /**
+     * Whether misses block the readers of their key only, rather than of a whole stripe of keys.
+     *
+     * @return true if blocking per key
+     */
+    public boolean isPerKeyBlocking() {
+        return perKeyBlocking;
+    }
+
     /**
      * Retrieve the EHCache backing cache
      *
@@ -154,6 +194,9 @@ public class BlockingCache extends EhcacheDecoratorAdapter {
     @Override
     public Element get(final Object key) throws RuntimeException, LockTimeoutException {
         getObserver.begin();
+        if (perKeyBlocking) {
+            return getBlockingOnKey(key);
+        }
         Sync lock = getLockForKey(key);
         acquiredLockForKey(key, lock, LockType.READ);
         Element element;
@@ -178,16 +221,84 @@ public class BlockingCache extends EhcacheDecoratorAdapter {
         }
     }
 
+    private Element getBlockingOnKey(final Object key) {
+        Object inFlightKey = inFlightKey(key);
+        Element element = underlyingCache.get(key);
+        while (element == null) {
+            InFlight load = new InFlight();
+            InFlight current = inFlight.putIfAbsent(inFlightKey, load);
+            if (current == null) {
+                element = underlyingCache.get(key);
+                if (element == null) {
+                    getObserver.end(GetOutcome.MISS_AND_LOCKED);
+                    return null;
+                }
+                complete(inFlightKey, load);
+            } else if (current.owner == Thread.currentThread()) {
+                getObserver.end(GetOutcome.MISS_AND_LOCKED);
+                return null;
+            } else {
+                awaitInFlight(key, current);
+                element = underlyingCache.get(key);
+            }
+        }
+        getObserver.end(GetOutcome.HIT);
+        return element;
+    }
+
+    private void awaitInFlight(final Object key, final InFlight load) {
+        try {
+            if (timeoutMillis > 0) {
+                if (!load.done.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                    throw lockTimeout(key);
+                }
+            } else {
+                load.done.await();
+            }
+        } catch (InterruptedException e) {
+            throw new LockTimeoutException("Got interrupted while trying to acquire lock for key " + key, e);
+        }
+    }
+
+    private InFlight acquireInFlight(final Object inFlightKey) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                InFlight load = new InFlight();
+                InFlight current = inFlight.putIfAbsent(inFlightKey, load);
+                if (current == null) {
+                    return load;
+                } else if (current.owner == Thread.currentThread()) {
+                    return current;
+                }
+                try {
+                    current.done.await();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void complete(final Object inFlightKey, final InFlight load) {
+        inFlight.remove(inFlightKey, load);
+        load.done.countDown();
+    }
+
+    private static Object inFlightKey(final Object key) {
+        return key == null ? NULL_KEY : key;
+    }
+
     private void acquiredLockForKey(final Object key, final Sync lock, final LockType lockType) {
         if (timeoutMillis > 0) {
             try {
                 boolean acquired = lock.tryLock(lockType, timeoutMillis);
                 if (!acquired) {
-                    StringBuilder message = new StringBuilder("Lock timeout. Waited more than ")
-                            .append(timeoutMillis)
-                            .append("ms to acquire lock for key ")
-                            .append(key).append(" on blocking cache ").append(underlyingCache.getName());
-                    throw new LockTimeoutException(message.toString());
+                    throw lockTimeout(key);
                 }
             } catch (InterruptedException e) {
                 throw new LockTimeoutException("Got interrupted while trying to acquire lock for key " + key, e);
@@ -198,6 +309,14 @@ public class BlockingCache extends EhcacheDecoratorAdapter {
     }
 
 
+    private LockTimeoutException lockTimeout(final Object key) {
+        StringBuilder message = new StringBuilder("Lock timeout. Waited more than ")
+                .append(timeoutMillis)
+                .append("ms to acquire lock for key ")
+                .append(key).append(" on blocking cache ").append(underlyingCache.getName());
+        return new LockTimeoutException(message.toString());
+    }
+
     /**
      * Gets the Sync to use for a given key.
      *
@@ -281,13 +400,94 @@ public class BlockingCache extends EhcacheDecoratorAdapter {
         });
     }
 
+    @Override
+    public Element compute(final Object key, final ElementRemapper remapper) throws NullPointerException,
+            IllegalArgumentException, CacheException {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        return doAndReleaseWriteLock(new PutAction<Element>(key) {
+            @Override
+            public Element put() {
+                return underlyingCache.compute(key, remapper);
+            }
+        });
+    }
+
+    @Override
+    public Element computeIfAbsent(final Object key, final ElementRemapper remapper) throws NullPointerException,
+            IllegalArgumentException, CacheException {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        return doAndReleaseWriteLock(new PutAction<Element>(key) {
+            @Override
+            public Element put() {
+                return underlyingCache.computeIfAbsent(key, remapper);
+            }
+        });
+    }
+
+    @Override
+    public Element computeIfPresent(final Object key, final ElementRemapper remapper) throws NullPointerException,
+            IllegalArgumentException, CacheException {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        return doAndReleaseWriteLock(new PutAction<Element>(key) {
+            @Override
+            public Element put() {
+                return underlyingCache.computeIfPresent(key, remapper);
+            }
+        });
+    }
+
+    @Override
+    public Element merge(final Element element, final ElementMerger merger) throws NullPointerException,
+            IllegalArgumentException, CacheException {
+        if (element == null || element.getObjectKey() == null) {
+            throw new NullPointerException();
+        }
+        return doAndReleaseWriteLock(new PutAction<Element>(element) {
+            @Override
+            public Element put() {
+                return underlyingCache.merge(element, merger);
+            }
+        });
+    }
+
+    /**
+     * Releases the lock acquired by a {@link #get(Object)} that returned null, leaving the key unmapped.
+     *
+     * @param key the key
+     */
+    protected void release(final Object key) {
+        doAndReleaseWriteLock(new PutAction<Void>(key) {
+            @Override
+            public Void put() {
+                return null;
+            }
+        });
+    }
+
     private <V> V doAndReleaseWriteLock(PutAction<V> putAction) {
 
-        if (putAction.element == null) {
+        if (putAction.skip) {
             return null;
         }
 
-        Object key = putAction.element.getObjectKey();
+        Object key = putAction.key;
+
+        if (perKeyBlocking) {
+            Object inFlightKey = inFlightKey(key);
+            InFlight load = acquireInFlight(inFlightKey);
+            try {
+                return putAction.put();
+            } finally {
+                //Complete the load here. It will have been started in the get, where the element was null
+                complete(inFlightKey, load);
+            }
+        }
 
         Sync lock = getLockForKey(key);
 
@@ -437,10 +637,17 @@ public class BlockingCache extends EhcacheDecoratorAdapter {
      */
     private abstract static class PutAction<V> {
 
-        private final Element element;
+        private final Object key;
+        private final boolean skip;
 
         private PutAction(Element element) {
-            this.element = element;
+            this.key = element == null ? null : element.getObjectKey();
+            this.skip = element == null;
+        }
+
+        private PutAction(Object key) {
+            this.key = key;
+            this.skip = false;
         }
 
         /**
@@ -449,6 +656,15 @@ public class BlockingCache extends EhcacheDecoratorAdapter {
          */
         abstract V put();
     }
+
+    /**
+     * Placeholder for a key being loaded, owned by the thread that missed on it first
+     */
+    private static final class InFlight {
+
+        private final Thread owner = Thread.currentThread();
+        private final CountDownLatch done = new CountDownLatch(1);
+    }
 }
 
 
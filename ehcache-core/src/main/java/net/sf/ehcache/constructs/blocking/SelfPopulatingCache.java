@@ -16,14 +16,37 @@
 
 package net.sf.ehcache.constructs.blocking;
 
+import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheException;
+import net.sf.ehcache.CacheStoreHelper;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
+import net.sf.ehcache.config.SizeOfPolicyConfiguration;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
+import net.sf.ehcache.pool.Pool;
+import net.sf.ehcache.pool.PoolAccessor;
+import net.sf.ehcache.pool.PoolParticipant;
+import net.sf.ehcache.pool.impl.UnboundedPool;
+import net.sf.ehcache.util.NamedThreadFactory;
+import net.sf.ehcache.util.TimeUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Serializable;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -37,6 +60,22 @@ import java.util.Iterator;
  * <p/>
  * Thread safety depends on the factory being used. The UpdatingCacheEntryFactory should be made
  * thread safe. In addition users of returned values should not modify their contents.
+ * <p/>
+ * A SelfPopulatingCache can be created with stale grace periods. Its elements keep their time to live and expire from
+ * the backing cache as usual, but when {@link #get(Object)} or {@link #getQuiet(Object)} of this cache find an element
+ * expired, it is remembered until the longest grace period ends or its key is put, removed or evicted. Within the
+ * stale-while-revalidate period, {@link #get(Object)} returns the expired value immediately while a single background
+ * reload of its key takes place. Past it, readers wait for the reload, and within the stale-if-error period the expired
+ * value is still returned if the reload fails. Nothing else serves expired values: to {@link #getQuiet(Object)},
+ * {@link #getAll(java.util.Collection)}, searches, statistics and the backing cache, an element is expired once its time to
+ * live or time to idle has passed. Elements expiring without this cache looking them up aren't remembered.
+ * <p/>
+ * The remembered values are charged to the on-heap pool of the backing cache, which may evict them to make room, and their
+ * number is capped by the <code>net.sf.ehcache.selfPopulatingCache.maxStaleElements</code> system property, 10000 by
+ * default. An expired value that doesn't fit is not remembered.
+ * <p/>
+ * The background reloads of all the SelfPopulatingCaches share one pool of daemon threads. Its size defaults to the number
+ * of processors, and can be set with the <code>net.sf.ehcache.selfPopulatingCache.revalidationThreads</code> system property.
  *
  * @author Greg Luck
  * @version $Id$
@@ -45,17 +84,28 @@ public class SelfPopulatingCache extends BlockingCache {
 
     private static final Logger LOG = LoggerFactory.getLogger(SelfPopulatingCache.class.getName());
 
+    private static final String REVALIDATION_THREADS_PROPERTY = "net.sf.ehcache.selfPopulatingCache.revalidationThreads";
+    private static final String MAX_STALE_ELEMENTS_PROPERTY = "net.sf.ehcache.selfPopulatingCache.maxStaleElements";
+    private static final int DEFAULT_MAX_STALE_ELEMENTS = 10000;
+    private static final int MIN_SWEEP_INTERVAL = 64;
+
     /**
      * A factory for creating entries, given a key
      */
     protected final CacheEntryFactory factory;
 
+    private final int staleWhileRevalidateSeconds;
+    private final int staleIfErrorSeconds;
+    private final int gracePeriodSeconds;
+    private final ConcurrentMap<Object, Revalidation> revalidations = new ConcurrentHashMap<Object, Revalidation>();
+    private final CacheStoreHelper storeHelper;
+    private volatile StaleElements staleElements;
+
     /**
      * Creates a SelfPopulatingCache.
      */
     public SelfPopulatingCache(final Ehcache cache, final CacheEntryFactory factory) throws CacheException {
-        super(cache);
-        this.factory = factory;
+        this(cache, factory, 0, 0);
     }
 
     /**
@@ -65,6 +115,73 @@ public class SelfPopulatingCache extends BlockingCache {
     public SelfPopulatingCache(Ehcache cache, int numberOfStripes, CacheEntryFactory factory) throws CacheException {
        super(cache, numberOfStripes);
        this.factory = factory;
+       this.staleWhileRevalidateSeconds = 0;
+       this.staleIfErrorSeconds = 0;
+       this.gracePeriodSeconds = 0;
+       this.storeHelper = null;
+    }
+
+    /**
+     * Create a SelfPopulatingCache, blocking the readers of a key being created only rather than of a whole stripe of keys
+     * if <code>perKeyBlocking</code> is true.
+     * <p/>
+     * Such a cache never serves expired values: per key blocking and stale grace periods can't be combined.
+     *
+     * @see BlockingCache#BlockingCache(Ehcache, boolean)
+     */
+    public SelfPopulatingCache(Ehcache cache, boolean perKeyBlocking, CacheEntryFactory factory) throws CacheException {
+        super(cache, perKeyBlocking);
+        this.factory = factory;
+        this.staleWhileRevalidateSeconds = 0;
+        this.staleIfErrorSeconds = 0;
+        this.gracePeriodSeconds = 0;
+        this.storeHelper = null;
+    }
+
+    /**
+     * Create a SelfPopulatingCache serving expired values for a grace period.
+     * <p/>
+     * The readers of a key being created block the other keys of its stripe: per key blocking and stale grace periods
+     * can't be combined.
+     *
+     * @param cache                       a backing ehcache
+     * @param factory                     the factory creating the entries
+     * @param staleWhileRevalidateSeconds how long after its expiry a value is returned while being reloaded in the background
+     * @param staleIfErrorSeconds         how long after its expiry a value is returned when it can't be reloaded
+     * @throws CacheException shouldn't happen
+     */
+    public SelfPopulatingCache(Ehcache cache, CacheEntryFactory factory, int staleWhileRevalidateSeconds, int staleIfErrorSeconds)
+            throws CacheException {
+        super(cache);
+        if (staleWhileRevalidateSeconds < 0 || staleIfErrorSeconds < 0) {
+            throw new IllegalArgumentException("Stale grace periods can't be negative");
+        }
+        this.factory = factory;
+        this.staleWhileRevalidateSeconds = staleWhileRevalidateSeconds;
+        this.staleIfErrorSeconds = staleIfErrorSeconds;
+        this.gracePeriodSeconds = Math.max(staleWhileRevalidateSeconds, staleIfErrorSeconds);
+        this.storeHelper = gracePeriodSeconds > 0 && cache instanceof Cache ? new CacheStoreHelper((Cache) cache) : null;
+        if (gracePeriodSeconds > 0) {
+            cache.getCacheEventNotificationService().registerListener(new StaleElementTracker());
+        }
+    }
+
+    /**
+     * Gets how long after its expiry a value is returned while being reloaded in the background.
+     *
+     * @return the stale-while-revalidate period in seconds
+     */
+    public int getStaleWhileRevalidateSeconds() {
+        return staleWhileRevalidateSeconds;
+    }
+
+    /**
+     * Gets how long after its expiry a value is returned when it can't be reloaded.
+     *
+     * @return the stale-if-error period in seconds
+     */
+    public int getStaleIfErrorSeconds() {
+        return staleIfErrorSeconds;
     }
 
   /**
@@ -73,9 +190,17 @@ public class SelfPopulatingCache extends BlockingCache {
     @Override
     public Element get(final Object key) throws LockTimeoutException {
 
+        Element expired = gracePeriodSeconds > 0 ? peekExpired(key) : null;
         Element element = super.get(key);
 
         if (element == null) {
+            Element stale = null;
+            if (gracePeriodSeconds > 0) {
+                stale = rememberAndGetStaleElement(key, expired);
+            }
+            if (stale != null) {
+                return getStale(key, stale);
+            }
             try {
                 // Value not cached - fetch it
                 Object value = factory.createEntry(key);
@@ -92,6 +217,165 @@ public class SelfPopulatingCache extends BlockingCache {
         return element;
     }
 
+    private Element getStale(final Object key, final Element stale) throws LockTimeoutException {
+        Revalidation revalidation;
+        try {
+            revalidation = revalidate(key);
+        } finally {
+            // the readers of the key join the reload rather than wait on the lock
+            release(key);
+        }
+        long staleMillis = getStaleMillis(stale);
+        if (staleMillis <= TimeUtil.toMillis(staleWhileRevalidateSeconds)) {
+            return stale;
+        }
+
+        Throwable failure;
+        try {
+            if (timeoutMillis > 0) {
+                return revalidation.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } else {
+                return revalidation.get();
+            }
+        } catch (ExecutionException e) {
+            failure = e.getCause();
+        } catch (CancellationException e) {
+            failure = e;
+        } catch (TimeoutException e) {
+            failure = new LockTimeoutException("Timeout. Waited more than " + timeoutMillis + "ms for the reload of key " + key
+                    + " on blocking cache " + getName());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LockTimeoutException("Got interrupted while waiting for the reload of key " + key, e);
+        }
+
+        if (staleMillis <= TimeUtil.toMillis(staleIfErrorSeconds)) {
+            return stale;
+        } else if (failure instanceof LockTimeoutException) {
+            throw (LockTimeoutException) failure;
+        } else {
+            throw new CacheException("Could not fetch object for cache entry with key \"" + key + "\".", failure);
+        }
+    }
+
+    private Revalidation revalidate(final Object key) {
+        Revalidation revalidation = revalidations.get(key);
+        if (revalidation == null) {
+            Revalidation newRevalidation = new Revalidation(key);
+            revalidation = revalidations.putIfAbsent(key, newRevalidation);
+            if (revalidation == null) {
+                revalidation = newRevalidation;
+                try {
+                    RevalidationExecutor.INSTANCE.execute(newRevalidation);
+                } catch (RuntimeException e) {
+                    revalidations.remove(key, newRevalidation);
+                    throw e;
+                }
+            }
+        }
+        return revalidation;
+    }
+
+    /**
+     * Looks up an element quietly, remembering it if it is found expired and within its grace period.
+     */
+    @Override
+    public Element getQuiet(final Object key) throws IllegalStateException, CacheException {
+        if (gracePeriodSeconds > 0) {
+            Element expired = peekExpired(key);
+            Element element = super.getQuiet(key);
+            if (element == null && expired != null) {
+                rememberAndGetStaleElement(key, expired);
+            }
+            return element;
+        }
+        return super.getQuiet(key);
+    }
+
+    /**
+     * Looks up an element quietly, remembering it if it is found expired and within its grace period.
+     */
+    @Override
+    public Element getQuiet(final Serializable key) throws IllegalStateException, CacheException {
+        return getQuiet((Object) key);
+    }
+
+    /**
+     * Reads the element of a key from the backing store as it is, before the backing cache removes it if expired
+     *
+     * @return the element if it is expired and within its grace period, null otherwise
+     */
+    private Element peekExpired(final Object key) {
+        if (storeHelper == null || key == null) {
+            return null;
+        }
+        Element element = storeHelper.getStore().getQuiet(key);
+        if (element == null || element.getObjectValue() == null) {
+            return null;
+        }
+        long staleMillis = getStaleMillis(element);
+        return staleMillis > 0 && staleMillis <= TimeUtil.toMillis(gracePeriodSeconds) ? element : null;
+    }
+
+    /**
+     * Remembers the element the backing cache just found expired, if any, and gets the expired element remembered for
+     * the key if its grace period hasn't ended
+     */
+    private Element rememberAndGetStaleElement(final Object key, final Element expired) {
+        if (key == null) {
+            return null;
+        }
+        StaleElements stale = staleElements();
+        if (expired != null) {
+            stale.remember(expired);
+        }
+        Element element = stale.get(key);
+        // an expired value that couldn't be remembered is still served to this reader
+        return element != null ? element : expired;
+    }
+
+    private StaleElements staleElements() {
+        StaleElements current = staleElements;
+        if (current == null) {
+            synchronized (this) {
+                current = staleElements;
+                if (current == null) {
+                    Pool pool = storeHelper == null ? new UnboundedPool() : storeHelper.getOnHeapPool();
+                    int maxElements = Integer.getInteger(MAX_STALE_ELEMENTS_PROPERTY, DEFAULT_MAX_STALE_ELEMENTS);
+                    current = new StaleElements(pool, maxElements);
+                    staleElements = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * How long ago the element expired
+     *
+     * @return a positive number of milliseconds if the element is expired
+     */
+    private static long getStaleMillis(final Element element) {
+        long expirationTime = element.getExpirationTime();
+        return expirationTime == Long.MAX_VALUE ? Long.MIN_VALUE : System.currentTimeMillis() - expirationTime;
+    }
+
+    /**
+     * Cancels the background reloads of this cache, then disposes the backing cache.
+     */
+    @Override
+    public void dispose() throws IllegalStateException {
+        for (Revalidation revalidation : revalidations.values()) {
+            revalidation.cancel(true);
+            RevalidationExecutor.INSTANCE.remove(revalidation);
+        }
+        StaleElements stale = staleElements;
+        if (stale != null) {
+            stale.dispose();
+        }
+        super.dispose();
+    }
+
     /**
      * Refresh the elements of this cache.
      * <p/>
@@ -314,4 +598,224 @@ public class SelfPopulatingCache extends BlockingCache {
         }
     }
 
+    /**
+     * The background reload of a stale key, shared by the readers of that key
+     */
+    private final class Revalidation extends FutureTask<Element> {
+
+        private final Object key;
+
+        Revalidation(final Object key) {
+            super(new Callable<Element>() {
+                @Override
+                public Element call() throws Exception {
+                    try {
+                        Element element = makeAndCheckElement(key, factory.createEntry(key));
+                        getCache().put(element);
+                        return element;
+                    } catch (Exception e) {
+                        LOG.warn(getName() + ": could not reload stale element " + key, e);
+                        throw e;
+                    }
+                }
+            });
+            this.key = key;
+        }
+
+        @Override
+        protected void done() {
+            revalidations.remove(key, this);
+        }
+    }
+
+    /**
+     * The expired elements remembered for their grace period, charged to a pool and capped in number
+     */
+    private final class StaleElements implements PoolParticipant {
+
+        private final ConcurrentMap<Object, StaleElement> elements = new ConcurrentHashMap<Object, StaleElement>();
+        private final AtomicInteger sinceSweep = new AtomicInteger();
+        private final PoolAccessor poolAccessor;
+        private final int maxElements;
+
+        StaleElements(final Pool pool, final int maxElements) {
+            this.maxElements = maxElements;
+            if (pool instanceof UnboundedPool) {
+                this.poolAccessor = pool.createPoolAccessor(null, null);
+            } else {
+                Ehcache cache = getCache();
+                boolean abort = SizeOfPolicyConfiguration.resolveBehavior(cache)
+                        .equals(SizeOfPolicyConfiguration.MaxDepthExceededBehavior.ABORT);
+                this.poolAccessor = pool.createPoolAccessor(this, SizeOfPolicyConfiguration.resolveMaxDepth(cache), abort);
+            }
+        }
+
+        /**
+         * Remembers an expired element, sweeping the elements whose grace period ended every so often
+         */
+        void remember(final Element element) {
+            Object key = element.getObjectKey();
+            if (sinceSweep.incrementAndGet() > Math.max(MIN_SWEEP_INTERVAL, elements.size())) {
+                sinceSweep.set(0);
+                for (StaleElement stale : elements.values()) {
+                    if (getStaleMillis(stale.element) > TimeUtil.toMillis(gracePeriodSeconds)) {
+                        forget(stale.element.getObjectKey(), stale);
+                    }
+                }
+            }
+            if (elements.size() >= maxElements && !elements.containsKey(key)) {
+                return;
+            }
+            long size = poolAccessor.add(key, element.getObjectValue(), element, false);
+            if (size < 0) {
+                return;
+            }
+            StaleElement previous = elements.put(key, new StaleElement(element, size));
+            if (previous != null) {
+                poolAccessor.delete(previous.size);
+            }
+        }
+
+        Element get(final Object key) {
+            StaleElement stale = elements.get(key);
+            if (stale == null) {
+                return null;
+            } else if (getStaleMillis(stale.element) > TimeUtil.toMillis(gracePeriodSeconds)) {
+                forget(key, stale);
+                return null;
+            } else {
+                return stale.element;
+            }
+        }
+
+        void forget(final Object key) {
+            StaleElement stale = elements.remove(key);
+            if (stale != null) {
+                poolAccessor.delete(stale.size);
+            }
+        }
+
+        private void forget(final Object key, final StaleElement stale) {
+            if (elements.remove(key, stale)) {
+                poolAccessor.delete(stale.size);
+            }
+        }
+
+        void clear() {
+            for (Object key : elements.keySet()) {
+                forget(key);
+            }
+        }
+
+        void dispose() {
+            clear();
+            poolAccessor.unlink();
+        }
+
+        @Override
+        public boolean evict(final int count, final long size) {
+            int evicted = 0;
+            Iterator<Map.Entry<Object, StaleElement>> it = elements.entrySet().iterator();
+            while (evicted < count && it.hasNext()) {
+                Map.Entry<Object, StaleElement> entry = it.next();
+                forget(entry.getKey(), entry.getValue());
+                evicted++;
+            }
+            return evicted == count;
+        }
+
+        @Override
+        public float getApproximateHitRate() {
+            return 0;
+        }
+
+        @Override
+        public float getApproximateMissRate() {
+            return 0;
+        }
+
+        @Override
+        public long getApproximateCountSize() {
+            return elements.size();
+        }
+    }
+
+    /**
+     * A remembered expired element and the bytes it accounts for in the pool
+     */
+    private static final class StaleElement {
+
+        private final Element element;
+        private final long size;
+
+        StaleElement(final Element element, final long size) {
+            this.element = element;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Forgets the remembered expired element of a key once the key is written, removed or evicted
+     */
+    private final class StaleElementTracker extends CacheEventListenerAdapter {
+
+        @Override
+        public void notifyElementPut(Ehcache cache, Element element) throws CacheException {
+            forget(element);
+        }
+
+        @Override
+        public void notifyElementUpdated(Ehcache cache, Element element) throws CacheException {
+            forget(element);
+        }
+
+        @Override
+        public void notifyElementRemoved(Ehcache cache, Element element) throws CacheException {
+            forget(element);
+        }
+
+        @Override
+        public void notifyElementEvicted(Ehcache cache, Element element) {
+            forget(element);
+        }
+
+        @Override
+        public void notifyRemoveAll(Ehcache cache) {
+            StaleElements stale = staleElements;
+            if (stale != null) {
+                stale.clear();
+            }
+        }
+
+        @Override
+        public void dispose() {
+            notifyRemoveAll(null);
+        }
+
+        private void forget(Element element) {
+            StaleElements stale = staleElements;
+            if (stale != null && element != null && element.getObjectKey() != null) {
+                stale.forget(element.getObjectKey());
+            }
+        }
+    }
+
+    /**
+     * The pool of daemon threads running the background reloads of all the caches, created on first use
+     */
+    private static final class RevalidationExecutor {
+
+        private static final ThreadPoolExecutor INSTANCE;
+
+        static {
+            int threads = Integer.getInteger(REVALIDATION_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+            INSTANCE = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>(),
+                    new NamedThreadFactory("SelfPopulatingCache revalidation thread", true));
+            INSTANCE.allowCoreThreadTimeOut(true);
+        }
+
+        private RevalidationExecutor() {
+            // holder
+        }
+    }
 }
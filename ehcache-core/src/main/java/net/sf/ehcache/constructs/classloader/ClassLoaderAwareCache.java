@@ -32,6 +32,9 @@ import net.sf.ehcache.CacheException;
 import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
+import net.sf.ehcache.ElementMerger;
+import net.sf.ehcache.ElementRemapper;
+import net.sf.ehcache.SplittableIterator;
 import net.sf.ehcache.Status;
 import net.sf.ehcache.bootstrap.BootstrapCacheLoader;
 import net.sf.ehcache.config.CacheConfiguration;
@@ -153,6 +156,36 @@ public class ClassLoaderAwareCache implements Ehcache {
         }
     }
 
+    /**
+    * {@inheritDoc}
+    */
+    public void putAllWithWriter(Collection arg0) throws IllegalArgumentException, IllegalStateException, CacheException {
+        // THIS IS GENERATED CODE -- DO NOT HAND MODIFY!
+        Thread t = Thread.currentThread();
+        ClassLoader prev = t.getContextClassLoader();
+        t.setContextClassLoader(this.classLoader);
+        try {
+            this.cache.putAllWithWriter(arg0);
+        } finally {
+            t.setContextClassLoader(prev);
+        }
+    }
+
+    /**
+    * {@inheritDoc}
+    */
+    public void removeAllWithWriter(Collection arg0) throws IllegalStateException, CacheException {
+        // THIS IS GENERATED CODE -- DO NOT HAND MODIFY!
+        Thread t = Thread.currentThread();
+        ClassLoader prev = t.getContextClassLoader();
+        t.setContextClassLoader(this.classLoader);
+        try {
+            this.cache.removeAllWithWriter(arg0);
+        } finally {
+            t.setContextClassLoader(prev);
+        }
+    }
+
     /**
     * {@inheritDoc}
     */
@@ -243,6 +276,28 @@ public class ClassLoaderAwareCache implements Ehcache {
         }
     }
 
+    /**
+    * {@inheritDoc}
+    */
+    public Iterator<Element> entryIterator(boolean arg0) throws IllegalStateException {
+        return splittableEntryIterator(arg0);
+    }
+
+    /**
+    * {@inheritDoc}
+    */
+    public SplittableIterator<Element> splittableEntryIterator(boolean arg0) throws IllegalStateException {
+        // THIS IS GENERATED CODE -- DO NOT HAND MODIFY!
+        Thread t = Thread.currentThread();
+        ClassLoader prev = t.getContextClassLoader();
+        t.setContextClassLoader(this.classLoader);
+        try {
+            return new ClassLoaderAwareSplittableIterator(this.cache.splittableEntryIterator(arg0));
+        } finally {
+            t.setContextClassLoader(prev);
+        }
+    }
+
     /**
     * {@inheritDoc}
     */
@@ -1398,6 +1453,66 @@ public class ClassLoaderAwareCache implements Ehcache {
         }
     }
 
+    /**
+    * {@inheritDoc}
+    */
+    public Element compute(Object arg0, ElementRemapper arg1) throws NullPointerException, IllegalArgumentException, CacheException {
+        // THIS IS GENERATED CODE -- DO NOT HAND MODIFY!
+        Thread t = Thread.currentThread();
+        ClassLoader prev = t.getContextClassLoader();
+        t.setContextClassLoader(this.classLoader);
+        try {
+            return this.cache.compute(arg0, arg1);
+        } finally {
+            t.setContextClassLoader(prev);
+        }
+    }
+
+    /**
+    * {@inheritDoc}
+    */
+    public Element computeIfAbsent(Object arg0, ElementRemapper arg1) throws NullPointerException, IllegalArgumentException, CacheException {
+        // THIS IS GENERATED CODE -- DO NOT HAND MODIFY!
+        Thread t = Thread.currentThread();
+        ClassLoader prev = t.getContextClassLoader();
+        t.setContextClassLoader(this.classLoader);
+        try {
+            return this.cache.computeIfAbsent(arg0, arg1);
+        } finally {
+            t.setContextClassLoader(prev);
+        }
+    }
+
+    /**
+    * {@inheritDoc}
+    */
+    public Element computeIfPresent(Object arg0, ElementRemapper arg1) throws NullPointerException, IllegalArgumentException, CacheException {
+        // THIS IS GENERATED CODE -- DO NOT HAND MODIFY!
+        Thread t = Thread.currentThread();
+        ClassLoader prev = t.getContextClassLoader();
+        t.setContextClassLoader(this.classLoader);
+        try {
+            return this.cache.computeIfPresent(arg0, arg1);
+        } finally {
+            t.setContextClassLoader(prev);
+        }
+    }
+
+    /**
+    * {@inheritDoc}
+    */
+    public Element merge(Element arg0, ElementMerger arg1) throws NullPointerException, IllegalArgumentException, CacheException {
+        // THIS IS GENERATED CODE -- DO NOT HAND MODIFY!
+        Thread t = Thread.currentThread();
+        ClassLoader prev = t.getContextClassLoader();
+        t.setContextClassLoader(this.classLoader);
+        try {
+            return this.cache.merge(arg0, arg1);
+        } finally {
+            t.setContextClassLoader(prev);
+        }
+    }
+
     /**
     * {@inheritDoc}
     */
@@ -1820,4 +1935,48 @@ public class ClassLoaderAwareCache implements Ehcache {
         }
     }
 
+    /**
+     * Splittable iterator over elements, read with the cache classloader as they may be deserialized
+     */
+    private class ClassLoaderAwareSplittableIterator implements SplittableIterator<Element> {
+        private final SplittableIterator<Element> delegate;
+
+        public ClassLoaderAwareSplittableIterator(final SplittableIterator<Element> delegate) {
+            this.delegate = delegate;
+        }
+
+        public boolean hasNext() {
+            // THIS IS GENERATED CODE -- DO NOT HAND MODIFY!
+            Thread t = Thread.currentThread();
+            ClassLoader prev = t.getContextClassLoader();
+            t.setContextClassLoader(classLoader);
+            try {
+                return delegate.hasNext();
+            } finally {
+                t.setContextClassLoader(prev);
+            }
+        }
+
+        public Element next() {
+            // THIS IS GENERATED CODE -- DO NOT HAND MODIFY!
+            Thread t = Thread.currentThread();
+            ClassLoader prev = t.getContextClassLoader();
+            t.setContextClassLoader(classLoader);
+            try {
+                return delegate.next();
+            } finally {
+                t.setContextClassLoader(prev);
+            }
+        }
+
+        public SplittableIterator<Element> trySplit() {
+            SplittableIterator<Element> split = delegate.trySplit();
+            return split == null ? null : new ClassLoaderAwareSplittableIterator(split);
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException("remove not supported for this Iterator");
+        }
+    }
+
 }
@@ -209,6 +209,13 @@ public class StronglyConsistentCacheAccessor extends EhcacheDecoratorAdapter {
         }
     }
 
+    @Override
+    public void putAllWithWriter(Collection<Element> elements) throws IllegalArgumentException, IllegalStateException, CacheException {
+        for (Element element : elements) {
+            putWithWriter(element);
+        }
+    }
+
     @Override
     public boolean remove(Object key, boolean doNotNotifyCacheReplicators) throws IllegalStateException {
         acquireWriteLockOnKey(key);
@@ -271,6 +278,13 @@ public class StronglyConsistentCacheAccessor extends EhcacheDecoratorAdapter {
         }
     }
 
+    @Override
+    public void removeAllWithWriter(Collection<?> keys) throws IllegalStateException, CacheException {
+        for (Object key : keys) {
+            removeWithWriter(key);
+        }
+    }
+
     @Override
     public Element removeAndReturnElement(Object key) throws IllegalStateException {
         acquireWriteLockOnKey(key);
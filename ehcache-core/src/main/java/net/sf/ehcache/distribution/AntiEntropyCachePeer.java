@@ -0,0 +1,53 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.distribution;
+
+import java.rmi.RemoteException;
+import java.util.Map;
+
+/**
+ * A {@link CachePeer} exposing the hash tree its cache is summarised by, so that a peer can find out which of its
+ * entries differ from its own without exchanging them. This is what {@link RMIAntiEntropyRepairer} repairs
+ * divergent peers through.
+ * <p/>
+ * Both methods return null when the cache of the peer has no {@link RMIAntiEntropyRepairer}, or one whose tree does
+ * not have the given number of leaves.
+ *
+ * @author Terracotta
+ */
+public interface AntiEntropyCachePeer extends CachePeer {
+
+    /**
+     * Gets the hashes of nodes of the hash tree of the cache.
+     *
+     * @param leafCount the number of leaves of the tree of the caller
+     * @param nodes     the nodes, numbered from 1 for the root, the children of node <code>n</code> being nodes
+     *                  <code>2n</code> and <code>2n + 1</code>
+     * @return the hashes of the nodes, in the same order
+     */
+    long[] getHashTreeNodes(int leafCount, int[] nodes) throws RemoteException;
+
+    /**
+     * Gets a digest of each of the entries and tombstones in some buckets of the hash tree of the cache.
+     *
+     * @param leafCount the number of leaves of the tree of the caller
+     * @param buckets   the buckets, numbered from 0
+     * @return a map of the keys in those buckets to three longs: the hash of the entry, the latest of its creation
+     *         and update times or, for a tombstone, its removal time, and 1 for a tombstone or else 0
+     */
+    Map<Object, long[]> getEntryDigests(int leafCount, int[] buckets) throws RemoteException;
+}
@@ -0,0 +1,357 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.distribution;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.sf.ehcache.Element;
+
+/**
+ * A hash tree over the entries of a cache, kept up to date as entries change.
+ * <p/>
+ * Keys are spread by hash code over a fixed number of buckets, the leaves of a complete binary tree. Each entry has a
+ * 64 bit hash, derived from the hash codes of its key and value, and each node holds the XOR of the hashes of the
+ * entries below it, so that changing an entry only updates the nodes on the path from its leaf to the root. Two trees
+ * holding the same entries have the same nodes, whatever the order in which the entries were put.
+ * <p/>
+ * Entries are only hashed when the tree is next read, so that putting an entry costs no more than a map insertion.
+ * <p/>
+ * Removed keys are remembered as tombstones holding their removal time, until purged. Evicted keys are remembered
+ * apart, as eviction marks: an eviction is local to a peer and must not be mistaken for a removal. Neither is part of
+ * the nodes: a tree holding a tombstone or an eviction mark for a key has the same nodes as one which never held that
+ * key.
+ * <p/>
+ * Nodes are numbered from 1, the root, node <code>n</code> having nodes <code>2n</code> and <code>2n + 1</code> for
+ * children. The leaf of bucket <code>b</code> is node <code>leafCount + b</code>.
+ *
+ * @author Terracotta
+ */
+final class HashTree {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long GOLDEN_RATIO = 0x9e3779b97f4a7c15L;
+    private static final int MAXIMUM_LOCK_COUNT = 64;
+
+    private static final ConcurrentMap<Class<?>, Boolean> CONTENT_HASHED_CLASSES = new ConcurrentHashMap<Class<?>, Boolean>();
+
+    private final int leafCount;
+    private final AtomicLongArray nodes;
+    private final Object[] locks;
+    private final ConcurrentMap<Object, Long> entryHashes = new ConcurrentHashMap<Object, Long>();
+    private final ConcurrentMap<Object, Element> pendingEntries = new ConcurrentHashMap<Object, Element>();
+    private final ConcurrentMap<Object, Long> tombstones = new ConcurrentHashMap<Object, Long>();
+    private final ConcurrentMap<Object, Long> evictions = new ConcurrentHashMap<Object, Long>();
+
+    /**
+     * Creates an empty tree
+     *
+     * @param leafCount the number of buckets, a power of two
+     */
+    HashTree(int leafCount) {
+        if (leafCount <= 0 || Integer.bitCount(leafCount) != 1) {
+            throw new IllegalArgumentException("The number of leaves must be a power of two: " + leafCount);
+        }
+        this.leafCount = leafCount;
+        this.nodes = new AtomicLongArray(2 * leafCount);
+        this.locks = new Object[Math.min(leafCount, MAXIMUM_LOCK_COUNT)];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * @return the number of buckets
+     */
+    int getLeafCount() {
+        return leafCount;
+    }
+
+    /**
+     * @return the bucket of a key
+     */
+    int bucketOf(Object key) {
+        int h = hashCodeOf(key);
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return h & (leafCount - 1);
+    }
+
+    /**
+     * Records the current element of a key. It is hashed when the tree is next read.
+     */
+    void put(Object key, Element element) {
+        synchronized (lockFor(key)) {
+            tombstones.remove(key);
+            evictions.remove(key);
+            pendingEntries.put(key, element);
+        }
+    }
+
+    /**
+     * Records the current element of a key, hashing it right away.
+     *
+     * @return the hash of the entry
+     */
+    long update(Object key, Element element) {
+        synchronized (lockFor(key)) {
+            tombstones.remove(key);
+            evictions.remove(key);
+            pendingEntries.remove(key);
+            long hash = hash(key, element);
+            record(key, hash);
+            return hash;
+        }
+    }
+
+    /**
+     * Records the removal of a key, leaving a tombstone.
+     *
+     * @param removalTime the time of the removal
+     */
+    void remove(Object key, long removalTime) {
+        synchronized (lockFor(key)) {
+            evictions.remove(key);
+            tombstones.put(key, removalTime);
+            forget(key);
+        }
+    }
+
+    /**
+     * Records the eviction or expiry of a key, leaving an eviction mark rather than a tombstone.
+     *
+     * @param evictionTime the time of the eviction
+     */
+    void evict(Object key, long evictionTime) {
+        synchronized (lockFor(key)) {
+            if (!tombstones.containsKey(key)) {
+                evictions.put(key, evictionTime);
+            }
+            forget(key);
+        }
+    }
+
+    private void forget(Object key) {
+        pendingEntries.remove(key);
+        Long previous = entryHashes.remove(key);
+        if (previous != null) {
+            apply(bucketOf(key), previous);
+        }
+    }
+
+    /**
+     * Records the removal of all keys, leaving a tombstone for each.
+     *
+     * @param removalTime the time of the removal
+     */
+    void clear(long removalTime) {
+        for (Object key : pendingEntries.keySet()) {
+            remove(key, removalTime);
+        }
+        for (Object key : entryHashes.keySet()) {
+            remove(key, removalTime);
+        }
+    }
+
+    /**
+     * Forgets the tombstones and the eviction marks of the keys removed or evicted before a given time.
+     */
+    void purgeTombstones(long before) {
+        purge(tombstones, before);
+        purge(evictions, before);
+    }
+
+    private static void purge(ConcurrentMap<Object, Long> marks, long before) {
+        for (Iterator<Long> it = marks.values().iterator(); it.hasNext();) {
+            if (it.next() < before) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the hashes of the given nodes
+     */
+    long[] getNodes(int[] indexes) {
+        hashPendingEntries();
+        long[] hashes = new long[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            hashes[i] = nodes.get(indexes[i]);
+        }
+        return hashes;
+    }
+
+    /**
+     * @return the keys recorded in the given buckets
+     */
+    List<Object> getKeys(BitSet buckets) {
+        hashPendingEntries();
+        List<Object> keys = new ArrayList<Object>();
+        for (Object key : entryHashes.keySet()) {
+            if (buckets.get(bucketOf(key))) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @return the removal times of the keys with a tombstone in the given buckets
+     */
+    Map<Object, Long> getTombstones(BitSet buckets) {
+        return getMarks(tombstones, buckets);
+    }
+
+    /**
+     * @return the eviction times of the keys with an eviction mark in the given buckets
+     */
+    Map<Object, Long> getEvictions(BitSet buckets) {
+        return getMarks(evictions, buckets);
+    }
+
+    private Map<Object, Long> getMarks(ConcurrentMap<Object, Long> marks, BitSet buckets) {
+        Map<Object, Long> times = new HashMap<Object, Long>();
+        for (Map.Entry<Object, Long> mark : marks.entrySet()) {
+            if (buckets.get(bucketOf(mark.getKey()))) {
+                times.put(mark.getKey(), mark.getValue());
+            }
+        }
+        return times;
+    }
+
+    private void hashPendingEntries() {
+        for (Object key : pendingEntries.keySet()) {
+            synchronized (lockFor(key)) {
+                Element element = pendingEntries.remove(key);
+                if (element != null) {
+                    record(key, hash(key, element));
+                }
+            }
+        }
+    }
+
+    private void record(Object key, long hash) {
+        Long previous = entryHashes.put(key, hash);
+        apply(bucketOf(key), previous == null ? hash : hash ^ previous);
+    }
+
+    private Object lockFor(Object key) {
+        return locks[bucketOf(key) & (locks.length - 1)];
+    }
+
+    private void apply(int bucket, long delta) {
+        for (int node = leafCount + bucket; node >= 1; node >>>= 1) {
+            long current;
+            do {
+                current = nodes.get(node);
+            } while (!nodes.compareAndSet(node, current, current ^ delta));
+        }
+    }
+
+    /**
+     * The hash of an entry, which must be the same on every peer holding an equal entry. Versions and timestamps are
+     * left out, as they are not kept across replication.
+     */
+    static long hash(Object key, Element element) {
+        Object value = element.getObjectValue();
+        long valueHash = value == null ? 0 : valueHash(value);
+        // offset, as the mix of 0 is 0 and an entry hashing to 0 would not show in the tree
+        return mix(mix(hashCodeOf(key) * GOLDEN_RATIO + FNV_OFFSET_BASIS) ^ valueHash);
+    }
+
+    /**
+     * Values are hashed through their hash code when their class computes it from their content, which is then
+     * the same for equal values on every peer, whatever their internal layout, as for hash based collections.
+     * Other values are hashed through their serialized form.
+     */
+    private static long valueHash(Object value) {
+        if (isContentHashed(value.getClass())) {
+            return hashCodeOf(value);
+        }
+        byte[] bytes = serialize(value);
+        if (bytes == null) {
+            // not Serializable: such an entry is not replicated anyway
+            return value.hashCode();
+        }
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : bytes) {
+            hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static boolean isContentHashed(Class<?> type) {
+        Boolean contentHashed = CONTENT_HASHED_CLASSES.get(type);
+        if (contentHashed == null) {
+            try {
+                contentHashed = Enum.class.isAssignableFrom(type) || type.getMethod("hashCode").getDeclaringClass() != Object.class;
+            } catch (NoSuchMethodException e) {
+                contentHashed = Boolean.FALSE;
+            }
+            CONTENT_HASHED_CLASSES.putIfAbsent(type, contentHashed);
+        }
+        return contentHashed;
+    }
+
+    /**
+     * The hash code of an object, except for enum constants whose hash code differs from one JVM to another.
+     */
+    static int hashCodeOf(Object object) {
+        if (object instanceof Enum) {
+            Enum<?> constant = (Enum<?>) object;
+            return constant.getDeclaringClass().getName().hashCode() * 31 + constant.name().hashCode();
+        }
+        return object.hashCode();
+    }
+
+    /**
+     * The MurmurHash3 finalizer: nodes being XORs of entry hashes, entry hashes must not be linear in their key and
+     * value, or two peers with the values of two keys swapped would have the same tree.
+     */
+    private static long mix(long hash) {
+        long h = hash;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static byte[] serialize(Object value) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(value);
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
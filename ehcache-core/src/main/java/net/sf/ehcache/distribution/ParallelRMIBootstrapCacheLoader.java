@@ -0,0 +1,241 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.distribution;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.util.PreferredLoaderObjectInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads Elements from all the cache peers at once.
+ * <p/>
+ * The key space is divided into partitions by key hash, {@link #PARTITIONS_PER_PEER} per peer. Each peer
+ * supporting streaming is then given its own thread, which takes the partitions still to load one at a time and
+ * streams each of them from its peer, in chunks of at most <code>maximumChunkSizeBytes</code>. The elements of a chunk
+ * are put in the cache in bulk before the next chunk is requested, so that at most one chunk per peer is held in
+ * memory, and the list of keys of the cache is never sent over the wire. Peers walk their cache lazily for each
+ * partition, without holding the keys of the partitions they were not asked for.
+ * <p/>
+ * When a peer fails, the partition it was streaming is put back to be loaded from the remaining peers, and the
+ * bootstrap carries on with them. It only fails if no peer is left. Should none of the peers support streaming, the
+ * cache is bootstrapped as {@link RMIBootstrapCacheLoader} does.
+ *
+ * @author Terracotta
+ */
+public class ParallelRMIBootstrapCacheLoader extends RMIBootstrapCacheLoader {
+
+    /**
+     * The number of partitions of the key space per peer: the more partitions, the less there is to load again when a
+     * peer fails
+     */
+    public static final int PARTITIONS_PER_PEER = 8;
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelRMIBootstrapCacheLoader.class.getName());
+
+    private static final long POLL_INTERVAL_MILLIS = 100;
+
+    /**
+     * Creates a bootstrap cache loader loading from all the RMI cache peers at once
+     *
+     * @param asynchronous          Whether to load asynchronously
+     * @param maximumChunkSizeBytes the maximum size of the chunks streamed from each peer
+     */
+    public ParallelRMIBootstrapCacheLoader(boolean asynchronous, int maximumChunkSizeBytes) {
+        super(asynchronous, maximumChunkSizeBytes);
+    }
+
+    /**
+     * Bootstraps the cache from all its cache peers at once.
+     * <p/>
+     * As with {@link RMIBootstrapCacheLoader}, this waits for the cluster to form first.
+     *
+     * @throws RemoteCacheException if all the peers failed before the cache was loaded
+     */
+    @Override
+    public void doLoad(Ehcache cache) throws RemoteCacheException {
+        List<?> cachePeers = acquireCachePeers(cache);
+        if (cachePeers == null || cachePeers.size() == 0) {
+            LOG.debug("Empty list of cache peers for cache " + cache.getName() + ". No cache peer to bootstrap from.");
+            return;
+        }
+        List<StreamingCachePeer> streamingPeers = new ArrayList<StreamingCachePeer>();
+        for (Object cachePeer : cachePeers) {
+            if (cachePeer instanceof StreamingCachePeer) {
+                streamingPeers.add((StreamingCachePeer) cachePeer);
+            }
+        }
+        if (streamingPeers.isEmpty()) {
+            LOG.info("No cache peer of " + cache.getName() + " supports streaming. Bootstrapping from a single peer instead.");
+            super.doLoad(cache);
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        Bootstrap bootstrap = new Bootstrap(cache, streamingPeers.size() * PARTITIONS_PER_PEER);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (StreamingCachePeer cachePeer : streamingPeers) {
+            Thread thread = new Thread(new PeerLoader(bootstrap, cachePeer),
+                    "Bootstrap Thread for cache " + cache.getName() + " from " + cachePeer);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            Thread.currentThread().interrupt();
+            throw new RemoteCacheException("Bootstrap of " + cache.getName() + " interrupted");
+        }
+
+        if (bootstrap.remainingPartitions.get() > 0) {
+            throw new RemoteCacheException("Error bootstrapping from remote peers: " + bootstrap.remainingPartitions.get()
+                    + " of " + bootstrap.partitions + " partitions could not be loaded from any of the "
+                    + streamingPeers.size() + " peers", bootstrap.failure);
+        }
+        LOG.debug("Bootstrap of " + cache.getName() + " from " + streamingPeers.size() + " peers finished. "
+                + bootstrap.loadedElements.get() + " elements loaded in " + (System.currentTimeMillis() - start) + "ms.");
+    }
+
+    /**
+     * Loads the partitions still to load from one peer, until all are loaded or the peer fails.
+     */
+    private void loadFrom(Bootstrap bootstrap, StreamingCachePeer cachePeer) {
+        while (bootstrap.remainingPartitions.get() > 0) {
+            Integer partition;
+            try {
+                partition = bootstrap.pendingPartitions.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (partition == null) {
+                // the last partitions are being loaded from other peers, which may yet fail
+                continue;
+            }
+            try {
+                long streamId = cachePeer.openStream(partition, bootstrap.partitions);
+                byte[] chunk;
+                while ((chunk = cachePeer.getNextChunk(streamId, maximumChunkSizeBytes)) != null) {
+                    List<Element> elements = readChunk(chunk, bootstrap.cache.getCacheConfiguration().getClassLoader());
+                    putAll(bootstrap.cache, elements);
+                    bootstrap.loadedElements.addAndGet(elements.size());
+                }
+                bootstrap.remainingPartitions.decrementAndGet();
+            } catch (Throwable t) {
+                LOG.warn("Error bootstrapping " + bootstrap.cache.getName() + " from " + cachePeer + ". Loading partition "
+                        + partition + " from the other peers instead. The cause was: " + t.getMessage(), t);
+                bootstrap.failure = t;
+                bootstrap.pendingPartitions.add(partition);
+                return;
+            }
+        }
+    }
+
+    private static List<Element> readChunk(byte[] chunk, ClassLoader loader) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new PreferredLoaderObjectInputStream(new ByteArrayInputStream(chunk), loader);
+        try {
+            List<Element> elements = new ArrayList<Element>();
+            for (Object element = in.readObject(); element != null; element = in.readObject()) {
+                elements.add((Element) element);
+            }
+            return elements;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void putAll(Ehcache cache, List<Element> elements) {
+        if (cache instanceof Cache) {
+            ((Cache) cache).putAll(elements, true);
+        } else {
+            for (Element element : elements) {
+                cache.put(element, true);
+            }
+        }
+    }
+
+    /**
+     * Clones this loader
+     */
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        //checkstyle
+        return new ParallelRMIBootstrapCacheLoader(asynchronous, maximumChunkSizeBytes);
+    }
+
+    /**
+     * The state of a bootstrap, shared by the threads loading from each peer
+     */
+    private static final class Bootstrap {
+
+        private final Ehcache cache;
+        private final int partitions;
+        private final BlockingQueue<Integer> pendingPartitions = new LinkedBlockingQueue<Integer>();
+        private final AtomicInteger remainingPartitions;
+        private final AtomicLong loadedElements = new AtomicLong();
+        private volatile Throwable failure;
+
+        private Bootstrap(Ehcache cache, int partitions) {
+            this.cache = cache;
+            this.partitions = partitions;
+            this.remainingPartitions = new AtomicInteger(partitions);
+            for (int i = 0; i < partitions; i++) {
+                pendingPartitions.add(i);
+            }
+        }
+    }
+
+    /**
+     * Loads from one peer
+     */
+    private final class PeerLoader implements Runnable {
+
+        private final Bootstrap bootstrap;
+        private final StreamingCachePeer cachePeer;
+
+        private PeerLoader(Bootstrap bootstrap, StreamingCachePeer cachePeer) {
+            this.bootstrap = bootstrap;
+            this.cachePeer = cachePeer;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void run() {
+            loadFrom(bootstrap, cachePeer);
+        }
+    }
+}
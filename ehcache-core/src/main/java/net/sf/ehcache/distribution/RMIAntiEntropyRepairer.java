@@ -0,0 +1,662 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.distribution;
+
+import java.io.Serializable;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.Status;
+import net.sf.ehcache.distribution.RmiEventMessage.RmiEventType;
+import net.sf.ehcache.event.CacheEventListener;
+import net.sf.ehcache.extension.CacheExtension;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Repairs the divergence between the copies of a replicated cache held by its RMI peers.
+ * <p/>
+ * Replication messages can be lost, for instance on socket timeouts or when queued messages are reclaimed under
+ * memory pressure, and nothing else brings the peers back in line until the entries expire. This extension keeps a
+ * {@link HashTree} of the entries of its cache up to date through a cache event listener, and periodically compares it
+ * with the tree of each peer, from the root down through the divergent branches only. The entries of the divergent
+ * buckets are then compared by digest, and only those that differ are transferred:
+ * <ul>
+ * <li>an entry missing from one side is copied to it
+ * <li>an entry with different values on both sides is overwritten with the most recently created or updated one
+ * <li>an entry removed on one side is removed from the other, unless it was created or updated there since
+ * </ul>
+ * Explicit removals are remembered as tombstones holding their time, which are purged after a while. A tombstone
+ * must outlive the divergence it settles: once purged, an entry missing on one side only is taken for a lost put and
+ * copied again.
+ * <p/>
+ * Expiries and evictions are local to a peer, which may hold fewer entries than the others: they are remembered as
+ * eviction marks, which are neither removed from the other peers nor copied back to the evicting one, and are purged
+ * along with tombstones.
+ * <p/>
+ * Repaired entries are put without being replicated any further. Tree, digest and entry exchanges are paced so as not
+ * to exceed a given number of bytes per second.
+ *
+ * @author Terracotta
+ */
+public class RMIAntiEntropyRepairer implements CacheExtension {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RMIAntiEntropyRepairer.class.getName());
+
+    private static final int TRANSFER_BATCH_SIZE = 100;
+    private static final int ONE_SECOND = 1000;
+
+    private static final int DIGEST_HASH = 0;
+    private static final int DIGEST_TIME = 1;
+    private static final int DIGEST_STATE = 2;
+
+    private static final long LIVE = 0;
+    private static final long REMOVED = 1;
+    private static final long EVICTED = 2;
+
+    /**
+     * The estimated size of a tree node on the wire: its index and its hash.
+     */
+    private static final int NODE_BYTES = 12;
+
+    /**
+     * The estimated size of a key and of its digest or removal on the wire.
+     */
+    private static final int DIGEST_BYTES = 64;
+
+    private final Ehcache cache;
+    private final long repairIntervalMillis;
+    private final long maximumRepairBytesPerSecond;
+    private final long tombstoneTimeToLiveMillis;
+    private final HashTree tree;
+    private final CacheEventListener treeMaintainer = new TreeMaintainer();
+    private final Object pacingLock = new Object();
+
+    private final AtomicLong repairRoundCount = new AtomicLong();
+    private final AtomicLong divergentBucketCount = new AtomicLong();
+    private final AtomicLong divergentEntryCount = new AtomicLong();
+    private final AtomicLong pushedEntryCount = new AtomicLong();
+    private final AtomicLong pulledEntryCount = new AtomicLong();
+    private final AtomicLong removedEntryCount = new AtomicLong();
+    private final AtomicLong transferredBytes = new AtomicLong();
+
+    private volatile Status status = Status.STATUS_UNINITIALISED;
+    private volatile long lastRoundDivergentEntryCount;
+    private long nextTransferTime;
+    private Thread repairThread;
+
+    /**
+     * Creates a repairer for a cache
+     *
+     * @param cache                       the cache to repair
+     * @param repairIntervalMillis        the time between two repair rounds, or 0 to only repair on {@link #repair()}
+     * @param leafCount                   the number of buckets of the hash tree, a power of two, which must be the
+     *                                    same on all peers
+     * @param maximumRepairBytesPerSecond the maximum rate at which repaired entries are transferred
+     * @param tombstoneTimeToLiveMillis   how long removals are remembered
+     */
+    public RMIAntiEntropyRepairer(Ehcache cache, long repairIntervalMillis, int leafCount, long maximumRepairBytesPerSecond,
+                                  long tombstoneTimeToLiveMillis) {
+        this.cache = cache;
+        this.repairIntervalMillis = repairIntervalMillis;
+        this.maximumRepairBytesPerSecond = maximumRepairBytesPerSecond;
+        this.tombstoneTimeToLiveMillis = tombstoneTimeToLiveMillis;
+        this.tree = new HashTree(leafCount);
+    }
+
+    /**
+     * Records the entries already in the cache, and starts repairing in the background if a repair interval was given.
+     */
+    public void init() {
+        cache.getCacheEventNotificationService().registerListener(treeMaintainer);
+        for (Object key : cache.getKeys()) {
+            Element element = cache.getQuiet(key);
+            if (element != null) {
+                tree.put(key, element);
+            }
+        }
+        status = Status.STATUS_ALIVE;
+        if (repairIntervalMillis > 0) {
+            repairThread = new Thread(new Runnable() {
+                public void run() {
+                    repairThreadMain();
+                }
+            }, "Anti-Entropy Repair Thread for cache " + cache.getName());
+            repairThread.setDaemon(true);
+            repairThread.start();
+        }
+    }
+
+    /**
+     * Stops repairing.
+     */
+    public void dispose() throws CacheException {
+        status = Status.STATUS_SHUTDOWN;
+        if (repairThread != null) {
+            repairThread.interrupt();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public CacheExtension clone(Ehcache cache) throws CloneNotSupportedException {
+        return new RMIAntiEntropyRepairer(cache, repairIntervalMillis, tree.getLeafCount(), maximumRepairBytesPerSecond,
+                tombstoneTimeToLiveMillis);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    private void repairThreadMain() {
+        while (status.equals(Status.STATUS_ALIVE)) {
+            try {
+                Thread.sleep(repairIntervalMillis);
+            } catch (InterruptedException e) {
+                LOG.debug("Anti-entropy repair thread for cache {} interrupted", cache.getName());
+                return;
+            }
+            try {
+                repair();
+            } catch (Throwable t) {
+                LOG.warn("Exception on anti-entropy repair of cache " + cache.getName() + ": " + t.getMessage()
+                        + ". Continuing...", t);
+            }
+        }
+    }
+
+    /**
+     * Runs a repair round against each peer of the cache. Rounds are not serialised, but share the transfer rate. A
+     * round interrupted, or whose repairer is disposed, while waiting for the rate to allow its next exchange stops
+     * there.
+     *
+     * @return the number of divergent entries found
+     */
+    public long repair() {
+        tree.purgeTombstones(System.currentTimeMillis() - tombstoneTimeToLiveMillis);
+        long divergentEntries = 0;
+        try {
+            for (AntiEntropyCachePeer peer : listAntiEntropyPeers()) {
+                try {
+                    divergentEntries += repairWith(peer);
+                } catch (RemoteException e) {
+                    LOG.warn("Error repairing cache " + cache.getName() + " against peer " + peer + ": " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.debug("Anti-entropy repair of cache {} interrupted", cache.getName());
+        }
+        repairRoundCount.incrementAndGet();
+        lastRoundDivergentEntryCount = divergentEntries;
+        if (divergentEntries > 0) {
+            LOG.info("Anti-entropy repair of cache " + cache.getName() + " found " + divergentEntries + " divergent entries");
+        }
+        return divergentEntries;
+    }
+
+    private List<AntiEntropyCachePeer> listAntiEntropyPeers() {
+        List<AntiEntropyCachePeer> peers = new ArrayList<AntiEntropyCachePeer>();
+        CacheManager cacheManager = cache.getCacheManager();
+        CacheManagerPeerProvider provider = cacheManager == null ? null : cacheManager.getCacheManagerPeerProvider("RMI");
+        if (provider != null) {
+            for (Object peer : provider.listRemoteCachePeers(cache)) {
+                if (peer instanceof AntiEntropyCachePeer) {
+                    peers.add((AntiEntropyCachePeer) peer);
+                }
+            }
+        }
+        return peers;
+    }
+
+    private long repairWith(AntiEntropyCachePeer peer) throws RemoteException, InterruptedException {
+        int leafCount = tree.getLeafCount();
+        BitSet divergentBuckets = new BitSet(leafCount);
+        int[] nodes = {1};
+        while (nodes.length > 0) {
+            pace(2L * nodes.length * NODE_BYTES);
+            long[] remoteHashes = peer.getHashTreeNodes(leafCount, nodes);
+            if (remoteHashes == null) {
+                LOG.debug("Peer {} of cache {} does not repair with {} leaves", new Object[] {peer, cache.getName(), leafCount});
+                return 0;
+            }
+            long[] localHashes = tree.getNodes(nodes);
+            List<Integer> children = new ArrayList<Integer>();
+            for (int i = 0; i < nodes.length; i++) {
+                if (localHashes[i] != remoteHashes[i]) {
+                    if (nodes[i] >= leafCount) {
+                        divergentBuckets.set(nodes[i] - leafCount);
+                    } else {
+                        children.add(2 * nodes[i]);
+                        children.add(2 * nodes[i] + 1);
+                    }
+                }
+            }
+            nodes = toArray(children);
+        }
+        if (divergentBuckets.isEmpty()) {
+            return 0;
+        }
+        divergentBucketCount.addAndGet(divergentBuckets.cardinality());
+
+        int[] buckets = new int[divergentBuckets.cardinality()];
+        for (int i = 0, bucket = divergentBuckets.nextSetBit(0); bucket >= 0; bucket = divergentBuckets.nextSetBit(bucket + 1)) {
+            buckets[i++] = bucket;
+        }
+        Map<Object, long[]> remoteDigests = peer.getEntryDigests(leafCount, buckets);
+        if (remoteDigests == null) {
+            return 0;
+        }
+        pace((long) remoteDigests.size() * DIGEST_BYTES);
+        Map<Object, long[]> localDigests = getEntryDigests(divergentBuckets);
+
+        Set<Object> keys = new HashSet<Object>(localDigests.keySet());
+        keys.addAll(remoteDigests.keySet());
+        List<Object> toPush = new ArrayList<Object>();
+        List<Serializable> toPull = new ArrayList<Serializable>();
+        List<Serializable> toRemoveRemotely = new ArrayList<Serializable>();
+        Map<Object, Long> toRemoveLocally = new HashMap<Object, Long>();
+        for (Object key : keys) {
+            long[] local = localDigests.get(key);
+            long[] remote = remoteDigests.get(key);
+            if (local == null || remote == null) {
+                // an entry missing on one side without a mark is a lost put, a lone mark needs nothing
+                if (local == null && isLive(remote)) {
+                    toPull.add((Serializable) key);
+                } else if (remote == null && isLive(local)) {
+                    toPush.add(key);
+                }
+            } else if (isEvicted(local) || isEvicted(remote)) {
+                // the evicting side need not hold the entry, and the other side must keep it
+                continue;
+            } else if (isSame(local, remote)) {
+                continue;
+            } else if (isNewer(local, remote)) {
+                if (isRemoval(local)) {
+                    toRemoveRemotely.add((Serializable) key);
+                } else {
+                    toPush.add(key);
+                }
+            } else if (isRemoval(remote)) {
+                toRemoveLocally.put(key, remote[DIGEST_TIME]);
+            } else {
+                toPull.add((Serializable) key);
+            }
+        }
+        push(peer, toPush);
+        pull(peer, toPull);
+        removeRemotely(peer, toRemoveRemotely);
+        removeLocally(toRemoveLocally);
+
+        long divergentEntries = toPush.size() + toPull.size() + toRemoveRemotely.size() + toRemoveLocally.size();
+        divergentEntryCount.addAndGet(divergentEntries);
+        return divergentEntries;
+    }
+
+    private static boolean isLive(long[] digest) {
+        return digest[DIGEST_STATE] == LIVE;
+    }
+
+    private static boolean isRemoval(long[] digest) {
+        return digest[DIGEST_STATE] == REMOVED;
+    }
+
+    private static boolean isEvicted(long[] digest) {
+        return digest[DIGEST_STATE] == EVICTED;
+    }
+
+    private static boolean isSame(long[] digest, long[] other) {
+        if (isRemoval(digest) || isRemoval(other)) {
+            return isRemoval(digest) && isRemoval(other);
+        }
+        return digest[DIGEST_HASH] == other[DIGEST_HASH];
+    }
+
+    /**
+     * Decides which of two differing entries wins: the most recent one or, on a tie, the removal if either is one, or
+     * else the one with the highest hash.
+     */
+    private static boolean isNewer(long[] digest, long[] other) {
+        if (digest[DIGEST_TIME] != other[DIGEST_TIME]) {
+            return digest[DIGEST_TIME] > other[DIGEST_TIME];
+        } else if (isRemoval(digest) || isRemoval(other)) {
+            return isRemoval(digest);
+        } else {
+            return digest[DIGEST_HASH] > other[DIGEST_HASH];
+        }
+    }
+
+    private void push(AntiEntropyCachePeer peer, List<Object> keys) throws RemoteException, InterruptedException {
+        List<RmiEventMessage> batch = new ArrayList<RmiEventMessage>();
+        long bytes = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            Element element = cache.getQuiet(keys.get(i));
+            if (element != null && element.isSerializable()) {
+                batch.add(new RmiEventMessage(cache, RmiEventType.PUT, null, element));
+                bytes += element.getSerializedSize();
+            }
+            if (batch.size() == TRANSFER_BATCH_SIZE || (i == keys.size() - 1 && !batch.isEmpty())) {
+                pace(bytes);
+                peer.send(batch);
+                pushedEntryCount.addAndGet(batch.size());
+                batch.clear();
+                bytes = 0;
+            }
+        }
+    }
+
+    private void pull(AntiEntropyCachePeer peer, List<Serializable> keys) throws RemoteException, InterruptedException {
+        for (int from = 0; from < keys.size(); from += TRANSFER_BATCH_SIZE) {
+            if (from > 0) {
+                // pays for the previous batch before asking for the next one
+                awaitPacing();
+            }
+            List<?> elements = peer.getElements(new ArrayList<Serializable>(
+                    keys.subList(from, Math.min(from + TRANSFER_BATCH_SIZE, keys.size()))));
+            List<Element> received = new ArrayList<Element>(elements.size());
+            long bytes = 0;
+            for (Object element : elements) {
+                received.add((Element) element);
+                bytes += ((Element) element).getSerializedSize();
+            }
+            if (cache instanceof Cache) {
+                ((Cache) cache).putAll(received, true);
+            } else {
+                for (Element element : received) {
+                    cache.put(element, true);
+                }
+            }
+            pulledEntryCount.addAndGet(received.size());
+            charge(bytes);
+        }
+    }
+
+    private void removeRemotely(AntiEntropyCachePeer peer, List<Serializable> keys) throws RemoteException, InterruptedException {
+        for (int from = 0; from < keys.size(); from += TRANSFER_BATCH_SIZE) {
+            List<RmiEventMessage> batch = new ArrayList<RmiEventMessage>();
+            for (Serializable key : keys.subList(from, Math.min(from + TRANSFER_BATCH_SIZE, keys.size()))) {
+                batch.add(new RmiEventMessage(cache, RmiEventType.REMOVE, key, null));
+            }
+            pace((long) batch.size() * DIGEST_BYTES);
+            peer.send(batch);
+            removedEntryCount.addAndGet(batch.size());
+        }
+    }
+
+    /**
+     * Removes entries removed more recently by a peer, unless they were updated since the digests were taken.
+     */
+    private void removeLocally(Map<Object, Long> removals) {
+        for (Map.Entry<Object, Long> removal : removals.entrySet()) {
+            Element element = cache.getQuiet(removal.getKey());
+            if (element != null && element.getLatestOfCreationAndUpdateTime() <= removal.getValue()) {
+                cache.remove(removal.getKey(), true);
+                removedEntryCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Accounts for bytes about to be transferred, waiting as long as needed to keep under the maximum rate.
+     */
+    private void pace(long bytes) throws InterruptedException {
+        charge(bytes);
+        awaitPacing();
+    }
+
+    /**
+     * Accounts for bytes transferred, pushing back the time of the next exchange.
+     */
+    private void charge(long bytes) {
+        transferredBytes.addAndGet(bytes);
+        synchronized (pacingLock) {
+            nextTransferTime = Math.max(nextTransferTime, System.currentTimeMillis())
+                    + bytes * ONE_SECOND / maximumRepairBytesPerSecond;
+        }
+    }
+
+    /**
+     * Waits, without holding any lock, until the bytes transferred so far are within the maximum rate.
+     */
+    private void awaitPacing() throws InterruptedException {
+        long wait;
+        synchronized (pacingLock) {
+            wait = nextTransferTime - System.currentTimeMillis();
+        }
+        if (wait > 0) {
+            Thread.sleep(wait);
+        }
+        if (!status.equals(Status.STATUS_ALIVE)) {
+            throw new InterruptedException("Repairer of cache " + cache.getName() + " disposed");
+        }
+    }
+
+    /**
+     * Gets the hashes of nodes of the tree, for a peer.
+     *
+     * @return the hashes, or null if the tree of the peer does not have as many leaves
+     */
+    long[] getHashTreeNodes(int leafCount, int[] nodes) {
+        if (leafCount != tree.getLeafCount()) {
+            return null;
+        }
+        return tree.getNodes(nodes);
+    }
+
+    /**
+     * Gets the digests of the entries of some buckets, for a peer.
+     *
+     * @return the digests, or null if the tree of the peer does not have as many leaves
+     */
+    Map<Object, long[]> getEntryDigests(int leafCount, int[] buckets) {
+        if (leafCount != tree.getLeafCount()) {
+            return null;
+        }
+        BitSet bucketSet = new BitSet(leafCount);
+        for (int bucket : buckets) {
+            bucketSet.set(bucket);
+        }
+        return getEntryDigests(bucketSet);
+    }
+
+    /**
+     * Digests the current entries, the tombstones and the eviction marks of some buckets. The tree is refreshed on the
+     * way, in case it missed an event: an entry gone without notice is taken for an eviction, which is never
+     * propagated.
+     */
+    private Map<Object, long[]> getEntryDigests(BitSet buckets) {
+        Map<Object, long[]> digests = new HashMap<Object, long[]>();
+        for (Object key : tree.getKeys(buckets)) {
+            Element element = cache.getQuiet(key);
+            if (element == null) {
+                tree.evict(key, System.currentTimeMillis());
+            } else {
+                digests.put(key, new long[] {tree.update(key, element), element.getLatestOfCreationAndUpdateTime(), LIVE});
+            }
+        }
+        addMarks(digests, tree.getTombstones(buckets), REMOVED);
+        addMarks(digests, tree.getEvictions(buckets), EVICTED);
+        return digests;
+    }
+
+    private static void addMarks(Map<Object, long[]> digests, Map<Object, Long> marks, long state) {
+        for (Map.Entry<Object, Long> mark : marks.entrySet()) {
+            if (!digests.containsKey(mark.getKey())) {
+                digests.put(mark.getKey(), new long[] {0, mark.getValue(), state});
+            }
+        }
+    }
+
+    /**
+     * Finds the repairer of a cache.
+     *
+     * @return the repairer, or null if the cache has none
+     */
+    static RMIAntiEntropyRepairer getRepairer(Ehcache cache) {
+        for (CacheExtension extension : cache.getRegisteredCacheExtensions()) {
+            if (extension instanceof RMIAntiEntropyRepairer && extension.getStatus().equals(Status.STATUS_ALIVE)) {
+                return (RMIAntiEntropyRepairer) extension;
+            }
+        }
+        return null;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * @return the number of repair rounds run
+     */
+    public long getRepairRoundCount() {
+        return repairRoundCount.get();
+    }
+
+    /**
+     * @return the number of divergent buckets found, over all rounds and peers
+     */
+    public long getDivergentBucketCount() {
+        return divergentBucketCount.get();
+    }
+
+    /**
+     * @return the number of divergent entries found, over all rounds and peers
+     */
+    public long getDivergentEntryCount() {
+        return divergentEntryCount.get();
+    }
+
+    /**
+     * @return the number of divergent entries found during the last round
+     */
+    public long getLastRoundDivergentEntryCount() {
+        return lastRoundDivergentEntryCount;
+    }
+
+    /**
+     * @return the number of entries sent to peers
+     */
+    public long getPushedEntryCount() {
+        return pushedEntryCount.get();
+    }
+
+    /**
+     * @return the number of entries fetched from peers
+     */
+    public long getPulledEntryCount() {
+        return pulledEntryCount.get();
+    }
+
+    /**
+     * @return the number of entries removed, locally or from peers, because they had been removed more recently on
+     *         the other side
+     */
+    public long getRemovedEntryCount() {
+        return removedEntryCount.get();
+    }
+
+    /**
+     * @return the serialized size of the entries transferred, in bytes
+     */
+    public long getTransferredBytes() {
+        return transferredBytes.get();
+    }
+
+    /**
+     * Keeps the hash tree up to date. Being no replicator, it also hears of the changes made by peers.
+     */
+    private final class TreeMaintainer implements CacheEventListener {
+
+        /**
+         * {@inheritDoc}
+         */
+        public void notifyElementPut(Ehcache cache, Element element) {
+            tree.put(element.getObjectKey(), element);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void notifyElementUpdated(Ehcache cache, Element element) {
+            tree.put(element.getObjectKey(), element);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void notifyElementRemoved(Ehcache cache, Element element) {
+            tree.remove(element.getObjectKey(), System.currentTimeMillis());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void notifyElementExpired(Ehcache cache, Element element) {
+            tree.evict(element.getObjectKey(), System.currentTimeMillis());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void notifyElementEvicted(Ehcache cache, Element element) {
+            tree.evict(element.getObjectKey(), System.currentTimeMillis());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void notifyRemoveAll(Ehcache cache) {
+            tree.clear(System.currentTimeMillis());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void dispose() {
+            // nothing to release
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Object clone() throws CloneNotSupportedException {
+            throw new CloneNotSupportedException("Registered by its RMIAntiEntropyRepairer");
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.distribution;
+
+import java.util.Properties;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.extension.CacheExtension;
+import net.sf.ehcache.extension.CacheExtensionFactory;
+import net.sf.ehcache.util.PropertyUtil;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds a {@link RMIAntiEntropyRepairer} from its properties:
+ * <ul>
+ * <li>repairIntervalMillis - the time between two repair rounds, defaulting to 60000. 0 disables background repair.
+ * <li>hashTreeLeaves - the number of buckets of the hash tree, a power of two which must be the same on all peers,
+ * defaulting to 1024
+ * <li>maximumRepairBytesPerSecond - the maximum rate at which repaired entries are transferred, defaulting to 1000000
+ * <li>tombstoneTimeToLiveMillis - how long removals are remembered, defaulting to 600000. It should span several
+ * repair rounds.
+ * </ul>
+ *
+ * @author Terracotta
+ */
+public class RMIAntiEntropyRepairerFactory extends CacheExtensionFactory {
+
+    /**
+     * Default time between two repair rounds
+     */
+    public static final long DEFAULT_REPAIR_INTERVAL_MILLIS = 60000;
+
+    /**
+     * Default number of buckets of the hash tree
+     */
+    public static final int DEFAULT_HASH_TREE_LEAVES = 1024;
+
+    /**
+     * Default maximum rate at which repaired entries are transferred
+     */
+    public static final long DEFAULT_MAXIMUM_REPAIR_BYTES_PER_SECOND = 1000000;
+
+    /**
+     * Default time removals are remembered for
+     */
+    public static final long DEFAULT_TOMBSTONE_TIME_TO_LIVE_MILLIS = 600000;
+
+    private static final Logger LOG = LoggerFactory.getLogger(RMIAntiEntropyRepairerFactory.class.getName());
+
+    private static final String REPAIR_INTERVAL_MILLIS = "repairIntervalMillis";
+    private static final String HASH_TREE_LEAVES = "hashTreeLeaves";
+    private static final String MAXIMUM_REPAIR_BYTES_PER_SECOND = "maximumRepairBytesPerSecond";
+    private static final String TOMBSTONE_TIME_TO_LIVE_MILLIS = "tombstoneTimeToLiveMillis";
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CacheExtension createCacheExtension(Ehcache cache, Properties properties) {
+        long repairIntervalMillis = extractLong(REPAIR_INTERVAL_MILLIS, properties, DEFAULT_REPAIR_INTERVAL_MILLIS, 0);
+        long leaves = extractLong(HASH_TREE_LEAVES, properties, DEFAULT_HASH_TREE_LEAVES, 1);
+        if (leaves > Integer.MAX_VALUE / 2 || Long.bitCount(leaves) != 1) {
+            LOG.warn(HASH_TREE_LEAVES + " must be a power of two, using the default of " + DEFAULT_HASH_TREE_LEAVES);
+            leaves = DEFAULT_HASH_TREE_LEAVES;
+        }
+        long maximumRepairBytesPerSecond = extractLong(MAXIMUM_REPAIR_BYTES_PER_SECOND, properties,
+                DEFAULT_MAXIMUM_REPAIR_BYTES_PER_SECOND, 1);
+        long tombstoneTimeToLiveMillis = extractLong(TOMBSTONE_TIME_TO_LIVE_MILLIS, properties,
+                DEFAULT_TOMBSTONE_TIME_TO_LIVE_MILLIS, 0);
+        return new RMIAntiEntropyRepairer(cache, repairIntervalMillis, (int) leaves, maximumRepairBytesPerSecond,
+                tombstoneTimeToLiveMillis);
+    }
+
+    private static long extractLong(String name, Properties properties, long defaultValue, long minimum) {
+        String value = PropertyUtil.extractAndLogProperty(name, properties);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            long parsed = Long.parseLong(value.trim());
+            if (parsed >= minimum) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // logged below
+        }
+        LOG.warn("Invalid " + name + " '" + value + "', using the default of " + defaultValue);
+        return defaultValue;
+    }
+}
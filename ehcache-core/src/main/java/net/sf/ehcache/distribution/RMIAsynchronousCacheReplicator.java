@@ -24,9 +24,13 @@ import net.sf.ehcache.Status;
 import java.lang.ref.SoftReference;
 import java.rmi.UnmarshalException;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import net.sf.ehcache.distribution.RmiEventMessage.RmiEventType;
 
 import org.slf4j.LoggerFactory;
@@ -51,6 +55,11 @@ import org.slf4j.Logger;
  * of SoftReferences is that the VM (JDK1.5 anyway) will do that rather than grow the heap size to the maximum.
  * The workaround is to either set minimum heap size to the maximum heap size to force heap allocation at start
  * up, or put up with a few lost messages while the heap grows.
+ * <p/>
+ * In coalescing mode, pending changes are instead held by hard references in a map indexed by key, so that only the
+ * latest change on each key is replicated. A removeAll supersedes all the changes pending before it: it is replicated
+ * first, followed by the changes made after it. Memory use is then bounded by the number of distinct keys changed
+ * between two flushes, and no change is discarded by the GC.
  *
  * @author Greg Luck
  * @version $Id$
@@ -82,6 +91,25 @@ public class RMIAsynchronousCacheReplicator extends RMISynchronousCacheReplicato
      */
     private final Queue<Object> replicationQueue = new ConcurrentLinkedQueue<Object>();
 
+    /**
+     * Whether pending updates are coalesced by key.
+     */
+    private final boolean coalescing;
+
+    /**
+     * The latest pending update of each key in coalescing mode, in the order keys were first updated.
+     */
+    private final Map<Object, RmiEventMessage> coalescedEvents = new LinkedHashMap<Object, RmiEventMessage>();
+
+    /**
+     * The removeAll superseding the updates made before it in coalescing mode, guarded by coalescedEvents.
+     */
+    private RmiEventMessage pendingRemoveAll;
+
+    private final AtomicLong queuedEventCount = new AtomicLong();
+    private final AtomicLong coalescedEventCount = new AtomicLong();
+    private final AtomicLong droppedEventCount = new AtomicLong();
+
     /**
      * Constructor for internal and subclass use
      */
@@ -93,6 +121,24 @@ public class RMIAsynchronousCacheReplicator extends RMISynchronousCacheReplicato
             boolean replicateRemovals,
             int replicationInterval,
             int maximumBatchSize) {
+        this(replicatePuts, replicatePutsViaCopy, replicateUpdates, replicateUpdatesViaCopy, replicateRemovals,
+                replicationInterval, maximumBatchSize, false);
+    }
+
+    /**
+     * Constructor for internal and subclass use
+     *
+     * @param coalescing whether pending updates are coalesced by key, only the latest one on each key being replicated
+     */
+    public RMIAsynchronousCacheReplicator(
+            boolean replicatePuts,
+            boolean replicatePutsViaCopy,
+            boolean replicateUpdates,
+            boolean replicateUpdatesViaCopy,
+            boolean replicateRemovals,
+            int replicationInterval,
+            int maximumBatchSize,
+            boolean coalescing) {
         super(replicatePuts,
                 replicatePutsViaCopy,
                 replicateUpdates,
@@ -100,6 +146,7 @@ public class RMIAsynchronousCacheReplicator extends RMISynchronousCacheReplicato
                 replicateRemovals);
         this.replicationInterval = replicationInterval;
         this.maximumBatchSize = maximumBatchSize;
+        this.coalescing = coalescing;
         status = Status.STATUS_ALIVE;
         replicationThread.start();
     }
@@ -112,7 +159,7 @@ public class RMIAsynchronousCacheReplicator extends RMISynchronousCacheReplicato
     private void replicationThreadMain() {
         while (true) {
             // Wait for elements in the replicationQueue
-            while (alive() && replicationQueue != null && replicationQueue.isEmpty()) {
+            while (alive() && replicationQueue != null && isReplicationQueueEmpty()) {
                 try {
                     Thread.sleep(replicationInterval);
                 } catch (InterruptedException e) {
@@ -278,8 +325,13 @@ public class RMIAsynchronousCacheReplicator extends RMISynchronousCacheReplicato
      */
     protected void addToReplicationQueue(RmiEventMessage eventMessage) {
         if (!replicationThread.isAlive()) {
+            droppedEventCount.incrementAndGet();
             LOG.error("CacheEventMessages cannot be added to the replication queue because the replication thread has died.");
+        } else if (coalescing) {
+            queuedEventCount.incrementAndGet();
+            coalesce(eventMessage);
         } else {
+            queuedEventCount.incrementAndGet();
             switch (eventMessage.getType()) {
                 case PUT:
                     replicationQueue.add(new SoftReference(eventMessage));
@@ -292,6 +344,37 @@ public class RMIAsynchronousCacheReplicator extends RMISynchronousCacheReplicato
     }
 
 
+    /**
+     * Replaces the pending update of the same key, or all pending updates for a removeAll.
+     *
+     * @param eventMessage the update to queue
+     */
+    private void coalesce(RmiEventMessage eventMessage) {
+        synchronized (coalescedEvents) {
+            if (eventMessage.getType() == RmiEventType.REMOVE_ALL) {
+                coalescedEventCount.addAndGet(coalescedEvents.size() + (pendingRemoveAll == null ? 0 : 1));
+                coalescedEvents.clear();
+                pendingRemoveAll = eventMessage;
+            } else {
+                Object key = eventMessage.getType() == RmiEventType.PUT
+                        ? eventMessage.getElement().getObjectKey() : eventMessage.getSerializableKey();
+                if (coalescedEvents.put(key, eventMessage) != null) {
+                    coalescedEventCount.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private boolean isReplicationQueueEmpty() {
+        if (coalescing) {
+            synchronized (coalescedEvents) {
+                return pendingRemoveAll == null && coalescedEvents.isEmpty();
+            }
+        } else {
+            return replicationQueue.isEmpty();
+        }
+    }
+
     /**
      * Gets called once per {@link #replicationInterval}.
      * <p/>
@@ -329,7 +412,7 @@ public class RMIAsynchronousCacheReplicator extends RMISynchronousCacheReplicato
     }
 
     private void flushReplicationQueue() {
-        while (!replicationQueue.isEmpty()) {
+        while (!isReplicationQueueEmpty()) {
             writeReplicationQueue();
         }
     }
@@ -344,6 +427,9 @@ public class RMIAsynchronousCacheReplicator extends RMISynchronousCacheReplicato
      * @return a list of EventMessages which were able to be resolved
      */
     private List<EventMessage> extractEventMessages(int limit) {
+        if (coalescing) {
+            return extractCoalescedEventMessages(limit);
+        }
         List<EventMessage> list = new ArrayList(Math.min(replicationQueue.size(), limit));
 
         int droppedMessages = 0;
@@ -365,6 +451,7 @@ public class RMIAsynchronousCacheReplicator extends RMISynchronousCacheReplicato
         }
         
         if (droppedMessages > 0) {
+            droppedEventCount.addAndGet(droppedMessages);
             LOG.warn(droppedMessages + " messages were discarded on replicate due to reclamation of " +
                     "SoftReferences by the VM. Consider increasing the maximum heap size and/or setting the " +
                     "starting heap size to a higher value.");
@@ -372,6 +459,73 @@ public class RMIAsynchronousCacheReplicator extends RMISynchronousCacheReplicato
         return list;
     }
 
+    /**
+     * Extracts the pending removeAll, if any, followed by the latest pending update of each key.
+     *
+     * @param limit the maximum number of messages to extract
+     * @return the messages to replicate, in order
+     */
+    private List<EventMessage> extractCoalescedEventMessages(int limit) {
+        synchronized (coalescedEvents) {
+            List<EventMessage> list = new ArrayList<EventMessage>(Math.min(coalescedEvents.size() + 1, limit));
+            if (pendingRemoveAll != null) {
+                list.add(pendingRemoveAll);
+                pendingRemoveAll = null;
+            }
+            for (Iterator<RmiEventMessage> it = coalescedEvents.values().iterator(); it.hasNext() && list.size() < limit;) {
+                list.add(it.next());
+                it.remove();
+            }
+            return list;
+        }
+    }
+
+    /**
+     * Gets the number of updates queued for replication.
+     *
+     * @return the queued update count
+     */
+    public long getQueuedEventCount() {
+        return queuedEventCount.get();
+    }
+
+    /**
+     * Gets the number of queued updates superseded by a later update of the same key, or by a removeAll, before being
+     * replicated. Always 0 unless coalescing.
+     *
+     * @return the coalesced update count
+     */
+    public long getCoalescedEventCount() {
+        return coalescedEventCount.get();
+    }
+
+    /**
+     * Gets the share of queued updates that were coalesced rather than replicated.
+     *
+     * @return the coalescing ratio, between 0 and 1
+     */
+    public double getCoalescingRatio() {
+        long queued = queuedEventCount.get();
+        return queued == 0 ? 0 : coalescedEventCount.get() / (double) queued;
+    }
+
+    /**
+     * Gets the number of updates discarded without being replicated, because the VM reclaimed their soft references or
+     * the replication thread had died.
+     *
+     * @return the dropped update count
+     */
+    public long getDroppedEventCount() {
+        return droppedEventCount.get();
+    }
+
+    /**
+     * @return whether pending updates are coalesced by key
+     */
+    public final boolean isCoalescing() {
+        return coalescing;
+    }
+
     /**
      * A background daemon thread that writes objects to the file.
      */
@@ -412,7 +566,7 @@ public class RMIAsynchronousCacheReplicator extends RMISynchronousCacheReplicato
         //shutup checkstyle
         super.clone();
         return new RMIAsynchronousCacheReplicator(replicatePuts, replicatePutsViaCopy,
-                replicateUpdates, replicateUpdatesViaCopy, replicateRemovals, replicationInterval, maximumBatchSize);
+                replicateUpdates, replicateUpdatesViaCopy, replicateRemovals, replicationInterval, maximumBatchSize, coalescing);
     }
 
 
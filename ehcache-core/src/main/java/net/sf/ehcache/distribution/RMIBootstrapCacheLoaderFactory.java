@@ -37,6 +37,11 @@ public class RMIBootstrapCacheLoaderFactory extends BootstrapCacheLoaderFactory<
      */
     public static final String MAXIMUM_CHUNK_SIZE_BYTES = "maximumChunkSizeBytes";
 
+    /**
+     * The property name expected in ehcache.xml for bootstrapping from all the cache peers at once
+     */
+    public static final String BOOTSTRAP_IN_PARALLEL = "bootstrapInParallel";
+
     /**
      * The default maximum serialized size of the elements to request from a remote cache peer during bootstrap.
      */
@@ -65,6 +70,9 @@ public class RMIBootstrapCacheLoaderFactory extends BootstrapCacheLoaderFactory<
     public RMIBootstrapCacheLoader createBootstrapCacheLoader(Properties properties) {
         boolean bootstrapAsynchronously = extractBootstrapAsynchronously(properties);
         int maximumChunkSizeBytes = extractMaximumChunkSizeBytes(properties);
+        if (extractBoolean(properties, BOOTSTRAP_IN_PARALLEL, false)) {
+            return new ParallelRMIBootstrapCacheLoader(bootstrapAsynchronously, maximumChunkSizeBytes);
+        }
         return new RMIBootstrapCacheLoader(bootstrapAsynchronously, maximumChunkSizeBytes);
     }
 
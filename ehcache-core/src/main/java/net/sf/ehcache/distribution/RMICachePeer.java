@@ -19,12 +19,20 @@ package net.sf.ehcache.distribution;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import net.sf.ehcache.distribution.RmiEventMessage.RmiEventType;
 
 import org.slf4j.Logger;
@@ -34,18 +42,28 @@ import org.slf4j.LoggerFactory;
  * An RMI based implementation of <code>CachePeer</code>.
  * <p/>
  * This class features a customised RMIClientSocketFactory which enables socket timeouts to be configured.
+ * <p/>
+ * It also implements {@link StreamingCachePeer}, so that it can be bootstrapped from in parallel, and
+ * {@link AntiEntropyCachePeer}, so that it can be repaired by an {@link RMIAntiEntropyRepairer}.
  *
  * @author Greg Luck
  * @version $Id$
  */
-public class RMICachePeer extends UnicastRemoteObject implements CachePeer, Remote {
+public class RMICachePeer extends UnicastRemoteObject implements StreamingCachePeer, AntiEntropyCachePeer, Remote {
 
     private static final Logger LOG = LoggerFactory.getLogger(RMICachePeer.class.getName());
 
+    /**
+     * How long a stream can be left idle before being closed
+     */
+    private static final long STREAM_IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000;
+
     private final String hostname;
     private final Integer rmiRegistryPort;
     private Integer remoteObjectPort;
     private final Ehcache cache;
+    private final ConcurrentMap<Long, ElementStream> streams = new ConcurrentHashMap<Long, ElementStream>();
+    private final AtomicLong streamIds = new AtomicLong();
 
     /**
      * Construct a new remote peer.
@@ -166,6 +184,96 @@ public class RMICachePeer extends UnicastRemoteObject implements CachePeer, Remo
     }
 
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * A stream walks the elements of the cache lazily, through {@link Ehcache#splittableEntryIterator(boolean)},
+     * skipping those of other partitions, so that no key is held beyond the chunk being read. The cache is walked once
+     * per partition opened on this peer.
+     */
+    public long openStream(int partition, int partitions) throws RemoteException {
+        if (partitions <= 0 || partition < 0 || partition >= partitions) {
+            throw new IllegalArgumentException("Invalid partition " + partition + " of " + partitions);
+        }
+        closeIdleStreams();
+        long streamId = streamIds.incrementAndGet();
+        streams.put(streamId, new ElementStream(cache.splittableEntryIterator(true), partition, partitions));
+        return streamId;
+    }
+
+    /**
+     * Gets the partition of a key, out of a number of partitions.
+     * <p/>
+     * Keys are hashed as {@link HashTree} does, so that all peers agree on the partition of a key even when its hash
+     * code differs from one JVM to another, as that of enum constants does.
+     */
+    static int partitionOf(Object key, int partitions) {
+        return Math.abs(HashTree.hashCodeOf(key) % partitions);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public byte[] getNextChunk(long streamId, int maximumChunkSizeBytes) throws RemoteException {
+        ElementStream stream = streams.get(streamId);
+        if (stream == null) {
+            throw new RemoteException("Stream " + streamId + " of cache " + cache.getName() + " is closed");
+        }
+        synchronized (stream) {
+            stream.lastAccessTime = System.currentTimeMillis();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            int count = 0;
+            try {
+                ObjectOutputStream out = new ObjectOutputStream(bytes);
+                Element element;
+                while (bytes.size() < maximumChunkSizeBytes && (element = stream.next()) != null) {
+                    if (element.isSerializable()) {
+                        out.writeObject(element);
+                        out.flush();
+                        count++;
+                    }
+                }
+                out.writeObject(null);
+                out.close();
+            } catch (IOException e) {
+                streams.remove(streamId);
+                throw new RemoteException("Error serializing a chunk of stream " + streamId + " of cache " + cache.getName(), e);
+            }
+            if (count == 0) {
+                streams.remove(streamId);
+                return null;
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long[] getHashTreeNodes(int leafCount, int[] nodes) throws RemoteException {
+        RMIAntiEntropyRepairer repairer = RMIAntiEntropyRepairer.getRepairer(cache);
+        return repairer == null ? null : repairer.getHashTreeNodes(leafCount, nodes);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<Object, long[]> getEntryDigests(int leafCount, int[] buckets) throws RemoteException {
+        RMIAntiEntropyRepairer repairer = RMIAntiEntropyRepairer.getRepairer(cache);
+        return repairer == null ? null : repairer.getEntryDigests(leafCount, buckets);
+    }
+
+    private void closeIdleStreams() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Map.Entry<Long, ElementStream>> it = streams.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Long, ElementStream> entry = it.next();
+            if (now - entry.getValue().lastAccessTime > STREAM_IDLE_TIMEOUT_MILLIS) {
+                LOG.debug("Closing stream {} of cache {}, idle for too long", entry.getKey(), cache.getName());
+                it.remove();
+            }
+        }
+    }
+
     /**
      * Puts an Element into the underlying cache without notifying listeners or updating statistics.
      *
@@ -262,4 +370,31 @@ public class RMICachePeer extends UnicastRemoteObject implements CachePeer, Remo
         return buffer.toString();
     }
 
+
+    /**
+     * The state of an open stream: where the walk of the cache is at, for one partition
+     */
+    private static final class ElementStream {
+
+        private final Iterator<Element> elements;
+        private final int partition;
+        private final int partitions;
+        private volatile long lastAccessTime = System.currentTimeMillis();
+
+        private ElementStream(Iterator<Element> elements, int partition, int partitions) {
+            this.elements = elements;
+            this.partition = partition;
+            this.partitions = partitions;
+        }
+
+        private Element next() {
+            while (elements.hasNext()) {
+                Element element = elements.next();
+                if (element != null && partitionOf(element.getObjectKey(), partitions) == partition) {
+                    return element;
+                }
+            }
+            return null;
+        }
+    }
 }
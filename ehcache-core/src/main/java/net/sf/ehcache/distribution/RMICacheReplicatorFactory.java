@@ -62,6 +62,7 @@ public class RMICacheReplicatorFactory extends CacheEventListenerFactory {
     private static final String REPLICATE_ASYNCHRONOUSLY = "replicateAsynchronously";
     private static final String ASYNCHRONOUS_REPLICATION_INTERVAL_MILLIS = "asynchronousReplicationIntervalMillis";
     private static final String ASYNCHRONOUS_REPLICATION_MAXIMUM_BATCH_SIZE = "asynchronousReplicationMaximumBatchSize";
+    private static final String ASYNCHRONOUS_REPLICATION_COALESCING = "asynchronousReplicationCoalescing";
     private static final int MINIMUM_REASONABLE_INTERVAL = 10;
 
     /**
@@ -76,6 +77,7 @@ public class RMICacheReplicatorFactory extends CacheEventListenerFactory {
      * <li>replicateRemovals=true;
      * <li>replicateAsynchronously=true
      * <li>asynchronousReplicationIntervalMillis=1000
+     * <li>asynchronousReplicationCoalescing=false
      * </ul>
      *
      * @param properties implementation specific properties. These are configured as comma
@@ -102,6 +104,7 @@ public class RMICacheReplicatorFactory extends CacheEventListenerFactory {
         boolean replicateAsynchronously = extractReplicateAsynchronously(properties);
         int replicationIntervalMillis = extractReplicationIntervalMilis(properties);
         int maximumBatchSize = extractMaximumBatchSize(properties);
+        boolean coalescing = extractCoalescing(properties);
 
         if (replicateAsynchronously) {
             return new RMIAsynchronousCacheReplicator(
@@ -111,7 +114,8 @@ public class RMICacheReplicatorFactory extends CacheEventListenerFactory {
                     replicateUpdatesViaCopy,
                     replicateRemovals,
                     replicationIntervalMillis,
-                    maximumBatchSize);
+                    maximumBatchSize,
+                    coalescing);
         } else {
             return new RMISynchronousCacheReplicator(
                     replicatePuts,
@@ -189,6 +193,16 @@ public class RMICacheReplicatorFactory extends CacheEventListenerFactory {
         return replicateAsynchronously;
     }
 
+    /**
+     * Extracts the value of asynchronousReplicationCoalescing from the properties
+     * @param properties
+     * @return whether pending updates are coalesced by key, false by default
+     */
+    protected boolean extractCoalescing(Properties properties) {
+        String coalescingString = PropertyUtil.extractAndLogProperty(ASYNCHRONOUS_REPLICATION_COALESCING, properties);
+        return coalescingString != null && PropertyUtil.parseBoolean(coalescingString);
+    }
+
     /**
      * Extracts the value of replicateRemovals from the properties
      * @param properties
@@ -0,0 +1,57 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.distribution;
+
+import java.rmi.RemoteException;
+
+/**
+ * A {@link CachePeer} which can stream the contents of its cache, one partition of the key space at a time.
+ * <p/>
+ * This is what {@link ParallelRMIBootstrapCacheLoader} bootstraps from: the key space is partitioned by a hash of the
+ * keys which is the same on every JVM, enum constants being hashed through their class and constant names, and each
+ * partition is streamed in chunks bounded in size, so that the list of keys of the cache is never sent over the wire.
+ * Peers not implementing this interface can still be bootstrapped from with {@link RMIBootstrapCacheLoader}.
+ *
+ * @author Terracotta
+ */
+public interface StreamingCachePeer extends CachePeer {
+
+    /**
+     * Opens a stream over the elements of one partition of the key space.
+     * <p/>
+     * A stream left idle for longer than the peer allows is closed, and its id becomes invalid.
+     *
+     * @param partition  the partition to stream, between 0 and <code>partitions - 1</code>
+     * @param partitions the number of partitions the key space is divided into, the same for the whole bootstrap
+     * @return the id of the stream, to pass to {@link #getNextChunk(long, int)}
+     */
+    long openStream(int partition, int partitions) throws RemoteException;
+
+    /**
+     * Gets the next chunk of elements of a stream.
+     * <p/>
+     * The chunk holds serialized {@link net.sf.ehcache.Element}s, written one after the other by a single
+     * <code>ObjectOutputStream</code> and followed by <code>null</code>. Its size only exceeds the maximum by the size
+     * of its last element. Elements are read without updating their statistics.
+     *
+     * @param streamId              the id returned by {@link #openStream(int, int)}
+     * @param maximumChunkSizeBytes the maximum size of the chunk
+     * @return the chunk, or null once the stream is exhausted, in which case it is closed
+     * @throws RemoteException if the stream is unknown, for instance because it was closed after being left idle
+     */
+    byte[] getNextChunk(long streamId, int maximumChunkSizeBytes) throws RemoteException;
+}
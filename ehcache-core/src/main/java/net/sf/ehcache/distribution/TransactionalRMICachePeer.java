@@ -23,6 +23,7 @@ import net.sf.ehcache.util.CacheTransactionHelper;
 import java.io.Serializable;
 import java.rmi.RemoteException;
 import java.util.List;
+import java.util.Map;
 
 /**
  * An RMI based implementation of <code>CachePeer</code> supporting transactions.
@@ -100,6 +101,38 @@ public class TransactionalRMICachePeer extends RMICachePeer {
         }
     }
 
+    @Override
+    public byte[] getNextChunk(long streamId, int maximumChunkSizeBytes) throws RemoteException {
+        boolean started = CacheTransactionHelper.isTransactionStarted(cache);
+        if (!started) {
+            CacheTransactionHelper.beginTransactionIfNeeded(cache);
+        }
+
+        try {
+            return super.getNextChunk(streamId, maximumChunkSizeBytes);
+        } finally {
+            if (!started) {
+                CacheTransactionHelper.commitTransactionIfNeeded(cache);
+            }
+        }
+    }
+
+    @Override
+    public Map<Object, long[]> getEntryDigests(int leafCount, int[] buckets) throws RemoteException {
+        boolean started = CacheTransactionHelper.isTransactionStarted(cache);
+        if (!started) {
+            CacheTransactionHelper.beginTransactionIfNeeded(cache);
+        }
+
+        try {
+            return super.getEntryDigests(leafCount, buckets);
+        } finally {
+            if (!started) {
+                CacheTransactionHelper.commitTransactionIfNeeded(cache);
+            }
+        }
+    }
+
     @Override
     public void put(Element element) throws RemoteException, IllegalArgumentException, IllegalStateException {
         boolean started = CacheTransactionHelper.isTransactionStarted(cache);
@@ -0,0 +1,378 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.distribution.nio;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Status;
+import net.sf.ehcache.distribution.CacheManagerPeerListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Receives the batches sent by the NIO replicators of other CacheManagers, and applies them to the local caches.
+ * <p/>
+ * A single thread accepts the connections of the peers and reads their frames through one selector. Batches are applied
+ * in the order they arrive on a connection, to the cache of the same name if there is one, without notifying the local
+ * replicators. Each batch is acknowledged once applied, the sender keeping a window of unacknowledged batches in flight.
+ * <p/>
+ * A connection announcing a frame longer than the maximum frame length is closed, without affecting the other peers.
+ *
+ * @author Terracotta
+ */
+public final class NioCacheManagerPeerListener implements CacheManagerPeerListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NioCacheManagerPeerListener.class);
+
+    /**
+     * The default maximum length of a frame, in bytes
+     */
+    public static final int DEFAULT_MAXIMUM_FRAME_LENGTH = 64 * 1024 * 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final String hostName;
+    private final CacheManager cacheManager;
+    private final int maximumFrameLength;
+
+    private volatile ServerSocketChannel serverChannel;
+    private volatile Selector selector;
+    private volatile Thread listenerThread;
+    private volatile Status status = Status.STATUS_UNINITIALISED;
+
+    /**
+     * Create a listener, bound to its port straight away.
+     *
+     * @param hostName the host name or address to listen on, null for all interfaces
+     * @param port the port to listen on, 0 for a free port
+     * @param cacheManager the cache manager holding the caches to apply batches to
+     * @throws CacheException if the port can't be bound
+     */
+    public NioCacheManagerPeerListener(String hostName, int port, CacheManager cacheManager) throws CacheException {
+        this(hostName, port, cacheManager, DEFAULT_MAXIMUM_FRAME_LENGTH);
+    }
+
+    /**
+     * Create a listener, bound to its port straight away.
+     *
+     * @param hostName the host name or address to listen on, null for all interfaces
+     * @param port the port to listen on, 0 for a free port
+     * @param cacheManager the cache manager holding the caches to apply batches to
+     * @param maximumFrameLength the maximum length of a frame, in bytes
+     * @throws CacheException if the port can't be bound
+     */
+    public NioCacheManagerPeerListener(String hostName, int port, CacheManager cacheManager, int maximumFrameLength)
+            throws CacheException {
+        if (maximumFrameLength < NioFrames.HEADER_LENGTH) {
+            throw new IllegalArgumentException("Maximum frame length must be at least " + NioFrames.HEADER_LENGTH);
+        }
+        this.hostName = hostName;
+        this.cacheManager = cacheManager;
+        this.maximumFrameLength = maximumFrameLength;
+        bind(port);
+    }
+
+    private void bind(int port) throws CacheException {
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.socket().setReuseAddress(true);
+            InetSocketAddress address = hostName == null || hostName.length() == 0
+                    ? new InetSocketAddress(port) : new InetSocketAddress(hostName, port);
+            serverChannel.socket().bind(address);
+            serverChannel.configureBlocking(false);
+        } catch (IOException e) {
+            throw new CacheException("Could not bind the NIO listener to port " + port + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Gets the port this listener is bound to.
+     *
+     * @return the port, resolved when a free port was asked for
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void init() throws CacheException {
+        try {
+            selector = Selector.open();
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            throw new CacheException("Could not start the NIO listener: " + e.getMessage(), e);
+        }
+        listenerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                listenerThreadMain();
+            }
+        }, "NIO Cache Peer Listener for " + cacheManager.getName());
+        listenerThread.setDaemon(true);
+        status = Status.STATUS_ALIVE;
+        listenerThread.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void dispose() throws CacheException {
+        status = Status.STATUS_SHUTDOWN;
+        Thread thread = listenerThread;
+        if (thread != null) {
+            selector.wakeup();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            listenerThread = null;
+        } else {
+            closeServerChannel();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Batches are routed by cache name, there are no peers bound per cache.
+     *
+     * @return an empty list
+     */
+    public List getBoundCachePeers() {
+        return Collections.EMPTY_LIST;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getUniqueResourceIdentifier() {
+        return "NIO listener port: " + getPort();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Binds the listener to a free port instead.
+     */
+    public void attemptResolutionOfUniqueResourceConflict() throws IllegalStateException, CacheException {
+        if (status != Status.STATUS_UNINITIALISED) {
+            throw new IllegalStateException("The NIO listener is already started");
+        }
+        closeServerChannel();
+        bind(0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getScheme() {
+        return NioCacheManagerPeerProvider.NIO_SCHEME;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Batches are routed by cache name, nothing to do.
+     */
+    public void notifyCacheAdded(String cacheName) {
+        // no-op
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Batches are routed by cache name, nothing to do.
+     */
+    public void notifyCacheRemoved(String cacheName) {
+        // no-op
+    }
+
+    private void listenerThreadMain() {
+        try {
+            while (status == Status.STATUS_ALIVE) {
+                selector.select();
+                for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext();) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        ((Connection) key.attachment()).process(key);
+                    }
+                }
+            }
+        } catch (Throwable t) {
+            LOG.error("NIO listener failed, replication from peers stopped", t);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                LOG.debug("Could not close the selector of the NIO listener: " + e.getMessage());
+            }
+            closeServerChannel();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+            LOG.debug("Accepted connection from peer {}", channel.socket().getRemoteSocketAddress());
+        }
+    }
+
+    private void closeServerChannel() {
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            LOG.debug("Could not close the NIO listener: " + e.getMessage());
+        }
+    }
+
+    private static void closeQuietly(SelectionKey key) {
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            LOG.debug("Could not close connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * A connection from a peer, with the frames read so far and the acknowledgements not yet written
+     */
+    private final class Connection {
+
+        private final SocketChannel channel;
+        private ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        private ByteBuffer out = ByteBuffer.allocate(NioFrames.ACK_FRAME_LENGTH * 64);
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void process(SelectionKey key) {
+            try {
+                if (key.isReadable()) {
+                    if (channel.read(in) < 0) {
+                        LOG.debug("Connection closed by peer {}", channel.socket().getRemoteSocketAddress());
+                        closeQuietly(key);
+                        return;
+                    }
+                    readFrames();
+                }
+                writeAcks(key);
+            } catch (IOException e) {
+                LOG.warn("Closing connection from peer " + channel.socket().getRemoteSocketAddress() + ": " + e.getMessage());
+                closeQuietly(key);
+            }
+        }
+
+        private void readFrames() throws IOException {
+            in.flip();
+            int needed = 0;
+            while (in.remaining() >= 4) {
+                int start = in.position();
+                int length = in.getInt(start);
+                if (length < NioFrames.HEADER_LENGTH) {
+                    throw new IOException("malformed frame of length " + length);
+                } else if (length > maximumFrameLength) {
+                    throw new IOException("frame of length " + length + " exceeds the maximum of " + maximumFrameLength);
+                }
+                if (in.remaining() < 4 + length) {
+                    needed = 4 + length;
+                    break;
+                }
+                byte type = in.get(start + 4);
+                long sequence = in.getLong(start + 5);
+                if (type != NioFrames.BATCH) {
+                    throw new IOException("unexpected frame of type " + type);
+                }
+                applyBatch(sequence, new DataInputStream(new ByteArrayInputStream(in.array(),
+                        in.arrayOffset() + start + 4 + NioFrames.HEADER_LENGTH, length - NioFrames.HEADER_LENGTH)));
+                in.position(start + 4 + length);
+                acknowledge(sequence);
+            }
+            in.compact();
+            if (needed > in.capacity()) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(needed, in.capacity() * 2));
+                in.flip();
+                larger.put(in);
+                in = larger;
+            }
+        }
+
+        private void applyBatch(long sequence, DataInputStream batch) {
+            try {
+                if (NioFrames.applyBatch(batch, cacheManager) < 0) {
+                    LOG.debug("Ignoring batch {} for a cache missing from this CacheManager", sequence);
+                }
+            } catch (Throwable t) {
+                LOG.warn("Could not apply replication batch " + sequence + " from peer "
+                        + channel.socket().getRemoteSocketAddress() + ": " + t.getMessage(), t);
+            }
+        }
+
+        private void acknowledge(long sequence) {
+            if (out.remaining() < NioFrames.ACK_FRAME_LENGTH) {
+                ByteBuffer larger = ByteBuffer.allocate(out.capacity() * 2);
+                out.flip();
+                larger.put(out);
+                out = larger;
+            }
+            out.put(NioFrames.encodeAck(sequence));
+        }
+
+        private void writeAcks(SelectionKey key) throws IOException {
+            out.flip();
+            channel.write(out);
+            out.compact();
+            key.interestOps(out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.distribution.nio;
+
+import java.util.Properties;
+
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.distribution.CacheManagerPeerListener;
+import net.sf.ehcache.distribution.CacheManagerPeerListenerFactory;
+import net.sf.ehcache.util.PropertyUtil;
+
+/**
+ * Builds a {@link NioCacheManagerPeerListener} from its properties.
+ * <p/>
+ * The properties are:
+ * <ul>
+ * <li>hostName - the host name or address to listen on, defaults to all interfaces
+ * <li>port - the port to listen on, defaults to a free port
+ * <li>maximumFrameSize - the maximum size of a frame in bytes, defaults to
+ * {@link NioCacheManagerPeerListener#DEFAULT_MAXIMUM_FRAME_LENGTH}. Connections sending larger frames are closed.
+ * </ul>
+ *
+ * @author Terracotta
+ */
+public class NioCacheManagerPeerListenerFactory extends CacheManagerPeerListenerFactory {
+
+    private static final String HOSTNAME = "hostName";
+    private static final String PORT = "port";
+    private static final String MAXIMUM_FRAME_SIZE = "maximumFrameSize";
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CacheManagerPeerListener createCachePeerListener(CacheManager cacheManager, Properties properties)
+            throws CacheException {
+        String hostName = PropertyUtil.extractAndLogProperty(HOSTNAME, properties);
+        String portString = PropertyUtil.extractAndLogProperty(PORT, properties);
+        int port = 0;
+        if (portString != null && portString.trim().length() != 0) {
+            try {
+                port = Integer.parseInt(portString.trim());
+            } catch (NumberFormatException e) {
+                throw new CacheException("Invalid NIO listener port " + portString, e);
+            }
+        }
+        String maximumFrameSizeString = PropertyUtil.extractAndLogProperty(MAXIMUM_FRAME_SIZE, properties);
+        int maximumFrameSize = NioCacheManagerPeerListener.DEFAULT_MAXIMUM_FRAME_LENGTH;
+        if (maximumFrameSizeString != null && maximumFrameSizeString.trim().length() != 0) {
+            try {
+                maximumFrameSize = Integer.parseInt(maximumFrameSizeString.trim());
+            } catch (NumberFormatException e) {
+                throw new CacheException("Invalid NIO listener maximum frame size " + maximumFrameSizeString, e);
+            }
+        }
+        return new NioCacheManagerPeerListener(hostName, port, cacheManager, maximumFrameSize);
+    }
+}
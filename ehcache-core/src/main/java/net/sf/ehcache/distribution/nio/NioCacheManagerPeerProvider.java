@@ -0,0 +1,276 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.distribution.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.distribution.CacheManagerPeerProvider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A provider of the peers replicated to over NIO, from a configured list of <code>host:port</code> listener addresses.
+ * <p/>
+ * A single transport thread connects to all the peers and writes the frames queued for them through one selector, so that
+ * every batch is serialized once and sent to all peers in parallel. All caches share the connection to a peer: batches
+ * for caches the peer doesn't have are acknowledged and ignored by its listener.
+ *
+ * @author Terracotta
+ */
+public final class NioCacheManagerPeerProvider implements CacheManagerPeerProvider {
+
+    /**
+     * The replication scheme of the NIO transport
+     */
+    public static final String NIO_SCHEME = "NIO";
+
+    /**
+     * Time between attempts to connect to a peer
+     */
+    static final long RECONNECT_INTERVAL_MILLIS = 1000;
+
+    private static final Logger LOG = LoggerFactory.getLogger(NioCacheManagerPeerProvider.class);
+
+    private static final long SELECT_TIMEOUT_MILLIS = 100;
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 5000;
+
+    private final CacheManager cacheManager;
+    private final int maximumUnackedFrames;
+    private final int maximumQueuedFrames;
+    private final long socketTimeoutMillis;
+    private final ConcurrentMap<String, NioPeer> peers = new ConcurrentHashMap<String, NioPeer>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private volatile Selector selector;
+    private volatile Thread transportThread;
+    private volatile boolean stopping;
+
+    /**
+     * Create a provider without peers.
+     *
+     * @param cacheManager the cache manager replicating through this provider
+     * @param maximumUnackedFrames the number of frames sent to a peer ahead of their acknowledgement
+     * @param maximumQueuedFrames the number of frames waiting to be sent to a peer before the oldest ones are dropped
+     * @param socketTimeoutMillis the time without acknowledgement after which a connection is considered lost
+     */
+    public NioCacheManagerPeerProvider(CacheManager cacheManager, int maximumUnackedFrames, int maximumQueuedFrames,
+                                       long socketTimeoutMillis) {
+        this.cacheManager = cacheManager;
+        this.maximumUnackedFrames = maximumUnackedFrames;
+        this.maximumQueuedFrames = maximumQueuedFrames;
+        this.socketTimeoutMillis = socketTimeoutMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param nodeId the <code>host:port</code> of the peer listener
+     */
+    public void registerPeer(String nodeId) {
+        nodeId = nodeId.trim();
+        if (!peers.containsKey(nodeId)) {
+            peers.putIfAbsent(nodeId, new NioPeer(nodeId, maximumUnackedFrames, maximumQueuedFrames, socketTimeoutMillis));
+            wakeup();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param nodeId the <code>host:port</code> of the peer listener
+     */
+    public void unregisterPeer(String nodeId) {
+        NioPeer peer = peers.remove(nodeId.trim());
+        if (peer != null) {
+            peer.remove();
+            wakeup();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * NIO peers are not {@link net.sf.ehcache.distribution.CachePeer}s: they can't be called by the users of the peers
+     * of a cache, such as bootstrap cache loaders, so none are listed. See {@link #listNioPeers()}.
+     *
+     * @return an empty list
+     */
+    public List listRemoteCachePeers(Ehcache cache) throws CacheException {
+        return Collections.EMPTY_LIST;
+    }
+
+    /**
+     * Lists the peers replicated to, shared by all caches.
+     *
+     * @return a list of {@link NioPeer}s
+     */
+    public List<NioPeer> listNioPeers() {
+        return new ArrayList<NioPeer>(peers.values());
+    }
+
+    /**
+     * Queue a frame for all the peers.
+     *
+     * @param frame the frame
+     */
+    void send(ByteBuffer frame) {
+        for (NioPeer peer : peers.values()) {
+            peer.offer(frame);
+        }
+        wakeup();
+    }
+
+    /**
+     * @return true if there is at least one peer to send frames to
+     */
+    boolean hasPeers() {
+        return !peers.isEmpty();
+    }
+
+    /**
+     * @return the sequence number of the next frame
+     */
+    long nextSequence() {
+        return sequence.incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void init() {
+        try {
+            selector = Selector.open();
+        } catch (IOException e) {
+            throw new CacheException("Could not open the selector of the NIO replication transport: " + e.getMessage(), e);
+        }
+        transportThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                transportThreadMain();
+            }
+        }, "NIO Replication Transport for " + cacheManager.getName());
+        transportThread.setDaemon(true);
+        transportThread.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The frames already queued are given a few seconds to reach the connected peers.
+     */
+    public void dispose() throws CacheException {
+        Thread thread = transportThread;
+        if (thread == null) {
+            return;
+        }
+        stopping = true;
+        wakeup();
+        try {
+            thread.join(SHUTDOWN_TIMEOUT_MILLIS + SELECT_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        transportThread = null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Peers are configured, not discovered: the cluster is formed right away.
+     */
+    public long getTimeForClusterToForm() {
+        return 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getScheme() {
+        return NIO_SCHEME;
+    }
+
+    private void wakeup() {
+        Selector current = selector;
+        if (current != null) {
+            current.wakeup();
+        }
+    }
+
+    private void transportThreadMain() {
+        long deadline = Long.MAX_VALUE;
+        try {
+            while (true) {
+                long now = System.currentTimeMillis();
+                boolean pending = false;
+                for (NioPeer peer : peers.values()) {
+                    pending |= peer.prepare(selector, now);
+                }
+                if (stopping) {
+                    deadline = Math.min(deadline, now + SHUTDOWN_TIMEOUT_MILLIS);
+                    if (!pending || now >= deadline) {
+                        if (pending) {
+                            LOG.warn("Stopping the NIO replication transport with frames not yet acknowledged by peers");
+                        }
+                        break;
+                    }
+                }
+
+                selector.select(SELECT_TIMEOUT_MILLIS);
+                now = System.currentTimeMillis();
+                for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext();) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    NioPeer peer = (NioPeer) key.attachment();
+                    if (key.isValid() && !peer.isRemoved()) {
+                        peer.process(now);
+                    }
+                }
+                for (SelectionKey key : selector.keys()) {
+                    NioPeer peer = (NioPeer) key.attachment();
+                    if (peer.isRemoved()) {
+                        peer.close();
+                    }
+                }
+            }
+        } catch (Throwable t) {
+            LOG.error("NIO replication transport failed, replication to peers stopped", t);
+        } finally {
+            for (NioPeer peer : peers.values()) {
+                peer.close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                LOG.debug("Could not close the selector of the NIO replication transport: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.distribution.nio;
+
+import java.util.Properties;
+import java.util.StringTokenizer;
+
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.distribution.CacheManagerPeerProvider;
+import net.sf.ehcache.distribution.CacheManagerPeerProviderFactory;
+import net.sf.ehcache.util.PropertyUtil;
+
+/**
+ * Builds a {@link NioCacheManagerPeerProvider} from its properties.
+ * <p/>
+ * The properties are:
+ * <ul>
+ * <li>peers - the <code>host:port</code> addresses of the peer listeners, separated by <code>|</code>. Peers can also be
+ * registered later on through {@link CacheManagerPeerProvider#registerPeer(String)}
+ * <li>maximumUnackedFrames - the number of frames sent to a peer ahead of their acknowledgement, defaults to 16
+ * <li>maximumQueuedFrames - the number of frames waiting to be sent to a peer before the oldest ones are dropped,
+ * defaults to 1000
+ * <li>socketTimeoutMillis - the time without acknowledgement after which a connection is considered lost and opened
+ * again, defaults to 120000
+ * </ul>
+ *
+ * @author Terracotta
+ */
+public class NioCacheManagerPeerProviderFactory extends CacheManagerPeerProviderFactory {
+
+    /**
+     * Default number of frames sent to a peer ahead of their acknowledgement
+     */
+    public static final int DEFAULT_MAXIMUM_UNACKED_FRAMES = 16;
+
+    /**
+     * Default number of frames waiting to be sent to a peer
+     */
+    public static final int DEFAULT_MAXIMUM_QUEUED_FRAMES = 1000;
+
+    /**
+     * Default time without acknowledgement after which a connection is considered lost
+     */
+    public static final int DEFAULT_SOCKET_TIMEOUT_MILLIS = 120000;
+
+    private static final String PEERS = "peers";
+    private static final String MAXIMUM_UNACKED_FRAMES = "maximumUnackedFrames";
+    private static final String MAXIMUM_QUEUED_FRAMES = "maximumQueuedFrames";
+    private static final String SOCKET_TIMEOUT_MILLIS = "socketTimeoutMillis";
+    private static final String PEER_DELIMITER = "|";
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CacheManagerPeerProvider createCachePeerProvider(CacheManager cacheManager, Properties properties)
+            throws CacheException {
+        int maximumUnackedFrames = extractPositiveInt(MAXIMUM_UNACKED_FRAMES, properties, DEFAULT_MAXIMUM_UNACKED_FRAMES);
+        int maximumQueuedFrames = extractPositiveInt(MAXIMUM_QUEUED_FRAMES, properties, DEFAULT_MAXIMUM_QUEUED_FRAMES);
+        int socketTimeoutMillis = extractPositiveInt(SOCKET_TIMEOUT_MILLIS, properties, DEFAULT_SOCKET_TIMEOUT_MILLIS);
+        NioCacheManagerPeerProvider provider = new NioCacheManagerPeerProvider(cacheManager, maximumUnackedFrames,
+                maximumQueuedFrames, socketTimeoutMillis);
+
+        String peers = PropertyUtil.extractAndLogProperty(PEERS, properties);
+        if (peers != null) {
+            StringTokenizer tokenizer = new StringTokenizer(peers, PEER_DELIMITER);
+            while (tokenizer.hasMoreTokens()) {
+                String peer = tokenizer.nextToken().trim();
+                if (peer.length() > 0) {
+                    provider.registerPeer(peer);
+                }
+            }
+        }
+        return provider;
+    }
+
+    private static int extractPositiveInt(String name, Properties properties, int defaultValue) {
+        String value = PropertyUtil.extractAndLogProperty(name, properties);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            if (parsed < 1) {
+                throw new CacheException(name + " must be a positive number, not " + value);
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new CacheException(name + " must be a positive number, not " + value, e);
+        }
+    }
+}
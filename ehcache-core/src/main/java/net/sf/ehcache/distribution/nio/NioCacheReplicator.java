@@ -0,0 +1,319 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.distribution.nio;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.Status;
+import net.sf.ehcache.distribution.CacheManagerPeerProvider;
+import net.sf.ehcache.distribution.CacheReplicator;
+import net.sf.ehcache.distribution.RmiEventMessage;
+import net.sf.ehcache.distribution.RmiEventMessage.RmiEventType;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replicates the changes of a cache to the peers of its CacheManager through the {@link NioCacheManagerPeerProvider}.
+ * <p/>
+ * Changes are queued and picked up by a replication thread as soon as they arrive. The thread takes all the queued
+ * changes at once, up to a maximum batch size, serializes them once into a single frame and hands that frame to every
+ * peer, the provider's transport then sending it to all of them in parallel.
+ * <p/>
+ * Updates are replicated in the order in which they are received. Expiries and evictions are not replicated.
+ * <p/>
+ * The queue of changes is bounded: once it is full, new changes are dropped rather than replicated. Drops are counted,
+ * and logged each time their count doubles.
+ *
+ * @author Terracotta
+ */
+public class NioCacheReplicator implements CacheReplicator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NioCacheReplicator.class);
+
+    private static final long STOP_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * Queued after the last change on dispose, to stop the replication thread once everything before was replicated
+     */
+    private static final RmiEventMessage STOP = new RmiEventMessage(null, RmiEventType.REMOVE_ALL, null, null);
+
+    private final boolean replicatePuts;
+    private final boolean replicatePutsViaCopy;
+    private final boolean replicateUpdates;
+    private final boolean replicateUpdatesViaCopy;
+    private final boolean replicateRemovals;
+    private final int maximumBatchSize;
+    private final int maximumQueueSize;
+
+    private final BlockingQueue<RmiEventMessage> replicationQueue;
+    private final AtomicLong droppedChangeCount = new AtomicLong();
+    private final Thread replicationThread;
+    private volatile Status status;
+
+    /**
+     * Constructor for internal and subclass use, queuing up to
+     * {@link NioCacheReplicatorFactory#DEFAULT_MAXIMUM_QUEUE_SIZE} changes
+     */
+    public NioCacheReplicator(boolean replicatePuts, boolean replicatePutsViaCopy, boolean replicateUpdates,
+                              boolean replicateUpdatesViaCopy, boolean replicateRemovals, int maximumBatchSize) {
+        this(replicatePuts, replicatePutsViaCopy, replicateUpdates, replicateUpdatesViaCopy, replicateRemovals, maximumBatchSize,
+                NioCacheReplicatorFactory.DEFAULT_MAXIMUM_QUEUE_SIZE);
+    }
+
+    /**
+     * Constructor for internal and subclass use
+     *
+     * @param maximumQueueSize the number of changes waiting to be replicated before new ones are dropped
+     */
+    public NioCacheReplicator(boolean replicatePuts, boolean replicatePutsViaCopy, boolean replicateUpdates,
+                              boolean replicateUpdatesViaCopy, boolean replicateRemovals, int maximumBatchSize,
+                              int maximumQueueSize) {
+        this.replicatePuts = replicatePuts;
+        this.replicatePutsViaCopy = replicatePutsViaCopy;
+        this.replicateUpdates = replicateUpdates;
+        this.replicateUpdatesViaCopy = replicateUpdatesViaCopy;
+        this.replicateRemovals = replicateRemovals;
+        this.maximumBatchSize = maximumBatchSize;
+        this.maximumQueueSize = maximumQueueSize;
+        this.replicationQueue = new LinkedBlockingQueue<RmiEventMessage>(maximumQueueSize);
+        this.replicationThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                replicationThreadMain();
+            }
+        }, "NIO Replication Thread");
+        replicationThread.setDaemon(true);
+        status = Status.STATUS_ALIVE;
+        replicationThread.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void notifyElementPut(Ehcache cache, Element element) throws CacheException {
+        if (notAlive() || !replicatePuts) {
+            return;
+        }
+        replicate(cache, element, replicatePutsViaCopy);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void notifyElementUpdated(Ehcache cache, Element element) throws CacheException {
+        if (notAlive() || !replicateUpdates) {
+            return;
+        }
+        replicate(cache, element, replicateUpdatesViaCopy);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void notifyElementRemoved(Ehcache cache, Element element) throws CacheException {
+        if (notAlive() || !replicateRemovals) {
+            return;
+        }
+        if (!element.isKeySerializable()) {
+            LOG.warn("Key " + element.getObjectKey() + " is not Serializable and cannot be replicated.");
+            return;
+        }
+        enqueue(new RmiEventMessage(cache, RmiEventType.REMOVE, (Serializable) element.getObjectKey(), null));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Expiries are not replicated: the element expires in the remote caches at the same time.
+     */
+    public void notifyElementExpired(Ehcache cache, Element element) {
+        // not replicated
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Evictions are not replicated: they depend on the contents of each cache.
+     */
+    public void notifyElementEvicted(Ehcache cache, Element element) {
+        // not replicated
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void notifyRemoveAll(Ehcache cache) {
+        if (notAlive() || !replicateRemovals) {
+            return;
+        }
+        enqueue(new RmiEventMessage(cache, RmiEventType.REMOVE_ALL, null, null));
+    }
+
+    private void replicate(Ehcache cache, Element element, boolean viaCopy) {
+        if (viaCopy) {
+            if (!element.isSerializable()) {
+                LOG.warn("Object with key " + element.getObjectKey() + " is not Serializable and cannot be replicated.");
+                return;
+            }
+            enqueue(new RmiEventMessage(cache, RmiEventType.PUT, null, element));
+        } else {
+            if (!element.isKeySerializable()) {
+                LOG.warn("Object with key " + element.getObjectKey()
+                        + " does not have a Serializable key and cannot be replicated via invalidate.");
+                return;
+            }
+            enqueue(new RmiEventMessage(cache, RmiEventType.REMOVE, (Serializable) element.getObjectKey(), null));
+        }
+    }
+
+    private void enqueue(RmiEventMessage change) {
+        if (!replicationQueue.offer(change)) {
+            long dropped = droppedChangeCount.incrementAndGet();
+            // logged on the first drop, then each time the count doubles
+            if (Long.bitCount(dropped) == 1) {
+                LOG.warn("Replication queue of cache " + change.getEhcache().getName() + " is full, " + dropped
+                        + " changes dropped so far");
+            }
+        }
+    }
+
+    /**
+     * Gets the number of changes dropped rather than replicated because the queue was full.
+     *
+     * @return the dropped change count
+     */
+    public long getDroppedChangeCount() {
+        return droppedChangeCount.get();
+    }
+
+    private void replicationThreadMain() {
+        List<RmiEventMessage> batch = new ArrayList<RmiEventMessage>();
+        while (true) {
+            try {
+                batch.add(replicationQueue.take());
+            } catch (InterruptedException e) {
+                LOG.debug("Replication thread interrupted");
+                return;
+            }
+            replicationQueue.drainTo(batch, maximumBatchSize - 1);
+            int stop = batch.indexOf(STOP);
+            if (stop >= 0) {
+                batch.subList(stop, batch.size()).clear();
+            }
+            try {
+                send(batch);
+            } catch (Throwable t) {
+                LOG.error("Exception on replication of " + batch.size() + " changes: " + t.getMessage() + ". Continuing...", t);
+            }
+            batch.clear();
+            if (stop >= 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Send a batch of changes, split into one frame per cache.
+     */
+    private void send(List<RmiEventMessage> batch) {
+        int start = 0;
+        for (int i = 1; i <= batch.size(); i++) {
+            if (i == batch.size() || batch.get(i).getEhcache() != batch.get(start).getEhcache()) {
+                Ehcache cache = batch.get(start).getEhcache();
+                NioCacheManagerPeerProvider provider = getPeerProvider(cache);
+                if (provider != null && provider.hasPeers()) {
+                    provider.send(NioFrames.encodeBatch(provider.nextSequence(), cache.getName(), batch.subList(start, i)));
+                }
+                start = i;
+            }
+        }
+    }
+
+    private static NioCacheManagerPeerProvider getPeerProvider(Ehcache cache) {
+        CacheManager cacheManager = cache.getCacheManager();
+        CacheManagerPeerProvider provider = cacheManager == null ? null
+                : cacheManager.getCacheManagerPeerProvider(NioCacheManagerPeerProvider.NIO_SCHEME);
+        if (provider instanceof NioCacheManagerPeerProvider) {
+            return (NioCacheManagerPeerProvider) provider;
+        }
+        LOG.warn("No NIO CacheManagerPeerProvider configured for cache " + cache.getName() + ", changes are not replicated");
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final boolean isReplicateUpdatesViaCopy() {
+        return replicateUpdatesViaCopy;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final boolean notAlive() {
+        return !alive();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public final boolean alive() {
+        return status != null && status.equals(Status.STATUS_ALIVE);
+    }
+
+    /**
+     * Replicate the changes still queued, then stop the replication thread.
+     */
+    public void dispose() {
+        status = Status.STATUS_SHUTDOWN;
+        try {
+            if (replicationQueue.offer(STOP, STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                replicationThread.join(STOP_TIMEOUT_MILLIS);
+            } else {
+                LOG.warn("Replication thread did not drain its queue in " + STOP_TIMEOUT_MILLIS
+                        + "ms, changes still queued are lost");
+                replicationThread.interrupt();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Creates a clone of this replicator, with its own replication thread.
+     *
+     * @return a clone
+     * @throws CloneNotSupportedException never
+     */
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        super.clone();
+        return new NioCacheReplicator(replicatePuts, replicatePutsViaCopy, replicateUpdates, replicateUpdatesViaCopy,
+                replicateRemovals, maximumBatchSize, maximumQueueSize);
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.distribution.nio;
+
+import java.util.Properties;
+
+import net.sf.ehcache.event.CacheEventListener;
+import net.sf.ehcache.event.CacheEventListenerFactory;
+import net.sf.ehcache.util.PropertyUtil;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds a {@link NioCacheReplicator} from its properties.
+ * <p/>
+ * The properties are the ones of the RMI replicator: replicatePuts, replicatePutsViaCopy, replicateUpdates,
+ * replicateUpdatesViaCopy and replicateRemovals, all defaulting to true, and asynchronousReplicationMaximumBatchSize,
+ * the maximum number of changes sent in a single frame, defaulting to 1000. Replication is always asynchronous, and
+ * there is no replication interval: changes are sent as soon as they are queued. asynchronousReplicationMaximumQueueSize
+ * is the maximum number of changes waiting to be sent before new ones are dropped, defaulting to 100000.
+ *
+ * @author Terracotta
+ */
+public class NioCacheReplicatorFactory extends CacheEventListenerFactory {
+
+    /**
+     * Default maximum number of changes sent in a single frame
+     */
+    public static final int DEFAULT_MAXIMUM_BATCH_SIZE = 1000;
+
+    /**
+     * Default maximum number of changes waiting to be sent
+     */
+    public static final int DEFAULT_MAXIMUM_QUEUE_SIZE = 100000;
+
+    private static final Logger LOG = LoggerFactory.getLogger(NioCacheReplicatorFactory.class);
+
+    private static final String REPLICATE_PUTS = "replicatePuts";
+    private static final String REPLICATE_PUTS_VIA_COPY = "replicatePutsViaCopy";
+    private static final String REPLICATE_UPDATES = "replicateUpdates";
+    private static final String REPLICATE_UPDATES_VIA_COPY = "replicateUpdatesViaCopy";
+    private static final String REPLICATE_REMOVALS = "replicateRemovals";
+    private static final String MAXIMUM_BATCH_SIZE = "asynchronousReplicationMaximumBatchSize";
+    private static final String MAXIMUM_QUEUE_SIZE = "asynchronousReplicationMaximumQueueSize";
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CacheEventListener createCacheEventListener(Properties properties) {
+        return new NioCacheReplicator(
+                extractBoolean(REPLICATE_PUTS, properties),
+                extractBoolean(REPLICATE_PUTS_VIA_COPY, properties),
+                extractBoolean(REPLICATE_UPDATES, properties),
+                extractBoolean(REPLICATE_UPDATES_VIA_COPY, properties),
+                extractBoolean(REPLICATE_REMOVALS, properties),
+                extractPositiveInt(MAXIMUM_BATCH_SIZE, properties, DEFAULT_MAXIMUM_BATCH_SIZE),
+                extractPositiveInt(MAXIMUM_QUEUE_SIZE, properties, DEFAULT_MAXIMUM_QUEUE_SIZE));
+    }
+
+    private static boolean extractBoolean(String name, Properties properties) {
+        String value = PropertyUtil.extractAndLogProperty(name, properties);
+        return value == null || PropertyUtil.parseBoolean(value);
+    }
+
+    private static int extractPositiveInt(String name, Properties properties, int defaultValue) {
+        String value = PropertyUtil.extractAndLogProperty(name, properties);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // logged below
+        }
+        LOG.warn("Invalid " + name + " '" + value + "', using the default of " + defaultValue);
+        return defaultValue;
+    }
+}
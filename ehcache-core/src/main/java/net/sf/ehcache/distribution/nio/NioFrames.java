@@ -0,0 +1,203 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.distribution.nio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.distribution.RmiEventMessage;
+import net.sf.ehcache.util.PreferredLoaderObjectInputStream;
+
+/**
+ * The frames exchanged between NIO replicators and listeners.
+ * <p/>
+ * Every frame starts with its length (an int, excluding itself), its type (a byte) and a sequence number (a long).
+ * A batch frame then holds the name of the cache, the number of operations and the operations themselves, each an
+ * operation byte followed by its key and, for puts, the value and the metadata of the element. Keys and values go
+ * through a single object stream per frame, so that class descriptors are written once per batch. An ack frame holds
+ * nothing more than the sequence number of the batch it acknowledges.
+ *
+ * @author Terracotta
+ */
+final class NioFrames {
+
+    /**
+     * Length of the header following the length field: the type and the sequence number
+     */
+    static final int HEADER_LENGTH = 1 + 8;
+
+    /**
+     * Total length of an ack frame
+     */
+    static final int ACK_FRAME_LENGTH = 4 + HEADER_LENGTH;
+
+    /**
+     * Type of a frame carrying a batch of operations
+     */
+    static final byte BATCH = 1;
+
+    /**
+     * Type of a frame acknowledging a batch
+     */
+    static final byte ACK = 2;
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte REMOVE_ALL = 3;
+
+    private NioFrames() {
+        // utility class
+    }
+
+    /**
+     * Encode a batch of operations on a cache.
+     *
+     * @param sequence the sequence number of the frame
+     * @param cacheName the name of the cache
+     * @param messages the operations, in order
+     * @return the frame, ready to be written
+     * @throws CacheException if a key or value can't be serialized
+     */
+    static ByteBuffer encodeBatch(long sequence, String cacheName, List<RmiEventMessage> messages) throws CacheException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream header = new DataOutputStream(bytes);
+            header.writeInt(0);
+            header.writeByte(BATCH);
+            header.writeLong(sequence);
+            header.writeUTF(cacheName);
+            header.writeInt(messages.size());
+            header.flush();
+
+            ObjectOutputStream operations = new ObjectOutputStream(bytes);
+            for (RmiEventMessage message : messages) {
+                switch (message.getType()) {
+                    case PUT:
+                        Element element = message.getElement();
+                        operations.writeByte(PUT);
+                        operations.writeObject(element.getObjectKey());
+                        operations.writeObject(element.getObjectValue());
+                        operations.writeLong(element.getVersion());
+                        operations.writeLong(element.getCreationTime());
+                        operations.writeLong(element.getLastAccessTime());
+                        operations.writeLong(element.getLastUpdateTime());
+                        operations.writeBoolean(element.usesCacheDefaultLifespan());
+                        operations.writeInt(element.getTimeToLive());
+                        operations.writeInt(element.getTimeToIdle());
+                        break;
+                    case REMOVE:
+                        operations.writeByte(REMOVE);
+                        operations.writeObject(message.getSerializableKey());
+                        break;
+                    case REMOVE_ALL:
+                        operations.writeByte(REMOVE_ALL);
+                        break;
+                    default:
+                        throw new AssertionError(message.getType());
+                }
+            }
+            operations.close();
+        } catch (IOException e) {
+            throw new CacheException("Could not encode the replication batch of cache " + cacheName + ": " + e.getMessage(), e);
+        }
+
+        ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+        frame.putInt(0, frame.capacity() - 4);
+        return frame.asReadOnlyBuffer();
+    }
+
+    /**
+     * Encode the acknowledgement of a batch.
+     *
+     * @param sequence the sequence number of the batch
+     * @return the frame, ready to be written
+     */
+    static ByteBuffer encodeAck(long sequence) {
+        ByteBuffer frame = ByteBuffer.allocate(ACK_FRAME_LENGTH);
+        frame.putInt(HEADER_LENGTH).put(ACK).putLong(sequence);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Gets the sequence number of a frame.
+     *
+     * @param frame a complete frame
+     * @return its sequence number
+     */
+    static long sequenceOf(ByteBuffer frame) {
+        return frame.getLong(frame.position() + 4 + 1);
+    }
+
+    /**
+     * Apply a batch to the caches of a cache manager, without notifying their replicators.
+     *
+     * @param in the batch, past its header
+     * @param cacheManager the cache manager holding the cache named in the batch
+     * @return the number of operations applied, -1 if the cache wasn't found
+     * @throws IOException if the batch is malformed
+     * @throws ClassNotFoundException if a key or value class can't be loaded
+     */
+    static int applyBatch(DataInputStream in, CacheManager cacheManager) throws IOException, ClassNotFoundException {
+        String cacheName = in.readUTF();
+        int count = in.readInt();
+        Ehcache cache = cacheManager.getEhcache(cacheName);
+        if (cache == null) {
+            return -1;
+        }
+
+        ObjectInputStream operations = new PreferredLoaderObjectInputStream(in, cache.getCacheConfiguration().getClassLoader());
+        for (int i = 0; i < count; i++) {
+            byte operation = operations.readByte();
+            switch (operation) {
+                case PUT:
+                    Object key = operations.readObject();
+                    Object value = operations.readObject();
+                    long version = operations.readLong();
+                    long creationTime = operations.readLong();
+                    long lastAccessTime = operations.readLong();
+                    long lastUpdateTime = operations.readLong();
+                    boolean cacheDefaultLifespan = operations.readBoolean();
+                    int timeToLive = operations.readInt();
+                    int timeToIdle = operations.readInt();
+                    cache.put(new Element(key, value, version, creationTime, lastAccessTime, 0, cacheDefaultLifespan,
+                            timeToLive, timeToIdle, lastUpdateTime), true);
+                    break;
+                case REMOVE:
+                    cache.remove(operations.readObject(), true);
+                    break;
+                case REMOVE_ALL:
+                    cache.removeAll(true);
+                    break;
+                default:
+                    throw new IOException("Unknown replication operation " + operation);
+            }
+        }
+        return count;
+    }
+
+}
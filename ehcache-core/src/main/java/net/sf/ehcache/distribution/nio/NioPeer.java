@@ -0,0 +1,321 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.distribution.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A remote CacheManager replicated to over NIO, as seen by a {@link NioCacheManagerPeerProvider}.
+ * <p/>
+ * Frames to send wait in a bounded queue: once it is full, the oldest frame is dropped, so that a slow or unreachable
+ * peer never holds up the caches nor the other peers. Frames are pipelined: up to a window of them are sent before the
+ * first one is acknowledged. The frames still unacknowledged when the connection is lost are sent again on the next
+ * connection, operations may thus be applied twice by the peer but are never reordered.
+ * <p/>
+ * Apart from {@link #offer(ByteBuffer)}, {@link #remove()} and the statistics, all methods are called by the transport
+ * thread of the provider.
+ *
+ * @author Terracotta
+ */
+public final class NioPeer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NioPeer.class);
+
+    private final InetSocketAddress address;
+    private final String nodeId;
+    private final int maximumUnackedFrames;
+    private final long socketTimeoutMillis;
+    private final BlockingQueue<ByteBuffer> queue;
+    private final Deque<ByteBuffer> unacked = new ArrayDeque<ByteBuffer>();
+    private final Deque<ByteBuffer> resend = new ArrayDeque<ByteBuffer>();
+    private final ByteBuffer acks = ByteBuffer.allocate(NioFrames.ACK_FRAME_LENGTH * 64);
+
+    private final AtomicLong droppedFrameCount = new AtomicLong();
+    private final AtomicLong acknowledgedFrameCount = new AtomicLong();
+    private volatile int unackedFrameCount;
+    private volatile boolean removed;
+
+    private SocketChannel channel;
+    private SelectionKey selectionKey;
+    private ByteBuffer writing;
+    private long reconnectAt;
+    private long lastProgress;
+
+    /**
+     * Create a peer.
+     *
+     * @param nodeId the <code>host:port</code> of the peer listener
+     * @param maximumUnackedFrames the number of frames sent ahead of their acknowledgement
+     * @param maximumQueuedFrames the number of frames waiting to be sent before the oldest ones are dropped
+     * @param socketTimeoutMillis the time without acknowledgement after which the connection is considered lost
+     * @throws IllegalArgumentException if the node id isn't a <code>host:port</code>
+     */
+    NioPeer(String nodeId, int maximumUnackedFrames, int maximumQueuedFrames, long socketTimeoutMillis) {
+        int colon = nodeId.lastIndexOf(':');
+        if (colon <= 0 || colon == nodeId.length() - 1) {
+            throw new IllegalArgumentException("NIO peers must be specified as host:port, not " + nodeId);
+        }
+        this.nodeId = nodeId;
+        this.address = new InetSocketAddress(nodeId.substring(0, colon), Integer.parseInt(nodeId.substring(colon + 1)));
+        this.maximumUnackedFrames = maximumUnackedFrames;
+        this.socketTimeoutMillis = socketTimeoutMillis;
+        this.queue = new ArrayBlockingQueue<ByteBuffer>(maximumQueuedFrames);
+    }
+
+    /**
+     * Queue a frame for this peer, dropping the oldest queued frame if the queue is full. Drops are counted, and logged
+     * each time their count doubles.
+     * <p/>
+     * The frame may be shared with other peers, it is only read through duplicates.
+     *
+     * @param frame the frame
+     */
+    void offer(ByteBuffer frame) {
+        while (!queue.offer(frame)) {
+            if (queue.poll() != null) {
+                long dropped = droppedFrameCount.incrementAndGet();
+                // logged on the first drop, then each time the count doubles
+                if (Long.bitCount(dropped) == 1) {
+                    LOG.warn("Send queue of peer " + nodeId + " is full, " + dropped + " frames dropped so far");
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the channel of this peer ready for the next select: connecting it when due, and updating its interest in writes.
+     *
+     * @param selector the selector of the transport thread
+     * @param now the current time in milliseconds
+     * @return true if frames are waiting to be sent or acknowledged over an open connection
+     */
+    boolean prepare(Selector selector, long now) {
+        if (channel == null) {
+            if (now >= reconnectAt) {
+                connect(selector, now);
+            }
+            return false;
+        }
+        if (!channel.isConnected()) {
+            return false;
+        }
+        if (!unacked.isEmpty() && now - lastProgress > socketTimeoutMillis) {
+            LOG.warn("No acknowledgement received from peer " + nodeId + " in " + socketTimeoutMillis + "ms, reconnecting");
+            disconnect(now);
+            return false;
+        }
+        boolean writable = writing != null || !resend.isEmpty() || (!queue.isEmpty() && unacked.size() < maximumUnackedFrames);
+        selectionKey.interestOps(SelectionKey.OP_READ | (writable ? SelectionKey.OP_WRITE : 0));
+        return writable || !unacked.isEmpty();
+    }
+
+    /**
+     * Handle the readiness of the channel of this peer.
+     *
+     * @param now the current time in milliseconds
+     */
+    void process(long now) {
+        try {
+            if (selectionKey.isConnectable() && channel.finishConnect()) {
+                LOG.debug("Connected to peer {}", nodeId);
+                lastProgress = now;
+                selectionKey.interestOps(SelectionKey.OP_READ);
+            }
+            if (selectionKey.isReadable()) {
+                readAcks(now);
+            }
+            if (selectionKey.isValid() && selectionKey.isWritable()) {
+                writeFrames();
+            }
+        } catch (IOException e) {
+            LOG.debug("Lost connection to peer " + nodeId + ": " + e.getMessage());
+            disconnect(now);
+        }
+    }
+
+    /**
+     * Mark this peer as unregistered from its provider, its connection is then closed by the transport thread.
+     */
+    void remove() {
+        removed = true;
+    }
+
+    /**
+     * Close the connection to this peer, for good.
+     */
+    void close() {
+        closeChannel();
+    }
+
+    /**
+     * @return true once this peer has been unregistered from its provider
+     */
+    boolean isRemoved() {
+        return removed;
+    }
+
+    private void connect(Selector selector, long now) {
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            if (channel.connect(address)) {
+                lastProgress = now;
+                selectionKey = channel.register(selector, SelectionKey.OP_READ, this);
+            } else {
+                selectionKey = channel.register(selector, SelectionKey.OP_CONNECT, this);
+            }
+        } catch (IOException e) {
+            LOG.debug("Could not connect to peer " + nodeId + ": " + e.getMessage());
+            disconnect(now);
+        }
+    }
+
+    private void disconnect(long now) {
+        closeChannel();
+        reconnectAt = now + NioCacheManagerPeerProvider.RECONNECT_INTERVAL_MILLIS;
+        writing = null;
+        while (!unacked.isEmpty()) {
+            resend.addFirst(unacked.pollLast());
+        }
+        unackedFrameCount = 0;
+        acks.clear();
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.debug("Could not close connection to peer " + nodeId + ": " + e.getMessage());
+            }
+            channel = null;
+            selectionKey = null;
+        }
+    }
+
+    private void readAcks(long now) throws IOException {
+        if (channel.read(acks) < 0) {
+            throw new IOException("connection closed by peer");
+        }
+        acks.flip();
+        while (acks.remaining() >= NioFrames.ACK_FRAME_LENGTH) {
+            acks.getInt();
+            byte type = acks.get();
+            long sequence = acks.getLong();
+            ByteBuffer frame = unacked.poll();
+            if (type != NioFrames.ACK || frame == null || NioFrames.sequenceOf(frame) != sequence) {
+                throw new IOException("unexpected acknowledgement of frame " + sequence);
+            }
+            acknowledgedFrameCount.incrementAndGet();
+            lastProgress = now;
+        }
+        acks.compact();
+        unackedFrameCount = unacked.size();
+    }
+
+    private void writeFrames() throws IOException {
+        while (true) {
+            if (writing == null) {
+                ByteBuffer next = resend.poll();
+                if (next == null && unacked.size() < maximumUnackedFrames) {
+                    next = queue.poll();
+                }
+                if (next == null) {
+                    break;
+                }
+                if (unacked.isEmpty()) {
+                    lastProgress = System.currentTimeMillis();
+                }
+                unacked.add(next);
+                unackedFrameCount = unacked.size();
+                writing = next.duplicate();
+            }
+            channel.write(writing);
+            if (writing.hasRemaining()) {
+                break;
+            }
+            writing = null;
+        }
+    }
+
+    /**
+     * Gets the <code>host:port</code> of the peer listener.
+     *
+     * @return the node id of this peer
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Gets the number of frames waiting to be sent.
+     *
+     * @return the queue size
+     */
+    public int getQueuedFrameCount() {
+        return queue.size();
+    }
+
+    /**
+     * Gets the number of frames sent but not yet acknowledged.
+     *
+     * @return the unacknowledged frame count
+     */
+    public int getUnackedFrameCount() {
+        return unackedFrameCount;
+    }
+
+    /**
+     * Gets the number of frames dropped because the queue was full.
+     *
+     * @return the dropped frame count
+     */
+    public long getDroppedFrameCount() {
+        return droppedFrameCount.get();
+    }
+
+    /**
+     * Gets the number of frames acknowledged by the peer.
+     *
+     * @return the acknowledged frame count
+     */
+    public long getAcknowledgedFrameCount() {
+        return acknowledgedFrameCount.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "NioPeer(" + nodeId + ")";
+    }
+}
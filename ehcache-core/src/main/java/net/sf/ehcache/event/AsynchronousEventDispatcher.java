@@ -0,0 +1,408 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.event;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.event.RegisteredEventListeners.Event;
+import net.sf.ehcache.util.NamedThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers the events of a cache to a listener on dispatch threads rather than on the threads raising them.
+ * <p/>
+ * Events are split into lanes by key hash, one thread per lane, each lane being a bounded ring buffer. The events on a given
+ * key thus always reach the listener in the order they were raised in. A thread takes up to a batch of events from its lane
+ * at once. A removeAll is queued in every lane, and delivered once all of them reached it.
+ * <p/>
+ * Events raised by the listener itself, on any of the dispatch threads, are delivered right away: queueing them could
+ * wait on a full lane whose thread is itself waiting, directly or through another lane, on the raising thread.
+ *
+ * @author Terracotta
+ */
+final class AsynchronousEventDispatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsynchronousEventDispatcher.class);
+
+    private static final long STOP_TIMEOUT_MILLIS = 30000;
+
+    private final Ehcache cache;
+    private final CacheEventListener listener;
+    private final EventOverflowPolicy overflowPolicy;
+    private final int batchSize;
+    private final Lane[] lanes;
+    private final Thread[] threads;
+    private final Object removeAllLock = new Object();
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private volatile long lagMillis;
+
+    /**
+     * Create a dispatcher, its threads are only started by {@link #start()}.
+     *
+     * @param cache the cache raising the events
+     * @param listener the listener to notify
+     * @param threads the number of lanes, each with its own thread
+     * @param queueSize the maximum number of pending events, shared out between the lanes
+     * @param batchSize the maximum number of events taken from a lane at once
+     * @param overflowPolicy what to do with an event once its lane is full
+     */
+    AsynchronousEventDispatcher(Ehcache cache, CacheEventListener listener, int threads, int queueSize, int batchSize,
+                                EventOverflowPolicy overflowPolicy) {
+        this.cache = cache;
+        this.listener = listener;
+        this.overflowPolicy = overflowPolicy;
+        this.batchSize = batchSize;
+        this.lanes = new Lane[threads];
+        this.threads = new Thread[threads];
+        int laneCapacity = Math.max(1, (queueSize + threads - 1) / threads);
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane(laneCapacity);
+        }
+    }
+
+    /**
+     * Start the dispatch threads.
+     */
+    void start() {
+        ThreadFactory threadFactory = new NamedThreadFactory(cache.getName() + " event dispatcher for "
+                + listener.getClass().getName(), true);
+        for (int i = 0; i < lanes.length; i++) {
+            threads[i] = threadFactory.newThread(lanes[i]);
+            lanes[i].thread = threads[i];
+            threads[i].start();
+        }
+    }
+
+    /**
+     * Queue an event for the listener.
+     *
+     * @param event the event type
+     * @param element the element the event is about
+     */
+    void dispatch(Event event, Element element) {
+        Object key = element == null ? null : element.getObjectKey();
+        Lane lane = lanes.length == 1 || key == null ? lanes[0] : lanes[Math.abs(key.hashCode() % lanes.length)];
+        PendingEvent pending = new PendingEvent(event, key, element, null);
+        if (isDispatchThread()) {
+            deliver(pending);
+        } else {
+            lane.offer(pending);
+        }
+    }
+
+    /**
+     * Queue a removeAll for the listener, after the events already queued on all keys.
+     */
+    void dispatchRemoveAll() {
+        if (isDispatchThread()) {
+            deliverRemoveAll();
+            return;
+        }
+        RemoveAllBarrier barrier = new RemoveAllBarrier(lanes.length);
+        // barriers must be queued in the same order in every lane, or two lanes could each wait for the other's
+        synchronized (removeAllLock) {
+            for (Lane lane : lanes) {
+                if (!lane.offer(new PendingEvent(null, null, null, barrier))) {
+                    barrier.arrive(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deliver the pending events then stop the dispatch threads. Events raised from then on are discarded.
+     */
+    void dispose() {
+        for (Lane lane : lanes) {
+            lane.stop();
+        }
+        for (Thread thread : threads) {
+            if (thread == null || thread == Thread.currentThread()) {
+                continue;
+            }
+            try {
+                thread.join(STOP_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (thread.isAlive()) {
+                LOG.warn("Event dispatcher thread " + thread.getName() + " did not stop in time, interrupting it");
+                thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of events waiting to be delivered.
+     *
+     * @return the queue depth
+     */
+    long getQueueDepth() {
+        return Math.max(0, queueDepth.get());
+    }
+
+    /**
+     * Gets the time the latest delivered event spent queued.
+     *
+     * @return the dispatch lag in milliseconds
+     */
+    long getDispatchLagMillis() {
+        return lagMillis;
+    }
+
+    /**
+     * Gets the number of events discarded because their lane was full.
+     *
+     * @return the dropped event count
+     */
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Gets the number of events merged into a pending event on the same key.
+     *
+     * @return the coalesced event count
+     */
+    long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    private boolean isDispatchThread() {
+        Thread current = Thread.currentThread();
+        for (Lane lane : lanes) {
+            if (lane.thread == current) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void deliverRemoveAll() {
+        try {
+            listener.notifyRemoveAll(cache);
+        } catch (Throwable t) {
+            LOG.warn("Listener " + listener + " failed to handle removeAll of cache " + cache.getName(), t);
+        }
+    }
+
+    private void deliver(PendingEvent pending) {
+        lagMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pending.queuedAt);
+        if (pending.barrier != null) {
+            pending.barrier.arrive(true);
+            return;
+        }
+        try {
+            pending.event.deliver(listener, cache, pending.element);
+        } catch (Throwable t) {
+            LOG.warn("Listener " + listener + " failed to handle event " + pending.event + " on key " + pending.key
+                    + " of cache " + cache.getName(), t);
+        }
+    }
+
+    /**
+     * A bounded ring buffer of events, emptied by a single thread
+     */
+    private final class Lane implements Runnable {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+        private final PendingEvent[] ring;
+        private final Map<Object, PendingEvent> pendingByKey;
+        private volatile Thread thread;
+        private int head;
+        private int count;
+        private boolean stopped;
+
+        Lane(int capacity) {
+            this.ring = new PendingEvent[capacity];
+            this.pendingByKey = overflowPolicy == EventOverflowPolicy.COALESCE ? new HashMap<Object, PendingEvent>() : null;
+        }
+
+        /**
+         * @return false if the lane is stopped and the event was discarded
+         */
+        boolean offer(PendingEvent pending) {
+            lock.lock();
+            try {
+                if (stopped) {
+                    return false;
+                }
+                if (pendingByKey != null && pending.barrier != null) {
+                    // events are never merged across a removeAll
+                    pendingByKey.clear();
+                }
+                while (count == ring.length && !stopped) {
+                    PendingEvent previous = pendingByKey == null || pending.barrier != null ? null : pendingByKey.get(pending.key);
+                    if (previous != null) {
+                        // only merged once the lane is full, so that every event is delivered otherwise
+                        previous.coalesce(pending);
+                        coalescedCount.incrementAndGet();
+                        return true;
+                    } else if (overflowPolicy == EventOverflowPolicy.DROP_OLDEST && ring[head].barrier == null) {
+                        PendingEvent dropped = take();
+                        queueDepth.decrementAndGet();
+                        droppedCount.incrementAndGet();
+                        LOG.debug("Dropped event {} on key {} of cache {}", new Object[] {dropped.event, dropped.key, cache.getName()});
+                    } else {
+                        notFull.awaitUninterruptibly();
+                    }
+                }
+                if (stopped) {
+                    return false;
+                }
+                ring[(head + count) % ring.length] = pending;
+                count++;
+                queueDepth.incrementAndGet();
+                if (pendingByKey != null && pending.barrier == null) {
+                    pendingByKey.put(pending.key, pending);
+                }
+                notEmpty.signal();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void stop() {
+            lock.lock();
+            try {
+                stopped = true;
+                notEmpty.signalAll();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void run() {
+            List<PendingEvent> batch = new ArrayList<PendingEvent>(Math.min(batchSize, ring.length));
+            while (true) {
+                lock.lock();
+                try {
+                    while (count == 0 && !stopped) {
+                        notEmpty.awaitUninterruptibly();
+                    }
+                    if (count == 0) {
+                        return;
+                    }
+                    while (count > 0 && batch.size() < batchSize) {
+                        batch.add(take());
+                    }
+                    queueDepth.addAndGet(-batch.size());
+                    notFull.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                for (PendingEvent pending : batch) {
+                    deliver(pending);
+                }
+                batch.clear();
+            }
+        }
+
+        private PendingEvent take() {
+            PendingEvent pending = ring[head];
+            ring[head] = null;
+            head = (head + 1) % ring.length;
+            count--;
+            if (pendingByKey != null && pending.barrier == null && pendingByKey.get(pending.key) == pending) {
+                pendingByKey.remove(pending.key);
+            }
+            return pending;
+        }
+    }
+
+    /**
+     * An event waiting in a lane, either on an element or a removeAll
+     */
+    private static final class PendingEvent {
+
+        private final Object key;
+        private final RemoveAllBarrier barrier;
+        private final long queuedAt = System.nanoTime();
+        private Event event;
+        private Element element;
+
+        PendingEvent(Event event, Object key, Element element, RemoveAllBarrier barrier) {
+            this.event = event;
+            this.key = key;
+            this.element = element;
+            this.barrier = barrier;
+        }
+
+        /**
+         * Merge a newer event on the same key into this one, keeping a put as a put
+         */
+        void coalesce(PendingEvent newer) {
+            if (!(event == Event.PUT && newer.event == Event.UPDATED)) {
+                event = newer.event;
+            }
+            element = newer.element;
+        }
+    }
+
+    /**
+     * Holds the lanes reaching a removeAll until all of them did, the last one delivering it
+     */
+    private final class RemoveAllBarrier {
+
+        private final AtomicInteger remaining;
+        private final CountDownLatch delivered = new CountDownLatch(1);
+
+        RemoveAllBarrier(int lanes) {
+            this.remaining = new AtomicInteger(lanes);
+        }
+
+        void arrive(boolean wait) {
+            if (remaining.decrementAndGet() == 0) {
+                try {
+                    deliverRemoveAll();
+                } finally {
+                    delivered.countDown();
+                }
+            } else if (wait) {
+                try {
+                    delivered.await();
+                } catch (InterruptedException e) {
+                    // the dispatcher is being disposed of: stop waiting for the other lanes
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.event;
+
+/**
+ * This enumeration defines what an asynchronously notified listener does with a new event once its queue is full.
+ *
+ * @author Terracotta
+ * @see net.sf.ehcache.config.CacheConfiguration.CacheEventListenerFactoryConfiguration#setDispatchOverflowPolicy(String)
+ */
+public enum EventOverflowPolicy {
+    /**
+     * The thread raising the event waits for room in the queue
+     */
+    BLOCK,
+
+    /**
+     * The oldest pending event is discarded
+     */
+    DROP_OLDEST,
+
+    /**
+     * Once the queue is full, a pending event on the same key is replaced by the new one. If there is none, the thread
+     * raising the event waits for room.
+     */
+    COALESCE
+}
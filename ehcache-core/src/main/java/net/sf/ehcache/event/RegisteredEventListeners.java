@@ -24,8 +24,10 @@ import net.sf.ehcache.CacheStoreHelper;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
 import net.sf.ehcache.Status;
+import net.sf.ehcache.config.CacheConfiguration.CacheEventListenerFactoryConfiguration;
 import net.sf.ehcache.distribution.CacheReplicator;
 import net.sf.ehcache.store.TerracottaStore;
+import org.terracotta.statistics.Statistic;
 import org.terracotta.statistics.StatisticsManager;
 import org.terracotta.statistics.observer.OperationObserver;
 
@@ -41,6 +43,9 @@ import static net.sf.ehcache.statistics.StatisticBuilder.operation;
  * Registered listeners for registering and unregistering CacheEventListeners and multicasting notifications to registrants.
  * <p/>
  * There is one of these per Cache.
+ * <p/>
+ * Listeners are notified on the thread raising the event, unless registered for asynchronous delivery, in which case events
+ * are queued and delivered on dispatch threads of their own, in order per key.
  *
  * @author Greg Luck
  * @author Geert Bevin
@@ -153,7 +158,7 @@ public class RegisteredEventListeners {
                 if (listenerWrapper.getScope().shouldDeliver(remoteEvent)
                         && !isCircularNotification(remoteEvent, listenerWrapper.getListener())) {
                     CacheEventListener listener = listenerWrapper.getListener();
-                    listener.notifyElementRemoved(cache, resolveElement(listener, element, callback));
+                    listenerWrapper.deliver(cache, Event.REMOVED, resolveElement(listener, element, callback));
                 }
             }
         }
@@ -188,8 +193,7 @@ public class RegisteredEventListeners {
                 if (listenerWrapper.getScope().shouldDeliver(remoteEvent)
                         && !isCircularNotification(remoteEvent, listenerWrapper.getListener())) {
                     CacheEventListener listener = listenerWrapper.getListener();
-
-                    listener.notifyElementPut(cache, resolveElement(listener, element, callback));
+                    listenerWrapper.deliver(cache, Event.PUT, resolveElement(listener, element, callback));
                 }
             }
         }
@@ -224,8 +228,7 @@ public class RegisteredEventListeners {
                 if (listenerWrapper.getScope().shouldDeliver(remoteEvent)
                         && !isCircularNotification(remoteEvent, listenerWrapper.getListener())) {
                     CacheEventListener listener = listenerWrapper.getListener();
-
-                    listener.notifyElementUpdated(cache, resolveElement(listener, element, callback));
+                    listenerWrapper.deliver(cache, Event.UPDATED, resolveElement(listener, element, callback));
                 }
             }
         }
@@ -264,8 +267,7 @@ public class RegisteredEventListeners {
                 if (listenerWrapper.getScope().shouldDeliver(remoteEvent)
                         && !isCircularNotification(remoteEvent, listenerWrapper.getListener())) {
                     CacheEventListener listener = listenerWrapper.getListener();
-
-                    listener.notifyElementExpired(cache, resolveElement(listener, element, callback));
+                    listenerWrapper.deliver(cache, Event.EXPIRY, resolveElement(listener, element, callback));
                 }
             }
         }
@@ -311,8 +313,7 @@ public class RegisteredEventListeners {
                 if (listenerWrapper.getScope().shouldDeliver(remoteEvent)
                     && !isCircularNotification(remoteEvent, listenerWrapper.getListener())) {
                     CacheEventListener listener = listenerWrapper.getListener();
-
-                    listener.notifyElementEvicted(cache, resolveElement(listener, element, callback));
+                    listenerWrapper.deliver(cache, Event.EVICTED, resolveElement(listener, element, callback));
                 }
             }
         }
@@ -338,7 +339,7 @@ public class RegisteredEventListeners {
             for (ListenerWrapper listenerWrapper : cacheEventListeners) {
                 if (listenerWrapper.getScope().shouldDeliver(remoteEvent)
                         && !isCircularNotification(remoteEvent, listenerWrapper.getListener())) {
-                    listenerWrapper.getListener().notifyRemoveAll(cache);
+                    listenerWrapper.deliverRemoveAll(cache);
                 }
             }
         }
@@ -385,11 +386,41 @@ public class RegisteredEventListeners {
         if (cacheEventListener == null) {
             return false;
         }
-        boolean result = cacheEventListeners.add(new ListenerWrapper(cacheEventListener, scope));
-        if (result && cacheEventListener instanceof CacheReplicator) {
+        return registerListener(new ListenerWrapper(cacheEventListener, scope, null));
+    }
+
+    /**
+     * Adds a listener to the notification service, as configured by its factory configuration. No guarantee is made that
+     * listeners will be notified in the order they were added.
+     * <p/>
+     * If the configuration asks for asynchronous delivery, the events are queued and delivered to the listener on dispatch
+     * threads, so that a slow listener doesn't hold up cache operations. The events on a given key are delivered in the
+     * order they were raised in.
+     *
+     * @param cacheEventListener The listener to add
+     * @param configuration      The listener configuration, giving the notification scope and the dispatch settings
+     * @return true if the listener is being added and was not already added
+     */
+    public final boolean registerListener(CacheEventListener cacheEventListener, CacheEventListenerFactoryConfiguration configuration) {
+        if (cacheEventListener == null) {
+            return false;
+        }
+        AsynchronousEventDispatcher dispatcher = null;
+        if (configuration.isAsynchronous()) {
+            dispatcher = new AsynchronousEventDispatcher(cache, cacheEventListener, configuration.getDispatchThreads(),
+                    configuration.getDispatchQueueSize(), configuration.getDispatchBatchSize(),
+                    configuration.getDispatchOverflowPolicy());
+        }
+        return registerListener(new ListenerWrapper(cacheEventListener, configuration.getListenFor(), dispatcher));
+    }
+
+    private boolean registerListener(ListenerWrapper listenerWrapper) {
+        boolean result = cacheEventListeners.add(listenerWrapper);
+        if (result && listenerWrapper.getListener() instanceof CacheReplicator) {
             this.hasReplicator.set(true);
         }
         if (result) {
+            listenerWrapper.start();
             notifyEventListenersChangedIfNecessary();
         }
         return result;
@@ -424,7 +455,9 @@ public class RegisteredEventListeners {
         while (it.hasNext()) {
             ListenerWrapper listenerWrapper = it.next();
             if (listenerWrapper.getListener().equals(cacheEventListener)) {
-                cacheEventListeners.remove(listenerWrapper);
+                if (cacheEventListeners.remove(listenerWrapper)) {
+                    listenerWrapper.stop();
+                }
                 result = true;
             } else {
                 if (listenerWrapper.getListener() instanceof CacheReplicator) {
@@ -483,6 +516,7 @@ public class RegisteredEventListeners {
      */
     public final void dispose() {
         for (ListenerWrapper listenerWrapper : cacheEventListeners) {
+            listenerWrapper.stop();
             listenerWrapper.getListener().dispose();
         }
         cacheEventListeners.clear();
@@ -495,6 +529,71 @@ public class RegisteredEventListeners {
         orderedListeners.clear();
     }
 
+    /**
+     * Gets the number of events waiting to be delivered to asynchronously notified listeners.
+     *
+     * @return the total queue depth
+     */
+    @Statistic(name = "queue-depth", tags = "event-dispatch")
+    public long getEventDispatchQueueDepth() {
+        long depth = 0;
+        for (ListenerWrapper listenerWrapper : cacheEventListeners) {
+            if (listenerWrapper.dispatcher != null) {
+                depth += listenerWrapper.dispatcher.getQueueDepth();
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * Gets the time the latest event delivered to an asynchronously notified listener spent queued, the longest across
+     * listeners.
+     *
+     * @return the dispatch lag in milliseconds
+     */
+    @Statistic(name = "dispatch-lag", tags = "event-dispatch")
+    public long getEventDispatchLagMillis() {
+        long lag = 0;
+        for (ListenerWrapper listenerWrapper : cacheEventListeners) {
+            if (listenerWrapper.dispatcher != null) {
+                lag = Math.max(lag, listenerWrapper.dispatcher.getDispatchLagMillis());
+            }
+        }
+        return lag;
+    }
+
+    /**
+     * Gets the number of events discarded by asynchronously notified listeners because their queue was full.
+     *
+     * @return the dropped event count
+     */
+    @Statistic(name = "dropped", tags = "event-dispatch")
+    public long getEventDispatchDroppedCount() {
+        long dropped = 0;
+        for (ListenerWrapper listenerWrapper : cacheEventListeners) {
+            if (listenerWrapper.dispatcher != null) {
+                dropped += listenerWrapper.dispatcher.getDroppedCount();
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * Gets the number of events merged into a pending event on the same key by asynchronously notified listeners.
+     *
+     * @return the coalesced event count
+     */
+    @Statistic(name = "coalesced", tags = "event-dispatch")
+    public long getEventDispatchCoalescedCount() {
+        long coalesced = 0;
+        for (ListenerWrapper listenerWrapper : cacheEventListeners) {
+            if (listenerWrapper.dispatcher != null) {
+                coalesced += listenerWrapper.dispatcher.getCoalescedCount();
+            }
+        }
+        return coalesced;
+    }
+
     /**
      * Returns a string representation of the object. In general, the
      * <code>toString</code> method returns a string that
@@ -527,10 +626,40 @@ public class RegisteredEventListeners {
     private static final class ListenerWrapper {
         private final CacheEventListener listener;
         private final NotificationScope scope;
+        private final AsynchronousEventDispatcher dispatcher;
 
-        private ListenerWrapper(CacheEventListener listener, NotificationScope scope) {
+        private ListenerWrapper(CacheEventListener listener, NotificationScope scope, AsynchronousEventDispatcher dispatcher) {
             this.listener = listener;
             this.scope = scope;
+            this.dispatcher = dispatcher;
+        }
+
+        private void start() {
+            if (dispatcher != null) {
+                dispatcher.start();
+            }
+        }
+
+        private void stop() {
+            if (dispatcher != null) {
+                dispatcher.dispose();
+            }
+        }
+
+        private void deliver(Ehcache cache, Event event, Element element) {
+            if (dispatcher != null) {
+                dispatcher.dispatch(event, element);
+            } else {
+                event.deliver(listener, cache, element);
+            }
+        }
+
+        private void deliverRemoveAll(Ehcache cache) {
+            if (dispatcher != null) {
+                dispatcher.dispatchRemoveAll();
+            } else {
+                listener.notifyRemoveAll(cache);
+            }
         }
 
         private CacheEventListener getListener() {
@@ -606,8 +735,42 @@ public class RegisteredEventListeners {
     /**
      * Event callback types
      */
-    private static enum Event {
-        EVICTED, PUT, EXPIRY, UPDATED, REMOVED;
+    static enum Event {
+        EVICTED {
+            @Override
+            void deliver(CacheEventListener listener, Ehcache cache, Element element) {
+                listener.notifyElementEvicted(cache, element);
+            }
+        },
+        PUT {
+            @Override
+            void deliver(CacheEventListener listener, Ehcache cache, Element element) {
+                listener.notifyElementPut(cache, element);
+            }
+        },
+        EXPIRY {
+            @Override
+            void deliver(CacheEventListener listener, Ehcache cache, Element element) {
+                listener.notifyElementExpired(cache, element);
+            }
+        },
+        UPDATED {
+            @Override
+            void deliver(CacheEventListener listener, Ehcache cache, Element element) {
+                listener.notifyElementUpdated(cache, element);
+            }
+        },
+        REMOVED {
+            @Override
+            void deliver(CacheEventListener listener, Ehcache cache, Element element) {
+                listener.notifyElementRemoved(cache, element);
+            }
+        };
+
+        /**
+         * Notify a listener of this event.
+         */
+        abstract void deliver(CacheEventListener listener, Ehcache cache, Element element);
     }
 
 
@@ -410,6 +410,55 @@ public interface CacheSampler extends LegacyCacheStatistics {
      */
     long getWriterQueueLength();
 
+    /**
+     * Returns the current write-behind batch size for this cache.
+     *
+     * @return write-behind batch size
+     */
+    int getWriterBatchSize();
+
+    /**
+     * Returns the time, in milliseconds, the oldest operation of the latest write-behind write spent queued.
+     *
+     * @return write-behind lag
+     */
+    long getWriterLagMillis();
+
+    /**
+     * Returns the number of entries refreshed ahead of their expiry.
+     *
+     * @return refresh ahead count
+     */
+    long getRefreshAheadCount();
+
+    /**
+     * Returns the number of refreshes ahead that failed, lost the race against an update, or whose entry wasn't read again.
+     *
+     * @return wasted refresh ahead count
+     */
+    long getRefreshAheadWastedCount();
+
+    /**
+     * Returns the time, in milliseconds, the latest refresh ahead took from being triggered to completing.
+     *
+     * @return refresh ahead lag
+     */
+    long getRefreshAheadLagMillis();
+
+    /**
+     * Returns the number of events waiting to be delivered to asynchronously notified listeners.
+     *
+     * @return event dispatch queue depth
+     */
+    long getEventDispatchQueueDepth();
+
+    /**
+     * Returns the time, in milliseconds, the latest event delivered to an asynchronously notified listener spent queued.
+     *
+     * @return event dispatch lag
+     */
+    long getEventDispatchLagMillis();
+
     /**
      * Get the timestamp in nanos of the last rejoin.
      *
@@ -475,6 +524,68 @@ public interface CacheSampler extends LegacyCacheStatistics {
      */
     @ManagementAttribute
     Map<String, String> getSearchAttributes();
+
+    /**
+     * Enable or disable tracking of the most frequently accessed keys.
+     *
+     * @param enabled true to track hot keys
+     */
+    void setHotKeyTrackingEnabled(boolean enabled);
+
+    /**
+     * Is hot key tracking enabled?
+     *
+     * @return true if hot keys are tracked
+     */
+    @ManagementAttribute
+    boolean isHotKeyTrackingEnabled();
+
+    /**
+     * Get the most frequently accessed keys with their estimated access counts.
+     *
+     * @return map of key -> estimated access count, most frequent first
+     */
+    @ManagementAttribute
+    Map<String, Long> getHotKeyCounts();
+
+    /**
+     * Get the most frequently accessed keys with their estimated share of the sampled traffic.
+     *
+     * @return map of key -> share of traffic (0 to 1), most frequent first
+     */
+    @ManagementAttribute
+    Map<String, Double> getHotKeyShares();
+
+    /**
+     * Enable or disable estimation of the hit ratio the cache would achieve at other sizes.
+     *
+     * @param enabled true to estimate the miss ratio curve
+     */
+    void setMissRatioCurveEnabled(boolean enabled);
+
+    /**
+     * Is miss ratio curve estimation enabled?
+     *
+     * @return true if the miss ratio curve is estimated
+     */
+    @ManagementAttribute
+    boolean isMissRatioCurveEnabled();
+
+    /**
+     * Get the estimated hit ratio at multiples (0.25x to 4x) of the current local heap capacity.
+     *
+     * @return map of capacity multiple (e.g. "2x") -> estimated hit ratio, empty if nothing was estimated yet
+     */
+    @ManagementAttribute
+    Map<String, Double> getMissRatioCurve();
+
+    /**
+     * Get the estimated number of local heap entries needed to achieve the given hit ratio.
+     *
+     * @param targetHitRatio the target hit ratio (0 to 1)
+     * @return the recommended maximum number of entries, or -1 if the target isn't reachable with the observed workload
+     */
+    long getRecommendedMaxEntriesLocalHeap(double targetHitRatio);
     
     /**
      * Gets the cache search rate.
@@ -29,6 +29,9 @@ import net.sf.ehcache.config.PinningConfiguration;
 import net.sf.ehcache.config.SearchAttribute;
 import net.sf.ehcache.config.TerracottaConfiguration.Consistency;
 import net.sf.ehcache.search.Attribute;
+import net.sf.ehcache.statistics.extended.HotKeyTracker;
+import net.sf.ehcache.statistics.extended.HotKeyTracker.HotKey;
+import net.sf.ehcache.statistics.extended.MissRatioCurveEstimator;
 import net.sf.ehcache.store.Store;
 import net.sf.ehcache.store.TerracottaStore;
 import net.sf.ehcache.util.CacheTransactionHelper;
@@ -42,6 +45,7 @@ import org.terracotta.statistics.archive.Timestamped;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -57,6 +61,12 @@ public class CacheSamplerImpl implements CacheSampler, CacheConfigurationListene
 
     private static final int PERCENTAGE_DIVISOR = 100;
 
+    private static final int HOT_KEYS_REPORTED = 10;
+
+    private static final String[] MISS_RATIO_CURVE_LABELS = {"0.25x", "0.5x", "0.75x", "1x", "1.5x", "2x", "3x", "4x"};
+
+    private static final double[] MISS_RATIO_CURVE_FACTORS = {0.25d, 0.5d, 0.75d, 1d, 1.5d, 2d, 3d, 4d};
+
     private static final Logger LOG = LoggerFactory.getLogger(CacheSamplerImpl.class);
 
     private final Ehcache cache;
@@ -535,6 +545,90 @@ public class CacheSamplerImpl implements CacheSampler, CacheConfigurationListene
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getWriterBatchSize() {
+        try {
+            return cache.getStatistics().getWriterBatchSize();
+        } catch (RuntimeException e) {
+            throw Utils.newPlainException(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getWriterLagMillis() {
+        try {
+            return cache.getStatistics().getWriterLagMillis();
+        } catch (RuntimeException e) {
+            throw Utils.newPlainException(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getRefreshAheadCount() {
+        try {
+            return cache.getStatistics().cacheRefreshAheadCount();
+        } catch (RuntimeException e) {
+            throw Utils.newPlainException(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getRefreshAheadWastedCount() {
+        try {
+            return cache.getStatistics().cacheRefreshAheadWastedCount();
+        } catch (RuntimeException e) {
+            throw Utils.newPlainException(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getRefreshAheadLagMillis() {
+        try {
+            return cache.getStatistics().getRefreshAheadLagMillis();
+        } catch (RuntimeException e) {
+            throw Utils.newPlainException(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getEventDispatchQueueDepth() {
+        try {
+            return cache.getStatistics().getEventDispatchQueueDepth();
+        } catch (RuntimeException e) {
+            throw Utils.newPlainException(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getEventDispatchLagMillis() {
+        try {
+            return cache.getStatistics().getEventDispatchLagMillis();
+        } catch (RuntimeException e) {
+            throw Utils.newPlainException(e);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -1539,6 +1633,117 @@ public class CacheSamplerImpl implements CacheSampler, CacheConfigurationListene
         return cache.getCacheConfiguration().getSearchable() != null;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setHotKeyTrackingEnabled(boolean enabled) {
+        HotKeyTracker tracker = cache.getStatistics().getExtended().hotKeys();
+        if (enabled) {
+            if (!tracker.isEnabled()) {
+                tracker.enable();
+            }
+        } else {
+            tracker.disable();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isHotKeyTrackingEnabled() {
+        return cache.getStatistics().getExtended().hotKeys().isEnabled();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Long> getHotKeyCounts() {
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (HotKey hotKey : cache.getStatistics().getExtended().hotKeys().topKeys(HOT_KEYS_REPORTED)) {
+            result.put(String.valueOf(hotKey.getKey()), hotKey.getEstimatedCount());
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Double> getHotKeyShares() {
+        Map<String, Double> result = new LinkedHashMap<String, Double>();
+        for (HotKey hotKey : cache.getStatistics().getExtended().hotKeys().topKeys(HOT_KEYS_REPORTED)) {
+            result.put(String.valueOf(hotKey.getKey()), hotKey.getShare());
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setMissRatioCurveEnabled(boolean enabled) {
+        MissRatioCurveEstimator estimator = cache.getStatistics().getExtended().missRatioCurve();
+        if (enabled) {
+            if (!estimator.isEnabled()) {
+                estimator.enable();
+            }
+        } else {
+            estimator.disable();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isMissRatioCurveEnabled() {
+        return cache.getStatistics().getExtended().missRatioCurve().isEnabled();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Double> getMissRatioCurve() {
+        Map<String, Double> result = new LinkedHashMap<String, Double>();
+        MissRatioCurveEstimator estimator = cache.getStatistics().getExtended().missRatioCurve();
+        long capacity = getLocalHeapCapacityInEntries();
+        if (capacity > 0 && estimator.getSampledReads() > 0) {
+            for (int i = 0; i < MISS_RATIO_CURVE_FACTORS.length; i++) {
+                result.put(MISS_RATIO_CURVE_LABELS[i], estimator.hitRatio(Math.round(capacity * MISS_RATIO_CURVE_FACTORS[i])));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getRecommendedMaxEntriesLocalHeap(double targetHitRatio) {
+        return cache.getStatistics().getExtended().missRatioCurve().entriesForHitRatio(targetHitRatio);
+    }
+
+    /**
+     * The local heap capacity in entries: the entry bound if set, otherwise the byte bound divided by the current average
+     * entry size, otherwise the current number of entries.
+     */
+    private long getLocalHeapCapacityInEntries() {
+        CacheConfiguration config = cache.getCacheConfiguration();
+        if (config.getMaxEntriesLocalHeap() > 0) {
+            return config.getMaxEntriesLocalHeap();
+        }
+        long entries = cache.getStatistics().getLocalHeapSize();
+        long bytes = cache.getStatistics().getLocalHeapSizeInBytes();
+        if (config.getMaxBytesLocalHeap() > 0 && entries > 0 && bytes > 0) {
+            return config.getMaxBytesLocalHeap() / Math.max(1, bytes / entries);
+        }
+        return entries;
+    }
+
     @Override
     public Map<String, String> getSearchAttributes() {
         Map<String, String> result = new HashMap<String, String>();
@@ -472,6 +472,55 @@ public class SampledCache extends BaseEmitterBean implements SampledCacheMBean,
         return sampledCacheDelegate.getWriterQueueLength();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public int getWriterBatchSize() {
+        return sampledCacheDelegate.getWriterBatchSize();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getWriterLagMillis() {
+        return sampledCacheDelegate.getWriterLagMillis();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getRefreshAheadCount() {
+        return sampledCacheDelegate.getRefreshAheadCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getRefreshAheadWastedCount() {
+        return sampledCacheDelegate.getRefreshAheadWastedCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getRefreshAheadLagMillis() {
+        return sampledCacheDelegate.getRefreshAheadLagMillis();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getEventDispatchQueueDepth() {
+        return sampledCacheDelegate.getEventDispatchQueueDepth();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getEventDispatchLagMillis() {
+        return sampledCacheDelegate.getEventDispatchLagMillis();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -1280,6 +1329,64 @@ public class SampledCache extends BaseEmitterBean implements SampledCacheMBean,
         return sampledCacheDelegate.getSearchAttributes();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void setHotKeyTrackingEnabled(boolean enabled) {
+        sampledCacheDelegate.setHotKeyTrackingEnabled(enabled);
+        sendNotification(CACHE_CHANGED, getCacheAttributes(), getImmutableCacheName());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isHotKeyTrackingEnabled() {
+        return sampledCacheDelegate.isHotKeyTrackingEnabled();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<String, Long> getHotKeyCounts() {
+        return sampledCacheDelegate.getHotKeyCounts();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<String, Double> getHotKeyShares() {
+        return sampledCacheDelegate.getHotKeyShares();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setMissRatioCurveEnabled(boolean enabled) {
+        sampledCacheDelegate.setMissRatioCurveEnabled(enabled);
+        sendNotification(CACHE_CHANGED, getCacheAttributes(), getImmutableCacheName());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isMissRatioCurveEnabled() {
+        return sampledCacheDelegate.isMissRatioCurveEnabled();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Map<String, Double> getMissRatioCurve() {
+        return sampledCacheDelegate.getMissRatioCurve();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getRecommendedMaxEntriesLocalHeap(double targetHitRatio) {
+        return sampledCacheDelegate.getRecommendedMaxEntriesLocalHeap(targetHitRatio);
+    }
+
     /**
      * {@inheritDoc}
      */
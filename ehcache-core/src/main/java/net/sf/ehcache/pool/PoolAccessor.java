@@ -38,6 +38,23 @@ public interface PoolAccessor<T extends PoolParticipant> {
      */
     long add(Object key, Object value, Object container, boolean force);
 
+    /**
+     * Add a batch of elements to the pool, reserving the space of the whole batch at once.
+     * <p>
+     * This method was added to an existing interface: accessors extending
+     * {@link net.sf.ehcache.pool.impl.AbstractPoolAccessor} inherit it, others have to implement it. Such an implementation
+     * may size each element and {@link #add(Object, Object, Object, boolean) add} them one by one, as long as it
+     * {@link #delete(long) deletes} what it added when one of them can't be added.
+     *
+     * @param keys the keys of the elements
+     * @param values the values of the elements
+     * @param containers the element-container objects
+     * @param sizes receives how many bytes each element accounts for
+     * @param force true if the pool should accept adding the elements, even if it's out of resources
+     * @return how many bytes have been added to the pool or -1 if add failed, in which case nothing has been added.
+     */
+    long addAll(Object[] keys, Object[] values, Object[] containers, long[] sizes, boolean force);
+
     /**
      * Check if there is enough room in the pool to add an element without provoking any eviction
      * @param key the key of the element
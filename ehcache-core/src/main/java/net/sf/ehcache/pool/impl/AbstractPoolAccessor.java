@@ -67,6 +67,23 @@ public abstract class AbstractPoolAccessor implements PoolAccessor<PoolParticipa
         return add(sizeOf.getCalculated(), force);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public final long addAll(Object[] keys, Object[] values, Object[] containers, long[] sizes, boolean force) {
+        checkLinked();
+        long total = 0L;
+        for (int i = 0; i < keys.length; i++) {
+            Size sizeOf = sizeOfEngine.sizeOf(keys[i], values[i], containers[i]);
+            if (!sizeOf.isExact()) {
+                abortedSizeOf = true;
+            }
+            sizes[i] = sizeOf.getCalculated();
+            total += sizes[i];
+        }
+        return add(total, force);
+    }
+
     /**
      * {@inheritDoc}
      */
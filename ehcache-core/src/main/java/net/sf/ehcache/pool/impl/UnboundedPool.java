@@ -16,6 +16,7 @@
 
 package net.sf.ehcache.pool.impl;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 
@@ -121,6 +122,14 @@ public class UnboundedPool implements Pool {
             return 0L;
         }
 
+        /**
+         * {@inheritDoc}
+         */
+        public long addAll(Object[] keys, Object[] values, Object[] containers, long[] sizes, boolean force) {
+            Arrays.fill(sizes, 0L);
+            return 0L;
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -28,6 +28,8 @@ public class ExecutionHints {
     public static final int DEFAULT_RESULT_BATCH_SIZE = -1;
     
     private int batchSize = DEFAULT_RESULT_BATCH_SIZE;
+    private boolean streaming;
+    private boolean profiling;
     
     /**
      * Set desired batch size for search results. This may be used as a safeguard to keep memory overhead fixed,
@@ -46,4 +48,47 @@ public class ExecutionHints {
     public int getResultBatchSize() {
         return batchSize;
     }
+
+    /**
+     * Request that the query results be streamed rather than fully materialized. When set, the returned {@link Results}
+     * will be a {@link StreamingResults} that evaluates the query lazily against the store, handing out results in batches
+     * of {@link #getResultBatchSize()}.
+     * <p/>
+     * Only unordered, non-grouped queries without aggregators are evaluated lazily; other queries are still materialized
+     * but are returned through the same cursor interface.
+     *
+     * @param streaming true to request streaming results
+     * @return this
+     */
+    public ExecutionHints setStreamingResults(boolean streaming) {
+        this.streaming = streaming;
+        return this;
+    }
+
+    /**
+     * @return true if streaming results have been requested
+     */
+    public boolean isStreamingResults() {
+        return streaming;
+    }
+
+    /**
+     * Request that the query execution be profiled. The returned {@link Results} then expose a {@link QueryProfile} through
+     * {@link Results#getProfile()}. Profiled executions always evaluate the query against the store, and streamed results
+     * are not profiled.
+     *
+     * @param profiling true to profile the query execution
+     * @return this
+     */
+    public ExecutionHints setProfiling(boolean profiling) {
+        this.profiling = profiling;
+        return this;
+    }
+
+    /**
+     * @return true if the query execution should be profiled
+     */
+    public boolean isProfiling() {
+        return profiling;
+    }
 }
@@ -87,4 +87,11 @@ public class NullResults implements Results {
         return false;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public QueryProfile getProfile() {
+        return null;
+    }
+
 }
@@ -160,6 +160,14 @@ public interface Query {
      */
     public Results execute(ExecutionHints hints) throws SearchException;
 
+    /**
+     * Execute this query with profiling enabled and return the execution profile, discarding the results.
+     *
+     * @return the query execution profile
+     * @throws SearchException
+     */
+    public QueryProfile explain() throws SearchException;
+
     /**
      * Optional method for terminating query creation. If called the query becomes
      * immutable, so that attempting any further mutations will result in an exception
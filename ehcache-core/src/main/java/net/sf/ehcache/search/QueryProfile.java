@@ -0,0 +1,145 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.search;
+
+/**
+ * Execution profile of a single query, as returned by {@link Results#getProfile()} when profiling was requested through
+ * {@link ExecutionHints#setProfiling(boolean)}, or by {@link Query#explain()}.
+ * <p/>
+ * Criteria evaluation time includes the attribute extraction performed by the criteria themselves; extraction time covers
+ * the attributes, sort keys and aggregator inputs gathered for each match.
+ *
+ * @author Terracotta
+ */
+public final class QueryProfile {
+
+    /**
+     * Access path of queries evaluated by visiting every element of the store
+     */
+    public static final String FULL_SCAN = "full-scan";
+
+    /**
+     * Access path of aggregation-only queries evaluated over the primitive attribute columns
+     */
+    public static final String COLUMNAR_SCAN = "columnar-scan";
+
+    private final String accessPath;
+    private final long elementsScanned;
+    private final long elementsMatched;
+    private final long extractionNanos;
+    private final long criteriaNanos;
+    private final long sortNanos;
+    private final long aggregationNanos;
+    private final long totalNanos;
+    private final long allocatedBytes;
+
+    /**
+     * Create a query profile. Intended for search engine implementations.
+     *
+     * @param accessPath the access path used to evaluate the query
+     * @param elementsScanned number of elements (or rows) visited
+     * @param elementsMatched number of elements matching the criteria
+     * @param extractionNanos time spent extracting attribute values
+     * @param criteriaNanos time spent evaluating the criteria
+     * @param sortNanos time spent ordering the results
+     * @param aggregationNanos time spent grouping and aggregating
+     * @param totalNanos total execution time
+     * @param allocatedBytes bytes allocated by the executing thread, -1 if not supported by the JVM
+     */
+    public QueryProfile(String accessPath, long elementsScanned, long elementsMatched, long extractionNanos, long criteriaNanos,
+                        long sortNanos, long aggregationNanos, long totalNanos, long allocatedBytes) {
+        this.accessPath = accessPath;
+        this.elementsScanned = elementsScanned;
+        this.elementsMatched = elementsMatched;
+        this.extractionNanos = extractionNanos;
+        this.criteriaNanos = criteriaNanos;
+        this.sortNanos = sortNanos;
+        this.aggregationNanos = aggregationNanos;
+        this.totalNanos = totalNanos;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    /**
+     * @return the access path used to evaluate the query (e.g. {@link #FULL_SCAN})
+     */
+    public String getAccessPath() {
+        return accessPath;
+    }
+
+    /**
+     * @return number of elements (or rows) visited
+     */
+    public long getElementsScanned() {
+        return elementsScanned;
+    }
+
+    /**
+     * @return number of elements matching the criteria
+     */
+    public long getElementsMatched() {
+        return elementsMatched;
+    }
+
+    /**
+     * @return nanoseconds spent extracting attribute values
+     */
+    public long getExtractionNanos() {
+        return extractionNanos;
+    }
+
+    /**
+     * @return nanoseconds spent evaluating the criteria
+     */
+    public long getCriteriaNanos() {
+        return criteriaNanos;
+    }
+
+    /**
+     * @return nanoseconds spent ordering the results
+     */
+    public long getSortNanos() {
+        return sortNanos;
+    }
+
+    /**
+     * @return nanoseconds spent grouping and aggregating
+     */
+    public long getAggregationNanos() {
+        return aggregationNanos;
+    }
+
+    /**
+     * @return total execution time in nanoseconds
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @return bytes allocated by the executing thread, -1 if not supported by the JVM
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryProfile[accessPath=" + accessPath + ", scanned=" + elementsScanned + ", matched=" + elementsMatched
+               + ", extractionNanos=" + extractionNanos + ", criteriaNanos=" + criteriaNanos + ", sortNanos=" + sortNanos
+               + ", aggregationNanos=" + aggregationNanos + ", totalNanos=" + totalNanos + ", allocatedBytes=" + allocatedBytes + "]";
+    }
+}
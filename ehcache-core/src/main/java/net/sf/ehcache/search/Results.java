@@ -96,4 +96,11 @@ public interface Results {
      */
     boolean hasAggregators();
 
+    /**
+     * Profile of the query execution that produced these results
+     *
+     * @return the query profile, or null if profiling was not requested (see {@link ExecutionHints#setProfiling(boolean)})
+     */
+    QueryProfile getProfile();
+
 }
@@ -0,0 +1,55 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.search;
+
+import java.util.List;
+
+/**
+ * A forward-only cursor over the results of a query executed with {@link ExecutionHints#setStreamingResults(boolean)}.
+ * <p/>
+ * Results are produced lazily in batches sized by {@link ExecutionHints#getResultBatchSize()} and reflect the state of the
+ * cache at (or at some point after) the time the cursor was advanced: entries added or removed concurrently may or may not be
+ * seen. Because results are not retained once handed out, {@link #all()} and {@link #range(int, int)} only ever return results
+ * that have not yet been consumed, and {@link #size()} is only known once the cursor has been exhausted.
+ *
+ * @author Terracotta
+ */
+public interface StreamingResults extends Results {
+
+    /**
+     * Whether more results are available from this cursor.
+     *
+     * @return true if a call to {@link #nextBatch()} would return a non-empty list
+     * @throws SearchException
+     */
+    boolean hasNext() throws SearchException;
+
+    /**
+     * Retrieve the next batch of results.
+     *
+     * @return a list of at most batch size results, empty once the cursor is exhausted
+     * @throws SearchException
+     */
+    List<Result> nextBatch() throws SearchException;
+
+    /**
+     * Number of results handed out by this cursor so far.
+     *
+     * @return the number of consumed results
+     */
+    int consumed();
+}
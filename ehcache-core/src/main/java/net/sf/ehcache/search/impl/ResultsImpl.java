@@ -19,6 +19,7 @@ package net.sf.ehcache.search.impl;
 import java.util.Collections;
 import java.util.List;
 
+import net.sf.ehcache.search.QueryProfile;
 import net.sf.ehcache.search.Result;
 import net.sf.ehcache.search.Results;
 import net.sf.ehcache.search.SearchException;
@@ -37,6 +38,7 @@ public class ResultsImpl implements Results {
     private final boolean hasValues;
     private final boolean empty;
     private final Runnable discardHook;
+    private volatile QueryProfile profile;
 
     /**
      * Constructor
@@ -167,4 +169,20 @@ public class ResultsImpl implements Results {
         return hasAggregators;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public QueryProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Attach the profile of the query execution that produced these results
+     *
+     * @param profile the query profile
+     */
+    public void setProfile(QueryProfile profile) {
+        this.profile = profile;
+    }
+
 }
@@ -0,0 +1,234 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.search.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import net.sf.ehcache.search.ExecutionHints;
+import net.sf.ehcache.search.QueryProfile;
+import net.sf.ehcache.search.Result;
+import net.sf.ehcache.search.SearchException;
+import net.sf.ehcache.search.StreamingResults;
+
+/**
+ * Streaming results implementation, paging over a (possibly lazily evaluated) iterator of results
+ *
+ * @author Terracotta
+ */
+public class StreamingResultsImpl implements StreamingResults {
+
+    /**
+     * Batch size used when the execution hints do not specify one
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final Iterator<? extends Result> source;
+    private final int batchSize;
+    private final boolean hasKeys;
+    private final boolean hasValues;
+    private final boolean hasAttributes;
+    private final boolean hasAggregators;
+    private final Runnable discardHook;
+
+    private int consumed;
+    private boolean discarded;
+
+    /**
+     * Constructor
+     *
+     * @param source the results to page over, only advanced when results are requested
+     * @param batchSize the batch size, or a non-positive value for {@link #DEFAULT_BATCH_SIZE}
+     * @param hasKeys
+     * @param hasValues
+     * @param hasAttributes
+     * @param hasAggregators
+     * @param discardCallback run on {@link #discard()}, may be null
+     */
+    public StreamingResultsImpl(Iterator<? extends Result> source, int batchSize, boolean hasKeys, boolean hasValues,
+                                boolean hasAttributes, boolean hasAggregators, Runnable discardCallback) {
+        this.source = source;
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+        this.hasKeys = hasKeys;
+        this.hasValues = hasValues;
+        this.hasAttributes = hasAttributes;
+        this.hasAggregators = hasAggregators;
+        this.discardHook = discardCallback;
+    }
+
+    /**
+     * Returns the batch size to use for the given hints
+     *
+     * @param hints execution hints, may be null
+     * @return the batch size
+     */
+    public static int batchSizeFor(ExecutionHints hints) {
+        if (hints == null || hints.getResultBatchSize() <= 0) {
+            return DEFAULT_BATCH_SIZE;
+        }
+        return hints.getResultBatchSize();
+    }
+
+    @Override
+    public String toString() {
+        return "StreamingResults(consumed=" + consumed + ", hasKeys=" + hasKeys + ", hasValues=" + hasValues
+                + ", hasAttributes=" + hasAttributes + ", hasAggregators=" + hasAggregators + ")";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized boolean hasNext() throws SearchException {
+        checkNotDiscarded();
+        return source.hasNext();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized List<Result> nextBatch() throws SearchException {
+        return take(batchSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized int consumed() {
+        return consumed;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void discard() {
+        if (!discarded) {
+            discarded = true;
+            if (discardHook != null) {
+                discardHook.run();
+            }
+        }
+    }
+
+    /**
+     * Drains all the remaining results of this cursor.
+     * <p/>
+     * {@inheritDoc}
+     */
+    public synchronized List<Result> all() throws SearchException {
+        return take(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Streaming results can only be paged forward: {@code start} must not be lower than the number of results
+     * already {@link #consumed()}. Results between the current position and {@code start} are skipped.
+     * <p/>
+     * {@inheritDoc}
+     */
+    public synchronized List<Result> range(int start, int length) throws SearchException {
+        if (start < 0) {
+            throw new IllegalArgumentException("start: " + start);
+        }
+
+        if (length < 0) {
+            throw new IllegalArgumentException("length: " + length);
+        }
+
+        if (start < consumed) {
+            throw new SearchException("Streaming results can only be paged forward, requested start " + start
+                    + " but " + consumed + " results were already consumed");
+        }
+
+        checkNotDiscarded();
+        while (consumed < start && source.hasNext()) {
+            source.next();
+            consumed++;
+        }
+        return take(length);
+    }
+
+    /**
+     * The size of streaming results is only known once all results have been consumed.
+     * <p/>
+     * {@inheritDoc}
+     *
+     * @throws SearchException if the cursor is not yet exhausted
+     */
+    public synchronized int size() {
+        if (source.hasNext()) {
+            throw new SearchException("Size of streaming results is unknown until all results have been consumed");
+        }
+        return consumed;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasKeys() {
+        return hasKeys;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasValues() {
+        return hasValues;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasAttributes() {
+        return hasAttributes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasAggregators() {
+        return hasAggregators;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Streamed results are not profiled.
+     */
+    public QueryProfile getProfile() {
+        return null;
+    }
+
+    private List<Result> take(int count) {
+        checkNotDiscarded();
+        if (count == 0 || !source.hasNext()) {
+            return Collections.emptyList();
+        }
+        List<Result> batch = new ArrayList<Result>(Math.min(count, batchSize));
+        while (batch.size() < count && source.hasNext()) {
+            batch.add(source.next());
+        }
+        consumed += batch.size();
+        return batch;
+    }
+
+    private void checkNotDiscarded() {
+        if (discarded) {
+            throw new SearchException("Results have been discarded");
+        }
+    }
+}
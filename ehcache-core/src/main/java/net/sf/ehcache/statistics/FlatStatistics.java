@@ -299,6 +299,27 @@ public interface FlatStatistics  {
      */
     long cacheEvictedCount();
 
+    /**
+     * Search result cache hit count.
+     *
+     * @return the long
+     */
+    long searchResultCacheHitCount();
+
+    /**
+     * Search result cache miss count.
+     *
+     * @return the long
+     */
+    long searchResultCacheMissCount();
+
+    /**
+     * Search result cache invalidation count.
+     *
+     * @return the long
+     */
+    long searchResultCacheInvalidationCount();
+
     /**
      * Sets the statistics time to disable.
      *
@@ -503,6 +524,27 @@ public interface FlatStatistics  {
      */
     Result cacheSearchOperation();
 
+    /**
+     * Search result cache hit operation.
+     *
+     * @return the result
+     */
+    Result searchResultCacheHitOperation();
+
+    /**
+     * Search result cache miss operation.
+     *
+     * @return the result
+     */
+    Result searchResultCacheMissOperation();
+
+    /**
+     * Search result cache invalidation operation.
+     *
+     * @return the result
+     */
+    Result searchResultCacheInvalidationOperation();
+
     /**
      * Xa commit success operation.
      *
@@ -622,4 +664,74 @@ public interface FlatStatistics  {
      */
     long getWriterQueueLength();
 
+    /**
+     * Gets the current writer batch size.
+     *
+     * @return the writer batch size
+     */
+    int getWriterBatchSize();
+
+    /**
+     * Gets the writer lag in milliseconds.
+     *
+     * @return the writer lag
+     */
+    long getWriterLagMillis();
+
+    /**
+     * Gets the number of entries refreshed ahead of their expiry.
+     *
+     * @return the refresh ahead count
+     */
+    long cacheRefreshAheadCount();
+
+    /**
+     * Gets the number of wasted refreshes ahead.
+     *
+     * @return the wasted refresh ahead count
+     */
+    long cacheRefreshAheadWastedCount();
+
+    /**
+     * Gets the refresh ahead lag in milliseconds.
+     *
+     * @return the refresh ahead lag
+     */
+    long getRefreshAheadLagMillis();
+
+    /**
+     * Gets the number of events waiting to be delivered to asynchronously notified listeners.
+     *
+     * @return the event dispatch queue depth
+     */
+    long getEventDispatchQueueDepth();
+
+    /**
+     * Gets the event dispatch lag in milliseconds.
+     *
+     * @return the event dispatch lag
+     */
+    long getEventDispatchLagMillis();
+
+    /**
+     * Gets the number of elements visited by searches.
+     *
+     * @return the elements scanned
+     */
+    long searchElementsScannedCount();
+
+    /**
+     * Gets the number of elements matched by searches.
+     *
+     * @return the elements matched
+     */
+    long searchElementsMatchedCount();
+
+    /**
+     * Gets the number of searches exceeding the slow query threshold.
+     *
+     * @return the slow query count
+     */
+    long searchSlowQueryCount();
+
 }
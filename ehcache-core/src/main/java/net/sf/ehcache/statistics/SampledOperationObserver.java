@@ -0,0 +1,228 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.statistics;
+
+import org.terracotta.statistics.OperationStatistic;
+import org.terracotta.statistics.StatisticsManager;
+import org.terracotta.statistics.observer.OperationObserver;
+
+/**
+ * Operation observer only timing one in N operations per thread.
+ * <p>
+ * Every {@code end} call is forwarded to the underlying statistic so outcome counts stay exact, but {@code begin} (and with it
+ * the latency measurement) only reaches it for sampled operations. A <em>sampled</em> observer makes the sampling decision for
+ * a logical cache operation; <em>fused</em> observers, used by the storage tiers, follow the decision of the enclosing
+ * cache operation on the same thread so a single logical operation is either timed through all tiers or not at all.
+ * Decisions nest: a cache operation started from within another one (a loader or a listener calling back into a cache)
+ * makes its own decision, and the enclosing decision is restored when it ends. Tier operations outside of any cache
+ * operation are sampled on their own. A cache operation nested in a timed one is always timed, so that begin and end
+ * stay matched when both run against the same statistic.
+ * <p>
+ * Derived latency statistics still see an {@code end} without a {@code begin} for every operation that was not timed,
+ * they must ignore it rather than pair it with an earlier {@code begin}.
+ * <p>
+ * The sampling interval is read from the {@value #SAMPLE_INTERVAL_PROPERTY} system property and defaults to 1, in which
+ * case every operation is timed and no wrapping takes place.
+ *
+ * @param <T> the operation outcome type
+ * @author Terracotta
+ */
+public final class SampledOperationObserver<T extends Enum<T>> implements OperationObserver<T> {
+
+    /**
+     * System property holding the latency sampling interval
+     */
+    public static final String SAMPLE_INTERVAL_PROPERTY = "net.sf.ehcache.statistics.latencySampleInterval";
+
+    private static final int SAMPLE_INTERVAL = Math.max(1, Integer.getInteger(SAMPLE_INTERVAL_PROPERTY, 1));
+
+    private static final ThreadLocal<Sampler> SAMPLER = new ThreadLocal<Sampler>() {
+        @Override
+        protected Sampler initialValue() {
+            return new Sampler();
+        }
+    };
+
+    private final OperationObserver<T> delegate;
+    private final int interval;
+    private final boolean fused;
+
+    private SampledOperationObserver(OperationObserver<T> delegate, int interval, boolean fused) {
+        this.delegate = delegate;
+        this.interval = interval;
+        this.fused = fused;
+    }
+
+    /**
+     * Wrap an observer of logical cache operations.
+     *
+     * @param <T> the operation outcome type
+     * @param observer the observer to wrap
+     * @return the sampling observer, or {@code observer} if every operation is timed
+     */
+    public static <T extends Enum<T>> OperationObserver<T> sampled(OperationObserver<T> observer) {
+        return sampled(observer, SAMPLE_INTERVAL);
+    }
+
+    /**
+     * Wrap an observer of tier operations, following the sampling decision of the enclosing cache operation.
+     *
+     * @param <T> the operation outcome type
+     * @param observer the observer to wrap
+     * @return the fused observer, or {@code observer} if every operation is timed
+     */
+    public static <T extends Enum<T>> OperationObserver<T> fused(OperationObserver<T> observer) {
+        return fused(observer, SAMPLE_INTERVAL);
+    }
+
+    /**
+     * Wrap an observer of logical cache operations using the given sampling interval.
+     *
+     * @param <T> the operation outcome type
+     * @param observer the observer to wrap
+     * @param interval time one in {@code interval} operations
+     * @return the sampling observer, or {@code observer} if every operation is timed
+     */
+    static <T extends Enum<T>> OperationObserver<T> sampled(OperationObserver<T> observer, int interval) {
+        return interval <= 1 ? observer : new SampledOperationObserver<T>(observer, interval, false);
+    }
+
+    /**
+     * Wrap an observer of tier operations using the given sampling interval.
+     *
+     * @param <T> the operation outcome type
+     * @param observer the observer to wrap
+     * @param interval time one in {@code interval} operations
+     * @return the fused observer, or {@code observer} if every operation is timed
+     */
+    static <T extends Enum<T>> OperationObserver<T> fused(OperationObserver<T> observer, int interval) {
+        return interval <= 1 ? observer : new SampledOperationObserver<T>(observer, interval, true);
+    }
+
+    /**
+     * Get the operation statistic backing the given, possibly sampled, observer.
+     *
+     * @param <T> the operation outcome type
+     * @param observer the observer
+     * @return the operation statistic
+     */
+    public static <T extends Enum<T>> OperationStatistic<T> operationStatisticFor(OperationObserver<T> observer) {
+        if (observer instanceof SampledOperationObserver<?>) {
+            return StatisticsManager.getOperationStatisticFor(((SampledOperationObserver<T>) observer).delegate);
+        } else {
+            return StatisticsManager.getOperationStatisticFor(observer);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void begin() {
+        Sampler sampler = SAMPLER.get();
+        boolean timed;
+        if (fused) {
+            timed = sampler.depth > 0 ? sampler.timing : sampler.sample(interval);
+        } else {
+            timed = sampler.enter(interval);
+        }
+        if (timed) {
+            delegate.begin();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void end(T result) {
+        try {
+            delegate.end(result);
+        } finally {
+            exit();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void end(T result, long... parameters) {
+        try {
+            delegate.end(result, parameters);
+        } finally {
+            exit();
+        }
+    }
+
+    private void exit() {
+        if (!fused) {
+            SAMPLER.get().exit();
+        }
+    }
+
+    /**
+     * Per thread sampling state
+     */
+    private static final class Sampler {
+
+        private static final int MAX_SAVED = Long.SIZE;
+
+        private int countdown;
+        private boolean timing;
+        private int depth;
+        private long saved;
+
+        private boolean sample(int interval) {
+            if (--countdown <= 0) {
+                countdown = interval;
+                return true;
+            } else {
+                return false;
+            }
+        }
+
+        /**
+         * Enter a cache operation, saving the decision of the enclosing one.
+         */
+        private boolean enter(int interval) {
+            boolean nestedInTimed = depth > 0 && timing;
+            if (depth > 0 && depth <= MAX_SAVED) {
+                saved = (saved << 1) | (timing ? 1L : 0L);
+            }
+            depth++;
+            timing = sample(interval) || nestedInTimed;
+            return timing;
+        }
+
+        /**
+         * Leave a cache operation, restoring the decision of the enclosing one.
+         */
+        private void exit() {
+            if (depth == 0) {
+                return;
+            }
+            depth--;
+            if (depth == 0) {
+                timing = false;
+            } else if (depth <= MAX_SAVED) {
+                timing = (saved & 1L) != 0;
+                saved >>>= 1;
+            }
+        }
+    }
+}
@@ -58,6 +58,12 @@ public final class StatisticBuilder {
         /** The type. */
         private final Class<T> type;
 
+        /** Whether latency timing is sampled. */
+        private boolean sampled;
+
+        /** Whether latency timing follows the enclosing cache operation. */
+        private boolean fused;
+
         /**
          * Instantiates a new operation statistic builder.
          *
@@ -67,6 +73,28 @@ public final class StatisticBuilder {
             this.type = type;
         }
 
+        /**
+         * Sample the latency of this logical cache operation.
+         *
+         * @return this builder
+         * @see SampledOperationObserver#sampled(OperationObserver)
+         */
+        public OperationStatisticBuilder<T> sampled() {
+            this.sampled = true;
+            return this;
+        }
+
+        /**
+         * Only time this tier operation when the enclosing cache operation is timed.
+         *
+         * @return this builder
+         * @see SampledOperationObserver#fused(OperationObserver)
+         */
+        public OperationStatisticBuilder<T> fused() {
+            this.fused = true;
+            return this;
+        }
+
         /**
          * Builds the.
          *
@@ -76,7 +104,14 @@ public final class StatisticBuilder {
             if (context == null || name == null) {
                 throw new IllegalStateException();
             } else {
-                return StatisticsManager.createOperationStatistic(context, name, tags, type);
+                OperationObserver<T> observer = StatisticsManager.createOperationStatistic(context, name, tags, type);
+                if (fused) {
+                    return SampledOperationObserver.fused(observer);
+                } else if (sampled) {
+                    return SampledOperationObserver.sampled(observer);
+                } else {
+                    return observer;
+                }
             }
         }
     }
@@ -19,6 +19,7 @@ package net.sf.ehcache.statistics;
 import net.sf.ehcache.CacheOperationOutcomes;
 import net.sf.ehcache.CacheOperationOutcomes.EvictionOutcome;
 import net.sf.ehcache.CacheOperationOutcomes.SearchOutcome;
+import net.sf.ehcache.CacheOperationOutcomes.SearchResultCacheOutcome;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.config.ManagementRESTServiceConfiguration;
 import net.sf.ehcache.statistics.extended.ExtendedStatistics;
@@ -274,6 +275,21 @@ public class StatisticsGateway implements FlatStatistics {
         return extended.search().component(SearchOutcome.SUCCESS);
     }
 
+    @Override
+    public Result searchResultCacheHitOperation() {
+        return extended.searchResultCache().component(SearchResultCacheOutcome.HIT);
+    }
+
+    @Override
+    public Result searchResultCacheMissOperation() {
+        return extended.searchResultCache().component(SearchResultCacheOutcome.MISS);
+    }
+
+    @Override
+    public Result searchResultCacheInvalidationOperation() {
+        return extended.searchResultCache().component(SearchResultCacheOutcome.INVALIDATION);
+    }
+
     @Override
     public Result xaCommitSuccessOperation() {
         return extended.xaCommit().component(XaCommitOutcome.COMMITTED);
@@ -329,6 +345,56 @@ public class StatisticsGateway implements FlatStatistics {
         return extended.writerQueueLength().value().longValue();
     }
 
+    @Override
+    public int getWriterBatchSize() {
+        return extended.writerBatchSize().value().intValue();
+    }
+
+    @Override
+    public long getWriterLagMillis() {
+        return extended.writerLag().value().longValue();
+    }
+
+    @Override
+    public long cacheRefreshAheadCount() {
+        return extended.refreshAheadCount().value().longValue();
+    }
+
+    @Override
+    public long cacheRefreshAheadWastedCount() {
+        return extended.refreshAheadWasted().value().longValue();
+    }
+
+    @Override
+    public long getRefreshAheadLagMillis() {
+        return extended.refreshAheadLag().value().longValue();
+    }
+
+    @Override
+    public long getEventDispatchQueueDepth() {
+        return extended.eventDispatchQueueDepth().value().longValue();
+    }
+
+    @Override
+    public long getEventDispatchLagMillis() {
+        return extended.eventDispatchLag().value().longValue();
+    }
+
+    @Override
+    public long searchElementsScannedCount() {
+        return extended.searchElementsScanned().value().longValue();
+    }
+
+    @Override
+    public long searchElementsMatchedCount() {
+        return extended.searchElementsMatched().value().longValue();
+    }
+
+    @Override
+    public long searchSlowQueryCount() {
+        return extended.searchSlowQueries().value().longValue();
+    }
+
     @Override
     public long getLocalDiskSize() {
         return extended.localDiskSize().value().longValue();
@@ -549,6 +615,21 @@ public class StatisticsGateway implements FlatStatistics {
         return core.cacheEviction().value(EvictionOutcome.SUCCESS);
     }
 
+    @Override
+    public long searchResultCacheHitCount() {
+        return searchResultCacheHitOperation().count().value();
+    }
+
+    @Override
+    public long searchResultCacheMissCount() {
+        return searchResultCacheMissOperation().count().value();
+    }
+
+    @Override
+    public long searchResultCacheInvalidationCount() {
+        return searchResultCacheInvalidationOperation().count().value();
+    }
+
     @Override
     public double cacheHitRatio() {
         return extended.cacheHitRatio().value().doubleValue();
@@ -214,6 +214,11 @@ public class ExtendedStatisticsMBean extends ProxiedDynamicMBean {
         recordLongStatistic(proxies, longerName + ".latencyMin", "Statistic Latency Minimum", result.latency().minimum());
         recordLongStatistic(proxies, longerName + ".latencyMax", "Statistic Latency Maximum", result.latency().maximum());
         recordDoubleStatistic(proxies, longerName + ".latencyAvg", "Statistic Latency Average", result.latency().average());
+        recordLongStatistic(proxies, longerName + ".latencyP50", "Statistic Latency 50th Percentile", result.latency().percentile50());
+        recordLongStatistic(proxies, longerName + ".latencyP90", "Statistic Latency 90th Percentile", result.latency().percentile90());
+        recordLongStatistic(proxies, longerName + ".latencyP99", "Statistic Latency 99th Percentile", result.latency().percentile99());
+        recordLongStatistic(proxies, longerName + ".latencyP999", "Statistic Latency 99.9th Percentile",
+                result.latency().percentile999());
     }
 
     /**
@@ -178,6 +178,13 @@ public interface ExtendedStatistics {
      */
     Operation<CacheOperationOutcomes.SearchOutcome> search();
 
+    /**
+     * Search result cache.
+     *
+     * @return the operation
+     */
+    Operation<CacheOperationOutcomes.SearchResultCacheOutcome> searchResultCache();
+
     /**
      * Xa commit.
      *
@@ -424,7 +431,7 @@ public interface ExtendedStatistics {
     }
 
     /**
-     * The Latency interface. Provides min/max/average.
+     * The Latency interface. Provides min/max/average and percentiles.
      */
     public interface Latency {
 
@@ -448,6 +455,34 @@ public interface ExtendedStatistics {
          * @return Average observed latency. NULL if no operation was observed.
          */
         Statistic<Double> average();
+
+        /**
+         * Median latency observed.
+         *
+         * @return Median observed latency. NULL if no operation was observed.
+         */
+        Statistic<Long> percentile50();
+
+        /**
+         * 90th percentile of the observed latencies.
+         *
+         * @return 90th percentile latency. NULL if no operation was observed.
+         */
+        Statistic<Long> percentile90();
+
+        /**
+         * 99th percentile of the observed latencies.
+         *
+         * @return 99th percentile latency. NULL if no operation was observed.
+         */
+        Statistic<Long> percentile99();
+
+        /**
+         * 99.9th percentile of the observed latencies.
+         *
+         * @return 99.9th percentile latency. NULL if no operation was observed.
+         */
+        Statistic<Long> percentile999();
     }
 
     /**
@@ -542,6 +577,55 @@ public interface ExtendedStatistics {
      */
     Statistic<Number> writerQueueLength();
 
+    /**
+     * Gets the current write-behind batch size.
+     *
+     * @return the writer batch size
+     */
+    Statistic<Number> writerBatchSize();
+
+    /**
+     * Gets the time the oldest operation of the latest write-behind write spent queued, in milliseconds.
+     *
+     * @return the writer lag
+     */
+    Statistic<Number> writerLag();
+
+    /**
+     * Gets the number of entries refreshed ahead of their expiry.
+     *
+     * @return the refresh ahead count
+     */
+    Statistic<Number> refreshAheadCount();
+
+    /**
+     * Gets the number of refreshes ahead that failed, lost the race against an update, or whose entry wasn't read again.
+     *
+     * @return the wasted refresh ahead count
+     */
+    Statistic<Number> refreshAheadWasted();
+
+    /**
+     * Gets the time the latest refresh ahead took from being triggered to completing, in milliseconds.
+     *
+     * @return the refresh ahead lag
+     */
+    Statistic<Number> refreshAheadLag();
+
+    /**
+     * Gets the number of events waiting to be delivered to asynchronously notified listeners.
+     *
+     * @return the event dispatch queue depth
+     */
+    Statistic<Number> eventDispatchQueueDepth();
+
+    /**
+     * Gets the time the latest event delivered to an asynchronously notified listener spent queued, in milliseconds.
+     *
+     * @return the event dispatch lag
+     */
+    Statistic<Number> eventDispatchLag();
+
     /**
      * Get the timestamp (millis) of the last cluster rejoin event
      *
@@ -549,4 +633,39 @@ public interface ExtendedStatistics {
      */
     Statistic<Number> mostRecentRejoinTimeStampMillis();
 
+    /**
+     * Gets the number of elements visited by searches.
+     *
+     * @return the elements scanned statistic
+     */
+    Statistic<Number> searchElementsScanned();
+
+    /**
+     * Gets the number of elements matched by searches.
+     *
+     * @return the elements matched statistic
+     */
+    Statistic<Number> searchElementsMatched();
+
+    /**
+     * Gets the number of searches exceeding the slow query threshold.
+     *
+     * @return the slow queries statistic
+     */
+    Statistic<Number> searchSlowQueries();
+
+    /**
+     * Gets the hot key tracker of the cache, disabled until explicitly enabled.
+     *
+     * @return the hot key tracker
+     */
+    HotKeyTracker hotKeys();
+
+    /**
+     * Gets the miss ratio curve estimator of the cache, disabled until explicitly enabled.
+     *
+     * @return the miss ratio curve estimator
+     */
+    MissRatioCurveEstimator missRatioCurve();
+
 }
\ No newline at end of file
@@ -146,6 +146,12 @@ public class ExtendedStatisticsImpl implements ExtendedStatistics {
     /** on stop timeout ratio */
     private Statistic<Double> nonStopTimeoutRatio;
 
+    /** The hot key tracker. */
+    private final HotKeyTracker hotKeys = new HotKeyTracker();
+
+    /** The miss ratio curve estimator. */
+    private final MissRatioCurveEstimator missRatioCurve = new MissRatioCurveEstimator();
+
     private final int defaultHistorySize;
 
     private final long defaultIntervalSeconds;
@@ -224,7 +230,7 @@ public class ExtendedStatisticsImpl implements ExtendedStatistics {
                 standardPassThroughs.put(t, NullStatistic.instance(t.absentValue()));
             } else {
                 standardPassThroughs.put(t,
-                        new SemiExpiringStatistic(statistic, executor, defaultHistorySize, SECONDS.toNanos(defaultIntervalSeconds)));
+                        new SemiExpiringStatistic(statistic, executor, defaultHistorySize, SECONDS.toNanos(intervalSeconds(t))));
             }
         }
     }
@@ -382,6 +388,17 @@ public class ExtendedStatisticsImpl implements ExtendedStatistics {
         return (Operation<SearchOutcome>) getStandardOperation(StandardOperationStatistic.SEARCH);
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see net.sf.ehcache.statistics.extended.ExtendedStatistics#searchResultCache()
+     */
+    @Override
+    public Operation<CacheOperationOutcomes.SearchResultCacheOutcome> searchResultCache() {
+        return (Operation<CacheOperationOutcomes.SearchResultCacheOutcome>)
+                getStandardOperation(StandardOperationStatistic.SEARCH_RESULT_CACHE);
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -710,6 +727,41 @@ public class ExtendedStatisticsImpl implements ExtendedStatistics {
         return getStandardPassThrough(StandardPassThroughStatistic.WRITER_QUEUE_LENGTH);
     }
 
+    @Override
+    public Statistic<Number> writerBatchSize() {
+        return getStandardPassThrough(StandardPassThroughStatistic.WRITER_BATCH_SIZE);
+    }
+
+    @Override
+    public Statistic<Number> writerLag() {
+        return getStandardPassThrough(StandardPassThroughStatistic.WRITER_LAG);
+    }
+
+    @Override
+    public Statistic<Number> refreshAheadCount() {
+        return getStandardPassThrough(StandardPassThroughStatistic.REFRESH_AHEAD_REFRESHED);
+    }
+
+    @Override
+    public Statistic<Number> refreshAheadWasted() {
+        return getStandardPassThrough(StandardPassThroughStatistic.REFRESH_AHEAD_WASTED);
+    }
+
+    @Override
+    public Statistic<Number> refreshAheadLag() {
+        return getStandardPassThrough(StandardPassThroughStatistic.REFRESH_AHEAD_LAG);
+    }
+
+    @Override
+    public Statistic<Number> eventDispatchQueueDepth() {
+        return getStandardPassThrough(StandardPassThroughStatistic.EVENT_DISPATCH_QUEUE_DEPTH);
+    }
+
+    @Override
+    public Statistic<Number> eventDispatchLag() {
+        return getStandardPassThrough(StandardPassThroughStatistic.EVENT_DISPATCH_LAG);
+    }
+
     /**
      * Gets the standard operation.
      *
@@ -751,7 +803,7 @@ public class ExtendedStatisticsImpl implements ExtendedStatistics {
                 return passThrough;
             } else {
                 Statistic<Number> newPassThrough = new SemiExpiringStatistic(discovered, executor, defaultHistorySize,
-                        SECONDS.toNanos(defaultIntervalSeconds));
+                        SECONDS.toNanos(intervalSeconds(statistic)));
                 if (standardPassThroughs.replace(statistic, passThrough, newPassThrough)) {
                     return newPassThrough;
                 } else {
@@ -763,6 +815,10 @@ public class ExtendedStatisticsImpl implements ExtendedStatistics {
         }
     }
 
+    private long intervalSeconds(StandardPassThroughStatistic statistic) {
+        return statistic.isSearch() ? defaultSearchIntervalSeconds : defaultIntervalSeconds;
+    }
+
     /**
      * Find operation statistic.
      *
@@ -903,6 +959,31 @@ public class ExtendedStatisticsImpl implements ExtendedStatistics {
         return getStandardPassThrough(StandardPassThroughStatistic.LAST_REJOIN_TIMESTAMP);
     }
 
+    @Override
+    public HotKeyTracker hotKeys() {
+        return hotKeys;
+    }
+
+    @Override
+    public MissRatioCurveEstimator missRatioCurve() {
+        return missRatioCurve;
+    }
+
+    @Override
+    public Statistic<Number> searchElementsScanned() {
+        return getStandardPassThrough(StandardPassThroughStatistic.SEARCH_ELEMENTS_SCANNED);
+    }
+
+    @Override
+    public Statistic<Number> searchElementsMatched() {
+        return getStandardPassThrough(StandardPassThroughStatistic.SEARCH_ELEMENTS_MATCHED);
+    }
+
+    @Override
+    public Statistic<Number> searchSlowQueries() {
+        return getStandardPassThrough(StandardPassThroughStatistic.SEARCH_SLOW_QUERIES);
+    }
+
     @Override
     public Statistic<Double> nonstopTimeoutRatio() {
         return nonStopTimeoutRatio;
@@ -0,0 +1,332 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.statistics.extended;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded memory tracker of the most frequently accessed keys of a cache (heavy hitters).
+ * <p>
+ * Keys are sampled on average one in {@code sampleInterval} accesses per thread and fed into striped Space-Saving summaries, each
+ * monitoring a fixed number of keys. A key with a sampled count of {@code c} and error {@code e} was sampled between
+ * {@code c - e} and {@code c} times; both are reported scaled by the sampling interval, which makes the estimated count an
+ * extrapolation rather than a bound. Every key of bulk reads and writes counts as an access. The tracker is disabled by
+ * default, in which case recording costs a single volatile read.
+ *
+ * @author Terracotta
+ */
+public final class HotKeyTracker {
+
+    /**
+     * Default number of monitored keys
+     */
+    public static final int DEFAULT_CAPACITY = 128;
+
+    /**
+     * Default sampling interval
+     */
+    public static final int DEFAULT_SAMPLE_INTERVAL = 8;
+
+    private static final int STRIPES = 8;
+
+    private static final Comparator<HotKey> BY_COUNT = new Comparator<HotKey>() {
+        @Override
+        public int compare(HotKey a, HotKey b) {
+            return a.sampledCount < b.sampledCount ? 1 : (a.sampledCount == b.sampledCount ? 0 : -1);
+        }
+    };
+
+    private volatile Summary summary;
+
+    /**
+     * Start tracking hot keys with the default capacity and sampling interval, discarding any previous state.
+     */
+    public void enable() {
+        enable(DEFAULT_CAPACITY, DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    /**
+     * Start tracking hot keys, discarding any previous state.
+     *
+     * @param capacity number of monitored keys
+     * @param sampleInterval record one in {@code sampleInterval} accesses per thread
+     */
+    public void enable(int capacity, int sampleInterval) {
+        if (capacity < 1 || sampleInterval < 1) {
+            throw new IllegalArgumentException("Capacity and sample interval must be positive");
+        }
+        summary = new Summary(capacity, sampleInterval);
+    }
+
+    /**
+     * Stop tracking hot keys and release the monitored keys.
+     */
+    public void disable() {
+        summary = null;
+    }
+
+    /**
+     * Is hot key tracking enabled?
+     *
+     * @return true if enabled
+     */
+    public boolean isEnabled() {
+        return summary != null;
+    }
+
+    /**
+     * Record an access to the given key.
+     *
+     * @param key the accessed key
+     */
+    public void record(Object key) {
+        Summary current = summary;
+        if (current != null && key != null) {
+            current.offer(key);
+        }
+    }
+
+    /**
+     * Get the most frequently accessed keys.
+     *
+     * @param n maximum number of keys to report
+     * @return the hot keys, most frequent first; empty if tracking is disabled
+     */
+    public List<HotKey> topKeys(int n) {
+        Summary current = summary;
+        if (current == null) {
+            return Collections.emptyList();
+        }
+        return current.top(n);
+    }
+
+    /**
+     * A frequently accessed key.
+     */
+    public static final class HotKey {
+
+        private final Object key;
+        private final long sampledCount;
+        private final long error;
+        private final int sampleInterval;
+        private final double share;
+
+        private HotKey(Object key, long sampledCount, long error, int sampleInterval, double share) {
+            this.key = key;
+            this.sampledCount = sampledCount;
+            this.error = error;
+            this.sampleInterval = sampleInterval;
+            this.share = share;
+        }
+
+        /**
+         * @return the key
+         */
+        public Object getKey() {
+            return key;
+        }
+
+        /**
+         * @return estimated number of accesses to this key, its sampled count scaled by the sampling interval. Only the
+         *         sampled count is an upper bound: sampling may under or overestimate the actual accesses.
+         */
+        public long getEstimatedCount() {
+            return sampledCount * sampleInterval;
+        }
+
+        /**
+         * @return maximum overestimation of the sampled count, scaled by the sampling interval, not accounting for the
+         *         sampling error
+         */
+        public long getError() {
+            return error * sampleInterval;
+        }
+
+        /**
+         * @return estimated fraction of all recorded accesses that hit this key
+         */
+        public double getShare() {
+            return share;
+        }
+
+        @Override
+        public String toString() {
+            return key + " (~" + getEstimatedCount() + " accesses, " + String.format("%.1f", share * 100) + "%)";
+        }
+    }
+
+    /**
+     * Striped Space-Saving summary
+     */
+    private static final class Summary {
+
+        private final int sampleInterval;
+        private final SpaceSaving[] stripes = new SpaceSaving[STRIPES];
+        private final ThreadLocal<int[]> countdown = new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue() {
+                // countdown and xorshift state
+                return new int[] {0, System.identityHashCode(Thread.currentThread()) | 1};
+            }
+        };
+
+        Summary(int capacity, int sampleInterval) {
+            this.sampleInterval = sampleInterval;
+            int perStripe = Math.max(1, (capacity + STRIPES - 1) / STRIPES);
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[i] = new SpaceSaving(perStripe);
+            }
+        }
+
+        void offer(Object key) {
+            if (sampleInterval > 1) {
+                int[] state = countdown.get();
+                if (--state[0] > 0) {
+                    return;
+                }
+                // randomized gaps averaging sampleInterval avoid aliasing with periodic access patterns
+                int random = state[1];
+                random ^= random << 13;
+                random ^= random >>> 17;
+                random ^= random << 5;
+                state[1] = random;
+                state[0] = 1 + (random & Integer.MAX_VALUE) % (2 * sampleInterval - 1);
+            }
+            int hash = key.hashCode();
+            hash ^= (hash >>> 16);
+            stripes[hash & (STRIPES - 1)].offer(key);
+        }
+
+        List<HotKey> top(int n) {
+            List<HotKey> all = new ArrayList<HotKey>();
+            long total = 0;
+            for (SpaceSaving stripe : stripes) {
+                synchronized (stripe) {
+                    total += stripe.total;
+                    for (int i = 0; i < stripe.size; i++) {
+                        Counter counter = stripe.heap[i];
+                        all.add(new HotKey(counter.key, counter.count, counter.error, sampleInterval, 0));
+                    }
+                }
+            }
+            Collections.sort(all, BY_COUNT);
+            List<HotKey> top = new ArrayList<HotKey>(Math.min(n, all.size()));
+            for (HotKey candidate : all.subList(0, Math.min(n, all.size()))) {
+                top.add(new HotKey(candidate.key, candidate.sampledCount, candidate.error, sampleInterval,
+                        total == 0 ? 0 : (double) candidate.sampledCount / total));
+            }
+            return top;
+        }
+    }
+
+    /**
+     * Space-Saving summary, a min-heap of counters indexed by key
+     */
+    private static final class SpaceSaving {
+
+        private final Counter[] heap;
+        private final Map<Object, Counter> counters;
+        private int size;
+        private long total;
+
+        SpaceSaving(int capacity) {
+            this.heap = new Counter[capacity];
+            this.counters = new HashMap<Object, Counter>(capacity * 2);
+        }
+
+        synchronized void offer(Object key) {
+            total++;
+            Counter counter = counters.get(key);
+            if (counter == null) {
+                if (size < heap.length) {
+                    counter = new Counter(key, size);
+                    counter.count = 1;
+                    heap[size++] = counter;
+                    counters.put(key, counter);
+                    siftUp(counter.index);
+                    return;
+                } else {
+                    // replace the least frequent key, inheriting its count as error
+                    counter = heap[0];
+                    counters.remove(counter.key);
+                    counter.key = key;
+                    counter.error = counter.count;
+                }
+                counters.put(key, counter);
+            }
+            counter.count++;
+            siftDown(counter.index);
+        }
+
+        private void siftUp(int index) {
+            Counter counter = heap[index];
+            while (index > 0) {
+                int parent = (index - 1) / 2;
+                if (heap[parent].count <= counter.count) {
+                    break;
+                }
+                heap[index] = heap[parent];
+                heap[index].index = index;
+                index = parent;
+            }
+            heap[index] = counter;
+            counter.index = index;
+        }
+
+        private void siftDown(int index) {
+            Counter counter = heap[index];
+            while (true) {
+                int child = 2 * index + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && heap[child + 1].count < heap[child].count) {
+                    child++;
+                }
+                if (heap[child].count >= counter.count) {
+                    break;
+                }
+                heap[index] = heap[child];
+                heap[index].index = index;
+                index = child;
+            }
+            heap[index] = counter;
+            counter.index = index;
+        }
+    }
+
+    /**
+     * Monitored key
+     */
+    private static final class Counter {
+
+        private Object key;
+        private long count;
+        private long error;
+        private int index;
+
+        Counter(Object key, int index) {
+            this.key = key;
+            this.index = index;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.statistics.extended;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.terracotta.statistics.Time;
+import org.terracotta.statistics.observer.ChainedEventObserver;
+
+/**
+ * Fixed size log-linear latency histogram over a sliding window.
+ * <p>
+ * Values below 64ns are counted exactly, larger values fall in one of 32 linear sub-buckets per power of two, bounding the
+ * relative error of reported percentiles to about 3%. Values above ~137s are clamped into the top bucket. The window is split
+ * into {@value #SLOTS} slots that are recycled as time advances; recording is lock and allocation free, although a few
+ * recordings racing a slot recycle may be lost.
+ *
+ * @author Terracotta
+ */
+final class LatencyHistogram implements ChainedEventObserver {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+    private static final int MAX_EXPONENT = 36;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    /** Number of counters in a histogram. */
+    static final int BUCKETS = SUB_BUCKET_COUNT + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKET_HALF_COUNT;
+
+    /** Number of slots the window is divided into. */
+    static final int SLOTS = 4;
+
+    private final long origin = Time.time();
+    private final AtomicLongArray counts = new AtomicLongArray(SLOTS * BUCKETS);
+    private final AtomicLongArray maxima = new AtomicLongArray(SLOTS);
+    private final AtomicLongArray epochs = new AtomicLongArray(SLOTS);
+    private volatile long slotNanos;
+
+    /**
+     * Create a histogram covering the given window.
+     *
+     * @param windowNanos window length in nanoseconds
+     */
+    LatencyHistogram(long windowNanos) {
+        setWindow(windowNanos);
+    }
+
+    /**
+     * Change the window length, discarding all recorded values.
+     *
+     * @param windowNanos window length in nanoseconds
+     */
+    synchronized void setWindow(long windowNanos) {
+        this.slotNanos = Math.max(1, windowNanos / SLOTS);
+        for (int i = 0; i < SLOTS; i++) {
+            epochs.set(i, -1);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void event(long time, long... parameters) {
+        record(time, parameters[0]);
+    }
+
+    /**
+     * Record a latency.
+     *
+     * @param time timestamp of the recording (as returned by {@link Time#time()})
+     * @param latency latency in nanoseconds
+     */
+    void record(long time, long latency) {
+        long epoch = (time - origin) / slotNanos;
+        if (epoch < 0) {
+            return;
+        }
+        int slot = (int) (epoch % SLOTS);
+        long current = epochs.get(slot);
+        if (current != epoch) {
+            if (current < epoch && epochs.compareAndSet(slot, current, epoch)) {
+                int base = slot * BUCKETS;
+                for (int i = 0; i < BUCKETS; i++) {
+                    counts.set(base + i, 0);
+                }
+                maxima.set(slot, 0);
+            } else if (epochs.get(slot) != epoch) {
+                // a late recording for a slot that has already been recycled
+                return;
+            }
+        }
+
+        long value = Math.min(Math.max(latency, 0), MAX_VALUE);
+        counts.incrementAndGet(slot * BUCKETS + indexOf(value));
+        for (long max = maxima.get(slot); value > max; max = maxima.get(slot)) {
+            if (maxima.compareAndSet(slot, max, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Take a snapshot of the values recorded over the current window.
+     *
+     * @return the snapshot
+     */
+    Snapshot snapshot() {
+        long now = (Time.time() - origin) / slotNanos;
+        Snapshot snapshot = new Snapshot();
+        for (int slot = 0; slot < SLOTS; slot++) {
+            long epoch = epochs.get(slot);
+            if (epoch >= 0 && epoch > now - SLOTS && epoch <= now) {
+                int base = slot * BUCKETS;
+                for (int i = 0; i < BUCKETS; i++) {
+                    long count = counts.get(base + i);
+                    snapshot.counts[i] += count;
+                    snapshot.total += count;
+                }
+                snapshot.maximum = Math.max(snapshot.maximum, maxima.get(slot));
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Index of the bucket counting the given value.
+     *
+     * @param value a value in [0, MAX_VALUE]
+     * @return the bucket index
+     */
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        int subBucket = (int) (value >>> shift);
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT + (subBucket - SUB_BUCKET_HALF_COUNT);
+    }
+
+    /**
+     * Highest value counted by the given bucket.
+     *
+     * @param index the bucket index
+     * @return the highest equivalent value
+     */
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int offset = index - SUB_BUCKET_COUNT;
+        int shift = offset / SUB_BUCKET_HALF_COUNT + 1;
+        long subBucket = offset % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+        return (subBucket << shift) + (1L << shift) - 1;
+    }
+
+    /**
+     * Point in time copy of a histogram. Snapshots of different histograms can be merged.
+     */
+    static final class Snapshot {
+
+        private final long[] counts = new long[BUCKETS];
+        private long total;
+        private long maximum;
+
+        /**
+         * Add the values of another snapshot to this one.
+         *
+         * @param other snapshot to merge
+         * @return this
+         */
+        Snapshot merge(Snapshot other) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += other.counts[i];
+            }
+            total += other.total;
+            maximum = Math.max(maximum, other.maximum);
+            return this;
+        }
+
+        /**
+         * Number of values in the snapshot.
+         *
+         * @return the value count
+         */
+        long getTotalCount() {
+            return total;
+        }
+
+        /**
+         * Largest value in the snapshot.
+         *
+         * @return the maximum, or null if the snapshot is empty
+         */
+        Long getMaximum() {
+            return total == 0 ? null : Long.valueOf(maximum);
+        }
+
+        /**
+         * Value below which the given percentage of values fall.
+         *
+         * @param percentile percentile in [0, 100]
+         * @return the value at the percentile, or null if the snapshot is empty
+         */
+        Long valueAtPercentile(double percentile) {
+            if (total == 0) {
+                return null;
+            }
+            long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueOf(i), maximum);
+                }
+            }
+            return maximum;
+        }
+    }
+}
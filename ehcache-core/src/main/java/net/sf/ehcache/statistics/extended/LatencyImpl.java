@@ -41,10 +41,18 @@ import org.terracotta.statistics.observer.ChainedOperationObserver;
 class LatencyImpl<T extends Enum<T>> implements Latency {
     private final SourceStatistic<ChainedOperationObserver<T>> source;
     private final LatencySampling<T> latencySampler;
+    private final MatchedOperationObserver<T> matchedSampler;
     private final EventParameterSimpleMovingAverage average;
     private final StatisticImpl<Long> minimumStatistic;
     private final StatisticImpl<Long> maximumStatistic;
     private final StatisticImpl<Double> averageStatistic;
+    private final StatisticImpl<Long> percentile50Statistic;
+    private final StatisticImpl<Long> percentile90Statistic;
+    private final StatisticImpl<Long> percentile99Statistic;
+    private final StatisticImpl<Long> percentile999Statistic;
+
+    private volatile LatencyHistogram histogram;
+    private long windowNanos;
 
     private boolean active = false;
     private long touchTimestamp = -1;
@@ -65,8 +73,14 @@ class LatencyImpl<T extends Enum<T>> implements Latency {
         this.minimumStatistic = new StatisticImpl<Long>(average.minimumStatistic(), executor, historySize, historyNanos);
         this.maximumStatistic = new StatisticImpl<Long>(average.maximumStatistic(), executor, historySize, historyNanos);
         this.averageStatistic = new StatisticImpl<Double>(average.averageStatistic(), executor, historySize, historyNanos);
+        this.percentile50Statistic = new StatisticImpl<Long>(percentile(50.0), executor, historySize, historyNanos);
+        this.percentile90Statistic = new StatisticImpl<Long>(percentile(90.0), executor, historySize, historyNanos);
+        this.percentile99Statistic = new StatisticImpl<Long>(percentile(99.0), executor, historySize, historyNanos);
+        this.percentile999Statistic = new StatisticImpl<Long>(percentile(99.9), executor, historySize, historyNanos);
+        this.windowNanos = averageNanos;
         this.latencySampler = new LatencySampling(targets, 1.0);
         latencySampler.addDerivedStatistic(average);
+        this.matchedSampler = new MatchedOperationObserver<T>(latencySampler);
         this.source = statistic;
     }
 
@@ -75,10 +89,17 @@ class LatencyImpl<T extends Enum<T>> implements Latency {
      */
     synchronized void start() {
         if (!active) {
-            source.addDerivedStatistic(latencySampler);
+            // histograms are only allocated while someone is watching
+            histogram = new LatencyHistogram(windowNanos);
+            latencySampler.addDerivedStatistic(histogram);
+            source.addDerivedStatistic(matchedSampler);
             minimumStatistic.startSampling();
             maximumStatistic.startSampling();
             averageStatistic.startSampling();
+            percentile50Statistic.startSampling();
+            percentile90Statistic.startSampling();
+            percentile99Statistic.startSampling();
+            percentile999Statistic.startSampling();
             active = true;
         }
     }
@@ -106,6 +127,48 @@ class LatencyImpl<T extends Enum<T>> implements Latency {
         return averageStatistic;
     }
 
+    /**
+     * Get the median.
+     */
+    @Override
+    public Statistic<Long> percentile50() {
+        return percentile50Statistic;
+    }
+
+    /**
+     * Get the 90th percentile.
+     */
+    @Override
+    public Statistic<Long> percentile90() {
+        return percentile90Statistic;
+    }
+
+    /**
+     * Get the 99th percentile.
+     */
+    @Override
+    public Statistic<Long> percentile99() {
+        return percentile99Statistic;
+    }
+
+    /**
+     * Get the 99.9th percentile.
+     */
+    @Override
+    public Statistic<Long> percentile999() {
+        return percentile999Statistic;
+    }
+
+    private ValueStatistic<Long> percentile(final double percentile) {
+        return new ValueStatistic<Long>() {
+            @Override
+            public Long value() {
+                LatencyHistogram current = histogram;
+                return current == null ? null : current.snapshot().valueAtPercentile(percentile);
+            }
+        };
+    }
+
     private synchronized void touch() {
         touchTimestamp = Time.absoluteTime();
         start();
@@ -120,10 +183,16 @@ class LatencyImpl<T extends Enum<T>> implements Latency {
     public synchronized boolean expire(long expiry) {
         if (touchTimestamp < expiry) {
             if (active) {
-                source.removeDerivedStatistic(latencySampler);
+                source.removeDerivedStatistic(matchedSampler);
+                latencySampler.removeDerivedStatistic(histogram);
+                histogram = null;
                 minimumStatistic.stopSampling();
                 maximumStatistic.stopSampling();
                 averageStatistic.stopSampling();
+                percentile50Statistic.stopSampling();
+                percentile90Statistic.stopSampling();
+                percentile99Statistic.stopSampling();
+                percentile999Statistic.stopSampling();
                 active = false;
             }
             return true;
@@ -137,8 +206,12 @@ class LatencyImpl<T extends Enum<T>> implements Latency {
      *
      * @param averageNanos the new window
      */
-    void setWindow(long averageNanos) {
+    synchronized void setWindow(long averageNanos) {
         average.setWindow(averageNanos, TimeUnit.NANOSECONDS);
+        windowNanos = averageNanos;
+        if (histogram != null) {
+            histogram.setWindow(averageNanos);
+        }
     }
 
     /**
@@ -151,6 +224,10 @@ class LatencyImpl<T extends Enum<T>> implements Latency {
         minimumStatistic.setHistory(historySize, historyNanos);
         maximumStatistic.setHistory(historySize, historyNanos);
         averageStatistic.setHistory(historySize, historyNanos);
+        percentile50Statistic.setHistory(historySize, historyNanos);
+        percentile90Statistic.setHistory(historySize, historyNanos);
+        percentile99Statistic.setHistory(historySize, historyNanos);
+        percentile999Statistic.setHistory(historySize, historyNanos);
     }
 
     /**
@@ -204,4 +281,58 @@ class LatencyImpl<T extends Enum<T>> implements Latency {
             return super.history();
         }
     }
+
+    /**
+     * Forwards an operation end to the latency sampler only when an operation's begin was seen on the same thread.
+     * <p>
+     * Sampled observers skip the begin of operations they do not time but still report their end, an end on its own
+     * must never be paired with an earlier begin. Open begins are counted per thread so that nested operations stay
+     * paired, in a mutable holder so that recording doesn't allocate.
+     *
+     * @param <T> the operation outcome type
+     */
+    private static final class MatchedOperationObserver<T extends Enum<T>> implements ChainedOperationObserver<T> {
+
+        private final ChainedOperationObserver<T> delegate;
+        private final ThreadLocal<int[]> open = new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue() {
+                return new int[1];
+            }
+        };
+
+        MatchedOperationObserver(ChainedOperationObserver<T> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void begin(long time) {
+            open.get()[0]++;
+            delegate.begin(time);
+        }
+
+        @Override
+        public void end(long time, T result) {
+            if (close()) {
+                delegate.end(time, result);
+            }
+        }
+
+        @Override
+        public void end(long time, T result, long... parameters) {
+            if (close()) {
+                delegate.end(time, result, parameters);
+            }
+        }
+
+        private boolean close() {
+            int[] depth = open.get();
+            if (depth[0] > 0) {
+                depth[0]--;
+                return true;
+            } else {
+                return false;
+            }
+        }
+    }
 }
@@ -0,0 +1,401 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.statistics.extended;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Online estimator of the LRU hit ratio a cache would achieve at other capacities (its miss ratio curve).
+ * <p>
+ * Keys are spatially sampled: only keys whose hash falls under a threshold are tracked, so each tracked key sees all of its
+ * accesses. The reuse distance of every sampled access (the number of distinct sampled keys touched since the key's previous
+ * access) is scaled by the inverse sampling rate and recorded in a log-linear histogram. The number of tracked keys is
+ * bounded: once exceeded, the threshold is lowered and the keys above it forgotten. Counts are halved periodically so the
+ * curve follows changes in the workload.
+ * <p>
+ * Recording threads never block: sampled accesses are handed off through a lock-free buffer, drained in batches by
+ * whichever recording thread wins a try-lock, and before every query. Accesses are dropped while the buffer is full.
+ *
+ * @author Terracotta
+ */
+public final class MissRatioCurveEstimator {
+
+    /**
+     * Default maximum number of tracked keys
+     */
+    public static final int DEFAULT_SAMPLE_SIZE = 8192;
+
+    /**
+     * Default initial spatial sampling rate
+     */
+    public static final double DEFAULT_SAMPLING_RATE = 0.01;
+
+    private static final int MODULUS = 1 << 24;
+    private static final long DECAY_THRESHOLD = 1L << 20;
+    private static final int DRAIN_THRESHOLD = 32;
+    private static final int MAXIMUM_PENDING = 4096;
+
+    private volatile Sampler sampler;
+
+    /**
+     * Start estimating with the default sample size and sampling rate, discarding any previous state.
+     */
+    public void enable() {
+        enable(DEFAULT_SAMPLE_SIZE, DEFAULT_SAMPLING_RATE);
+    }
+
+    /**
+     * Start estimating, discarding any previous state.
+     *
+     * @param sampleSize maximum number of tracked keys
+     * @param samplingRate initial fraction of the key space tracked, in (0, 1]
+     */
+    public void enable(int sampleSize, double samplingRate) {
+        if (sampleSize < 1 || samplingRate <= 0 || samplingRate > 1) {
+            throw new IllegalArgumentException("Invalid sample size " + sampleSize + " or sampling rate " + samplingRate);
+        }
+        sampler = new Sampler(sampleSize, (int) Math.max(1, Math.round(samplingRate * MODULUS)));
+    }
+
+    /**
+     * Stop estimating and release the tracked keys.
+     */
+    public void disable() {
+        sampler = null;
+    }
+
+    /**
+     * Is the estimator enabled?
+     *
+     * @return true if enabled
+     */
+    public boolean isEnabled() {
+        return sampler != null;
+    }
+
+    /**
+     * Record a read of the given key.
+     *
+     * @param key the key read
+     */
+    public void recordGet(Object key) {
+        record(key, true);
+    }
+
+    /**
+     * Record a write of the given key. Writes refresh the key's recency but are not counted as hits or misses.
+     *
+     * @param key the key written
+     */
+    public void recordPut(Object key) {
+        record(key, false);
+    }
+
+    private void record(Object key, boolean counted) {
+        Sampler current = sampler;
+        if (current != null && key != null) {
+            int hash = hash(key.hashCode());
+            if (hash < current.threshold) {
+                current.record(key, hash, counted);
+            }
+        }
+    }
+
+    /**
+     * Estimated hit ratio of an LRU cache holding the given number of entries.
+     *
+     * @param entries cache capacity in entries
+     * @return estimated hit ratio, NaN if nothing was sampled yet or the estimator is disabled
+     */
+    public double hitRatio(long entries) {
+        Sampler current = sampler;
+        return current == null ? Double.NaN : current.hitRatio(entries);
+    }
+
+    /**
+     * Smallest number of entries estimated to achieve the given hit ratio.
+     *
+     * @param targetHitRatio the target hit ratio
+     * @return the number of entries, or -1 if the target isn't reachable with the observed workload
+     */
+    public long entriesForHitRatio(double targetHitRatio) {
+        Sampler current = sampler;
+        return current == null ? -1 : current.entriesForHitRatio(targetHitRatio);
+    }
+
+    /**
+     * Number of sampled reads the estimate is based on (decayed).
+     *
+     * @return sampled reads
+     */
+    public long getSampledReads() {
+        Sampler current = sampler;
+        return current == null ? 0 : current.getReads();
+    }
+
+    private static int hash(int h) {
+        // murmur3 finalizer, spreading the key hash uniformly over the sampling space
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h & (MODULUS - 1);
+    }
+
+    /**
+     * Sampled reuse distance tracking
+     */
+    private static final class Sampler {
+
+        private final ConcurrentLinkedQueue<Access> buffer = new ConcurrentLinkedQueue<Access>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final int sampleSize;
+        private final Map<Object, Tracked> tracked;
+        private final int[] tree;
+        private final long[] histogram = new long[LatencyHistogram.BUCKETS];
+        private volatile int threshold;
+        private int occupied;
+        private int nextSlot;
+        private long reads;
+
+        Sampler(int sampleSize, int threshold) {
+            this.sampleSize = sampleSize;
+            this.threshold = threshold;
+            this.tracked = new HashMap<Object, Tracked>(sampleSize * 2);
+            this.tree = new int[sampleSize * 2 + 1];
+        }
+
+        void record(Object key, int hash, boolean counted) {
+            if (pending.incrementAndGet() > MAXIMUM_PENDING) {
+                pending.decrementAndGet();
+                return;
+            }
+            buffer.offer(new Access(key, hash, counted));
+            if (pending.get() >= DRAIN_THRESHOLD && lock.tryLock()) {
+                try {
+                    drain();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        /**
+         * Replay the buffered accesses, must be called holding the lock.
+         */
+        private void drain() {
+            Access access;
+            while ((access = buffer.poll()) != null) {
+                pending.decrementAndGet();
+                access(access.key, access.hash, access.counted);
+            }
+        }
+
+        private void access(Object key, int hash, boolean counted) {
+            if (hash >= threshold) {
+                return;
+            }
+            Tracked entry = tracked.get(key);
+            if (entry == null) {
+                entry = new Tracked(key, hash);
+                tracked.put(key, entry);
+            } else {
+                int distance = occupied - prefix(entry.slot);
+                add(entry.slot, -1);
+                entry.slot = -1;
+                if (counted) {
+                    long scaled = (long) (distance * ((double) MODULUS / threshold));
+                    histogram[LatencyHistogram.indexOf(Math.min(scaled, LatencyHistogram.highestValueOf(histogram.length - 1)))]++;
+                }
+            }
+            if (counted && ++reads >= DECAY_THRESHOLD) {
+                decay();
+            }
+
+            if (nextSlot == tree.length - 1) {
+                compact();
+            }
+            entry.slot = nextSlot++;
+            add(entry.slot, 1);
+
+            if (tracked.size() > sampleSize) {
+                shrink();
+            }
+        }
+
+        double hitRatio(long entries) {
+            lock.lock();
+            try {
+                drain();
+                if (reads == 0) {
+                    return Double.NaN;
+                }
+                long hits = 0;
+                for (int i = 0; i < histogram.length && LatencyHistogram.highestValueOf(i) < entries; i++) {
+                    hits += histogram[i];
+                }
+                return (double) hits / reads;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long entriesForHitRatio(double target) {
+            lock.lock();
+            try {
+                drain();
+                if (reads == 0) {
+                    return -1;
+                }
+                long hits = 0;
+                for (int i = 0; i < histogram.length; i++) {
+                    hits += histogram[i];
+                    if ((double) hits / reads >= target) {
+                        return LatencyHistogram.highestValueOf(i) + 1;
+                    }
+                }
+                return -1;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long getReads() {
+            lock.lock();
+            try {
+                drain();
+                return reads;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void decay() {
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] >>>= 1;
+            }
+            reads >>>= 1;
+        }
+
+        /**
+         * Lower the threshold so that roughly an eighth of the tracked keys, those with the highest hashes, are dropped.
+         */
+        private void shrink() {
+            List<Tracked> byHash = new ArrayList<Tracked>(tracked.values());
+            Collections.sort(byHash, new Comparator<Tracked>() {
+                @Override
+                public int compare(Tracked a, Tracked b) {
+                    return a.hash < b.hash ? -1 : (a.hash == b.hash ? 0 : 1);
+                }
+            });
+            int newThreshold = byHash.get(sampleSize - sampleSize / 8).hash;
+            for (int i = byHash.size() - 1; i >= 0 && byHash.get(i).hash >= newThreshold; i--) {
+                Tracked dropped = byHash.get(i);
+                tracked.remove(dropped.key);
+                add(dropped.slot, -1);
+            }
+            threshold = Math.max(1, newThreshold);
+        }
+
+        /**
+         * Renumber the slots of the tracked keys densely, preserving their access order.
+         */
+        private void compact() {
+            List<Tracked> bySlot = new ArrayList<Tracked>(tracked.values());
+            Collections.sort(bySlot, new Comparator<Tracked>() {
+                @Override
+                public int compare(Tracked a, Tracked b) {
+                    return a.slot < b.slot ? -1 : (a.slot == b.slot ? 0 : 1);
+                }
+            });
+            for (int i = 0; i < tree.length; i++) {
+                tree[i] = 0;
+            }
+            occupied = 0;
+            nextSlot = 0;
+            for (Tracked t : bySlot) {
+                if (t.slot >= 0) {
+                    t.slot = nextSlot++;
+                    add(t.slot, 1);
+                }
+            }
+        }
+
+        /**
+         * Fenwick tree update of the given slot.
+         */
+        private void add(int slot, int delta) {
+            occupied += delta;
+            for (int i = slot + 1; i < tree.length; i += i & -i) {
+                tree[i] += delta;
+            }
+        }
+
+        /**
+         * Number of occupied slots up to and including the given one.
+         */
+        private int prefix(int slot) {
+            int sum = 0;
+            for (int i = slot + 1; i > 0; i -= i & -i) {
+                sum += tree[i];
+            }
+            return sum;
+        }
+    }
+
+    /**
+     * Buffered sampled access
+     */
+    private static final class Access {
+
+        private final Object key;
+        private final int hash;
+        private final boolean counted;
+
+        Access(Object key, int hash, boolean counted) {
+            this.key = key;
+            this.hash = hash;
+            this.counted = counted;
+        }
+    }
+
+    /**
+     * Tracked key with the slot of its latest access
+     */
+    private static final class Tracked {
+
+        private final Object key;
+        private final int hash;
+        private int slot = -1;
+
+        Tracked(Object key, int hash) {
+            this.key = key;
+            this.hash = hash;
+        }
+    }
+}
@@ -92,6 +92,14 @@ enum StandardOperationStatistic {
         }
     },
 
+    /** The search result cache. */
+    SEARCH_RESULT_CACHE(false, cache().children(), CacheOperationOutcomes.SearchResultCacheOutcome.class, "search-result-cache", "cache") {
+        @Override
+        boolean isSearch() {
+            return true;
+        }
+    },
+
     /** The evicted. */
     EVICTION(false, cache().add(children().exclude(Ehcache.class).add(descendants())), CacheOperationOutcomes.EvictionOutcome.class, "eviction"),
 
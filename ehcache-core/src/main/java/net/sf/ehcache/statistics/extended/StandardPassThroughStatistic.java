@@ -55,11 +55,56 @@ public enum StandardPassThroughStatistic {
     /** writer queue length */
     WRITER_QUEUE_LENGTH(cache().descendants(), Long.TYPE, 0L, "queue-length", "write-behind"),
 
+    /** writer batch size */
+    WRITER_BATCH_SIZE(cache().descendants(), Integer.TYPE, 0, "batch-size", "write-behind"),
+
+    /** writer lag in milliseconds */
+    WRITER_LAG(cache().descendants(), Long.TYPE, 0L, "write-lag", "write-behind"),
+
+    /** entries refreshed ahead of their expiry */
+    REFRESH_AHEAD_REFRESHED(cache().descendants(), Long.TYPE, 0L, "refreshed", "refresh-ahead"),
+
+    /** wasted refreshes */
+    REFRESH_AHEAD_WASTED(cache().descendants(), Long.TYPE, 0L, "wasted", "refresh-ahead"),
+
+    /** refresh lag in milliseconds */
+    REFRESH_AHEAD_LAG(cache().descendants(), Long.TYPE, 0L, "refresh-lag", "refresh-ahead"),
+
+    /** events waiting for asynchronously notified listeners */
+    EVENT_DISPATCH_QUEUE_DEPTH(cache().descendants(), Long.TYPE, 0L, "queue-depth", "event-dispatch"),
+
+    /** event dispatch lag in milliseconds */
+    EVENT_DISPATCH_LAG(cache().descendants(), Long.TYPE, 0L, "dispatch-lag", "event-dispatch"),
+
     /** remote size */
     REMOTE_SIZE(cache().descendants(), Long.TYPE, 0L, "size", "remote"),
     
     /** last rejoin time */
-    LAST_REJOIN_TIMESTAMP(cache().descendants(), Long.TYPE, 0L, "lastRejoinTime", "cache");
+    LAST_REJOIN_TIMESTAMP(cache().descendants(), Long.TYPE, 0L, "lastRejoinTime", "cache"),
+
+    /** elements visited by searches */
+    SEARCH_ELEMENTS_SCANNED(cache().descendants(), Long.TYPE, 0L, "elements-scanned", "search") {
+        @Override
+        boolean isSearch() {
+            return true;
+        }
+    },
+
+    /** elements matched by searches */
+    SEARCH_ELEMENTS_MATCHED(cache().descendants(), Long.TYPE, 0L, "elements-matched", "search") {
+        @Override
+        boolean isSearch() {
+            return true;
+        }
+    },
+
+    /** searches exceeding the slow query threshold */
+    SEARCH_SLOW_QUERIES(cache().descendants(), Long.TYPE, 0L, "slow-queries", "search") {
+        @Override
+        boolean isSearch() {
+            return true;
+        }
+    };
 
     private static final int THIRTY = 30;
     
@@ -122,4 +167,13 @@ public enum StandardPassThroughStatistic {
         return tags;
     }
 
+    /**
+     * Is this stat search related or not?
+     *
+     * @return true if this statistic is sampled over the search interval
+     */
+    boolean isSearch() {
+        return false;
+    }
+
 }
@@ -17,7 +17,12 @@ package net.sf.ehcache.store;
 
 import net.sf.ehcache.CacheException;
 import net.sf.ehcache.Element;
+import net.sf.ehcache.ElementRemapper;
+import net.sf.ehcache.SplittableIterator;
 import net.sf.ehcache.Status;
+import net.sf.ehcache.concurrent.CacheLockProvider;
+import net.sf.ehcache.concurrent.LockType;
+import net.sf.ehcache.concurrent.Sync;
 import net.sf.ehcache.search.Attribute;
 import net.sf.ehcache.search.Results;
 import net.sf.ehcache.search.SearchException;
@@ -42,7 +47,7 @@ import java.util.Set;
  *
  * @author Alex Snaps
  */
-abstract class AbstractCopyingCacheStore<T extends Store> implements Store {
+abstract class AbstractCopyingCacheStore<T extends Store> implements ComputingStore, StreamingStore {
 
     @ContextChild
     private final T store;
@@ -105,6 +110,28 @@ abstract class AbstractCopyingCacheStore<T extends Store> implements Store {
         return store.getKeys();
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Elements are copied for read as they are returned. The underlying store is walked in place if it is a
+     * {@link StreamingStore}, and through a copy of its key list otherwise.
+     */
+    @Override
+    public SplittableIterator<Element> entryIterator() {
+        SplittableIterator<Element> entries;
+        if (store instanceof StreamingStore) {
+            entries = ((StreamingStore)store).entryIterator();
+        } else {
+            entries = AbstractStore.keyListEntryIterator(store);
+        }
+        return new MappingIterator(entries, new MappingIterator.Mapping() {
+            @Override
+            public Element map(final Element element) {
+                return copyStrategyHandler.copyElementForReadIfNeeded(element);
+            }
+        });
+    }
+
     @Override
     public Element remove(final Object key) {
         return copyStrategyHandler.copyElementForReadIfNeeded(store.remove(key));
@@ -151,6 +178,39 @@ abstract class AbstractCopyingCacheStore<T extends Store> implements Store {
         return copyStrategyHandler.copyElementForReadIfNeeded(store.replace(copyStrategyHandler.copyElementForWriteIfNeeded(element)));
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The remapper is given a copy of the current element, the element it returns being copied before it is stored.
+     * When the underlying store cannot compute elements, the computation runs under the lock of the key it provides.
+     */
+    @Override
+    public Element compute(final Object key, final ElementRemapper remapper) {
+        if (store instanceof ComputingStore) {
+            Element previous = ((ComputingStore)store).compute(key, new ElementRemapper() {
+                @Override
+                public Element remap(final Object k, final Element current) {
+                    Element copy = copyStrategyHandler.copyElementForReadIfNeeded(current);
+                    Element computed = remapper.remap(k, copy);
+                    return computed == copy ? current : copyStrategyHandler.copyElementForWriteIfNeeded(computed);
+                }
+            });
+            return copyStrategyHandler.copyElementForReadIfNeeded(previous);
+        }
+
+        Object context = getInternalContext();
+        if (context instanceof CacheLockProvider) {
+            Sync sync = ((CacheLockProvider)context).getSyncForKey(key);
+            sync.lock(LockType.WRITE);
+            try {
+                return AbstractStore.applyRemapper(this, key, remapper);
+            } finally {
+                sync.unlock(LockType.WRITE);
+            }
+        }
+        return AbstractStore.applyRemapper(this, key, remapper);
+    }
+
     @Override
     public void dispose() {
         store.dispose();
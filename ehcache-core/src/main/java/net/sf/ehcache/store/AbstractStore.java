@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -27,6 +28,8 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import net.sf.ehcache.CacheException;
 import net.sf.ehcache.Element;
+import net.sf.ehcache.ElementRemapper;
+import net.sf.ehcache.SplittableIterator;
 import net.sf.ehcache.config.InvalidConfigurationException;
 import net.sf.ehcache.search.Attribute;
 import net.sf.ehcache.search.Results;
@@ -40,6 +43,8 @@ import net.sf.ehcache.terracotta.TerracottaNotRunningException;
  */
 public abstract class AbstractStore implements Store {
 
+    private static final int KEY_LIST_CHUNK = 1024;
+
     /**
      * search attribute extractors
      */
@@ -235,6 +240,40 @@ public abstract class AbstractStore implements Store {
         return elements;
     }
 
+    /**
+     * Computes the element of a key through the getQuiet, put and remove operations of a store, as described by
+     * {@link ComputingStore#compute(Object, ElementRemapper)}. The caller must hold the write lock of the key.
+     *
+     * @param store the store
+     * @param key the key
+     * @param remapper computes the new element of the key
+     * @return the element stored for the key before the computation, or null
+     */
+    public static Element applyRemapper(Store store, Object key, ElementRemapper remapper) {
+        Element current = store.getQuiet(key);
+        Element computed = remapper.remap(key, current);
+        if (computed != current) {
+            if (computed == null) {
+                store.remove(key);
+            } else {
+                store.put(computed);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Iterates over the elements of a store that cannot stream them, through its key list and getQuiet operation.
+     * This does not stream: the whole key list is copied up front by {@link Store#getKeys()}, then split in chunks of keys.
+     *
+     * @param store the store
+     * @return an iterator over the elements of the store
+     */
+    public static SplittableIterator<Element> keyListEntryIterator(Store store) {
+        List keys = store.getKeys();
+        return new KeyListEntryIterator(store, keys, 0, (keys.size() + KEY_LIST_CHUNK - 1) / KEY_LIST_CHUNK);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -247,5 +286,44 @@ public abstract class AbstractStore implements Store {
      */
     public void recalculateSize(Object key) {
         // overriden on necessity
-    }    
+    }
+
+    /**
+     * Iterator over the elements of a store, by chunks of its key list
+     */
+    private static final class KeyListEntryIterator extends SegmentedIterator<Element> {
+
+        private final Store store;
+        private final List keys;
+
+        private KeyListEntryIterator(Store store, List keys, int fromChunk, int toChunk) {
+            super(fromChunk, toChunk);
+            this.store = store;
+            this.keys = keys;
+        }
+
+        @Override
+        protected Iterator<Element> segmentIterator(int chunk) {
+            final Iterator chunkKeys = keys.subList(chunk * KEY_LIST_CHUNK, Math.min(keys.size(), (chunk + 1) * KEY_LIST_CHUNK))
+                .iterator();
+            return new Iterator<Element>() {
+                public boolean hasNext() {
+                    return chunkKeys.hasNext();
+                }
+
+                public Element next() {
+                    return store.getQuiet(chunkKeys.next());
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        protected SegmentedIterator<Element> newIterator(int fromChunk, int toChunk) {
+            return new KeyListEntryIterator(store, keys, fromChunk, toChunk);
+        }
+    }
 }
@@ -23,6 +23,9 @@ import net.sf.ehcache.config.ConfigurationHelper;
 import net.sf.ehcache.config.SearchAttribute;
 import net.sf.ehcache.config.Searchable;
 import net.sf.ehcache.search.Attribute;
+import net.sf.ehcache.search.ExecutionHints;
+import net.sf.ehcache.search.QueryProfile;
+import net.sf.ehcache.search.Result;
 import net.sf.ehcache.search.Results;
 import net.sf.ehcache.search.SearchException;
 import net.sf.ehcache.search.aggregator.AggregatorInstance;
@@ -40,18 +43,28 @@ import net.sf.ehcache.search.impl.OrderComparator;
 import net.sf.ehcache.search.impl.ResultImpl;
 import net.sf.ehcache.search.impl.ResultsImpl;
 import net.sf.ehcache.search.impl.SearchManager;
+import net.sf.ehcache.search.impl.StreamingResultsImpl;
 import net.sf.ehcache.transaction.lock.SoftLockID;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terracotta.statistics.Statistic;
+import org.terracotta.statistics.StatisticsManager;
+
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Brute force search implementation
@@ -60,6 +73,8 @@ import java.util.concurrent.CopyOnWriteArraySet;
  */
 public class BruteForceSearchManager implements SearchManager {
 
+    private static final Logger LOG = LoggerFactory.getLogger(BruteForceSearchManager.class);
+
     private static final Object[] EMPTY_OBJECT_ARRAY = new Object[0];
 
     /**
@@ -68,6 +83,11 @@ public class BruteForceSearchManager implements SearchManager {
     private final Set<Attribute> searchAttributes = new CopyOnWriteArraySet<Attribute>();
     private final Ehcache cache;
     private BruteForceSource bruteForceSource;
+    private volatile QueryResultCache resultCache;
+    private volatile ColumnarAttributeStore columns;
+    private final AtomicLong elementsScanned = new AtomicLong();
+    private final AtomicLong elementsMatched = new AtomicLong();
+    private final AtomicLong slowQueries = new AtomicLong();
 
     /**
      * Create a BruteForceSearchManager
@@ -76,6 +96,31 @@ public class BruteForceSearchManager implements SearchManager {
      */
     public BruteForceSearchManager(Ehcache cache) {
         this.cache = cache;
+        StatisticsManager.associate(this).withParent(cache);
+    }
+
+    /**
+     * @return the number of elements visited by searches
+     */
+    @Statistic(name = "elements-scanned", tags = "search")
+    public long getElementsScanned() {
+        return elementsScanned.get();
+    }
+
+    /**
+     * @return the number of elements matched by searches
+     */
+    @Statistic(name = "elements-matched", tags = "search")
+    public long getElementsMatched() {
+        return elementsMatched.get();
+    }
+
+    /**
+     * @return the number of searches exceeding the slow query threshold
+     */
+    @Statistic(name = "slow-queries", tags = "search")
+    public long getSlowQueries() {
+        return slowQueries.get();
     }
 
     /**
@@ -101,6 +146,82 @@ public class BruteForceSearchManager implements SearchManager {
     @Override
     public Results executeQuery(StoreQuery query, Map<String, AttributeExtractor> extractors, DynamicAttributesExtractor
             dynIndexer) {
+        ExecutionHints hints = query.getExecutionHints();
+        if (hints != null && hints.isStreamingResults()) {
+            return executeStreamingQuery(query, extractors, dynIndexer, hints);
+        }
+        boolean profiling = hints != null && hints.isProfiling();
+        SearchProfiler profiler = new SearchProfiler(profiling);
+        Results results;
+        QueryResultCache cachedResults = resultCache;
+        if (cachedResults != null && !profiling) {
+            results = cachedResults.executeQuery(query, extractors, dynIndexer, profiler);
+        } else {
+            results = executeMaterializedQuery(query, extractors, dynIndexer, profiler);
+        }
+        queryCompleted(query, profiler);
+        if (profiling && results instanceof ResultsImpl) {
+            ((ResultsImpl) results).setProfile(profiler.toProfile());
+        }
+        return results;
+    }
+
+    private void queryCompleted(StoreQuery query, SearchProfiler profiler) {
+        long elapsed = profiler.finish();
+        elementsScanned.addAndGet(profiler.getScanned());
+        elementsMatched.addAndGet(profiler.getMatched());
+
+        Searchable searchable = bruteForceSource.getSearchable();
+        long threshold = searchable == null ? 0 : searchable.getSlowQueryThresholdMillis();
+        if (threshold > 0 && elapsed >= TimeUnit.MILLISECONDS.toNanos(threshold)) {
+            slowQueries.incrementAndGet();
+            if (LOG.isWarnEnabled()) {
+                LOG.warn("Slow query on cache {} took {}ms (scanned {}, matched {}): {}", new Object[] {cache.getName(),
+                    TimeUnit.NANOSECONDS.toMillis(elapsed), profiler.getScanned(), profiler.getMatched(),
+                    profiler.isDetailed() ? profiler.toProfile() : QueryResultCache.normalise(query), });
+            }
+        }
+    }
+
+    /**
+     * Unordered, non-grouped and non-aggregating queries are evaluated lazily as the cursor is advanced. All other queries need
+     * to see every match before producing their first result, they are evaluated eagerly and then paged over.
+     */
+    private Results executeStreamingQuery(StoreQuery query, Map<String, AttributeExtractor> extractors, DynamicAttributesExtractor
+            dynIndexer, ExecutionHints hints) {
+        boolean hasAttributes = !query.requestedAttributes().isEmpty();
+        int batchSize = StreamingResultsImpl.batchSizeFor(hints);
+        if (query.getOrdering().isEmpty() && query.groupByAttributes().isEmpty() && query.getAggregatorInstances().isEmpty()) {
+            final LazyResultIterator lazy = new LazyResultIterator(query, extractors, dynIndexer);
+            return new StreamingResultsImpl(lazy, batchSize, query.requestsKeys(), query.requestsValues(), hasAttributes, false,
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            lazy.complete();
+                        }
+                    });
+        } else {
+            SearchProfiler profiler = new SearchProfiler(false);
+            Results materialized = executeMaterializedQuery(query, extractors, dynIndexer, profiler);
+            queryCompleted(query, profiler);
+            return new StreamingResultsImpl(materialized.all().iterator(), batchSize, query.requestsKeys(), query.requestsValues(),
+                    hasAttributes, !query.getAggregatorInstances().isEmpty(), null);
+        }
+    }
+
+    /**
+     * Evaluate the query against every element of the source, and materialize the complete results
+     */
+    Results executeMaterializedQuery(StoreQuery query, Map<String, AttributeExtractor> extractors, DynamicAttributesExtractor
+            dynIndexer, SearchProfiler profiler) {
+        ColumnarAttributeStore columnar = columns;
+        if (columnar != null) {
+            Results results = columnar.aggregate(query, profiler);
+            if (results != null) {
+                return results;
+            }
+        }
+
         Criteria c = query.getCriteria();
 
         List<AggregatorInstance<?>> aggregators = query.getAggregatorInstances();
@@ -117,12 +238,19 @@ public class BruteForceSearchManager implements SearchManager {
         Collection<Element> matches = new LinkedList<Element>();
         Map<Object, Map<String, AttributeExtractor>> eltExtractors = new HashMap<Object, Map<String, AttributeExtractor>>();
 
+        long scanned = 0;
         for (Element element : bruteForceSource.elements()) {
+            scanned++;
 
+            long mark = profiler.mark();
             Map<String, AttributeExtractor> extractorSuperset = getCombinedExtractors(extractors, dynIndexer, element);
             eltExtractors.put(element.getObjectKey(), extractorSuperset);
+            profiler.extraction(mark);
 
-            if (c.execute(element, extractorSuperset)) {
+            mark = profiler.mark();
+            boolean match = c.execute(element, extractorSuperset);
+            profiler.criteria(mark);
+            if (match) {
                 if (!isGroupBy && !hasOrder && query.maxResults() >= 0 && matches.size() == query.maxResults()) {
                     break;
                 }
@@ -130,6 +258,8 @@ public class BruteForceSearchManager implements SearchManager {
                 matches.add(element);
             }
         }
+        profiler.scanned(scanned);
+        profiler.matched(matches.size());
 
         Collection<ResultHolder> results = isGroupBy ? groupByResults.values() : new ArrayList<ResultHolder>();
 
@@ -137,6 +267,7 @@ public class BruteForceSearchManager implements SearchManager {
         OrderComparator<BaseResult> comp = new OrderComparator<BaseResult>(query.getOrdering());
 
         for (Element element : matches) {
+            long mark = profiler.mark();
             Map<String, AttributeExtractor> extractorSuperset = eltExtractors.get(element.getObjectKey());
 
             List<Object> resultAggs = new ArrayList<Object>(aggregators.size());
@@ -150,11 +281,13 @@ public class BruteForceSearchManager implements SearchManager {
 
             Map<String, Object> attributes = getAttributeValues(query.requestedAttributes(), extractorSuperset, element);
             Object[] sortAttributes = getSortAttributes(query, extractorSuperset, element);
+            profiler.extraction(mark);
 
             if (!isGroupBy) {
                 results.add(new ResultHolder(new ResultImpl(element.getObjectKey(), element.getObjectValue(), query, attributes, sortAttributes),
                         resultAggs, comp));
             } else {
+                mark = profiler.mark();
                 Map<String, Object> groupByValues = getAttributeValues(groupByAttributes, extractorSuperset, element);
                 Set<?> groupId = new HashSet<Object>(groupByValues.values());
                 List<AggregatorInstance<?>> groupAggrs = groupByAggregators.get(groupId);
@@ -175,6 +308,7 @@ public class BruteForceSearchManager implements SearchManager {
                             groupByValues), Collections.emptyList(), comp);
                     groupByResults.put(groupId, group);
                 }
+                profiler.aggregation(mark);
             }
         }
 
@@ -184,7 +318,9 @@ public class BruteForceSearchManager implements SearchManager {
             }
 
             if (hasOrder) {
+                long mark = profiler.mark();
                 Collections.sort((List<ResultHolder>) results);
+                profiler.sort(mark);
             }
             // trim results to max length if necessary
             int max = query.maxResults();
@@ -194,6 +330,7 @@ public class BruteForceSearchManager implements SearchManager {
         }
 
         if (!aggregators.isEmpty()) {
+            long mark = profiler.mark();
             for (ResultHolder rh : results) {
                 if (isGroupBy) {
                     GroupedResultImpl group = (GroupedResultImpl) rh.result;
@@ -213,6 +350,7 @@ public class BruteForceSearchManager implements SearchManager {
                     setResultAggregators(aggregators, rh.result);
                 }
             }
+            profiler.aggregation(mark);
         }
 
         List<BaseResult> output;
@@ -233,6 +371,86 @@ public class BruteForceSearchManager implements SearchManager {
                 && !aggregators.isEmpty());
     }
 
+    /**
+     * Iterator evaluating the query criteria against the source elements one match at a time.
+     * <p>
+     * The query is recorded as completed once the iterator is exhausted or its results are discarded, the execution time
+     * covering the whole life of the cursor.
+     */
+    private final class LazyResultIterator implements Iterator<Result> {
+        private final StoreQuery query;
+        private final Map<String, AttributeExtractor> extractors;
+        private final DynamicAttributesExtractor dynIndexer;
+        private final Iterator<Element> elements;
+        private final int maxResults;
+        private final SearchProfiler profiler = new SearchProfiler(false);
+        private Result next;
+        private int produced;
+        private boolean completed;
+
+        private LazyResultIterator(StoreQuery query, Map<String, AttributeExtractor> extractors, DynamicAttributesExtractor dynIndexer) {
+            this.query = query;
+            this.extractors = extractors;
+            this.dynIndexer = dynIndexer;
+            this.elements = bruteForceSource.elements().iterator();
+            this.maxResults = query.maxResults();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (maxResults >= 0 && produced >= maxResults) {
+                complete();
+                return false;
+            }
+            Criteria c = query.getCriteria();
+            while (elements.hasNext()) {
+                Element element = elements.next();
+                if (element == null) {
+                    continue;
+                }
+                profiler.scanned(1);
+                Map<String, AttributeExtractor> extractorSuperset = getCombinedExtractors(extractors, dynIndexer, element);
+                if (c.execute(element, extractorSuperset)) {
+                    profiler.matched(1);
+                    Map<String, Object> attributes = getAttributeValues(query.requestedAttributes(), extractorSuperset, element);
+                    next = new ResultImpl(element.getObjectKey(), element.getObjectValue(), query, attributes, EMPTY_OBJECT_ARRAY);
+                    return true;
+                }
+            }
+            complete();
+            return false;
+        }
+
+        /**
+         * Record the query as completed, if it wasn't yet
+         */
+        private synchronized void complete() {
+            if (!completed) {
+                completed = true;
+                queryCompleted(query, profiler);
+            }
+        }
+
+        @Override
+        public Result next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Result result = next;
+            next = null;
+            produced++;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
     private void setResultAggregators(List<AggregatorInstance<?>> aggregators, BaseResult result) {
         List<Object> aggregateResults = new ArrayList<Object>();
         for (AggregatorInstance<?> aggregator : aggregators) {
@@ -258,7 +476,10 @@ public class BruteForceSearchManager implements SearchManager {
         return values;
     }
 
-    private Map<String, AttributeExtractor> getCombinedExtractors(Map<String, AttributeExtractor> configExtractors, DynamicAttributesExtractor
+    /**
+     * Combine the configured extractors with the dynamically extracted attributes of the given element
+     */
+    static Map<String, AttributeExtractor> getCombinedExtractors(Map<String, AttributeExtractor> configExtractors, DynamicAttributesExtractor
             dynIndexer, Element element) {
         Map<String, AttributeExtractor> combinedExtractors = new HashMap<String, AttributeExtractor>();
         combinedExtractors.putAll(configExtractors);
@@ -389,6 +610,23 @@ public class BruteForceSearchManager implements SearchManager {
      */
     public void setBruteForceSource(BruteForceSource bruteForceSource) {
         this.bruteForceSource = bruteForceSource;
+        Searchable searchable = bruteForceSource.getSearchable();
+        // results handed out by copying or transactional sources can't be shared between callers
+        if (searchable != null && searchable.getResultCacheSize() > 0 && bruteForceSource instanceof MemoryStoreBruteForceSource
+            && resultCache == null) {
+            QueryResultCache results = new QueryResultCache(cache, this, searchable.getResultCacheSize());
+            if (((MemoryStoreBruteForceSource) bruteForceSource).getMemoryStore().addMutationListener(results)) {
+                resultCache = results;
+            }
+        }
+        // columns read the stored values, which copying or transactional sources hold as serialized copies or soft locks
+        if (searchable != null && searchable.isColumnarAttributes() && bruteForceSource instanceof MemoryStoreBruteForceSource
+            && columns == null) {
+            ColumnarAttributeStore columnar = new ColumnarAttributeStore(cache, searchable);
+            if (((MemoryStoreBruteForceSource) bruteForceSource).getMemoryStore().addMutationListener(columnar)) {
+                columns = columnar;
+            }
+        }
     }
 
     /**
@@ -398,5 +636,8 @@ public class BruteForceSearchManager implements SearchManager {
      */
     void addSearchAttributes(Set<Attribute<?>> attributeSet) {
         searchAttributes.addAll(attributeSet);
+        if (resultCache != null) {
+            resultCache.clear();
+        }
     }
 }
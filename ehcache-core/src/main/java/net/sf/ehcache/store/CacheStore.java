@@ -17,6 +17,8 @@ package net.sf.ehcache.store;
 
 import net.sf.ehcache.CacheException;
 import net.sf.ehcache.Element;
+import net.sf.ehcache.ElementRemapper;
+import net.sf.ehcache.SplittableIterator;
 import net.sf.ehcache.Status;
 import net.sf.ehcache.concurrent.StripedReadWriteLock;
 import net.sf.ehcache.concurrent.StripedReadWriteLockSync;
@@ -30,6 +32,7 @@ import net.sf.ehcache.terracotta.TerracottaNotRunningException;
 import net.sf.ehcache.writer.CacheWriterManager;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -49,7 +52,7 @@ import org.terracotta.context.annotations.ContextChild;
  *
  * @author Alex Snaps
  */
-public class CacheStore implements Store {
+public class CacheStore implements ComputingStore, StreamingStore {
 
     private static final Logger LOG = LoggerFactory.getLogger(CacheStore.class);
 
@@ -170,11 +173,48 @@ public class CacheStore implements Store {
 
     @Override
     public void putAll(final Collection<Element> elements) throws CacheException {
+        if (cachingTier.loadOnPut()) {
+            for (Element element : elements) {
+                put(element);
+            }
+            return;
+        }
+
+        // elements cached in the caching tier go through put(), the others are put in the authority in one batch
+        final List<Element> batch = new ArrayList<Element>(elements.size());
         for (Element element : elements) {
-            put(element);
+            if (isCached(element.getObjectKey())) {
+                put(element);
+            } else {
+                batch.add(element);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            authoritativeTier.putAll(batch);
+        } catch (RuntimeException e) {
+            for (Element element : batch) {
+                authoritativeTier.flush(element);
+            }
+            throw e;
+        } finally {
+            for (Element element : batch) {
+                cachingTier.remove(element.getObjectKey());
+            }
         }
     }
 
+    /**
+     * Whether the caching tier holds the given key, for {@link #putAll(Collection)} to keep it cached through {@link #put(Element)}.
+     */
+    @SuppressWarnings("deprecation")
+    private boolean isCached(final Object key) {
+        // CachingTier.contains is deprecated as it only tells which tier a key would be read from, which is what is needed here
+        return cachingTier.contains(key);
+    }
+
     @Override
     public boolean putWithWriter(final Element element, final CacheWriterManager writerManager) throws CacheException {
         try {
@@ -227,6 +267,20 @@ public class CacheStore implements Store {
         return authoritativeTier.getKeys();
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The authoritative tier holds every element, so only its elements are walked: in place if it is a
+     * {@link StreamingStore}. Otherwise the iteration does not stream, and copies the key list of the tier up front.
+     */
+    @Override
+    public SplittableIterator<Element> entryIterator() {
+        if (authoritativeTier instanceof StreamingStore) {
+            return ((StreamingStore)authoritativeTier).entryIterator();
+        }
+        return AbstractStore.keyListEntryIterator(authoritativeTier);
+    }
+
     @Override
     public Element remove(final Object key) {
         if (key == null) {
@@ -241,8 +295,42 @@ public class CacheStore implements Store {
 
     @Override
     public void removeAll(final Collection<?> keys) {
+        final List<Object> batch = new ArrayList<Object>(keys.size());
         for (Object key : keys) {
-            remove(key);
+            if (key != null) {
+                batch.add(key);
+            }
+        }
+        try {
+            authoritativeTier.removeAll(batch);
+        } finally {
+            for (Object key : batch) {
+                cachingTier.remove(key);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The computation runs in the authority, under its own lock of the key when it can compute elements, the caching
+     * tier being invalidated afterwards as for any put.
+     */
+    @Override
+    public Element compute(final Object key, final ElementRemapper remapper) {
+        if (authoritativeTier instanceof ComputingStore) {
+            try {
+                return ((ComputingStore)authoritativeTier).compute(key, remapper);
+            } finally {
+                cachingTier.remove(key);
+            }
+        }
+        final Lock lock = masterLocks.getLockForKey(key).writeLock();
+        lock.lock();
+        try {
+            return AbstractStore.applyRemapper(this, key, remapper);
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -0,0 +1,570 @@
+/**
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.ehcache.store;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.SearchAttribute;
+import net.sf.ehcache.config.Searchable;
+import net.sf.ehcache.search.Attribute;
+import net.sf.ehcache.search.QueryProfile;
+import net.sf.ehcache.search.Results;
+import net.sf.ehcache.search.aggregator.AggregatorInstance;
+import net.sf.ehcache.search.aggregator.Average;
+import net.sf.ehcache.search.aggregator.Count;
+import net.sf.ehcache.search.aggregator.Max;
+import net.sf.ehcache.search.aggregator.Min;
+import net.sf.ehcache.search.aggregator.Sum;
+import net.sf.ehcache.search.attribute.AttributeExtractor;
+import net.sf.ehcache.search.attribute.AttributeType;
+import net.sf.ehcache.search.expression.AlwaysMatch;
+import net.sf.ehcache.search.expression.And;
+import net.sf.ehcache.search.expression.Between;
+import net.sf.ehcache.search.expression.Criteria;
+import net.sf.ehcache.search.expression.EqualTo;
+import net.sf.ehcache.search.expression.GreaterThan;
+import net.sf.ehcache.search.expression.GreaterThanOrEqual;
+import net.sf.ehcache.search.expression.LessThan;
+import net.sf.ehcache.search.expression.LessThanOrEqual;
+import net.sf.ehcache.search.impl.AggregateOnlyResult;
+import net.sf.ehcache.search.impl.ResultsImpl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Primitive, column oriented copy of the numeric search attributes of a {@link MemoryStore}.
+ * <p>
+ * Every user defined search attribute gets a column whose kind (int, long or double) is fixed by the first value seen. Rows are
+ * allocated per key and kept up to date as the mutations of the store are made. A column that sees any other
+ * value type (or an extraction failure) is permanently disabled.
+ * <p>
+ * Rows are spread by key hash over stripes, each holding its own slice of every column under its own lock, so that mutations
+ * of different stripes don't contend and a scan only holds the lock of the stripe it is in.
+ * <p>
+ * Aggregation-only queries whose criteria are conjunctions of numeric range/equality filters over healthy columns are then
+ * answered by looping over the primitive arrays, without touching elements or boxing attribute values. Stripes are aggregated
+ * one after the other, so the results are those of a weakly consistent scan. They are otherwise identical to the ones
+ * computed by {@link BruteForceSearchManager}, except for the summation order of double values.
+ *
+ * @author Terracotta
+ */
+final class ColumnarAttributeStore implements MemoryStore.MutationListener {
+
+    private static final int INITIAL_ROWS = 64;
+    private static final int STRIPES = 16;
+
+    private final Map<String, Column> columns = new LinkedHashMap<String, Column>();
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /**
+     * Create the columns for the user defined attributes of the given searchable configuration. The columns must then be
+     * registered for the mutations of the memory store searched.
+     *
+     * @param cache the cache
+     * @param searchable the search configuration
+     */
+    ColumnarAttributeStore(Ehcache cache, Searchable searchable) {
+        ClassLoader loader = cache.getCacheConfiguration().getClassLoader();
+        for (SearchAttribute sa : searchable.getUserDefinedSearchAttributes().values()) {
+            columns.put(sa.getName(), new Column(sa.getName(), sa.constructExtractor(loader), columns.size()));
+        }
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(columns.size());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void notifyElementPut(Element element) {
+        Stripe stripe = stripeFor(element.getObjectKey());
+        stripe.lock.writeLock().lock();
+        try {
+            Integer row = stripe.rows.get(element.getObjectKey());
+            int r = row == null ? stripe.allocateRow(element.getObjectKey()) : row;
+            for (Column column : columns.values()) {
+                column.set(stripe.data[column.index], r, element);
+            }
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void notifyElementRemoved(Element element) {
+        Stripe stripe = stripeFor(element.getObjectKey());
+        stripe.lock.writeLock().lock();
+        try {
+            stripe.freeRow(element.getObjectKey());
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Execute an aggregation-only query over the columns.
+     *
+     * @param query the query
+     * @param profiler profiler recording the execution
+     * @return the results, or null if the query can't be answered from the columns
+     */
+    Results aggregate(StoreQuery query, SearchProfiler profiler) {
+        List<AggregatorInstance<?>> aggregators = query.getAggregatorInstances();
+        if (aggregators.isEmpty() || query.requestsKeys() || query.requestsValues() || !query.requestedAttributes().isEmpty()
+            || !query.groupByAttributes().isEmpty() || !query.getOrdering().isEmpty() || query.maxResults() >= 0) {
+            return null;
+        }
+
+        List<Filter> filters = new ArrayList<Filter>();
+        if (!collectFilters(query.getCriteria(), filters)) {
+            return null;
+        }
+        List<Accumulator> accumulators = new ArrayList<Accumulator>(aggregators.size());
+        for (AggregatorInstance<?> aggregator : aggregators) {
+            Class<?> type = aggregator.getClass();
+            if (type == Count.class) {
+                accumulators.add(null);
+                continue;
+            }
+            Column column = column(aggregator.getAttribute());
+            if (type != Sum.class && type != Average.class && type != Min.class && type != Max.class || column == null) {
+                return null;
+            }
+            accumulators.add(new Accumulator(aggregator, column));
+        }
+
+        profiler.accessPath(QueryProfile.COLUMNAR_SCAN);
+        long matched = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.readLock().lock();
+            try {
+                long mark = profiler.mark();
+                BitSet selected = (BitSet) stripe.live.clone();
+                for (Filter filter : filters) {
+                    filter.apply(stripe.data[filter.column.index], selected);
+                }
+                profiler.criteria(mark);
+                profiler.scanned(stripe.live.cardinality());
+                matched += selected.cardinality();
+
+                mark = profiler.mark();
+                for (Accumulator accumulator : accumulators) {
+                    if (accumulator != null) {
+                        accumulator.accumulate(stripe.data[accumulator.column.index], selected);
+                    }
+                }
+                profiler.aggregation(mark);
+            } finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+        profiler.matched(matched);
+        if (matched == 0) {
+            return new ResultsImpl(Collections.<AggregateOnlyResult>emptyList(), false, false, false, false);
+        }
+
+        List<Object> aggregateResults = new ArrayList<Object>(aggregators.size());
+        for (Accumulator accumulator : accumulators) {
+            aggregateResults.add(accumulator == null ? Integer.valueOf((int) matched) : accumulator.result());
+        }
+        AggregateOnlyResult result = new AggregateOnlyResult(query);
+        result.setAggregateResults(aggregateResults);
+        return new ResultsImpl(Collections.singletonList(result), false, false, false, true);
+    }
+
+    private Stripe stripeFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return stripes[h & (STRIPES - 1)];
+    }
+
+    private Column column(Attribute<?> attribute) {
+        if (attribute == null) {
+            return null;
+        }
+        Column column = columns.get(attribute.getAttributeName());
+        return column == null || column.disabled ? null : column;
+    }
+
+    private boolean collectFilters(Criteria criteria, List<Filter> filters) {
+        if (criteria instanceof AlwaysMatch) {
+            return true;
+        } else if (criteria instanceof And) {
+            for (Criteria c : ((And) criteria).getCriterion()) {
+                if (!collectFilters(c, filters)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (criteria.getClass() == EqualTo.class) {
+            EqualTo eq = (EqualTo) criteria;
+            return addFilter(filters, eq.getAttributeName(), eq.getType(), eq.getValue(), true, eq.getValue(), true);
+        } else if (criteria.getClass() == GreaterThan.class) {
+            GreaterThan gt = (GreaterThan) criteria;
+            return addFilter(filters, gt.getAttributeName(), gt.getType(), gt.getComparableValue(), false, null, false);
+        } else if (criteria.getClass() == GreaterThanOrEqual.class) {
+            GreaterThanOrEqual ge = (GreaterThanOrEqual) criteria;
+            return addFilter(filters, ge.getAttributeName(), ge.getType(), ge.getComparableValue(), true, null, false);
+        } else if (criteria.getClass() == LessThan.class) {
+            LessThan lt = (LessThan) criteria;
+            return addFilter(filters, lt.getAttributeName(), lt.getType(), null, false, lt.getComparableValue(), false);
+        } else if (criteria.getClass() == LessThanOrEqual.class) {
+            LessThanOrEqual le = (LessThanOrEqual) criteria;
+            return addFilter(filters, le.getAttributeName(), le.getType(), null, false, le.getComparableValue(), true);
+        } else if (criteria.getClass() == Between.class) {
+            Between b = (Between) criteria;
+            return addFilter(filters, b.getAttributeName(), b.getType(), b.getMin(), b.isMinInclusive(), b.getMax(),
+                    b.isMaxInclusive());
+        } else {
+            return false;
+        }
+    }
+
+    private boolean addFilter(List<Filter> filters, String attributeName, AttributeType type, Object min, boolean minInclusive,
+                              Object max, boolean maxInclusive) {
+        Column column = columns.get(attributeName);
+        // type mismatches are reported by the element based evaluation
+        Kind kind = column == null ? null : column.kind.get();
+        if (column == null || column.disabled || kind == null || kind.type != type) {
+            return false;
+        }
+        filters.add(new Filter(column, kind, (Number) min, minInclusive, (Number) max, maxInclusive));
+        return true;
+    }
+
+    /**
+     * The rows of the keys of one stripe, and its slice of every column
+     */
+    private static final class Stripe {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<Object, Integer> rows = new HashMap<Object, Integer>();
+        private final BitSet live = new BitSet();
+        private final ColumnData[] data;
+        private int[] freeRows = new int[INITIAL_ROWS];
+        private int freeCount;
+        private int rowLimit;
+
+        private Stripe(int columnCount) {
+            data = new ColumnData[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                data[i] = new ColumnData();
+            }
+        }
+
+        private int allocateRow(Object key) {
+            int row;
+            if (freeCount > 0) {
+                row = freeRows[--freeCount];
+            } else {
+                row = rowLimit++;
+            }
+            rows.put(key, row);
+            live.set(row);
+            return row;
+        }
+
+        private void freeRow(Object key) {
+            Integer row = rows.remove(key);
+            if (row != null) {
+                live.clear(row);
+                for (ColumnData column : data) {
+                    column.present.clear(row);
+                }
+                if (freeCount == freeRows.length) {
+                    freeRows = Arrays.copyOf(freeRows, freeCount * 2);
+                }
+                freeRows[freeCount++] = row;
+            }
+        }
+    }
+
+    /**
+     * Supported column kinds
+     */
+    private enum Kind {
+        INT(AttributeType.INT), LONG(AttributeType.LONG), DOUBLE(AttributeType.DOUBLE);
+
+        private final AttributeType type;
+
+        private Kind(AttributeType type) {
+            this.type = type;
+        }
+
+        private static Kind of(Object value) {
+            if (value instanceof Integer) {
+                return INT;
+            } else if (value instanceof Long) {
+                return LONG;
+            } else if (value instanceof Double) {
+                return DOUBLE;
+            } else {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * A single attribute column: its kind and health are shared by all stripes, its values are held by each stripe
+     */
+    private static final class Column {
+        private final String name;
+        private final AttributeExtractor extractor;
+        private final int index;
+        private final AtomicReference<Kind> kind = new AtomicReference<Kind>();
+        private volatile boolean disabled;
+
+        private Column(String name, AttributeExtractor extractor, int index) {
+            this.name = name;
+            this.extractor = extractor;
+            this.index = index;
+        }
+
+        private void set(ColumnData data, int row, Element element) {
+            if (disabled) {
+                data.clear();
+                return;
+            }
+            Object value;
+            try {
+                value = extractor.attributeFor(element, name);
+            } catch (RuntimeException e) {
+                disabled = true;
+                data.clear();
+                return;
+            }
+            if (value == null) {
+                data.present.clear(row);
+                return;
+            }
+            Kind valueKind = Kind.of(value);
+            if (valueKind != null) {
+                kind.compareAndSet(null, valueKind);
+            }
+            if (valueKind == null || valueKind != kind.get()) {
+                disabled = true;
+                data.clear();
+                return;
+            }
+            if (valueKind == Kind.DOUBLE) {
+                data.doubles = ensureCapacity(data.doubles, row);
+                data.doubles[row] = ((Double) value).doubleValue();
+            } else {
+                data.longs = ensureCapacity(data.longs, row);
+                data.longs[row] = ((Number) value).longValue();
+            }
+            data.present.set(row);
+        }
+
+        private static long[] ensureCapacity(long[] values, int row) {
+            if (values == null) {
+                return new long[Math.max(INITIAL_ROWS, Integer.highestOneBit(row) * 2)];
+            } else if (row >= values.length) {
+                return Arrays.copyOf(values, Math.max(values.length * 2, Integer.highestOneBit(row) * 2));
+            }
+            return values;
+        }
+
+        private static double[] ensureCapacity(double[] values, int row) {
+            if (values == null) {
+                return new double[Math.max(INITIAL_ROWS, Integer.highestOneBit(row) * 2)];
+            } else if (row >= values.length) {
+                return Arrays.copyOf(values, Math.max(values.length * 2, Integer.highestOneBit(row) * 2));
+            }
+            return values;
+        }
+    }
+
+    /**
+     * The values of a column in one stripe: int and long values share the long array, presence is tracked in a null bitmap
+     */
+    private static final class ColumnData {
+        private final BitSet present = new BitSet();
+        private long[] longs;
+        private double[] doubles;
+
+        private void clear() {
+            longs = null;
+            doubles = null;
+            present.clear();
+        }
+    }
+
+    /**
+     * The running result of a sum, average, min or max over the stripes of a column
+     */
+    private static final class Accumulator {
+        private final AggregatorInstance<?> aggregator;
+        private final Column column;
+        private final Kind kind;
+        private final boolean min;
+        private long count;
+        private long longSum;
+        private double doubleSum;
+        private long longBest;
+        private double doubleBest;
+
+        private Accumulator(AggregatorInstance<?> aggregator, Column column) {
+            this.aggregator = aggregator;
+            this.column = column;
+            this.kind = column.kind.get();
+            this.min = aggregator instanceof Min;
+            this.longBest = min ? Long.MAX_VALUE : Long.MIN_VALUE;
+        }
+
+        private void accumulate(ColumnData data, BitSet selected) {
+            if (kind == null) {
+                return;
+            }
+            BitSet values = (BitSet) selected.clone();
+            values.and(data.present);
+            if (values.isEmpty()) {
+                return;
+            }
+            if (kind == Kind.DOUBLE) {
+                accumulateDoubles(data.doubles, values);
+            } else {
+                accumulateLongs(data.longs, values);
+            }
+        }
+
+        private void accumulateLongs(long[] column, BitSet values) {
+            for (int i = values.nextSetBit(0); i >= 0; i = values.nextSetBit(i + 1)) {
+                long v = column[i];
+                longSum += v;
+                if (min ? v < longBest : v > longBest) {
+                    longBest = v;
+                }
+                count++;
+            }
+        }
+
+        private void accumulateDoubles(double[] column, BitSet values) {
+            for (int i = values.nextSetBit(0); i >= 0; i = values.nextSetBit(i + 1)) {
+                double v = column[i];
+                doubleSum += v;
+                // Double.compare mirrors the Comparable ordering used by the element based aggregators
+                int cmp = Double.compare(v, doubleBest);
+                if (count == 0 || (min ? cmp < 0 : cmp > 0)) {
+                    doubleBest = v;
+                }
+                count++;
+            }
+        }
+
+        private Object result() {
+            if (count == 0) {
+                return null;
+            }
+            if (kind == Kind.DOUBLE) {
+                if (aggregator instanceof Sum) {
+                    return doubleSum;
+                } else if (aggregator instanceof Average) {
+                    return doubleSum / count;
+                }
+                return doubleBest;
+            }
+            if (aggregator instanceof Sum) {
+                return longSum;
+            } else if (aggregator instanceof Average) {
+                return kind == Kind.INT ? (Object) (((float) longSum) / count) : (Object) (((double) longSum) / count);
+            } else if (kind == Kind.INT) {
+                return Integer.valueOf((int) longBest);
+            } else {
+                return Long.valueOf(longBest);
+            }
+        }
+    }
+
+    /**
+     * A numeric range (or equality) filter over a single column
+     */
+    private static final class Filter {
+        private final Column column;
+        private final Kind kind;
+        private final Number min;
+        private final boolean minInclusive;
+        private final Number max;
+        private final boolean maxInclusive;
+
+        private Filter(Column column, Kind kind, Number min, boolean minInclusive, Number max, boolean maxInclusive) {
+            this.column = column;
+            this.kind = kind;
+            this.min = min;
+            this.minInclusive = minInclusive;
+            this.max = max;
+            this.maxInclusive = maxInclusive;
+        }
+
+        private void apply(ColumnData data, BitSet selected) {
+            selected.and(data.present);
+            if (selected.isEmpty()) {
+                return;
+            } else if (kind == Kind.DOUBLE) {
+                applyDoubles(data.doubles, selected);
+            } else {
+                applyLongs(data.longs, selected);
+            }
+        }
+
+        private void applyLongs(long[] values, BitSet selected) {
+            long lo = min == null ? Long.MIN_VALUE : min.longValue();
+            long hi = max == null ? Long.MAX_VALUE : max.longValue();
+            boolean loExclusive = min != null && !minInclusive;
+            boolean hiExclusive = max != null && !maxInclusive;
+            for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+                long v = values[i];
+                if (v < lo || v > hi || (loExclusive && v == lo) || (hiExclusive && v == hi)) {
+                    selected.clear(i);
+                }
+            }
+        }
+
+        private void applyDoubles(double[] values, BitSet selected) {
+            for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+                double v = values[i];
+                if (min != null) {
+                    int cmp = Double.compare(v, min.doubleValue());
+                    if (cmp < 0 || (cmp == 0 && !minInclusive)) {
+                        selected.clear(i);
+                        continue;
+                    }
+                }
+                if (max != null) {
+                    int cmp = Double.compare(v, max.doubleValue());
+                    if (cmp > 0 || (cmp == 0 && !maxInclusive)) {
+                        selected.clear(i);
+                    }
+                }
+            }
+        }
+    }
+}
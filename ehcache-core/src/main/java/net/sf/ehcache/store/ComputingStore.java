@@ -0,0 +1,42 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.store;
+
+import net.sf.ehcache.Element;
+import net.sf.ehcache.ElementRemapper;
+
+/**
+ * A store able to compute the element of a key while holding the lock it takes to write that key, so that no other
+ * write to the key can interleave with the computation.
+ *
+ * @author Terracotta
+ */
+public interface ComputingStore extends Store {
+
+    /**
+     * Computes the element of a key.
+     * <p/>
+     * The remapper is called exactly once, with the element currently stored for the key, even if it has expired, or
+     * null. The element it returns is then put, unless it is the element it was given, and returning null removes the
+     * key. Puts and removes go through the regular paths of the store, with their statistics and ordered events.
+     *
+     * @param key the key
+     * @param remapper computes the new element of the key
+     * @return the element stored for the key before the computation, or null
+     */
+    Element compute(Object key, ElementRemapper remapper);
+}
@@ -0,0 +1,100 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.store;
+
+import java.util.NoSuchElementException;
+
+import net.sf.ehcache.Element;
+import net.sf.ehcache.SplittableIterator;
+
+/**
+ * A splittable iterator returning the elements of another one as mapped by a {@link Mapping}, the iterators it
+ * splits off mapping theirs the same way.
+ *
+ * @author Terracotta
+ */
+public final class MappingIterator implements SplittableIterator<Element> {
+
+    private final SplittableIterator<Element> delegate;
+    private final Mapping mapping;
+    private Element next;
+
+    /**
+     * Creates an iterator mapping the elements of another one
+     *
+     * @param delegate the iterator whose elements are mapped
+     * @param mapping the mapping
+     */
+    public MappingIterator(SplittableIterator<Element> delegate, Mapping mapping) {
+        this.delegate = delegate;
+        this.mapping = mapping;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasNext() {
+        while (next == null) {
+            if (!delegate.hasNext()) {
+                return false;
+            }
+            next = mapping.map(delegate.next());
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Element next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Element element = next;
+        next = null;
+        return element;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove() {
+        throw new UnsupportedOperationException("remove is not supported");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public SplittableIterator<Element> trySplit() {
+        SplittableIterator<Element> split = delegate.trySplit();
+        return split == null ? null : new MappingIterator(split, mapping);
+    }
+
+    /**
+     * Maps the elements of a {@link MappingIterator}
+     */
+    public interface Mapping {
+
+        /**
+         * Maps an element
+         *
+         * @param element the element
+         * @return the element to return in its place, or null to skip it
+         */
+        Element map(Element element);
+    }
+}
@@ -21,6 +21,8 @@ import net.sf.ehcache.CacheException;
 import net.sf.ehcache.CacheOperationOutcomes.EvictionOutcome;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
+import net.sf.ehcache.ElementRemapper;
+import net.sf.ehcache.SplittableIterator;
 import net.sf.ehcache.Status;
 import net.sf.ehcache.concurrent.CacheLockProvider;
 import net.sf.ehcache.concurrent.ReadWriteLockSync;
@@ -40,6 +42,7 @@ import net.sf.ehcache.pool.impl.UnboundedPool;
 import net.sf.ehcache.search.Attribute;
 import net.sf.ehcache.search.attribute.AttributeExtractor;
 import net.sf.ehcache.search.impl.SearchManager;
+import net.sf.ehcache.statistics.SampledOperationObserver;
 import net.sf.ehcache.store.StoreOperationOutcomes.GetOutcome;
 import net.sf.ehcache.store.StoreOperationOutcomes.PutOutcome;
 import net.sf.ehcache.store.StoreOperationOutcomes.RemoveOutcome;
@@ -51,7 +54,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.terracotta.statistics.OperationStatistic;
 import org.terracotta.statistics.Statistic;
-import org.terracotta.statistics.StatisticsManager;
 import org.terracotta.statistics.derived.EventRateSimpleMovingAverage;
 import org.terracotta.statistics.derived.OperationResultFilter;
 import org.terracotta.statistics.observer.OperationObserver;
@@ -59,10 +61,12 @@ import org.terracotta.statistics.observer.OperationObserver;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -77,7 +81,7 @@ import static net.sf.ehcache.statistics.StatisticBuilder.operation;
  * @version $Id$
  * @version $Id$
  */
-public class MemoryStore extends AbstractStore implements CacheConfigurationListener, Store {
+public class MemoryStore extends AbstractStore implements CacheConfigurationListener, ComputingStore, StreamingStore {
 
     /**
      * This is the default from {@link java.util.concurrent.ConcurrentHashMap}. It should never be used, because we size
@@ -110,9 +114,9 @@ public class MemoryStore extends AbstractStore implements CacheConfigurationList
     private final SelectableConcurrentHashMap map;
     private final PoolAccessor poolAccessor;
 
-    private final OperationObserver<GetOutcome> getObserver = operation(GetOutcome.class).named("get").of(this).tag("local-heap").build();
-    private final OperationObserver<PutOutcome> putObserver = operation(PutOutcome.class).named("put").of(this).tag("local-heap").build();
-    private final OperationObserver<RemoveOutcome> removeObserver = operation(RemoveOutcome.class).named("remove").of(this).tag("local-heap").build();
+    private final OperationObserver<GetOutcome> getObserver = operation(GetOutcome.class).named("get").of(this).tag("local-heap").fused().build();
+    private final OperationObserver<PutOutcome> putObserver = operation(PutOutcome.class).named("put").of(this).tag("local-heap").fused().build();
+    private final OperationObserver<RemoveOutcome> removeObserver = operation(RemoveOutcome.class).named("remove").of(this).tag("local-heap").fused().build();
 
     private final boolean storePinned;
 
@@ -278,6 +282,56 @@ public class MemoryStore extends AbstractStore implements CacheConfigurationList
         }
     }
 
+    /**
+     * Puts a batch of elements in the store.
+     * <p/>
+     * The elements are sized before any lock is taken and the pool space of the whole batch is reserved at once,
+     * then each segment of the map is locked once for all the elements it receives. Should the pool be unable to
+     * make room for the whole batch, the elements are put one by one.
+     *
+     * @param elements the elements to add
+     */
+    @Override
+    public void putAll(Collection<Element> elements) throws CacheException {
+        List<Element> batch = new ArrayList<Element>(elements.size());
+        for (Element element : elements) {
+            if (element != null) {
+                batch.add(element);
+            }
+        }
+        int size = batch.size();
+        Object[] keys = new Object[size];
+        Object[] values = new Object[size];
+        Object[] containers = new Object[size];
+        Element[] puts = new Element[size];
+        for (int i = 0; i < size; i++) {
+            Element element = batch.get(i);
+            keys[i] = element.getObjectKey();
+            values[i] = element.getObjectValue();
+            containers[i] = map.storedObject(element);
+            puts[i] = element;
+        }
+
+        long[] sizes = new long[size];
+        if (poolAccessor.addAll(keys, values, containers, sizes, storePinned) < 0) {
+            for (Element element : puts) {
+                put(element);
+            }
+            return;
+        }
+        if (searchManager != null) {
+            for (Element element : puts) {
+                searchManager.put(cache.getName(), -1, element, null, attributeExtractors, cache.getCacheConfiguration().getDynamicExtractor());
+            }
+        }
+        Element[] oldValues = map.putAll(keys, puts, sizes);
+        for (Element old : oldValues) {
+            putObserver.begin();
+            putObserver.end(old == null ? PutOutcome.ADDED : PutOutcome.UPDATED);
+        }
+        checkCapacity(puts);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -344,6 +398,43 @@ public class MemoryStore extends AbstractStore implements CacheConfigurationList
         return map.get(key);
     }
 
+    /**
+     * Gets a batch of elements, locking each segment of the map once for all the keys it holds.
+     *
+     * @param keys the keys of the elements
+     * @return a map of the keys to their element, or to null when there is no match for the key
+     */
+    @Override
+    public Map<Object, Element> getAll(Collection<?> keys) {
+        Map<Object, Element> elements = getAllQuiet(keys);
+        for (Element element : elements.values()) {
+            getObserver.begin();
+            getObserver.end(element == null ? GetOutcome.MISS : GetOutcome.HIT);
+        }
+        return elements;
+    }
+
+    /**
+     * Gets a batch of elements without updating statistics, locking each segment of the map once for all the keys
+     * it holds.
+     *
+     * @param keys the keys of the elements
+     * @return a map of the keys to their element, or to null when there is no match for the key
+     */
+    @Override
+    public Map<Object, Element> getAllQuiet(Collection<?> keys) {
+        Object[] batch = nonNullKeys(keys);
+        Element[] values = map.getAll(batch);
+        Map<Object, Element> elements = new HashMap<Object, Element>();
+        for (int i = 0; i < batch.length; i++) {
+            elements.put(batch[i], values[i]);
+        }
+        if (batch.length < keys.size()) {
+            elements.put(null, null);
+        }
+        return elements;
+    }
+
     /**
      * Removes an Element from the store.
      *
@@ -362,6 +453,46 @@ public class MemoryStore extends AbstractStore implements CacheConfigurationList
         }
     }
 
+    /**
+     * Removes a batch of elements, locking each segment of the map once for all the keys it holds.
+     *
+     * @param keys the keys of the elements
+     */
+    @Override
+    public void removeAll(Collection<?> keys) {
+        Object[] batch = nonNullKeys(keys);
+        map.removeAll(batch);
+        for (int i = 0; i < batch.length; i++) {
+            removeObserver.begin();
+            removeObserver.end(RemoveOutcome.SUCCESS);
+        }
+    }
+
+    private static Object[] nonNullKeys(Collection<?> keys) {
+        List<Object> nonNullKeys = new ArrayList<Object>(keys.size());
+        for (Object key : keys) {
+            if (key != null) {
+                nonNullKeys.add(key);
+            }
+        }
+        return nonNullKeys.toArray();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The computation runs under the write lock of the segment of the key.
+     */
+    public Element compute(Object key, ElementRemapper remapper) {
+        final ReentrantReadWriteLock.WriteLock writeLock = map.lockFor(key).writeLock();
+        writeLock.lock();
+        try {
+            return applyRemapper(this, key, remapper);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -481,6 +612,13 @@ public class MemoryStore extends AbstractStore implements CacheConfigurationList
         return new ArrayList<Object>(map.keySet());
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public SplittableIterator<Element> entryIterator() {
+        return map.valueIterator();
+    }
+
     /**
      * Returns the keySet for this store
      * @return keySet
@@ -576,6 +714,20 @@ public class MemoryStore extends AbstractStore implements CacheConfigurationList
         }
     }
 
+    /**
+     * If the store is over capacity after a batch of puts, evict elements until capacity is reached
+     *
+     * @param elementsJustAdded the elements added by the batch
+     */
+    private void checkCapacity(final Element[] elementsJustAdded) {
+        if (maximumSize > 0 && !isClockEviction() && elementsJustAdded.length > 0) {
+            int evict = Math.min(map.quickSize() - maximumSize, MAX_EVICTION_RATIO * elementsJustAdded.length);
+            for (int i = 0; i < evict; i++) {
+                removeElementChosenByEvictionPolicy(elementsJustAdded[i % elementsJustAdded.length]);
+            }
+        }
+    }
+
     /**
      * Removes the element chosen by the eviction policy
      *
@@ -1043,7 +1195,7 @@ public class MemoryStore extends AbstractStore implements CacheConfigurationList
         private final EventRateSimpleMovingAverage missRate = new EventRateSimpleMovingAverage(1, TimeUnit.SECONDS);
 
         private Participant() {
-            OperationStatistic<GetOutcome> getStatistic = StatisticsManager.getOperationStatisticFor(getObserver);
+            OperationStatistic<GetOutcome> getStatistic = SampledOperationObserver.operationStatisticFor(getObserver);
             getStatistic.addDerivedStatistic(new OperationResultFilter<GetOutcome>(EnumSet.of(GetOutcome.HIT), hitRate));
             getStatistic.addDerivedStatistic(new OperationResultFilter<GetOutcome>(EnumSet.of(GetOutcome.MISS), missRate));
         }
@@ -1119,15 +1271,91 @@ public class MemoryStore extends AbstractStore implements CacheConfigurationList
         @Override
         public SelectableConcurrentHashMap newBackingMap(PoolAccessor poolAccessor, int concurrency,
                 int maximumCapacity, RegisteredEventListeners eventListener) {
-            return new SelectableConcurrentHashMap(poolAccessor, concurrency, maximumCapacity, eventListener);
+            return new MutationNotifyingMap(poolAccessor, concurrency, maximumCapacity, eventListener);
         }
 
         @Override
         public SelectableConcurrentHashMap newBackingMap(PoolAccessor poolAccessor, int initialCapacity,
                 float loadFactor, int concurrency, int maximumCapacity, RegisteredEventListeners eventListener) {
-            return new SelectableConcurrentHashMap(poolAccessor, initialCapacity,
+            return new MutationNotifyingMap(poolAccessor, initialCapacity,
                     loadFactor, concurrency, maximumCapacity, eventListener);
         }
     }
+
+    /**
+     * Registers a listener for the changes made to the elements of this store.
+     *
+     * @param listener the listener
+     * @return false if the backing map of this store does not notify listeners
+     */
+    boolean addMutationListener(MutationListener listener) {
+        if (map instanceof MutationNotifyingMap) {
+            ((MutationNotifyingMap) map).listeners.add(listener);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Hears of the changes made to the elements of a store, in the order they are made on each key: it is called while the
+     * key is still locked, so the change does not complete until it returns.
+     */
+    interface MutationListener {
+
+        /**
+         * Called once an element is put, be it a new mapping or a replacement.
+         *
+         * @param element the element put
+         */
+        void notifyElementPut(Element element);
+
+        /**
+         * Called once an element is removed or replaced, be it explicitly, on eviction or on expiry.
+         *
+         * @param element the element removed or replaced
+         */
+        void notifyElementRemoved(Element element);
+    }
+
+    /**
+     * Backing map notifying the mutation listeners of its store.
+     */
+    private static final class MutationNotifyingMap extends SelectableConcurrentHashMap {
+
+        private final List<MutationListener> listeners = new CopyOnWriteArrayList<MutationListener>();
+
+        MutationNotifyingMap(PoolAccessor poolAccessor, int concurrency, int maximumCapacity,
+                             RegisteredEventListeners eventListener) {
+            super(poolAccessor, concurrency, maximumCapacity, eventListener);
+        }
+
+        MutationNotifyingMap(PoolAccessor poolAccessor, int initialCapacity, float loadFactor, int concurrency,
+                             int maximumCapacity, RegisteredEventListeners eventListener) {
+            super(poolAccessor, initialCapacity, loadFactor, concurrency, maximumCapacity, eventListener);
+        }
+
+        @Override
+        protected void postReplaceLocked(Element oldValue, Element newValue) {
+            if (listeners.isEmpty()) {
+                return;
+            }
+            for (MutationListener listener : listeners) {
+                if (oldValue != null) {
+                    listener.notifyElementRemoved(oldValue);
+                }
+                listener.notifyElementPut(newValue);
+            }
+        }
+
+        @Override
+        protected void postRemoveLocked(Element oldValue) {
+            if (listeners.isEmpty()) {
+                return;
+            }
+            for (MutationListener listener : listeners) {
+                listener.notifyElementRemoved(oldValue);
+            }
+        }
+    }
 }
 
@@ -52,6 +52,15 @@ class MemoryStoreBruteForceSource implements BruteForceSource {
         return searchable;
     }
 
+    /**
+     * Gets the {@link MemoryStore} searched
+     *
+     * @return the memory store
+     */
+    MemoryStore getMemoryStore() {
+        return memoryStore;
+    }
+
     @Override
     public Element transformForIndexing(Element element) {
         return element;
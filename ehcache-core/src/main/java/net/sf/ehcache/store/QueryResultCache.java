@@ -0,0 +1,439 @@
+/**
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.ehcache.store;
+
+import static net.sf.ehcache.statistics.StatisticBuilder.operation;
+
+import net.sf.ehcache.CacheOperationOutcomes.SearchResultCacheOutcome;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.search.ExecutionHints;
+import net.sf.ehcache.search.Results;
+import net.sf.ehcache.search.SearchException;
+import net.sf.ehcache.search.attribute.AttributeExtractor;
+import net.sf.ehcache.search.attribute.DynamicAttributesExtractor;
+import net.sf.ehcache.search.expression.And;
+import net.sf.ehcache.search.expression.Between;
+import net.sf.ehcache.search.expression.Criteria;
+import net.sf.ehcache.search.expression.EqualTo;
+import net.sf.ehcache.search.expression.GreaterThan;
+import net.sf.ehcache.search.expression.GreaterThanOrEqual;
+import net.sf.ehcache.search.expression.ILike;
+import net.sf.ehcache.search.expression.InCollection;
+import net.sf.ehcache.search.expression.IsNull;
+import net.sf.ehcache.search.expression.LessThan;
+import net.sf.ehcache.search.expression.LessThanOrEqual;
+import net.sf.ehcache.search.expression.NotEqualTo;
+import net.sf.ehcache.search.expression.NotILike;
+import net.sf.ehcache.search.expression.NotNull;
+import net.sf.ehcache.search.expression.Or;
+import net.sf.ehcache.search.impl.BaseQueryInterpreter;
+
+import org.terracotta.statistics.StatisticsManager;
+import org.terracotta.statistics.observer.OperationObserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of materialized query results sitting in front of a {@link BruteForceSearchManager}.
+ * <p>
+ * Queries are keyed on their normalised form (criteria, requested keys/values/attributes, ordering, grouping, aggregators and
+ * max results). The cache listens to the mutations of the underlying {@link MemoryStore}: every element put or removed is
+ * evaluated against the criteria of the cached (and in-flight) queries, which only reads the attributes those criteria
+ * reference. Any query whose criteria match the element, before or after the mutation, is discarded.
+ * <p>
+ * Mutations are heard while the key is locked in the store, so invalidation takes no lock of its own: entries are held in a
+ * concurrent map and marked stale before being removed from it. A query computed while a matching mutation happened is marked
+ * stale while in flight, and is not retained, or removed again if it was published before the mark was seen. Least recently
+ * used order is approximated by a use tick, and only consulted when a new entry overflows the cache.
+ *
+ * @author Terracotta
+ */
+final class QueryResultCache implements MemoryStore.MutationListener {
+
+    private final OperationObserver<SearchResultCacheOutcome> resultCacheObserver = operation(SearchResultCacheOutcome.class)
+            .named("search-result-cache").of(this).tag("cache").build();
+
+    private final BruteForceSearchManager searchManager;
+    private final int maxEntries;
+    private final ConcurrentMap<List<Object>, Entry> entries = new ConcurrentHashMap<List<Object>, Entry>();
+    private final Set<Entry> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<Entry, Boolean>());
+    private final AtomicLong useTick = new AtomicLong();
+
+    /**
+     * Create a result cache for the given cache. The cache must then be registered for the mutations of the memory store
+     * searched.
+     *
+     * @param cache the cache searched
+     * @param searchManager the search manager computing results on a miss
+     * @param maxEntries maximum number of distinct queries retained
+     */
+    QueryResultCache(Ehcache cache, BruteForceSearchManager searchManager, int maxEntries) {
+        this.searchManager = searchManager;
+        this.maxEntries = maxEntries;
+        StatisticsManager.associate(this).withParent(cache);
+    }
+
+    /**
+     * Execute the query, answering from the cache when an identical query has been executed since the last conflicting mutation.
+     *
+     * @param query query to execute
+     * @param extractors configured attribute extractors
+     * @param dynIndexer dynamic attribute extractor (if any)
+     * @param profiler profiler recording the execution
+     * @return the query results
+     */
+    Results executeQuery(StoreQuery query, Map<String, AttributeExtractor> extractors, DynamicAttributesExtractor dynIndexer,
+                         SearchProfiler profiler) {
+        List<Object> key = normalise(query);
+        if (key == null) {
+            return searchManager.executeMaterializedQuery(query, extractors, dynIndexer, profiler);
+        }
+
+        Entry cached = entries.get(key);
+        if (cached != null && !cached.stale && cached.dynIndexer == dynIndexer) {
+            cached.lastUsed = useTick.incrementAndGet();
+            resultCacheObserver.begin();
+            resultCacheObserver.end(SearchResultCacheOutcome.HIT);
+            return cached.results;
+        }
+
+        Entry pending = new Entry(query.getCriteria(), extractors, dynIndexer);
+        inFlight.add(pending);
+        resultCacheObserver.begin();
+        resultCacheObserver.end(SearchResultCacheOutcome.MISS);
+        Results results = null;
+        try {
+            results = searchManager.executeMaterializedQuery(query, extractors, dynIndexer, profiler);
+            return results;
+        } finally {
+            if (results != null && !pending.stale) {
+                pending.results = results;
+                pending.lastUsed = useTick.incrementAndGet();
+                entries.put(key, pending);
+                // an invalidation that marked the entry while in flight may have scanned the entries before it was published
+                if (pending.stale) {
+                    entries.remove(key, pending);
+                } else {
+                    evictOverflow();
+                }
+            }
+            inFlight.remove(pending);
+        }
+    }
+
+    /**
+     * Drop all cached results, e.g. when the set of search attributes changes.
+     */
+    void clear() {
+        for (Entry entry : inFlight) {
+            entry.stale = true;
+        }
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+            it.next().stale = true;
+            it.remove();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void notifyElementRemoved(Element element) {
+        invalidate(element);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void notifyElementPut(Element element) {
+        invalidate(element);
+    }
+
+    private void invalidate(Element element) {
+        if (element == null || inFlight.isEmpty() && entries.isEmpty()) {
+            return;
+        }
+        // in flight entries first: one published in between is then found in the entries
+        for (Entry entry : inFlight) {
+            if (!entry.stale && entry.matches(element)) {
+                entry.stale = true;
+                resultCacheObserver.begin();
+                resultCacheObserver.end(SearchResultCacheOutcome.INVALIDATION);
+            }
+        }
+        for (Map.Entry<List<Object>, Entry> mapping : entries.entrySet()) {
+            Entry entry = mapping.getValue();
+            if (entry.matches(element)) {
+                entry.stale = true;
+                if (entries.remove(mapping.getKey(), entry)) {
+                    resultCacheObserver.begin();
+                    resultCacheObserver.end(SearchResultCacheOutcome.INVALIDATION);
+                }
+            }
+        }
+    }
+
+    private void evictOverflow() {
+        while (entries.size() > maxEntries) {
+            Map.Entry<List<Object>, Entry> eldest = null;
+            for (Map.Entry<List<Object>, Entry> mapping : entries.entrySet()) {
+                if (eldest == null || mapping.getValue().lastUsed < eldest.getValue().lastUsed) {
+                    eldest = mapping;
+                }
+            }
+            if (eldest == null) {
+                return;
+            }
+            entries.remove(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    /**
+     * Compute the normalised cache key of a query
+     *
+     * @param query the query
+     * @return the key, or null if this query cannot be cached
+     */
+    static List<Object> normalise(StoreQuery query) {
+        ExecutionHints hints = query.getExecutionHints();
+        if (hints != null && hints.isStreamingResults()) {
+            return null;
+        }
+        QueryKeyBuilder builder = new QueryKeyBuilder();
+        try {
+            builder.process(query);
+        } catch (SearchException e) {
+            // custom criteria can't be normalised
+            return null;
+        }
+        return builder.tokens;
+    }
+
+    /**
+     * A cached, or currently computed, query result
+     */
+    private static final class Entry {
+        private final Criteria criteria;
+        private final Map<String, AttributeExtractor> extractors;
+        private final DynamicAttributesExtractor dynIndexer;
+        private volatile Results results;
+        private volatile boolean stale;
+        private volatile long lastUsed;
+
+        private Entry(Criteria criteria, Map<String, AttributeExtractor> extractors, DynamicAttributesExtractor dynIndexer) {
+            this.criteria = criteria;
+            this.extractors = extractors;
+            this.dynIndexer = dynIndexer;
+        }
+
+        private boolean matches(Element element) {
+            try {
+                return criteria.execute(element, BruteForceSearchManager.getCombinedExtractors(extractors, dynIndexer, element));
+            } catch (RuntimeException e) {
+                // can't tell whether this element belongs to the results, so assume it does
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Flattens a query into a token list with value semantics. The operands of commutative expressions (and, or, in) are put in
+     * a canonical order so that equivalent queries built in a different order share the same key.
+     */
+    private static final class QueryKeyBuilder extends BaseQueryInterpreter {
+
+        private static final Comparator<List<Object>> CANONICAL_ORDER = new Comparator<List<Object>>() {
+            @Override
+            public int compare(List<Object> o1, List<Object> o2) {
+                return o1.toString().compareTo(o2.toString());
+            }
+        };
+
+        private List<Object> tokens = new ArrayList<Object>();
+
+        @Override
+        protected void maxResults(int maxResults) {
+            add("maxResults", maxResults);
+        }
+
+        @Override
+        protected void includeKeys(boolean include) {
+            add("keys", include);
+        }
+
+        @Override
+        protected void includeValues(boolean include) {
+            add("values", include);
+        }
+
+        @Override
+        protected void max(String name) {
+            add("max", name);
+        }
+
+        @Override
+        protected void min(String name) {
+            add("min", name);
+        }
+
+        @Override
+        protected void sum(String name) {
+            add("sum", name);
+        }
+
+        @Override
+        protected void average(String name) {
+            add("average", name);
+        }
+
+        @Override
+        protected void count() {
+            add("count");
+        }
+
+        @Override
+        protected void attribute(String name) {
+            add("attribute", name);
+        }
+
+        @Override
+        protected void attributeAscending(String name) {
+            add("ascending", name);
+        }
+
+        @Override
+        protected void attributeDescending(String name) {
+            add("descending", name);
+        }
+
+        @Override
+        protected void groupBy(String name) {
+            add("groupBy", name);
+        }
+
+        @Override
+        protected void ilike(ILike criteria) {
+            add("ilike", criteria.getAttributeName(), criteria.getRegex());
+        }
+
+        @Override
+        protected void isNull(IsNull criteria) {
+            add("isNull", criteria.getAttributeName());
+        }
+
+        @Override
+        protected void notNull(NotNull criteria) {
+            add("notNull", criteria.getAttributeName());
+        }
+
+        @Override
+        protected void all() {
+            add("all");
+        }
+
+        @Override
+        protected void and(And criteria) {
+            junction("and", criteria.getCriterion());
+        }
+
+        @Override
+        protected void or(Or criteria) {
+            junction("or", criteria.getCriterion());
+        }
+
+        @Override
+        protected void in(InCollection criteria) {
+            add("in", criteria.getAttributeName(), new HashSet<Object>(criteria.values()));
+        }
+
+        @Override
+        protected void equalTo(EqualTo criteria) {
+            add("equalTo", criteria.getAttributeName(), criteria.getValue());
+        }
+
+        @Override
+        protected void notIlike(NotILike criteria) {
+            add("notIlike", criteria.getAttributeName(), criteria.getRegex());
+        }
+
+        @Override
+        protected void greaterThan(GreaterThan criteria) {
+            add("greaterThan", criteria.getAttributeName(), criteria.getComparableValue());
+        }
+
+        @Override
+        protected void greaterThanEqual(GreaterThanOrEqual criteria) {
+            add("greaterThanEqual", criteria.getAttributeName(), criteria.getComparableValue());
+        }
+
+        @Override
+        protected void between(Between criteria) {
+            add("between", criteria.getAttributeName(), criteria.getMin(), criteria.getMax(), criteria.isMinInclusive(),
+                    criteria.isMaxInclusive());
+        }
+
+        @Override
+        protected void notEqualTerm(NotEqualTo term) {
+            add("notEqualTo", term.getAttributeName(), term.getValue());
+        }
+
+        @Override
+        protected void lessThanEqual(LessThanOrEqual lte) {
+            add("lessThanEqual", lte.getAttributeName(), lte.getComparableValue());
+        }
+
+        @Override
+        protected void lessThan(LessThan lt) {
+            add("lessThan", lt.getAttributeName(), lt.getComparableValue());
+        }
+
+        @Override
+        protected void setHints(ExecutionHints hints) {
+            // hints don't change the results
+        }
+
+        private void junction(String type, Criteria[] criterion) {
+            List<List<Object>> operands = new ArrayList<List<Object>>(criterion.length);
+            List<Object> outer = tokens;
+            for (Criteria c : criterion) {
+                tokens = new ArrayList<Object>();
+                processCriteria(c);
+                operands.add(tokens);
+            }
+            tokens = outer;
+            Collections.sort(operands, CANONICAL_ORDER);
+            add(type, operands);
+        }
+
+        private void add(Object... token) {
+            tokens.add(Arrays.asList(token));
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ * Copyright Terracotta, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.ehcache.store;
+
+import net.sf.ehcache.search.QueryProfile;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+/**
+ * Collects the execution profile of a single query.
+ * <p>
+ * Element counts are always collected, since they feed the search statistics. Phase timings and allocation tracking are only
+ * collected for detailed profiles: when disabled {@link #mark()} returns 0 and the phase recording methods are no-ops.
+ *
+ * @author Terracotta
+ */
+final class SearchProfiler {
+
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+    private static final Method THREAD_ALLOCATED_BYTES = allocatedBytesMethod();
+
+    private final boolean detailed;
+    private final long start;
+    private final long startAllocated;
+    private String accessPath = QueryProfile.FULL_SCAN;
+    private long scanned;
+    private long matched;
+    private long extractionNanos;
+    private long criteriaNanos;
+    private long sortNanos;
+    private long aggregationNanos;
+    private long totalNanos = -1;
+
+    /**
+     * Create a profiler for a query starting now
+     *
+     * @param detailed true to collect phase timings and allocations
+     */
+    SearchProfiler(boolean detailed) {
+        this.detailed = detailed;
+        this.startAllocated = detailed ? allocatedBytes() : -1;
+        this.start = System.nanoTime();
+    }
+
+    /**
+     * @return true if phase timings are collected
+     */
+    boolean isDetailed() {
+        return detailed;
+    }
+
+    /**
+     * @return a timestamp to pass to the phase recording methods, 0 if phase timings aren't collected
+     */
+    long mark() {
+        return detailed ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record time spent extracting attributes since the given mark
+     *
+     * @param since the mark
+     */
+    void extraction(long since) {
+        if (detailed) {
+            extractionNanos += System.nanoTime() - since;
+        }
+    }
+
+    /**
+     * Record time spent evaluating criteria since the given mark
+     *
+     * @param since the mark
+     */
+    void criteria(long since) {
+        if (detailed) {
+            criteriaNanos += System.nanoTime() - since;
+        }
+    }
+
+    /**
+     * Record time spent sorting since the given mark
+     *
+     * @param since the mark
+     */
+    void sort(long since) {
+        if (detailed) {
+            sortNanos += System.nanoTime() - since;
+        }
+    }
+
+    /**
+     * Record time spent aggregating since the given mark
+     *
+     * @param since the mark
+     */
+    void aggregation(long since) {
+        if (detailed) {
+            aggregationNanos += System.nanoTime() - since;
+        }
+    }
+
+    /**
+     * Record the access path used to evaluate the query
+     *
+     * @param path the access path
+     */
+    void accessPath(String path) {
+        this.accessPath = path;
+    }
+
+    /**
+     * Record visited elements
+     *
+     * @param count number of elements
+     */
+    void scanned(long count) {
+        scanned += count;
+    }
+
+    /**
+     * Record matching elements
+     *
+     * @param count number of elements
+     */
+    void matched(long count) {
+        matched += count;
+    }
+
+    /**
+     * @return number of elements visited
+     */
+    long getScanned() {
+        return scanned;
+    }
+
+    /**
+     * @return number of matching elements
+     */
+    long getMatched() {
+        return matched;
+    }
+
+    /**
+     * Stop the clock
+     *
+     * @return the query execution time in nanoseconds
+     */
+    long finish() {
+        if (totalNanos < 0) {
+            totalNanos = System.nanoTime() - start;
+        }
+        return totalNanos;
+    }
+
+    /**
+     * @return the query profile
+     */
+    QueryProfile toProfile() {
+        long allocated = startAllocated < 0 ? -1 : allocatedBytes() - startAllocated;
+        return new QueryProfile(accessPath, scanned, matched, extractionNanos, criteriaNanos, sortNanos, aggregationNanos, finish(),
+                allocated);
+    }
+
+    private static long allocatedBytes() {
+        if (THREAD_ALLOCATED_BYTES == null) {
+            return -1;
+        }
+        try {
+            return (Long) THREAD_ALLOCATED_BYTES.invoke(THREAD_MX_BEAN, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private static Method allocatedBytesMethod() {
+        // com.sun.management.ThreadMXBean is not available on every JVM
+        try {
+            Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+            return type.isInstance(THREAD_MX_BEAN) ? type.getMethod("getThreadAllocatedBytes", long.class) : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.store;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import net.sf.ehcache.SplittableIterator;
+
+/**
+ * A splittable iterator walking a range of segments one after the other, splits handing over whole segments not
+ * walked yet.
+ * <p/>
+ * Segment iterators may return null for entries that vanished while walking them, such nulls are skipped.
+ *
+ * @param <E> the type of the elements
+ * @author Terracotta
+ */
+public abstract class SegmentedIterator<E> implements SplittableIterator<E> {
+
+    private int nextSegment;
+    private int endSegment;
+    private Iterator<E> current;
+    private E next;
+
+    /**
+     * Creates an iterator over a range of segments
+     *
+     * @param fromSegment the first segment, inclusive
+     * @param toSegment the last segment, exclusive
+     */
+    protected SegmentedIterator(int fromSegment, int toSegment) {
+        this.nextSegment = fromSegment;
+        this.endSegment = toSegment;
+    }
+
+    /**
+     * Returns an iterator over the elements of a segment
+     *
+     * @param segment the index of the segment
+     * @return an iterator over its elements
+     */
+    protected abstract Iterator<E> segmentIterator(int segment);
+
+    /**
+     * Creates an iterator of the same kind over another range of segments
+     *
+     * @param fromSegment the first segment, inclusive
+     * @param toSegment the last segment, exclusive
+     * @return the new iterator
+     */
+    protected abstract SegmentedIterator<E> newIterator(int fromSegment, int toSegment);
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean hasNext() {
+        while (next == null) {
+            if (current != null && current.hasNext()) {
+                next = current.next();
+            } else if (nextSegment < endSegment) {
+                current = segmentIterator(nextSegment++);
+            } else {
+                current = null;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public E next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        E element = next;
+        next = null;
+        return element;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove() {
+        throw new UnsupportedOperationException("remove is not supported");
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The segment being walked stays with this iterator, the remaining ones are shared.
+     */
+    public SplittableIterator<E> trySplit() {
+        boolean started = current != null || next != null;
+        int remaining = endSegment - nextSegment;
+        int middle = nextSegment + (started ? remaining / 2 : (remaining + 1) / 2);
+        if (middle >= endSegment) {
+            return null;
+        }
+        SegmentedIterator<E> split = newIterator(middle, endSegment);
+        endSegment = middle;
+        return split;
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.store;
+
+import net.sf.ehcache.Element;
+import net.sf.ehcache.SplittableIterator;
+
+/**
+ * A store able to iterate over its elements in place, without copying its key set.
+ * <p/>
+ * Stores delegating to other stores only walk them in place if those are streaming stores too, and otherwise copy their
+ * key list up front.
+ *
+ * @author Terracotta
+ */
+public interface StreamingStore extends Store {
+
+    /**
+     * Returns a weakly consistent iterator over the elements of the store.
+     * <p/>
+     * The iterator reflects the state of the store at some point at or since its creation and never throws
+     * {@link java.util.ConcurrentModificationException}. It returns expired elements as well, and neither updates the
+     * statistics of the elements nor the eviction state of the store. It does not support removal.
+     *
+     * @return an iterator over the elements of the store
+     */
+    SplittableIterator<Element> entryIterator();
+}
@@ -32,8 +32,10 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import net.sf.ehcache.CacheOperationOutcomes.EvictionOutcome;
 import net.sf.ehcache.Element;
+import net.sf.ehcache.SplittableIterator;
 import net.sf.ehcache.event.RegisteredEventListeners;
 import net.sf.ehcache.pool.PoolAccessor;
+import net.sf.ehcache.store.SegmentedIterator;
 import org.terracotta.statistics.observer.OperationObserver;
 
 import static net.sf.ehcache.statistics.StatisticBuilder.operation;
@@ -400,6 +402,96 @@ public class SelectableConcurrentHashMap {
         return segmentFor(hash).remove(key, hash, value) != null;
     }
 
+    /**
+     * Gets the elements mapped to a batch of keys, read locking each segment once for all the keys it holds.
+     *
+     * @param keys the keys
+     * @return the element mapped to each key, or null
+     */
+    public Element[] getAll(Object[] keys) {
+        int[] hashes = hashes(keys);
+        int[] order = new int[keys.length];
+        int[] starts = groupBySegment(hashes, order);
+        Element[] values = new Element[keys.length];
+        for (int i = 0; i < segments.length; ++i) {
+            if (starts[i] < starts[i + 1]) {
+                segments[i].getAll(keys, hashes, order, starts[i], starts[i + 1], values);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Puts a batch of elements, write locking each segment once for all the keys it holds.
+     * Evictions caused by the batch are notified once the segment lock has been released.
+     *
+     * @param keys the keys
+     * @param elements the element of each key
+     * @param sizes the size the pool accounted for each element
+     * @return the element previously mapped to each key, or null
+     */
+    public Element[] putAll(Object[] keys, Element[] elements, long[] sizes) {
+        int[] hashes = hashes(keys);
+        int[] order = new int[keys.length];
+        int[] starts = groupBySegment(hashes, order);
+        Element[] oldValues = new Element[keys.length];
+        for (int i = 0; i < segments.length; ++i) {
+            if (starts[i] < starts[i + 1]) {
+                segments[i].putAll(keys, hashes, elements, sizes, order, starts[i], starts[i + 1], oldValues);
+            }
+        }
+        return oldValues;
+    }
+
+    /**
+     * Removes a batch of keys, write locking each segment once for all the keys it holds.
+     *
+     * @param keys the keys
+     * @return the element removed for each key, or null
+     */
+    public Element[] removeAll(Object[] keys) {
+        int[] hashes = hashes(keys);
+        int[] order = new int[keys.length];
+        int[] starts = groupBySegment(hashes, order);
+        Element[] oldValues = new Element[keys.length];
+        for (int i = 0; i < segments.length; ++i) {
+            if (starts[i] < starts[i + 1]) {
+                segments[i].removeAll(keys, hashes, order, starts[i], starts[i + 1], oldValues);
+            }
+        }
+        return oldValues;
+    }
+
+    private static int[] hashes(Object[] keys) {
+        int[] hashes = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            hashes[i] = hash(keys[i].hashCode());
+        }
+        return hashes;
+    }
+
+    /**
+     * Sorts the indexes of the hashes by segment, keeping the order of the indexes within a segment.
+     *
+     * @param hashes the hashes
+     * @param order receives the sorted indexes
+     * @return the start in order of the indexes of each segment, followed by the number of hashes
+     */
+    private int[] groupBySegment(int[] hashes, int[] order) {
+        int[] starts = new int[segments.length + 1];
+        for (int hash : hashes) {
+            starts[((hash >>> segmentShift) & segmentMask) + 1]++;
+        }
+        for (int i = 0; i < segments.length; ++i) {
+            starts[i + 1] += starts[i];
+        }
+        int[] next = Arrays.copyOf(starts, segments.length);
+        for (int i = 0; i < hashes.length; i++) {
+            order[next[(hashes[i] >>> segmentShift) & segmentMask]++] = i;
+        }
+        return starts;
+    }
+
     public void clear() {
         for (int i = 0; i < segments.length; ++i)
             segments[i].clear();
@@ -415,6 +507,16 @@ public class SelectableConcurrentHashMap {
         return (vs != null) ? vs : (values = new Values());
     }
 
+    /**
+     * Returns a weakly consistent iterator over the elements of this map, walking the tables of the segments in place.
+     * Neither the elements nor the eviction state of the segments are touched.
+     *
+     * @return an iterator over the elements, splitting by segments
+     */
+    public SplittableIterator<Element> valueIterator() {
+        return new SegmentValueIterator(0, segments.length);
+    }
+
     public Set<Entry<Object, Element>> entrySet() {
         Set<Entry<Object, Element>> es = entrySet;
         return (es != null) ? es : (entrySet = new EntrySet());
@@ -424,6 +526,27 @@ public class SelectableConcurrentHashMap {
         return new Segment(initialCapacity, lf);
     }
 
+    /**
+     * Called once a key is mapped to a new element, while the segment of the key is still write locked.
+     * Does nothing by default.
+     *
+     * @param oldValue the element replaced, or null if the key was not mapped
+     * @param newValue the element now mapped
+     */
+    protected void postReplaceLocked(Element oldValue, Element newValue) {
+        // for subclasses
+    }
+
+    /**
+     * Called once the mapping of a key is removed, while the segment of the key is still write locked.
+     * Does nothing by default.
+     *
+     * @param oldValue the element removed
+     */
+    protected void postRemoveLocked(Element oldValue) {
+        // for subclasses
+    }
+
     public boolean evict() {
         return getRandomSegment().evict();
     }
@@ -562,37 +685,55 @@ public class SelectableConcurrentHashMap {
             final WriteLock writeLock = writeLock();
             writeLock.lock();
             try {
-                int c = count - 1;
-                HashEntry[] tab = table;
-                int index = hash & (tab.length - 1);
-                HashEntry first = tab[index];
-                HashEntry e = first;
-                while (e != null && (e.hash != hash || !key.equals(e.key)))
-                    e = e.next;
+                return removeLocked(key, hash, value);
+            } finally {
+                writeLock.unlock();
+            }
+        }
 
-                Element oldValue = null;
-                if (e != null) {
-                    Element v = e.value;
-                    if (value == null || value.equals(v)) {
-                        oldValue = v;
-                        ++modCount;
-                        tab[index] = removeAndGetFirst(e, first);
-                        count = c; // write-volatile
-                        if (cacheEventNotificationService != null) {
-                            cacheEventNotificationService.notifyElementRemovedOrdered(oldValue);
-                        }
-                        poolAccessor.delete(e.sizeOf);
-                        if(evictionIterator != null && ((SegmentIterator)evictionIterator).nextEntry == e) {
-                            evictionIterator.next();
-                        }
-                    }
+        void removeAll(Object[] keys, int[] hashes, int[] order, int from, int to, Element[] oldValues) {
+            final WriteLock writeLock = writeLock();
+            writeLock.lock();
+            try {
+                for (int i = from; i < to; i++) {
+                    int index = order[i];
+                    oldValues[index] = removeLocked(keys[index], hashes[index], null);
                 }
-                return oldValue;
             } finally {
                 writeLock.unlock();
             }
         }
 
+        private Element removeLocked(Object key, int hash, Object value) {
+            int c = count - 1;
+            HashEntry[] tab = table;
+            int index = hash & (tab.length - 1);
+            HashEntry first = tab[index];
+            HashEntry e = first;
+            while (e != null && (e.hash != hash || !key.equals(e.key)))
+                e = e.next;
+
+            Element oldValue = null;
+            if (e != null) {
+                Element v = e.value;
+                if (value == null || value.equals(v)) {
+                    oldValue = v;
+                    ++modCount;
+                    tab[index] = removeAndGetFirst(e, first);
+                    count = c; // write-volatile
+                    if (cacheEventNotificationService != null) {
+                        cacheEventNotificationService.notifyElementRemovedOrdered(oldValue);
+                    }
+                    postRemoveLocked(oldValue);
+                    poolAccessor.delete(e.sizeOf);
+                    if(evictionIterator != null && ((SegmentIterator)evictionIterator).nextEntry == e) {
+                        evictionIterator.next();
+                    }
+                }
+            }
+            return oldValue;
+        }
+
         public void recalculateSize(Object key, int hash) {
             Element value = null;
             long oldSize = 0;
@@ -640,70 +781,106 @@ public class SelectableConcurrentHashMap {
             final WriteLock writeLock = writeLock();
             writeLock.lock();
             try {
-                int c = count;
-                if (c++ > threshold) // ensure capacity
-                    rehash();
-                HashEntry[] tab = table;
-                int index = hash & (tab.length - 1);
-                HashEntry first = tab[index];
-                HashEntry e = first;
-                while (e != null && (e.hash != hash || !key.equals(e.key)))
-                    e = e.next;
+                return putLocked(key, hash, value, sizeOf, onlyIfAbsent, fire, evicted);
+            } finally {
+                writeLock.unlock();
+                for (Element element : evicted) {
+                    notifyEvictionOrExpiry(element);
+                }
+            }
+        }
 
-                Element oldValue;
-                if (e != null) {
-                    oldValue = e.value;
-                    if (!onlyIfAbsent) {
-                        poolAccessor.delete(e.sizeOf);
-                        e.value = value;
-                        e.sizeOf = sizeOf;
-                        if (cacheEventNotificationService != null) {
-                            cacheEventNotificationService.notifyElementUpdatedOrdered(oldValue, value);
-                        }
-                        if (fire) {
-                            postInstall(key, value);
+        void putAll(Object[] keys, int[] hashes, Element[] values, long[] sizes, int[] order, int from, int to, Element[] oldValues) {
+            Element[] evicted = new Element[MAX_EVICTION];
+            List<Element> allEvicted = null;
+            final WriteLock writeLock = writeLock();
+            writeLock.lock();
+            try {
+                for (int i = from; i < to; i++) {
+                    int index = order[i];
+                    oldValues[index] = putLocked(keys[index], hashes[index], values[index], sizes[index], false, true, evicted);
+                    for (int j = 0; j < evicted.length; j++) {
+                        if (evicted[j] != null) {
+                            if (allEvicted == null) {
+                                allEvicted = new ArrayList<Element>();
+                            }
+                            allEvicted.add(evicted[j]);
+                            evicted[j] = null;
                         }
                     }
-                } else {
-                    oldValue = null;
-                    ++modCount;
-                    tab[index] = createHashEntry(key, hash, first, value, sizeOf);
-                    count = c; // write-volatile
+                }
+            } finally {
+                writeLock.unlock();
+                if (allEvicted != null) {
+                    for (Element element : allEvicted) {
+                        notifyEvictionOrExpiry(element);
+                    }
+                }
+            }
+        }
+
+        private Element putLocked(Object key, int hash, Element value, long sizeOf, boolean onlyIfAbsent, boolean fire,
+                              Element[] evicted) {
+            int c = count;
+            if (c++ > threshold) // ensure capacity
+                rehash();
+            HashEntry[] tab = table;
+            int index = hash & (tab.length - 1);
+            HashEntry first = tab[index];
+            HashEntry e = first;
+            while (e != null && (e.hash != hash || !key.equals(e.key)))
+                e = e.next;
+
+            Element oldValue;
+            if (e != null) {
+                oldValue = e.value;
+                if (!onlyIfAbsent) {
+                    poolAccessor.delete(e.sizeOf);
+                    e.value = value;
+                    e.sizeOf = sizeOf;
                     if (cacheEventNotificationService != null) {
-                        cacheEventNotificationService.notifyElementPutOrdered(value);
+                        cacheEventNotificationService.notifyElementUpdatedOrdered(oldValue, value);
                     }
+                    postReplaceLocked(oldValue, value);
                     if (fire) {
                         postInstall(key, value);
                     }
                 }
+            } else {
+                oldValue = null;
+                ++modCount;
+                tab[index] = createHashEntry(key, hash, first, value, sizeOf);
+                count = c; // write-volatile
+                if (cacheEventNotificationService != null) {
+                    cacheEventNotificationService.notifyElementPutOrdered(value);
+                }
+                postReplaceLocked(null, value);
+                if (fire) {
+                    postInstall(key, value);
+                }
+            }
 
-                if((onlyIfAbsent && oldValue != null || !onlyIfAbsent)) {
-                    if (SelectableConcurrentHashMap.this.maxSize > 0) {
-                        int runs = Math.min(MAX_EVICTION, SelectableConcurrentHashMap.this.quickSize() - (int) SelectableConcurrentHashMap.this.maxSize);
-                        while (runs-- > 0) {
-                            evictionObserver.begin();
-                            Element evict = nextExpiredOrToEvict(value);
-                            if (evict != null) {
-                                Element removed;
-                                while ((removed = remove(evict.getKey(), hash(evict.getKey().hashCode()), null)) == null) {
-                                    evict = nextExpiredOrToEvict(value);
-                                    if (evict == null) {
-                                        break;
-                                    }
+            if((onlyIfAbsent && oldValue != null || !onlyIfAbsent)) {
+                if (SelectableConcurrentHashMap.this.maxSize > 0) {
+                    int runs = Math.min(MAX_EVICTION, SelectableConcurrentHashMap.this.quickSize() - (int) SelectableConcurrentHashMap.this.maxSize);
+                    while (runs-- > 0) {
+                        evictionObserver.begin();
+                        Element evict = nextExpiredOrToEvict(value);
+                        if (evict != null) {
+                            Element removed;
+                            while ((removed = remove(evict.getKey(), hash(evict.getKey().hashCode()), null)) == null) {
+                                evict = nextExpiredOrToEvict(value);
+                                if (evict == null) {
+                                    break;
                                 }
-                                evicted[runs] = removed;
                             }
-                            evictionObserver.end(EvictionOutcome.SUCCESS);
+                            evicted[runs] = removed;
                         }
+                        evictionObserver.end(EvictionOutcome.SUCCESS);
                     }
                 }
-                return oldValue;
-            } finally {
-                writeLock.unlock();
-                for (Element element : evicted) {
-                    notifyEvictionOrExpiry(element);
-                }
             }
+            return oldValue;
         }
 
         private void notifyEvictionOrExpiry(final Element element) {
@@ -736,6 +913,29 @@ public class SelectableConcurrentHashMap {
             }
         }
 
+        void getAll(Object[] keys, int[] hashes, int[] order, int from, int to, Element[] values) {
+            final ReadLock readLock = readLock();
+            readLock.lock();
+            try {
+                if (count != 0) { // read-volatile
+                    for (int i = from; i < to; i++) {
+                        int index = order[i];
+                        Object key = keys[index];
+                        int hash = hashes[index];
+                        for (HashEntry e = getFirst(hash); e != null; e = e.next) {
+                            if (e.hash == hash && key.equals(e.key)) {
+                                e.accessed = true;
+                                values[index] = e.value;
+                                break;
+                            }
+                        }
+                    }
+                }
+            } finally {
+                readLock.unlock();
+            }
+        }
+
         boolean containsKey(final Object key, final int hash) {
             final ReadLock readLock = readLock();
             readLock.lock();
@@ -1150,6 +1350,48 @@ public class SelectableConcurrentHashMap {
         }
     }
 
+    final class SegmentValueIterator extends SegmentedIterator<Element> {
+
+        SegmentValueIterator(int fromSegment, int toSegment) {
+            super(fromSegment, toSegment);
+        }
+
+        @Override
+        protected Iterator<Element> segmentIterator(int segment) {
+            Segment seg = segments[segment];
+            // read-volatile
+            final HashEntry[] table = seg.count != 0 ? seg.table : new HashEntry[0];
+            return new Iterator<Element>() {
+                private int nextTableIndex = table.length - 1;
+                private HashEntry nextEntry;
+
+                public boolean hasNext() {
+                    while (nextEntry == null && nextTableIndex >= 0) {
+                        nextEntry = table[nextTableIndex--];
+                    }
+                    return nextEntry != null;
+                }
+
+                public Element next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    HashEntry entry = nextEntry;
+                    nextEntry = entry.next;
+                    return entry.value;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException("remove is not supported");
+                }
+            };
+        }
+
+        @Override
+        protected SegmentedIterator<Element> newIterator(int fromSegment, int toSegment) {
+            return new SegmentValueIterator(fromSegment, toSegment);
+        }
+    }
+
     abstract class HashEntryIterator extends HashIterator {
         private HashEntry myNextEntry;
 
@@ -22,6 +22,8 @@ import net.sf.ehcache.CacheException;
 import net.sf.ehcache.CacheOperationOutcomes.EvictionOutcome;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
+import net.sf.ehcache.ElementRemapper;
+import net.sf.ehcache.SplittableIterator;
 import net.sf.ehcache.Status;
 import net.sf.ehcache.concurrent.CacheLockProvider;
 import net.sf.ehcache.concurrent.LockType;
@@ -34,15 +36,19 @@ import net.sf.ehcache.pool.Pool;
 import net.sf.ehcache.pool.PoolAccessor;
 import net.sf.ehcache.pool.PoolParticipant;
 import net.sf.ehcache.pool.impl.UnboundedPool;
+import net.sf.ehcache.statistics.SampledOperationObserver;
 import net.sf.ehcache.store.AbstractStore;
 import net.sf.ehcache.store.AuthoritativeTier;
 import net.sf.ehcache.store.CacheStore;
+import net.sf.ehcache.store.ComputingStore;
 import net.sf.ehcache.store.ElementValueComparator;
 import net.sf.ehcache.store.Policy;
+import net.sf.ehcache.store.SegmentedIterator;
 import net.sf.ehcache.store.Store;
 import net.sf.ehcache.store.StoreOperationOutcomes.GetOutcome;
 import net.sf.ehcache.store.StoreOperationOutcomes.PutOutcome;
 import net.sf.ehcache.store.StoreOperationOutcomes.RemoveOutcome;
+import net.sf.ehcache.store.StreamingStore;
 import net.sf.ehcache.store.StripedReadWriteLockProvider;
 import net.sf.ehcache.store.cachingtier.OnHeapCachingTier;
 import net.sf.ehcache.store.disk.DiskStorageFactory.DiskMarker;
@@ -52,7 +58,6 @@ import net.sf.ehcache.writer.CacheWriterManager;
 
 import org.terracotta.statistics.OperationStatistic;
 import org.terracotta.statistics.Statistic;
-import org.terracotta.statistics.StatisticsManager;
 import org.terracotta.statistics.derived.EventRateSimpleMovingAverage;
 import org.terracotta.statistics.derived.OperationResultFilter;
 import org.terracotta.statistics.observer.OperationObserver;
@@ -83,7 +88,8 @@ import static net.sf.ehcache.statistics.StatisticBuilder.operation;
  * @author Chris Dennis
  * @author Ludovic Orban
  */
-public final class DiskStore extends AbstractStore implements StripedReadWriteLockProvider, AuthoritativeTier {
+public final class DiskStore extends AbstractStore implements StripedReadWriteLockProvider, AuthoritativeTier, ComputingStore,
+        StreamingStore {
 
     private static final int FFFFCD7D = 0xffffcd7d;
     private static final int FIFTEEN = 15;
@@ -103,9 +109,9 @@ public final class DiskStore extends AbstractStore implements StripedReadWriteLo
     private final Segment[] segments;
     private final int segmentShift;
     private final AtomicReference<Status> status = new AtomicReference<Status>(Status.STATUS_UNINITIALISED);
-    private final OperationObserver<GetOutcome> getObserver = operation(GetOutcome.class).of(this).named("get").tag("local-disk").build();
-    private final OperationObserver<PutOutcome> putObserver = operation(PutOutcome.class).of(this).named("put").tag("local-disk").build();
-    private final OperationObserver<RemoveOutcome> removeObserver = operation(RemoveOutcome.class).of(this).named("remove").tag("local-disk").build();
+    private final OperationObserver<GetOutcome> getObserver = operation(GetOutcome.class).of(this).named("get").tag("local-disk").fused().build();
+    private final OperationObserver<PutOutcome> putObserver = operation(PutOutcome.class).of(this).named("put").tag("local-disk").fused().build();
+    private final OperationObserver<RemoveOutcome> removeObserver = operation(RemoveOutcome.class).of(this).named("remove").tag("local-disk").fused().build();
     private final OperationObserver<EvictionOutcome> evictionObserver = operation(EvictionOutcome.class).named("eviction").of(this).build();
     private final PoolAccessor onHeapPoolAccessor;
     private final PoolAccessor onDiskPoolAccessor;
@@ -119,7 +125,7 @@ public final class DiskStore extends AbstractStore implements StripedReadWriteLo
 
         EventRateSimpleMovingAverage hitRate = new EventRateSimpleMovingAverage(1, TimeUnit.SECONDS);
         EventRateSimpleMovingAverage missRate = new EventRateSimpleMovingAverage(1, TimeUnit.SECONDS);
-        OperationStatistic<GetOutcome> getStatistic = StatisticsManager.getOperationStatisticFor(getObserver);
+        OperationStatistic<GetOutcome> getStatistic = SampledOperationObserver.operationStatisticFor(getObserver);
         getStatistic.addDerivedStatistic(new OperationResultFilter<GetOutcome>(EnumSet.of(GetOutcome.HIT), hitRate));
         getStatistic.addDerivedStatistic(new OperationResultFilter<GetOutcome>(EnumSet.of(GetOutcome.MISS), missRate));
 
@@ -598,6 +604,15 @@ public final class DiskStore extends AbstractStore implements StripedReadWriteLo
         return new ArrayList(keySet());
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Entries are walked in the tables of the segments, each element being read from disk when it is met.
+     */
+    public SplittableIterator<Element> entryIterator() {
+        return new EntryIterator(0, segments.length);
+    }
+
     /**
      * Get a set view of the keys in this store
      *
@@ -628,6 +643,22 @@ public final class DiskStore extends AbstractStore implements StripedReadWriteLo
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The computation runs under the write lock of the segment of the key.
+     */
+    public Element compute(Object key, ElementRemapper remapper) {
+        int hash = hash(key.hashCode());
+        final ReentrantReadWriteLock.WriteLock writeLock = segmentFor(hash).writeLock();
+        writeLock.lock();
+        try {
+            return applyRemapper(this, key, remapper);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -1058,6 +1089,41 @@ public final class DiskStore extends AbstractStore implements StripedReadWriteLo
 
     }
 
+    /**
+     * Iterator over the store elements, splitting by segments.
+     */
+    private final class EntryIterator extends SegmentedIterator<Element> {
+
+        private EntryIterator(int fromSegment, int toSegment) {
+            super(fromSegment, toSegment);
+        }
+
+        @Override
+        protected Iterator<Element> segmentIterator(int index) {
+            final Segment segment = segments[index];
+            final Iterator<HashEntry> entries = segment.hashIterator();
+            return new Iterator<Element>() {
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
+
+                public Element next() {
+                    HashEntry entry = entries.next();
+                    return segment.peek(entry.key, entry.hash);
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException("remove is not supported");
+                }
+            };
+        }
+
+        @Override
+        protected SegmentedIterator<Element> newIterator(int fromSegment, int toSegment) {
+            return new EntryIterator(fromSegment, toSegment);
+        }
+    }
+
     /**
      * Iterator over the store key set.
      */
@@ -233,6 +233,33 @@ public class Segment extends ReentrantReadWriteLock {
         }
     }
 
+    /**
+     * Get the element mapped to this key (or null if there is no mapping for this key), without updating the
+     * statistics the disk uses for eviction
+     *
+     * @param key key to lookup
+     * @param hash spread-hash for this key
+     * @return mapped element
+     */
+    Element peek(Object key, int hash) {
+        readLock().lock();
+        try {
+            // read-volatile
+            if (count != 0) {
+                HashEntry e = getFirst(hash);
+                while (e != null) {
+                    if (e.hash == hash && key.equals(e.key)) {
+                        return decode(e.element);
+                    }
+                    e = e.next;
+                }
+            }
+            return null;
+        } finally {
+            readLock().unlock();
+        }
+    }
+
     /**
      * Return the unretrieved (undecoded) value for this key
      *
@@ -0,0 +1,55 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package net.sf.ehcache.writer;
+
+import java.util.Collection;
+
+import net.sf.ehcache.CacheEntry;
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.Element;
+
+/**
+ * A {@link CacheWriterManager} able to schedule the write operations of bulk cache operations in batches.
+ * <p/>
+ * The bulk cache operations fall back to one {@link CacheWriterManager#put} or {@link CacheWriterManager#remove} call per
+ * element for managers that do not implement this interface.
+ *
+ * @author Terracotta
+ */
+public interface BatchingCacheWriterManager extends CacheWriterManager {
+
+    /**
+     * Schedule put operations for these elements in the CacheWriterManager, which will call the CacheWriter when appropriate.
+     * <p>
+     * If this operation fails after a partial success, the elements that were handled successfully are removed from the
+     * specified collection, leaving the ones that failed or were not attempted, as for {@link CacheWriter#writeAll}.
+     *
+     * @param elements the elements that should be used for the operation, the collection must be mutable
+     * @throws CacheException when an exception occurs during the writing of the elements
+     */
+    void putAll(Collection<Element> elements) throws CacheException;
+
+    /**
+     * Schedule remove operations for these entries in the CacheWriterManager, which will call the CacheWriter when appropriate.
+     * <p>
+     * If this operation fails after a partial success, the entries that were handled successfully are removed from the
+     * specified collection, leaving the ones that failed or were not attempted, as for {@link CacheWriter#deleteAll}.
+     *
+     * @param entries the entries that should be used for the operation, the collection must be mutable
+     * @throws CacheException when an exception occurs during the removal of the elements
+     */
+    void removeAll(Collection<CacheEntry> entries) throws CacheException;
+}
@@ -20,11 +20,18 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,6 +40,7 @@ import net.sf.ehcache.CacheException;
 import net.sf.ehcache.Element;
 import net.sf.ehcache.config.CacheConfiguration;
 import net.sf.ehcache.config.CacheWriterConfiguration;
+import net.sf.ehcache.util.NamedThreadFactory;
 import net.sf.ehcache.writer.CacheWriter;
 import net.sf.ehcache.writer.writebehind.operations.DeleteOperation;
 import net.sf.ehcache.writer.writebehind.operations.SingleOperation;
@@ -41,6 +49,15 @@ import net.sf.ehcache.writer.writebehind.operations.WriteOperation;
 
 /**
  * Abstract implementation of a WriteBehindQueue.
+ * <p>
+ * Producers don't take any lock: {@link #addItem(SingleOperation)} is called concurrently by the writing threads, while
+ * {@link #quarantineItems()} and {@link #reinsertUnprocessedItems(List)} are only ever called by the single processing thread.
+ * When the queue is full, producers spin, then yield, then park with an increasing timeout until room is available. As the
+ * queue size is checked without exclusion, it may exceed the configured maximum by at most the number of concurrent producers.
+ * <p>
+ * With more than one writer thread configured, the processing thread splits each processing run into lanes by key hash and
+ * hands every lane to a writer thread, waiting for all of them before the next run. Operations on a given key always fall in
+ * the same lane and are written in order, while the operations filter still sees the whole queue.
  *
  * @author tim
  */
@@ -50,6 +67,11 @@ public abstract class AbstractWriteBehindQueue implements WriteBehind {
 
   private static final int MS_IN_SEC = 1000;
 
+  private static final int BACKPRESSURE_SPINS = 64;
+  private static final int BACKPRESSURE_YIELDS = 64;
+  private static final long BACKPRESSURE_MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+  private static final long BACKPRESSURE_MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
   private final String cacheName;
   private final long minWriteDelayMs;
   private final long maxWriteDelayMs;
@@ -59,14 +81,14 @@ public abstract class AbstractWriteBehindQueue implements WriteBehind {
   private final int writeBatchSize;
   private final int retryAttempts;
   private final int retryAttemptDelaySeconds;
+  private final AdaptiveBatchController adaptiveBatching;
+  private final int writerThreadCount;
+  private final ExecutorService writerThreads;
   private final Thread processingThread;
 
-  private final ReentrantReadWriteLock queueLock = new ReentrantReadWriteLock();
-  private final ReentrantReadWriteLock.ReadLock queueReadLock = queueLock.readLock();
-  private final ReentrantReadWriteLock.WriteLock queueWriteLock = queueLock.writeLock();
-  private final Condition queueIsFull = queueWriteLock.newCondition();
-  private final Condition queueIsEmpty = queueWriteLock.newCondition();
-  private final Condition queueIsStopped = queueWriteLock.newCondition();
+  private final ReentrantLock stateLock = new ReentrantLock();
+  private final Condition queueIsStopped = stateLock.newCondition();
+  private final AtomicInteger activeProducers = new AtomicInteger();
 
   private final AtomicLong lastProcessing = new AtomicLong(System.currentTimeMillis());
   private final AtomicLong lastWorkDone = new AtomicLong(System.currentTimeMillis());
@@ -74,9 +96,12 @@ public abstract class AbstractWriteBehindQueue implements WriteBehind {
 
   private volatile OperationsFilter filter;
 
-  private CacheWriter cacheWriter;
-  private boolean stopping;
-  private boolean stopped;
+  private volatile CacheWriter cacheWriter;
+  private volatile boolean stopping;
+  private volatile boolean stopped;
+  private volatile boolean awaitingWork;
+  private volatile long writeLagMillis;
+  private long nextRunDelayMs;
 
   /**
    * Create a new write behind queue.
@@ -99,37 +124,67 @@ public abstract class AbstractWriteBehindQueue implements WriteBehind {
       this.writeBatchSize = cacheWriterConfig.getWriteBatchSize();
       this.retryAttempts = cacheWriterConfig.getRetryAttempts();
       this.retryAttemptDelaySeconds = cacheWriterConfig.getRetryAttemptDelaySeconds();
+      if (cacheWriterConfig.getAdaptiveWriteBatching() && writeBatching && writeBatchSize > 0) {
+          this.adaptiveBatching = new AdaptiveBatchController(writeBatchSize, rateLimitPerSecond,
+                  cacheWriterConfig.getTargetWriteLagMillis(), maxWriteDelayMs, maxQueueSize);
+      } else {
+          this.adaptiveBatching = null;
+      }
+
+      this.writerThreadCount = cacheWriterConfig.getWriteBehindWriterThreads();
+      if (writerThreadCount > 1) {
+          this.writerThreads = Executors.newFixedThreadPool(writerThreadCount, new NamedThreadFactory(cacheName + " write-behind writer",
+                  true));
+      } else {
+          this.writerThreads = null;
+      }
 
       this.processingThread = new Thread(new ProcessingThread(), cacheName + " write-behind");
       this.processingThread.setDaemon(true);
   }
 
   /**
-   * Quarantine items to be processed.
+   * Quarantine items to be processed. Only called by the processing thread.
    *
    * @return list of operations
    */
   protected abstract List<SingleOperation> quarantineItems();
 
   /**
-   * Add an item to the write behind queue
+   * Add an item to the write behind queue. Called concurrently by any number of threads.
    *
    * @param operation operation to be done
    */
   protected abstract void addItem(SingleOperation operation);
 
   /**
-   * Reinsert any unfinished operations into the queue.
+   * Reinsert any unfinished operations into the queue, ahead of the waiting ones. Only called by the processing thread.
    *
    * @param operations list of unfinished operations
    */
   protected abstract void reinsertUnprocessedItems(List<SingleOperation> operations);
 
+  /**
+   * Called by the processing thread at the end of each processing run, once the quarantined items were either processed or
+   * reinserted through {@link #reinsertUnprocessedItems(List)}.
+   */
+  protected void processingRunCompleted() {
+      // no-op by default
+  }
+
+  /**
+   * Called by the processing thread when it stops, before {@link #stop()} returns to the threads waiting for it. No item is
+   * added or processed afterwards.
+   */
+  protected void processingStopped() {
+      // no-op by default
+  }
+
   /**
    * {@inheritDoc}
    */
   public void start(CacheWriter writer) {
-      queueWriteLock.lock();
+      stateLock.lock();
       try {
           if (!stopped) {
               throw new CacheException("The write-behind queue for cache '" + cacheName + "' can't be started more than once");
@@ -145,7 +200,7 @@ public abstract class AbstractWriteBehindQueue implements WriteBehind {
 
           processingThread.start();
       } finally {
-          queueWriteLock.unlock();
+          stateLock.unlock();
       }
   }
 
@@ -170,43 +225,43 @@ public abstract class AbstractWriteBehindQueue implements WriteBehind {
 
                   processItems();
 
-                  queueWriteLock.lock();
+                  // Wait for new items or until the min write delay has expired.
+                  // Do not continue if the actual min write delay wasn't at least the one specified in the config
+                  // otherwise it's possible to create a new work list for just a couple of items in case
+                  // the item processor is very fast, causing a large amount of data churn.
+                  // However, if the write delay is expired, the processing should start immediately.
                   try {
-                      // Wait for new items or until the min write delay has expired.
-                      // Do not continue if the actual min write delay wasn't at least the one specified in the config
-                      // otherwise it's possible to create a new work list for just a couple of items in case
-                      // the item processor is very fast, causing a large amount of data churn.
-                      // However, if the write delay is expired, the processing should start immediately.
-                      try {
-                          if (minWriteDelayMs != 0) {
-                              long delay = minWriteDelayMs;
-                              do {
-                                  queueIsEmpty.await(delay, TimeUnit.MILLISECONDS);
-                                  long actualDelay = System.currentTimeMillis() - getLastProcessing();
-                                  if (actualDelay < minWriteDelayMs) {
-                                      delay = minWriteDelayMs - actualDelay;
-                                  } else {
-                                      delay = 0;
-                                  }
-                              } while (delay > 0);
-                          } else {
-                              while (!stopping && getQueueSize() == 0) {
-                                  queueIsEmpty.await();
+                      if (adaptiveBatching != null) {
+                          awaitNextRun();
+                      } else if (minWriteDelayMs != 0) {
+                          long delay = minWriteDelayMs;
+                          do {
+                              LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(delay));
+                              if (Thread.interrupted()) {
+                                  throw new InterruptedException();
                               }
-                          }
-                      } catch (final InterruptedException e) {
-                          // if the wait for items is interrupted, act as if the bucket was cancelled
-                          stop();
-                          Thread.currentThread().interrupt();
+                              long actualDelay = System.currentTimeMillis() - getLastProcessing();
+                              if (actualDelay < minWriteDelayMs) {
+                                  delay = minWriteDelayMs - actualDelay;
+                              } else {
+                                  delay = 0;
+                              }
+                          } while (delay > 0);
+                      } else {
+                          awaitWork();
                       }
+                  } catch (final InterruptedException e) {
+                      // if the wait for items is interrupted, act as if the bucket was cancelled
+                      stop();
+                      Thread.currentThread().interrupt();
+                  }
 
-                      // If the queue is stopping and no more work is outstanding, perform the actual stop operation
-                      if (stopping && getQueueSize() == 0) {
-                          stopTheQueueThread();
-                      }
-                      queueIsFull.signal();
-                  } finally {
-                      queueWriteLock.unlock();
+                  // If the queue is stopping and no more work is outstanding, perform the actual stop operation.
+                  // Producers check the stopping flag after registering, so once none is registered no more items can arrive.
+                  // The queue size is checked again after reading the producer count: a producer may have enqueued and
+                  // deregistered between the first size check and that read.
+                  if (stopping && getQueueSize() == 0 && activeProducers.get() == 0 && getQueueSize() == 0) {
+                      stopTheQueueThread();
                   }
               }
           } finally {
@@ -214,15 +269,50 @@ public abstract class AbstractWriteBehindQueue implements WriteBehind {
           }
       }
 
+      private void awaitNextRun() throws InterruptedException {
+          if (getQueueSize() == 0) {
+              awaitWork();
+          } else if (nextRunDelayMs > 0) {
+              LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(nextRunDelayMs));
+              if (Thread.interrupted()) {
+                  throw new InterruptedException();
+              }
+          }
+      }
+
+      private void awaitWork() throws InterruptedException {
+          while (!stopping && getQueueSize() == 0) {
+              // producers check the flag after adding, so either they see it or the size check below sees their item
+              awaitingWork = true;
+              try {
+                  if (!stopping && getQueueSize() == 0) {
+                      LockSupport.park(this);
+                  }
+              } finally {
+                  awaitingWork = false;
+              }
+              if (Thread.interrupted()) {
+                  throw new InterruptedException();
+              }
+          }
+      }
+
       private void stopTheQueueThread() {
           // Perform the actual stop operation and wake up everyone that is waiting for it.
-          queueWriteLock.lock();
+          stateLock.lock();
           try {
+              if (stopped) {
+                  return;
+              }
+              if (writerThreads != null) {
+                  writerThreads.shutdown();
+              }
+              processingStopped();
               stopped = true;
               stopping = false;
               queueIsStopped.signalAll();
           } finally {
-              queueWriteLock.unlock();
+              stateLock.unlock();
           }
       }
   }
@@ -236,28 +326,24 @@ public abstract class AbstractWriteBehindQueue implements WriteBehind {
       // set some state related to this processing run
       busyProcessing.set(true);
       lastProcessing.set(System.currentTimeMillis());
+      nextRunDelayMs = 0;
 
       try {
           final int workSize;
           final List<SingleOperation> quarantined;
 
-          queueWriteLock.lock();
-          try {
-              // quarantine local work
-              if (getQueueSize() > 0) {
-                  quarantined = quarantineItems();
-              } else {
-                  quarantined = null;
-              }
+          // quarantine local work
+          if (getQueueSize() > 0) {
+              quarantined = quarantineItems();
+          } else {
+              quarantined = null;
+          }
 
-              // check if work was quarantined
-              if (quarantined != null) {
-                  workSize = quarantined.size();
-              } else {
-                  workSize = 0;
-              }
-          } finally {
-              queueWriteLock.unlock();
+          // check if work was quarantined
+          if (quarantined != null) {
+              workSize = quarantined.size();
+          } else {
+              workSize = 0;
           }
 
           // if there's no work that needs to be done, stop the processing
@@ -270,10 +356,21 @@ public abstract class AbstractWriteBehindQueue implements WriteBehind {
 
           try {
               filterQuarantined(quarantined);
+              if (quarantined.isEmpty()) {
+                  return;
+              }
 
               // if the batching is enabled and work size is smaller than batch size, don't process anything as long as the
               // max allowed delay hasn't expired
-              if (writeBatching && writeBatchSize > 0) {
+              if (adaptiveBatching != null) {
+                  // hold the batch back while it may still fill up or the current rate doesn't allow it yet
+                  final long delay = adaptiveBatching.dispatchDelay(System.currentTimeMillis(), getQueueSize() + quarantined.size(),
+                          quarantined.get(0).getCreationTime());
+                  if (delay > 0) {
+                      waitForAdaptiveDispatch(quarantined, delay);
+                      return;
+                  }
+              } else if (writeBatching && writeBatchSize > 0) {
                   // wait for another round if the batch size hasn't been filled up yet and the max write delay
                   // hasn't expired yet
                   if (workSize < writeBatchSize && maxWriteDelayMs > lastProcessing.get() - lastWorkDone.get()) {
@@ -310,6 +407,7 @@ public abstract class AbstractWriteBehindQueue implements WriteBehind {
               throw e;
           }
       } finally {
+          processingRunCompleted();
           busyProcessing.set(false);
 
           if (LOGGER.isLoggable(Level.FINER)) {
@@ -326,6 +424,15 @@ public abstract class AbstractWriteBehindQueue implements WriteBehind {
       reassemble(quarantined);
   }
 
+  private void waitForAdaptiveDispatch(List<SingleOperation> quarantined, long delay) {
+      if (LOGGER.isLoggable(Level.FINER)) {
+          LOGGER.finer(getThreadName() + " : processItems() : holding " + quarantined.size() + " work items back for " + delay
+                  + " ms, the current batch size is " + adaptiveBatching.getBatchSize() + " and rate " + adaptiveBatching.getRate());
+      }
+      nextRunDelayMs = delay;
+      reassemble(quarantined);
+  }
+
   private void waitUntilEnoughTimeHasPassed(List<SingleOperation> quarantined, int batchSize, long secondsSinceLastWorkDone) {
       if (LOGGER.isLoggable(Level.FINER)) {
           LOGGER.finer(getThreadName() + " : processItems() : last work was done " + secondsSinceLastWorkDone
@@ -336,11 +443,11 @@ public abstract class AbstractWriteBehindQueue implements WriteBehind {
   }
 
   private int determineBatchSize(List<SingleOperation> quarantined) {
-      int batchSize = writeBatchSize;
-      if (quarantined.size() < batchSize) {
-          batchSize = quarantined.size();
-      }
-      return batchSize;
+      return Math.min(currentBatchSize(), quarantined.size());
+  }
+
+  private int currentBatchSize() {
+      return adaptiveBatching != null ? adaptiveBatching.getBatchSize() : writeBatchSize;
   }
 
   private void filterQuarantined(List<SingleOperation> quarantined) {
@@ -355,23 +462,142 @@ public abstract class AbstractWriteBehindQueue implements WriteBehind {
           LOGGER.config(getThreadName() + " : processItems() : processing " + quarantined.size() + " quarantined items");
       }
 
-      if (writeBatching && writeBatchSize > 0) {
+      final long oldestCreationTime = quarantined.get(0).getCreationTime();
+      if (writerThreads != null) {
+          processLanes(quarantined);
+      } else if (writeBatching && writeBatchSize > 0) {
           processBatchedOperations(quarantined);
       } else {
           processSingleOperation(quarantined);
 
       }
+      writeLagMillis = Math.max(0, System.currentTimeMillis() - oldestCreationTime);
   }
 
   private void processBatchedOperations(List<SingleOperation> quarantined) {
       final int batchSize = determineBatchSize(quarantined);
+      final BatchOutcome outcome = writeBatch(quarantined.subList(0, batchSize));
+
+      if (adaptiveBatching != null) {
+          adaptiveBatching.batchCompleted(batchSize, outcome.writerNanos, outcome.failed, System.currentTimeMillis());
+      }
 
+      // remove the batched items
+      for (int i = 0; i < batchSize; i++) {
+          quarantined.remove(0);
+      }
+
+      if (!quarantined.isEmpty()) {
+          reassemble(quarantined);
+      }
+  }
+
+  /**
+   * Split the quarantined items into lanes by key hash and write each lane on a writer thread. When batching, a batch is taken
+   * from the head of every lane and the remaining items are reinserted. When a lane fails, only the items that weren't written
+   * yet are reinserted.
+   */
+  private void processLanes(List<SingleOperation> quarantined) {
+      final List<List<SingleOperation>> lanes = new ArrayList<List<SingleOperation>>(writerThreadCount);
+      for (int i = 0; i < writerThreadCount; i++) {
+          lanes.add(new ArrayList<SingleOperation>());
+      }
+      for (SingleOperation item : quarantined) {
+          lanes.get(Math.abs(item.getKey().hashCode() % writerThreadCount)).add(item);
+      }
+      // the lanes own the items from now on, so that a failure only reinserts what they didn't write
+      quarantined.clear();
+
+      final boolean batching = writeBatching && writeBatchSize > 0;
+      final int batchSize = batching ? currentBatchSize() : Integer.MAX_VALUE;
+      final List<SingleOperation> unprocessed = new ArrayList<SingleOperation>();
+      final List<List<SingleOperation>> works = new ArrayList<List<SingleOperation>>(writerThreadCount);
+      final List<Future<BatchOutcome>> futures = new ArrayList<Future<BatchOutcome>>(writerThreadCount);
+      int processed = 0;
+      for (List<SingleOperation> lane : lanes) {
+          if (lane.isEmpty()) {
+              continue;
+          }
+          final List<SingleOperation> work = new ArrayList<SingleOperation>(lane.subList(0, Math.min(batchSize, lane.size())));
+          unprocessed.addAll(lane.subList(work.size(), lane.size()));
+          processed += work.size();
+          works.add(work);
+          // the work of a lane is emptied as it is written, what is left in it after a failure is reinserted
+          futures.add(writerThreads.submit(new Callable<BatchOutcome>() {
+              public BatchOutcome call() {
+                  if (batching) {
+                      BatchOutcome outcome = writeBatch(work);
+                      work.clear();
+                      return outcome;
+                  }
+                  processSingleOperation(work);
+                  return null;
+              }
+          }));
+      }
+
+      // wait for every lane before going on, so that no operation is reinserted while another lane still writes
+      long writerNanos = 0;
+      boolean failed = false;
+      Throwable failure = null;
+      boolean interrupted = false;
+      for (Future<BatchOutcome> future : futures) {
+          while (true) {
+              try {
+                  BatchOutcome outcome = future.get();
+                  if (outcome != null) {
+                      writerNanos = Math.max(writerNanos, outcome.writerNanos);
+                      failed |= outcome.failed;
+                  }
+                  break;
+              } catch (InterruptedException e) {
+                  interrupted = true;
+              } catch (ExecutionException e) {
+                  if (failure == null) {
+                      failure = e.getCause();
+                  }
+                  break;
+              }
+          }
+      }
+      if (interrupted) {
+          Thread.currentThread().interrupt();
+      }
+      if (failure != null) {
+          final List<SingleOperation> remaining = new ArrayList<SingleOperation>();
+          for (List<SingleOperation> work : works) {
+              remaining.addAll(work);
+          }
+          remaining.addAll(unprocessed);
+          if (!remaining.isEmpty()) {
+              reassemble(remaining);
+          }
+      }
+      if (failure instanceof RuntimeException) {
+          throw (RuntimeException) failure;
+      } else if (failure instanceof Error) {
+          throw (Error) failure;
+      } else if (failure != null) {
+          throw new CacheException(failure);
+      }
+
+      if (adaptiveBatching != null) {
+          adaptiveBatching.batchCompleted(processed, writerNanos, failed, System.currentTimeMillis());
+      }
+
+      if (!unprocessed.isEmpty()) {
+          reassemble(unprocessed);
+      }
+  }
+
+  /**
+   * Write the given items through the batch operations of their types, retrying failed batches.
+   */
+  private BatchOutcome writeBatch(List<SingleOperation> batch) {
       // create batches that are separated by operation type
       final Map<SingleOperationType, List<SingleOperation>> separatedItemsPerType =
               new TreeMap<SingleOperationType, List<SingleOperation>>();
-      for (int i = 0; i < batchSize; i++) {
-          final SingleOperation item = quarantined.get(i);
-
+      for (SingleOperation item : batch) {
           if (LOGGER.isLoggable(Level.CONFIG)) {
               LOGGER.config(getThreadName() + " : processItems() : adding " + item + " to next batch");
           }
@@ -385,14 +611,20 @@ public abstract class AbstractWriteBehindQueue implements WriteBehind {
           itemsPerType.add(item);
       }
 
-      // execute the batch operations
+      // execute the batch operations, timing the writer for the adaptive batching
+      long writerNanos = 0;
+      boolean failed = false;
       for (List<SingleOperation> itemsPerType : separatedItemsPerType.values()) {
           int executionsLeft = retryAttempts + 1;
           while (executionsLeft-- > 0) {
+              final long start = System.nanoTime();
               try {
                   itemsPerType.get(0).createBatchOperation(itemsPerType).performBatchOperation(cacheWriter);
+                  writerNanos += System.nanoTime() - start;
                   break;
               } catch (final RuntimeException e) {
+                  writerNanos += System.nanoTime() - start;
+                  failed = true;
                   if (executionsLeft <= 0) {
                       for (SingleOperation singleOperation : itemsPerType) {
                           singleOperation.throwAway(cacheWriter, e);
@@ -410,15 +642,7 @@ public abstract class AbstractWriteBehindQueue implements WriteBehind {
               }
           }
       }
-
-      // remove the batched items
-      for (int i = 0; i < batchSize; i++) {
-          quarantined.remove(0);
-      }
-
-      if (!quarantined.isEmpty()) {
-          reassemble(quarantined);
-      }
+      return new BatchOutcome(writerNanos, failed);
   }
 
   private void processSingleOperation(List<SingleOperation> quarantined) {
@@ -463,33 +687,15 @@ public abstract class AbstractWriteBehindQueue implements WriteBehind {
    * {@inheritDoc}
    */
   public void write(Element element) {
-      queueWriteLock.lock();
+      beginProducing();
       try {
-          waitForQueueSizeToDrop();
           if (stopping || stopped) {
               throw new CacheException("The element '" + element + "' couldn't be added through the write-behind queue for cache '"
                       + cacheName + "' since it's not started.");
           }
           addItem(new WriteOperation(element));
-          if (getQueueSize() + 1 < maxQueueSize) {
-              queueIsFull.signal();
-          }
-          queueIsEmpty.signal();
       } finally {
-          queueWriteLock.unlock();
-      }
-  }
-
-  private void waitForQueueSizeToDrop() {
-      if (maxQueueSize > 0) {
-          while (getQueueSize() >= maxQueueSize) {
-              try {
-                  queueIsFull.await();
-              } catch (InterruptedException e) {
-                  stop();
-                  Thread.currentThread().interrupt();
-              }
-          }
+          endProducing();
       }
   }
 
@@ -497,20 +703,57 @@ public abstract class AbstractWriteBehindQueue implements WriteBehind {
    * {@inheritDoc}
    */
   public void delete(CacheEntry entry) {
-      queueWriteLock.lock();
+      beginProducing();
       try {
-          waitForQueueSizeToDrop();
           if (stopping || stopped) {
               throw new CacheException("The entry for key '" + entry.getKey() + "' couldn't be deleted through the write-behind "
                       + "queue for cache '" + cacheName + "' since it's not started.");
           }
           addItem(new DeleteOperation(entry));
-          if (getQueueSize() + 1 < maxQueueSize) {
-              queueIsFull.signal();
-          }
-          queueIsEmpty.signal();
       } finally {
-          queueWriteLock.unlock();
+          endProducing();
+      }
+  }
+
+  /**
+   * Register the calling thread as a producer and wait for the queue to have room.
+   */
+  private void beginProducing() {
+      activeProducers.incrementAndGet();
+      if (maxQueueSize > 0) {
+          waitForQueueSizeToDrop();
+      }
+  }
+
+  /**
+   * Unregister the calling thread as a producer and wake up the processing thread if it's waiting for work.
+   */
+  private void endProducing() {
+      activeProducers.decrementAndGet();
+      if (awaitingWork) {
+          LockSupport.unpark(processingThread);
+      }
+  }
+
+  private void waitForQueueSizeToDrop() {
+      int attempts = 0;
+      long parkNanos = BACKPRESSURE_MIN_PARK_NANOS;
+      while (getQueueSize() >= maxQueueSize && !stopping && !stopped) {
+          if (attempts < BACKPRESSURE_SPINS) {
+              attempts++;
+          } else if (attempts < BACKPRESSURE_SPINS + BACKPRESSURE_YIELDS) {
+              attempts++;
+              Thread.yield();
+          } else {
+              LockSupport.parkNanos(this, parkNanos);
+              parkNanos = Math.min(parkNanos * 2, BACKPRESSURE_MAX_PARK_NANOS);
+              if (Thread.interrupted()) {
+                  // stop the queue, without waiting for it as this producer is still registered
+                  stopping = true;
+                  LockSupport.unpark(processingThread);
+                  Thread.currentThread().interrupt();
+              }
+          }
       }
   }
 
@@ -518,14 +761,17 @@ public abstract class AbstractWriteBehindQueue implements WriteBehind {
    * {@inheritDoc}
    */
   public void stop() throws CacheException {
-      queueWriteLock.lock();
+      stateLock.lock();
       try {
           if (stopped) {
               return;
           }
 
           stopping = true;
-          queueIsEmpty.signal();
+          LockSupport.unpark(processingThread);
+          if (Thread.currentThread() == processingThread) {
+              return;
+          }
           while (!stopped) {
               queueIsStopped.await();
           }
@@ -533,7 +779,7 @@ public abstract class AbstractWriteBehindQueue implements WriteBehind {
           Thread.currentThread().interrupt();
           throw new CacheException(e);
       } finally {
-          queueWriteLock.unlock();
+          stateLock.unlock();
       }
   }
 
@@ -544,13 +790,34 @@ public abstract class AbstractWriteBehindQueue implements WriteBehind {
    */
   public abstract long getQueueSize();
 
-  private boolean isStopped() {
-      queueReadLock.lock();
-      try {
-          return stopped;
-      } finally {
-          queueReadLock.unlock();
+  /**
+   * Gets the number of operations included in the next batch, which varies over time when adaptive write batching is enabled.
+   *
+   * @return the current batch size, 0 if write batching is disabled
+   */
+  public int getWriteBatchSize() {
+      if (adaptiveBatching != null) {
+          return adaptiveBatching.getBatchSize();
       }
+      return writeBatching ? writeBatchSize : 0;
+  }
+
+  /**
+   * Gets the time the oldest operation of the last processing run spent in the queue before being written.
+   *
+   * @return the write lag in milliseconds
+   */
+  public long getWriteLagMillis() {
+      return writeLagMillis;
+  }
+
+  /**
+   * Has the processing thread stopped, or was it never started?
+   *
+   * @return true if stopped
+   */
+  protected boolean isStopped() {
+      return stopped;
   }
 
   private String getThreadName() {
@@ -558,17 +825,24 @@ public abstract class AbstractWriteBehindQueue implements WriteBehind {
   }
 
   private void reassemble(List<SingleOperation> quarantined) {
-      queueWriteLock.lock();
-      try {
-          if (null == quarantined) {
-              return;
-          }
+      if (null == quarantined) {
+          return;
+      }
+
+      reinsertUnprocessedItems(quarantined);
+  }
 
-          reinsertUnprocessedItems(quarantined);
+  /**
+   * Time spent in the writer by a batch and whether any attempt failed
+   */
+  private static final class BatchOutcome {
 
-          queueIsEmpty.signal();
-      } finally {
-          queueWriteLock.unlock();
+      private final long writerNanos;
+      private final boolean failed;
+
+      BatchOutcome(long writerNanos, boolean failed) {
+          this.writerNanos = writerNanos;
+          this.failed = failed;
       }
   }
 
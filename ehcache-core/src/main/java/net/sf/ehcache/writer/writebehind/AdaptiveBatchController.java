@@ -0,0 +1,132 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.writer.writebehind;
+
+/**
+ * Additive-increase/multiplicative-decrease control of the size and dispatch rate of write-behind batches.
+ * <p>
+ * A batch is congested when it failed or took longer than a quarter of the target lag: the batch size is then halved, and
+ * the rate is halved from the lower of its current value and the measured writer throughput. Otherwise both grow additively,
+ * the batch size by a sixteenth of its maximum and the rate by the size of the batch, up to their configured bounds.
+ * Partial batches are held back for at most a quarter of the target lag, and batches are paced according to the rate, unless
+ * the oldest queued operation already exceeds the target lag or the backlog exceeds half of the queue capacity.
+ * <p>
+ * Only the processing thread updates the controller, the current values are published for statistics.
+ *
+ * @author Terracotta
+ */
+final class AdaptiveBatchController {
+
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final int INCREASE_STEPS = 16;
+    private static final int TARGET_FRACTION = 4;
+    private static final double MIN_RATE = 1;
+    private static final double MS_IN_SEC = 1000;
+    private static final double NANOS_IN_SEC = 1000000000;
+
+    private final int maxBatchSize;
+    private final double maxRate;
+    private final long targetLagMillis;
+    private final long maxFillDelayMillis;
+    private final long congestionNanos;
+    private final long backlogThreshold;
+
+    private double batchSize;
+    private double rate;
+    private long nextDispatchMillis;
+
+    private volatile int currentBatchSize;
+
+    /**
+     * Create a controller.
+     *
+     * @param maxBatchSize the largest batch size
+     * @param rateLimitPerSecond the highest dispatch rate in operations per second, 0 for no limit
+     * @param targetLagMillis the target lag between an operation being queued and being written
+     * @param maxWriteDelayMillis the longest time to wait for a batch to fill up
+     * @param maxQueueSize the capacity of the queue, 0 if unbounded
+     */
+    AdaptiveBatchController(int maxBatchSize, int rateLimitPerSecond, long targetLagMillis, long maxWriteDelayMillis, int maxQueueSize) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxRate = rateLimitPerSecond > 0 ? rateLimitPerSecond : Double.POSITIVE_INFINITY;
+        this.targetLagMillis = targetLagMillis;
+        this.maxFillDelayMillis = Math.min(maxWriteDelayMillis, targetLagMillis / TARGET_FRACTION);
+        this.congestionNanos = targetLagMillis * 1000000L / TARGET_FRACTION;
+        this.backlogThreshold = maxQueueSize > 0 ? maxQueueSize / 2 : Long.MAX_VALUE;
+        this.batchSize = this.maxBatchSize;
+        this.rate = maxRate;
+        this.currentBatchSize = this.maxBatchSize;
+    }
+
+    /**
+     * Number of operations to include in the next batch.
+     *
+     * @return the current batch size
+     */
+    int getBatchSize() {
+        return currentBatchSize;
+    }
+
+    /**
+     * Current dispatch rate.
+     *
+     * @return the rate in operations per second, infinite if unlimited
+     */
+    double getRate() {
+        return rate;
+    }
+
+    /**
+     * How long to hold back the available operations before dispatching a batch.
+     *
+     * @param now the current time in milliseconds
+     * @param available the number of operations available
+     * @param oldestCreationTime the creation time of the oldest available operation
+     * @return the delay in milliseconds, 0 to dispatch now
+     */
+    long dispatchDelay(long now, long available, long oldestCreationTime) {
+        long lag = now - oldestCreationTime;
+        if (lag >= targetLagMillis || available >= backlogThreshold) {
+            return 0;
+        }
+        if (available < currentBatchSize && lag < maxFillDelayMillis) {
+            return maxFillDelayMillis - lag;
+        }
+        return Math.max(0, nextDispatchMillis - now);
+    }
+
+    /**
+     * Adjust to the outcome of a batch.
+     *
+     * @param size the number of operations in the batch
+     * @param latencyNanos the time spent in the writer
+     * @param failed whether any attempt to write the batch failed
+     * @param now the current time in milliseconds
+     */
+    void batchCompleted(int size, long latencyNanos, boolean failed, long now) {
+        if (failed || latencyNanos > congestionNanos) {
+            batchSize = Math.max(1, batchSize * DECREASE_FACTOR);
+            double throughput = size * NANOS_IN_SEC / Math.max(1, latencyNanos);
+            rate = Math.max(MIN_RATE, Math.min(rate, throughput) * DECREASE_FACTOR);
+        } else {
+            batchSize = Math.min(maxBatchSize, batchSize + Math.max(1, maxBatchSize / INCREASE_STEPS));
+            rate = Math.min(maxRate, rate + Math.max(1, size));
+        }
+        currentBatchSize = (int) batchSize;
+        nextDispatchMillis = now + (long) (size * MS_IN_SEC / rate);
+    }
+}
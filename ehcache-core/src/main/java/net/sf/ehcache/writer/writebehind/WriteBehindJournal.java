@@ -0,0 +1,470 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.writer.writebehind;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import net.sf.ehcache.CacheEntry;
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.util.PreferredLoaderObjectInputStream;
+import net.sf.ehcache.writer.writebehind.operations.DeleteOperation;
+import net.sf.ehcache.writer.writebehind.operations.SingleOperation;
+import net.sf.ehcache.writer.writebehind.operations.SingleOperationType;
+import net.sf.ehcache.writer.writebehind.operations.WriteOperation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of the operations of a write-behind queue.
+ * <p>
+ * Operations are appended sequentially to segment files in a directory and made durable with a group fsync: a thread
+ * forcing the journal to disk covers every record appended before it, so concurrent producers share a single fsync.
+ * Records are numbered in memory in append order. Acknowledged records are noted in a sidecar file of their segment so
+ * they're skipped when replaying, and once all records of a segment are acknowledged the segment is deleted, or truncated
+ * if it's still being appended to. Records are framed with their length and a CRC so a torn write at the tail of a segment
+ * is detected and ignored when the journal is replayed.
+ *
+ * @author Terracotta
+ */
+final class WriteBehindJournal {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBehindJournal.class);
+
+    private static final String SEGMENT_SUFFIX = ".wbj";
+    private static final String ACKNOWLEDGED_SUFFIX = ".ack";
+    private static final long SEGMENT_SIZE = 4 * 1024 * 1024;
+    private static final int HEADER_SIZE = 8;
+    private static final int INT_SIZE = 4;
+
+    private final File directory;
+    private final ClassLoader classLoader;
+    private final TreeMap<Long, Segment> segments = new TreeMap<Long, Segment>();
+    private final Object syncLock = new Object();
+
+    private Segment current;
+    private long nextSequence;
+    private volatile long durableSequence = -1;
+
+    /**
+     * Open the journal in the given directory, creating it if needed.
+     *
+     * @param directory the journal directory
+     * @param classLoader the class loader used to deserialize replayed operations
+     */
+    WriteBehindJournal(File directory, ClassLoader classLoader) {
+        this.directory = directory;
+        this.classLoader = classLoader;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new CacheException("Unable to create write-behind journal directory " + directory);
+        }
+    }
+
+    /**
+     * Read the operations pending in the journal, in the order they were appended, and open a new segment for further
+     * appends. Must be called once, before any other method.
+     *
+     * @return the pending operations, keyed by their sequence number
+     */
+    synchronized Map<Long, SingleOperation> recover() {
+        Map<Long, SingleOperation> pending = new TreeMap<Long, SingleOperation>();
+        File[] files = directory.listFiles();
+        long segmentNumber = 0;
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                if (file.getName().endsWith(SEGMENT_SUFFIX)) {
+                    Segment segment = new Segment(file, nextSequence);
+                    readSegment(segment, pending);
+                    segmentNumber = Math.max(segmentNumber, segmentNumberOf(file) + 1);
+                    if (segment.acknowledged == segment.appended) {
+                        delete(segment);
+                    } else {
+                        segments.put(segment.firstSequence, segment);
+                    }
+                }
+            }
+        }
+        if (!pending.isEmpty()) {
+            LOG.info("Replaying " + pending.size() + " write-behind operations from journal " + directory);
+        }
+        durableSequence = nextSequence - 1;
+        current = openSegment(segmentNumber);
+        return pending;
+    }
+
+    /**
+     * Append an operation to the journal and wait for it to be durable.
+     *
+     * @param operation the operation
+     * @return the sequence number of the operation
+     */
+    long append(SingleOperation operation) {
+        long sequence = write(encode(operation));
+        sync(sequence);
+        return sequence;
+    }
+
+    /**
+     * Append operations to the journal and wait for them to be durable, sharing a single fsync.
+     *
+     * @param operations the operations, in order
+     */
+    void appendAll(List<SingleOperation> operations) {
+        long sequence = -1;
+        for (SingleOperation operation : operations) {
+            sequence = write(encode(operation));
+        }
+        if (sequence >= 0) {
+            sync(sequence);
+        }
+    }
+
+    private synchronized long write(byte[] record) {
+        long sequence = nextSequence++;
+        try {
+            if (current.channel.size() + record.length > SEGMENT_SIZE && current.appended > 0) {
+                roll();
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            while (buffer.hasRemaining()) {
+                current.channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new CacheException("Unable to append to write-behind journal " + directory, e);
+        }
+        if (current.appended++ == 0) {
+            current.firstSequence = sequence;
+            segments.put(sequence, current);
+        }
+        return sequence;
+    }
+
+    /**
+     * Acknowledge operations as done. The acknowledgements are durable when this method returns.
+     *
+     * @param sequences the sequence numbers of the completed operations
+     */
+    synchronized void acknowledge(Collection<Long> sequences) {
+        Map<Segment, List<Long>> bySegment = new HashMap<Segment, List<Long>>();
+        for (Long sequence : sequences) {
+            Map.Entry<Long, Segment> entry = segments.floorEntry(sequence);
+            if (entry != null) {
+                List<Long> acknowledged = bySegment.get(entry.getValue());
+                if (acknowledged == null) {
+                    acknowledged = new ArrayList<Long>();
+                    bySegment.put(entry.getValue(), acknowledged);
+                }
+                acknowledged.add(sequence);
+            }
+        }
+        for (Map.Entry<Segment, List<Long>> entry : bySegment.entrySet()) {
+            Segment segment = entry.getKey();
+            segment.acknowledged += entry.getValue().size();
+            if (segment.acknowledged == segment.appended) {
+                segments.remove(segment.firstSequence);
+                if (segment == current) {
+                    reset(segment);
+                } else {
+                    delete(segment);
+                }
+            } else {
+                writeAcknowledged(segment, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Close the journal, keeping the pending operations on disk.
+     */
+    synchronized void close() {
+        if (current != null) {
+            if (current.appended == 0) {
+                delete(current);
+            } else {
+                closeQuietly(current);
+            }
+            current = null;
+        }
+        for (Segment segment : segments.values()) {
+            closeQuietly(segment);
+        }
+    }
+
+    private void sync(long sequence) {
+        if (durableSequence >= sequence) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (durableSequence >= sequence) {
+                return;
+            }
+            long upTo;
+            FileChannel channel;
+            synchronized (this) {
+                upTo = nextSequence - 1;
+                channel = current.channel;
+            }
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException e) {
+                // the segment was rolled, which forced it first
+            } catch (IOException e) {
+                throw new CacheException("Unable to sync write-behind journal " + directory, e);
+            }
+            durableSequence = upTo;
+        }
+    }
+
+    private void roll() throws IOException {
+        Segment previous = current;
+        previous.channel.force(false);
+        previous.channel.close();
+        previous.channel = null;
+        current = openSegment(segmentNumberOf(previous.file) + 1);
+    }
+
+    private Segment openSegment(long number) {
+        File file = new File(directory, String.format("%019d", number) + SEGMENT_SUFFIX);
+        Segment segment = new Segment(file, nextSequence);
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(0);
+            segment.channel = raf.getChannel();
+        } catch (IOException e) {
+            throw new CacheException("Unable to open write-behind journal segment " + file, e);
+        }
+        return segment;
+    }
+
+    private void writeAcknowledged(Segment segment, List<Long> sequences) {
+        ByteBuffer buffer = ByteBuffer.allocate(sequences.size() * INT_SIZE);
+        for (Long sequence : sequences) {
+            buffer.putInt((int) (sequence - segment.firstSequence));
+        }
+        buffer.flip();
+        try {
+            if (segment.acknowledgedChannel == null) {
+                RandomAccessFile raf = new RandomAccessFile(segment.acknowledgedFile, "rw");
+                raf.seek(raf.length() - raf.length() % INT_SIZE);
+                segment.acknowledgedChannel = raf.getChannel();
+            }
+            while (buffer.hasRemaining()) {
+                segment.acknowledgedChannel.write(buffer);
+            }
+            segment.acknowledgedChannel.force(false);
+        } catch (IOException e) {
+            // the operations will be replayed, which write-behind tolerates
+            LOG.warn("Unable to record acknowledged write-behind operations in " + segment.acknowledgedFile, e);
+        }
+    }
+
+    private void reset(Segment segment) {
+        try {
+            segment.channel.truncate(0);
+            if (segment.acknowledgedChannel != null) {
+                segment.acknowledgedChannel.truncate(0);
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to truncate write-behind journal segment " + segment.file, e);
+        }
+        segment.appended = 0;
+        segment.acknowledged = 0;
+    }
+
+    private void readSegment(Segment segment, Map<Long, SingleOperation> pending) {
+        BitSet acknowledged = readAcknowledged(segment.acknowledgedFile);
+        long remaining = segment.file.length();
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file)));
+            try {
+                while (true) {
+                    int length = in.readInt();
+                    long checksum = in.readInt() & 0xFFFFFFFFL;
+                    remaining -= HEADER_SIZE;
+                    if (length < 0 || length > remaining) {
+                        // a torn or corrupt header: don't trust its length with an allocation
+                        LOG.warn("Ignoring corrupt tail of write-behind journal segment " + segment.file);
+                        return;
+                    }
+                    remaining -= length;
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+                    CRC32 crc = new CRC32();
+                    crc.update(payload);
+                    if (crc.getValue() != checksum) {
+                        LOG.warn("Ignoring corrupt tail of write-behind journal segment " + segment.file);
+                        return;
+                    }
+                    if (acknowledged.get(segment.appended)) {
+                        segment.acknowledged++;
+                    } else {
+                        pending.put(nextSequence, decode(payload));
+                    }
+                    segment.appended++;
+                    nextSequence++;
+                }
+            } catch (EOFException e) {
+                // end of the segment, or a torn final record
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new CacheException("Unable to read write-behind journal segment " + segment.file, e);
+        } catch (ClassNotFoundException e) {
+            throw new CacheException("Unable to read write-behind journal segment " + segment.file, e);
+        }
+    }
+
+    private static BitSet readAcknowledged(File file) {
+        BitSet acknowledged = new BitSet();
+        if (file.exists()) {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                try {
+                    while (true) {
+                        acknowledged.set(in.readInt());
+                    }
+                } catch (EOFException e) {
+                    // end of the acknowledgements, ignoring a torn final one
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                throw new CacheException("Unable to read write-behind journal acknowledgements " + file, e);
+            }
+        }
+        return acknowledged;
+    }
+
+    private static byte[] encode(SingleOperation operation) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            bytes.write(new byte[HEADER_SIZE]);
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeByte(operation.getType().ordinal());
+            out.writeLong(operation.getCreationTime());
+            if (operation instanceof WriteOperation) {
+                out.writeObject(((WriteOperation) operation).getElement());
+            } else {
+                CacheEntry entry = ((DeleteOperation) operation).getEntry();
+                out.writeObject(entry.getKey());
+                out.writeObject(entry.getElement());
+            }
+            out.close();
+            byte[] record = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(record, HEADER_SIZE, record.length - HEADER_SIZE);
+            ByteBuffer.wrap(record).putInt(record.length - HEADER_SIZE).putInt((int) crc.getValue());
+            return record;
+        } catch (IOException e) {
+            throw new CacheException("Unable to journal write-behind operation for key " + operation.getKey(), e);
+        }
+    }
+
+    private SingleOperation decode(byte[] payload) throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new PreferredLoaderObjectInputStream(new ByteArrayInputStream(payload), classLoader);
+        try {
+            SingleOperationType type = SingleOperationType.values()[in.readByte()];
+            long creationTime = in.readLong();
+            if (type == SingleOperationType.WRITE) {
+                return new WriteOperation((Element) in.readObject(), creationTime);
+            } else {
+                Object key = in.readObject();
+                return new DeleteOperation(new CacheEntry(key, (Element) in.readObject()), creationTime);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static long segmentNumberOf(File file) {
+        String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void closeQuietly(Segment segment) {
+        try {
+            if (segment.channel != null) {
+                segment.channel.close();
+                segment.channel = null;
+            }
+            if (segment.acknowledgedChannel != null) {
+                segment.acknowledgedChannel.close();
+                segment.acknowledgedChannel = null;
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to close write-behind journal segment " + segment.file, e);
+        }
+    }
+
+    private static void delete(Segment segment) {
+        closeQuietly(segment);
+        for (File file : new File[] {segment.file, segment.acknowledgedFile}) {
+            if (!file.delete() && file.exists()) {
+                LOG.warn("Unable to delete write-behind journal file " + file);
+            }
+        }
+    }
+
+    /**
+     * Journal segment file and its acknowledgements
+     */
+    private static final class Segment {
+
+        private final File file;
+        private final File acknowledgedFile;
+        private long firstSequence;
+        private FileChannel channel;
+        private FileChannel acknowledgedChannel;
+        private int appended;
+        private int acknowledged;
+
+        Segment(File file, long firstSequence) {
+            this.file = file;
+            this.acknowledgedFile = new File(file.getPath() + ACKNOWLEDGED_SUFFIX);
+            this.firstSequence = firstSequence;
+        }
+    }
+}
@@ -15,6 +15,9 @@
  */
 package net.sf.ehcache.writer.writebehind;
 
+import java.util.Collection;
+import java.util.Iterator;
+
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheEntry;
 import net.sf.ehcache.CacheException;
@@ -22,8 +25,9 @@ import net.sf.ehcache.Element;
 import net.sf.ehcache.config.PersistenceConfiguration.Strategy;
 import net.sf.ehcache.store.Store;
 import net.sf.ehcache.store.TerracottaStore;
+import net.sf.ehcache.writer.BatchingCacheWriterManager;
 import net.sf.ehcache.writer.CacheWriter;
-import net.sf.ehcache.writer.CacheWriterManager;
+import net.sf.ehcache.writer.CacheWriterManagerException;
 import org.terracotta.statistics.Statistic;
 
 /**
@@ -32,7 +36,7 @@ import org.terracotta.statistics.Statistic;
  * @author Geert Bevin
  * @version $Id$
  */
-public class WriteBehindManager implements CacheWriterManager {
+public class WriteBehindManager implements BatchingCacheWriterManager {
     private final WriteBehind writeBehind;
 
     /**
@@ -46,6 +50,9 @@ public class WriteBehindManager implements CacheWriterManager {
         } else if (cache.getCacheConfiguration().getPersistenceConfiguration() != null
                 && cache.getCacheConfiguration().getPersistenceConfiguration().getStrategy() == Strategy.LOCALRESTARTABLE) {
             writeBehind = cache.getCacheManager().getFeaturesManager().createWriteBehind(cache);
+        } else if (cache.getCacheConfiguration().getCacheWriterConfiguration().getWriteBehindJournal()) {
+            writeBehind = new WriteBehindQueueManager(cache.getCacheConfiguration(),
+                    new WriteBehindQueueManager.JournaledWriteBehindQueueFactory(cache.getCacheManager().getDiskStorePathManager()));
         } else {
             writeBehind = new WriteBehindQueueManager(cache.getCacheConfiguration());
         }
@@ -81,6 +88,34 @@ public class WriteBehindManager implements CacheWriterManager {
         writeBehind.delete(entry);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void putAll(Collection<Element> elements) throws CacheException {
+        try {
+            for (Iterator<Element> it = elements.iterator(); it.hasNext();) {
+                writeBehind.write(it.next());
+                it.remove();
+            }
+        } catch (RuntimeException e) {
+            throw new CacheWriterManagerException(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void removeAll(Collection<CacheEntry> entries) throws CacheException {
+        try {
+            for (Iterator<CacheEntry> it = entries.iterator(); it.hasNext();) {
+                writeBehind.delete(it.next());
+                it.remove();
+            }
+        } catch (RuntimeException e) {
+            throw new CacheWriterManagerException(e);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -101,4 +136,30 @@ public class WriteBehindManager implements CacheWriterManager {
     public long getQueueSize() {
         return writeBehind.getQueueSize();
     }
+
+    /**
+     * Gets the current write-behind batch size, which adapts to the writer when adaptive write batching is enabled.
+     *
+     * @return the batch size, 0 if unknown or batching is disabled
+     */
+    @Statistic(name = "batch-size", tags = "write-behind")
+    public int getWriteBatchSize() {
+        if (writeBehind instanceof WriteBehindQueueManager) {
+            return ((WriteBehindQueueManager) writeBehind).getWriteBatchSize();
+        }
+        return 0;
+    }
+
+    /**
+     * Gets the time the oldest operation of the latest write spent queued.
+     *
+     * @return the write lag in milliseconds, 0 if unknown
+     */
+    @Statistic(name = "write-lag", tags = "write-behind")
+    public long getWriteLagMillis() {
+        if (writeBehind instanceof WriteBehindQueueManager) {
+            return ((WriteBehindQueueManager) writeBehind).getWriteLagMillis();
+        }
+        return 0;
+    }
 }
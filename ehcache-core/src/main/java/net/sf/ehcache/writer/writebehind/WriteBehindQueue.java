@@ -16,20 +16,40 @@
 package net.sf.ehcache.writer.writebehind;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import net.sf.ehcache.CacheException;
 import net.sf.ehcache.config.CacheConfiguration;
 import net.sf.ehcache.writer.writebehind.operations.SingleOperation;
 
 /**
- * An implementation of write behind with a queue that is kept in non durable local heap.
+ * An implementation of write behind with a queue that is kept in non durable local heap, optionally backed by a
+ * {@link WriteBehindJournal}.
+ * <p>
+ * Operations are appended to a lock-free multi-producer single-consumer linked queue: producers swap themselves in as the
+ * tail and the processing thread drains everything linked so far in one pass. Operations reinserted by the processing thread
+ * are kept aside, ahead of the linked ones, as only that thread ever reads them.
+ * <p>
+ * When journaled, operations are durable before being queued. The operations of a processing run that weren't reinserted
+ * are acknowledged to the journal at the end of the run, and the pending ones are replayed into the queue on creation.
  *
  * @author Geert Bevin
  * @version $Id$
  */
 class WriteBehindQueue extends AbstractWriteBehindQueue {
 
-    private List<SingleOperation> waiting = new ArrayList<SingleOperation>();
+    private final AtomicReference<Node> tail;
+    private final AtomicLong size = new AtomicLong();
+    private final WriteBehindJournal journal;
+    private final Map<SingleOperation, Long> inFlight = new IdentityHashMap<SingleOperation, Long>();
+    private Node head;
+    private List<SingleOperation> reinserted = new ArrayList<SingleOperation>();
 
     /**
      * Construct a simple list backed write behind queue.
@@ -37,31 +57,117 @@ class WriteBehindQueue extends AbstractWriteBehindQueue {
      * @param config
      */
     WriteBehindQueue(CacheConfiguration config) {
+        this(config, null);
+    }
+
+    /**
+     * Construct a write behind queue, journaled if a journal is given.
+     *
+     * @param config the cache configuration
+     * @param journal the journal of the queue, replayed into it; or {@code null}
+     */
+    WriteBehindQueue(CacheConfiguration config, WriteBehindJournal journal) {
         super(config);
+        this.head = new Node(null);
+        this.tail = new AtomicReference<Node>(head);
+        this.journal = journal;
+        if (journal != null) {
+            for (Map.Entry<Long, SingleOperation> pending : journal.recover().entrySet()) {
+                link(new Node(pending.getValue()), pending.getKey());
+            }
+        }
     }
 
     @Override
     protected List<SingleOperation> quarantineItems() {
-        List<SingleOperation> quarantined = waiting;
-        waiting = new ArrayList<SingleOperation>();
+        List<SingleOperation> quarantined = reinserted;
+        reinserted = new ArrayList<SingleOperation>();
+        Node next;
+        while ((next = head.next) != null) {
+            quarantined.add(next.operation);
+            if (journal != null) {
+                inFlight.put(next.operation, next.sequence);
+            }
+            next.operation = null;
+            head = next;
+        }
+        size.addAndGet(-quarantined.size());
         return quarantined;
     }
 
     @Override
     protected void addItem(SingleOperation operation) {
-        waiting.add(operation);
+        link(new Node(operation), journal == null ? 0 : journal.append(operation));
+    }
+
+    private void link(Node node, long sequence) {
+        node.sequence = sequence;
+        size.incrementAndGet();
+        // until the previous tail is linked the consumer stops there and picks this node up on its next drain
+        tail.getAndSet(node).next = node;
     }
 
     @Override
     public long getQueueSize() {
-        return waiting.size();
+        return size.get();
     }
 
     @Override
     protected void reinsertUnprocessedItems(List<SingleOperation> operations) {
         List<SingleOperation> newQueue = new ArrayList<SingleOperation>(operations);
-        newQueue.addAll(waiting);
-        waiting = newQueue;
+        newQueue.addAll(reinserted);
+        reinserted = newQueue;
+        size.addAndGet(operations.size());
+    }
+
+    @Override
+    protected void processingRunCompleted() {
+        if (journal == null || inFlight.isEmpty()) {
+            return;
+        }
+        Set<SingleOperation> waiting = Collections.newSetFromMap(new IdentityHashMap<SingleOperation, Boolean>());
+        waiting.addAll(reinserted);
+        List<Long> completed = new ArrayList<Long>();
+        for (Map.Entry<SingleOperation, Long> operation : inFlight.entrySet()) {
+            if (!waiting.contains(operation.getKey())) {
+                completed.add(operation.getValue());
+            }
+        }
+        inFlight.keySet().retainAll(waiting);
+        journal.acknowledge(completed);
     }
 
+    @Override
+    protected void processingStopped() {
+        closeJournal();
+    }
+
+    @Override
+    public void stop() throws CacheException {
+        super.stop();
+        // when called on the processing thread, the queue is still draining and the journal is closed as that thread stops
+        if (isStopped()) {
+            closeJournal();
+        }
+    }
+
+    private void closeJournal() {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Linked queue node
+     */
+    private static final class Node {
+
+        private volatile Node next;
+        private SingleOperation operation;
+        private long sequence;
+
+        Node(SingleOperation operation) {
+            this.operation = operation;
+        }
+    }
 }
@@ -16,22 +16,36 @@
 
 package net.sf.ehcache.writer.writebehind;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import net.sf.ehcache.CacheEntry;
 import net.sf.ehcache.CacheException;
+import net.sf.ehcache.DiskStorePathManager;
 import net.sf.ehcache.Element;
 import net.sf.ehcache.config.CacheConfiguration;
 import net.sf.ehcache.config.CacheWriterConfiguration;
 import net.sf.ehcache.writer.CacheWriter;
+import net.sf.ehcache.writer.writebehind.operations.SingleOperation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * @author Alex Snaps
  */
 public class WriteBehindQueueManager implements WriteBehind {
 
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBehindQueueManager.class);
+
     private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
     private final ReentrantReadWriteLock.ReadLock readLock = rwLock.readLock();
     private final ReentrantReadWriteLock.WriteLock writeLock = rwLock.writeLock();
@@ -148,6 +162,46 @@ public class WriteBehindQueueManager implements WriteBehind {
         return size;
     }
 
+    /**
+     * Gets the largest current batch size of the local queues.
+     *
+     * @return the batch size, 0 if batching is disabled or the queues aren't local
+     */
+    public int getWriteBatchSize() {
+        int batchSize = 0;
+        readLock.lock();
+        try {
+            for (WriteBehind queue : queues) {
+                if (queue instanceof AbstractWriteBehindQueue) {
+                    batchSize = Math.max(batchSize, ((AbstractWriteBehindQueue) queue).getWriteBatchSize());
+                }
+            }
+        } finally {
+            readLock.unlock();
+        }
+        return batchSize;
+    }
+
+    /**
+     * Gets the largest write lag of the local queues.
+     *
+     * @return the write lag in milliseconds
+     */
+    public long getWriteLagMillis() {
+        long lag = 0;
+        readLock.lock();
+        try {
+            for (WriteBehind queue : queues) {
+                if (queue instanceof AbstractWriteBehindQueue) {
+                    lag = Math.max(lag, ((AbstractWriteBehindQueue) queue).getWriteLagMillis());
+                }
+            }
+        } finally {
+            readLock.unlock();
+        }
+        return lag;
+    }
+
     /**
      * Factory used to create write behind queues.
      */
@@ -163,4 +217,148 @@ public class WriteBehindQueueManager implements WriteBehind {
         return new WriteBehindQueue(config);
       }
     }
+
+    /**
+     * Factory creating write behind queues journaled in the disk store path.
+     * <p>
+     * The number of stripes is recorded next to their journals. When it changes, the pending operations of the previous
+     * stripes are moved to the stripes their keys now map to before any queue is created, so that none is left behind
+     * and the operations on a key stay in a single stripe, in order.
+     */
+    static class JournaledWriteBehindQueueFactory extends WriteBehindQueueFactory {
+
+      private static final String STRIPE_SUFFIX = "-write-behind-";
+      private static final String STRIPE_COUNT_SUFFIX = "-write-behind.stripes";
+      private static final String RESTRIPED_SUFFIX = ".restripe";
+
+      private final DiskStorePathManager diskStorePathManager;
+      private boolean restriped;
+
+      /**
+       * Create a factory journaling in the given disk store path.
+       *
+       * @param diskStorePathManager the disk store path manager
+       */
+      JournaledWriteBehindQueueFactory(DiskStorePathManager diskStorePathManager) {
+        this.diskStorePathManager = diskStorePathManager;
+      }
+
+      @Override
+      protected WriteBehind createQueue(int index, CacheConfiguration config) {
+        if (!restriped) {
+          restripe(config);
+          restriped = true;
+        }
+        return new WriteBehindQueue(config, new WriteBehindJournal(stripeDirectory(config, index), config.getClassLoader()));
+      }
+
+      private File stripeDirectory(CacheConfiguration config, int index) {
+        return diskStorePathManager.getFile(config.getName(), STRIPE_SUFFIX + index);
+      }
+
+      private void restripe(CacheConfiguration config) {
+        int stripes = config.getCacheWriterConfiguration().getWriteBehindConcurrency();
+        File countFile = diskStorePathManager.getFile(config.getName(), STRIPE_COUNT_SUFFIX);
+        String prefix = stripeDirectory(config, 0).getName();
+        prefix = prefix.substring(0, prefix.length() - 1);
+
+        List<File> current = new ArrayList<File>();
+        List<File> restriping = new ArrayList<File>();
+        File[] files = countFile.getParentFile().listFiles();
+        if (files != null) {
+          Arrays.sort(files);
+          for (File file : files) {
+            if (file.isDirectory() && file.getName().startsWith(prefix)) {
+              String index = file.getName().substring(prefix.length());
+              if (index.endsWith(RESTRIPED_SUFFIX)) {
+                restriping.add(file);
+              } else if (index.matches("[0-9]+")) {
+                current.add(file);
+              }
+            }
+          }
+        }
+
+        // journals from before the stripe count was recorded are taken to be all there is of them
+        int previousStripes = countFile.exists() ? readStripeCount(countFile) : current.size();
+        if (previousStripes != stripes && !current.isEmpty()) {
+          LOG.info("Moving the write-behind journals of cache " + config.getName() + " from " + previousStripes + " to "
+                   + stripes + " stripes");
+          for (File directory : current) {
+            File moved = new File(directory.getPath() + RESTRIPED_SUFFIX);
+            if (!directory.renameTo(moved)) {
+              throw new CacheException("Unable to move write-behind journal " + directory + " to " + moved);
+            }
+            restriping.add(moved);
+          }
+        }
+        writeStripeCount(countFile, stripes);
+        if (restriping.isEmpty()) {
+          return;
+        }
+
+        // an interrupted move is resumed here, replaying what was already moved again, which write-behind tolerates
+        List<List<SingleOperation>> operations = new ArrayList<List<SingleOperation>>(stripes);
+        for (int i = 0; i < stripes; i++) {
+          operations.add(new ArrayList<SingleOperation>());
+        }
+        for (File directory : restriping) {
+          WriteBehindJournal journal = new WriteBehindJournal(directory, config.getClassLoader());
+          for (SingleOperation operation : journal.recover().values()) {
+            operations.get(Math.abs(operation.getKey().hashCode() % stripes)).add(operation);
+          }
+          journal.close();
+        }
+        for (int i = 0; i < stripes; i++) {
+          if (!operations.get(i).isEmpty()) {
+            WriteBehindJournal journal = new WriteBehindJournal(stripeDirectory(config, i), config.getClassLoader());
+            journal.recover();
+            journal.appendAll(operations.get(i));
+            journal.close();
+          }
+        }
+        for (File directory : restriping) {
+          delete(directory);
+        }
+      }
+
+      private static int readStripeCount(File countFile) {
+        try {
+          DataInputStream in = new DataInputStream(new FileInputStream(countFile));
+          try {
+            return in.readInt();
+          } finally {
+            in.close();
+          }
+        } catch (IOException e) {
+          throw new CacheException("Unable to read the write-behind stripe count " + countFile, e);
+        }
+      }
+
+      private static void writeStripeCount(File countFile, int stripes) {
+        try {
+          FileOutputStream out = new FileOutputStream(countFile);
+          try {
+            new DataOutputStream(out).writeInt(stripes);
+            out.getFD().sync();
+          } finally {
+            out.close();
+          }
+        } catch (IOException e) {
+          throw new CacheException("Unable to record the write-behind stripe count " + countFile, e);
+        }
+      }
+
+      private static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+          for (File file : files) {
+            file.delete();
+          }
+        }
+        if (!directory.delete()) {
+          LOG.warn("Unable to delete moved write-behind journal " + directory);
+        }
+      }
+    }
 }
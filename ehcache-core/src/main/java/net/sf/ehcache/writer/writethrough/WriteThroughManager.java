@@ -15,22 +15,39 @@
  */
 package net.sf.ehcache.writer.writethrough;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheEntry;
 import net.sf.ehcache.CacheException;
 import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheWriterConfiguration;
+import net.sf.ehcache.util.NamedThreadFactory;
+import net.sf.ehcache.writer.BatchingCacheWriterManager;
 import net.sf.ehcache.writer.CacheWriter;
-import net.sf.ehcache.writer.CacheWriterManager;
 import net.sf.ehcache.writer.CacheWriterManagerException;
 
 /**
  * Implements a {@code WriterManager} that writes elements directly through to the underlying store.
+ * <p>
+ * Bulk operations are split into batches of the configured write-through batch size, each handed to a single
+ * {@code writeAll} or {@code deleteAll} call. With a write-through concurrency greater than 1, the batches are written
+ * concurrently by a pool of threads, created on the first bulk operation that needs it.
  *
  * @author Geert Bevin
  * @version $Id$
  */
-public class WriteThroughManager implements CacheWriterManager {
+public class WriteThroughManager implements BatchingCacheWriterManager {
     private volatile Cache cache;
+    private ExecutorService batchExecutor;
 
     /**
      * {@inheritDoc}
@@ -70,7 +87,149 @@ public class WriteThroughManager implements CacheWriterManager {
     /**
      * {@inheritDoc}
      */
-    public void dispose() {
-        // nothing to do
+    public void putAll(Collection<Element> elements) throws CacheException {
+        final CacheWriter writer = cache.getRegisteredCacheWriter();
+        if (writer == null) {
+            elements.clear();
+            return;
+        }
+        performInBatches(elements, new BatchOperation<Element>() {
+            public void perform(List<Element> batch) {
+                writer.writeAll(batch);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void removeAll(Collection<CacheEntry> entries) throws CacheException {
+        final CacheWriter writer = cache.getRegisteredCacheWriter();
+        if (writer == null) {
+            entries.clear();
+            return;
+        }
+        performInBatches(entries, new BatchOperation<CacheEntry>() {
+            public void perform(List<CacheEntry> batch) {
+                writer.deleteAll(batch);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void dispose() {
+        if (batchExecutor != null) {
+            batchExecutor.shutdown();
+            batchExecutor = null;
+        }
+    }
+
+    private <T> void performInBatches(Collection<T> items, final BatchOperation<T> operation) {
+        final CacheWriterConfiguration config = cache.getCacheConfiguration().getCacheWriterConfiguration();
+        final int batchSize = config.getWriteThroughBatchSize();
+        final List<List<T>> batches = new ArrayList<List<T>>();
+        for (Iterator<T> it = items.iterator(); it.hasNext();) {
+            List<T> batch = new ArrayList<T>(Math.min(batchSize, items.size()));
+            while (batch.size() < batchSize && it.hasNext()) {
+                batch.add(it.next());
+            }
+            batches.add(batch);
+        }
+
+        final boolean[] written = new boolean[batches.size()];
+        RuntimeException failure = null;
+        try {
+            if (config.getWriteThroughConcurrency() <= 1 || batches.size() <= 1) {
+                for (int i = 0; i < batches.size() && failure == null; i++) {
+                    try {
+                        operation.perform(batches.get(i));
+                        written[i] = true;
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    }
+                }
+            } else {
+                failure = performConcurrently(batches, operation, written);
+            }
+        } finally {
+            // the writer leaves the items of a failed batch that weren't written in it, these and the unattempted batches
+            // remain, whatever the failure, so that a retry doesn't write the others again
+            items.clear();
+            for (int i = 0; i < batches.size(); i++) {
+                if (!written[i]) {
+                    items.addAll(batches.get(i));
+                }
+            }
+        }
+        if (failure != null) {
+            throw new CacheWriterManagerException(failure);
+        }
+    }
+
+    private <T> RuntimeException performConcurrently(List<List<T>> batches, final BatchOperation<T> operation,
+                                                     boolean[] written) {
+        final ExecutorService executor = getBatchExecutor();
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>(batches.size());
+        RuntimeException failure = null;
+        for (final List<T> batch : batches) {
+            try {
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() {
+                        operation.perform(batch);
+                        return null;
+                    }
+                }));
+            } catch (RuntimeException e) {
+                // the batches not submitted remain unattempted
+                failure = e;
+                break;
+            }
+        }
+
+        Error error = null;
+        boolean interrupted = false;
+        for (int i = 0; i < futures.size(); i++) {
+            while (true) {
+                try {
+                    futures.get(i).get();
+                    written[i] = true;
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Error) {
+                        error = error == null ? (Error) cause : error;
+                    } else if (failure == null) {
+                        failure = cause instanceof RuntimeException ? (RuntimeException) cause : new CacheException(cause);
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (error != null) {
+            throw error;
+        }
+        return failure;
+    }
+
+    private synchronized ExecutorService getBatchExecutor() {
+        if (batchExecutor == null) {
+            batchExecutor = Executors.newFixedThreadPool(cache.getCacheConfiguration().getCacheWriterConfiguration()
+                    .getWriteThroughConcurrency(), new NamedThreadFactory(cache.getName() + " write-through", true));
+        }
+        return batchExecutor;
+    }
+
+    /**
+     * A writer call for a batch of items
+     */
+    private interface BatchOperation<T> {
+        void perform(List<T> batch);
     }
 }
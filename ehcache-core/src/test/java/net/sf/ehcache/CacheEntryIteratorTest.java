@@ -0,0 +1,222 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.ehcache.config.CacheConfiguration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the entry iterators of {@link Cache}.
+ *
+ * @author Terracotta
+ */
+public class CacheEntryIteratorTest {
+
+    private CacheManager manager;
+
+    @Before
+    public void setUp() {
+        manager = CacheManager.create();
+    }
+
+    @After
+    public void tearDown() {
+        manager.removeAllCaches();
+        manager.shutdown();
+    }
+
+    @Test
+    public void testHeapEntriesAreIteratedQuietly() {
+        Cache cache = new Cache(new CacheConfiguration("heap", 0));
+        manager.addCache(cache);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(new Element(i, "value-" + i));
+        }
+
+        assertEquals(keys(cache), keys(cache.entryIterator(false)));
+        assertEquals(0, cache.getStatistics().cacheHitCount());
+        for (Iterator<Element> it = cache.entryIterator(false); it.hasNext();) {
+            assertEquals(0, it.next().getHitCount());
+        }
+    }
+
+    @Test
+    public void testDiskEntriesAreIteratedQuietly() {
+        Cache cache = new Cache(new CacheConfiguration("overflow", 10).overflowToDisk(true));
+        manager.addCache(cache);
+        for (int i = 0; i < 500; i++) {
+            cache.put(new Element(i, "value-" + i));
+        }
+
+        Set<Object> keys = keys(cache.entryIterator(false));
+        assertEquals(500, keys.size());
+        assertEquals(keys(cache), keys);
+        assertEquals(0, cache.getStatistics().cacheHitCount());
+        assertEquals(0, cache.getStatistics().localDiskHitCount());
+    }
+
+    @Test
+    public void testCopiesAreIterated() {
+        Cache cache = new Cache(new CacheConfiguration("copying", 0).copyOnRead(true).copyOnWrite(true));
+        manager.addCache(cache);
+        List<String> value = new ArrayList<String>();
+        value.add("a");
+        cache.put(new Element("key", value));
+
+        Element element = cache.entryIterator(false).next();
+        ((List<String>) element.getObjectValue()).add("b");
+        assertEquals(1, ((List<String>) cache.get("key").getObjectValue()).size());
+    }
+
+    @Test
+    public void testExpiredEntriesCanBeSkipped() throws InterruptedException {
+        Cache cache = new Cache(new CacheConfiguration("expiring", 0));
+        manager.addCache(cache);
+        cache.put(new Element("eternal", "value"));
+        Element expiring = new Element("expiring", "value");
+        expiring.setTimeToLive(1);
+        cache.put(expiring);
+        Thread.sleep(1500);
+
+        assertEquals(2, keys(cache.entryIterator(false)).size());
+        Set<Object> keys = keys(cache.entryIterator(true));
+        assertEquals(1, keys.size());
+        assertTrue(keys.contains("eternal"));
+        assertNotNull(cache.getQuiet("eternal"));
+    }
+
+    @Test
+    public void testIteratorIsWeaklyConsistent() {
+        Cache cache = new Cache(new CacheConfiguration("mutated", 0));
+        manager.addCache(cache);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(new Element(i, "value-" + i));
+        }
+
+        Iterator<Element> it = cache.entryIterator(false);
+        int count = 0;
+        while (it.hasNext()) {
+            Element element = it.next();
+            cache.remove(element.getObjectKey());
+            count++;
+        }
+        assertEquals(1000, count);
+        assertEquals(0, cache.getSize());
+        assertFalse(cache.entryIterator(false).hasNext());
+        try {
+            cache.entryIterator(false).remove();
+            fail("entry iterators do not support removal");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSplitsTraverseEveryEntryOnce() throws Exception {
+        Cache cache = new Cache(new CacheConfiguration("split", 10).overflowToDisk(true));
+        manager.addCache(cache);
+        for (int i = 0; i < 2000; i++) {
+            cache.put(new Element(i, "value-" + i));
+        }
+
+        List<SplittableIterator<Element>> parts = new ArrayList<SplittableIterator<Element>>();
+        parts.add(cache.splittableEntryIterator(false));
+        for (int i = 0; i < parts.size() && parts.size() < 16; i++) {
+            SplittableIterator<Element> split = parts.get(i).trySplit();
+            if (split != null) {
+                parts.add(split);
+                i--;
+            }
+        }
+        assertTrue(parts.size() > 1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<Object>>> futures = new ArrayList<Future<List<Object>>>();
+            for (final SplittableIterator<Element> part : parts) {
+                futures.add(executor.submit(new Callable<List<Object>>() {
+                    public List<Object> call() {
+                        List<Object> keys = new ArrayList<Object>();
+                        while (part.hasNext()) {
+                            keys.add(part.next().getObjectKey());
+                        }
+                        return keys;
+                    }
+                }));
+            }
+            Set<Object> keys = new HashSet<Object>();
+            int count = 0;
+            for (Future<List<Object>> future : futures) {
+                List<Object> partKeys = future.get();
+                keys.addAll(partKeys);
+                count += partKeys.size();
+            }
+            assertEquals(2000, count);
+            assertEquals(keys(cache), keys);
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(60, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testIteratorFromAnEmptyCache() {
+        Cache cache = new Cache(new CacheConfiguration("empty", 0));
+        manager.addCache(cache);
+        SplittableIterator<Element> it = cache.splittableEntryIterator(true);
+        assertFalse(it.hasNext());
+        try {
+            it.next();
+            fail("next on an exhausted iterator should throw NoSuchElementException");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+
+    private static Set<Object> keys(Ehcache cache) {
+        return new HashSet<Object>(cache.getKeys());
+    }
+
+    private static Set<Object> keys(Iterator<Element> it) {
+        Set<Object> keys = new HashSet<Object>();
+        while (it.hasNext()) {
+            assertTrue(keys.add(it.next().getObjectKey()));
+        }
+        return keys;
+    }
+}
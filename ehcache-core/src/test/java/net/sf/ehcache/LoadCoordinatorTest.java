@@ -0,0 +1,218 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.loader.CacheLoader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.terracotta.test.categories.CheckShorts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@Category(CheckShorts.class)
+public class LoadCoordinatorTest {
+
+    private CacheManager manager;
+
+    @Before
+    public void setUp() {
+        manager = new CacheManager(new Configuration().name("load-coordinator"));
+    }
+
+    @After
+    public void tearDown() {
+        manager.shutdown();
+    }
+
+    @Test
+    public void testConcurrentCallersShareLoads() throws Exception {
+        final RecordingLoader loader = new RecordingLoader(50);
+        final Cache cache = createCache(0, 0, loader);
+
+        final int callers = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<Map>> results = new ArrayList<Future<Map>>();
+            for (int i = 0; i < callers; i++) {
+                final List<Object> keys = new ArrayList<Object>();
+                for (int k = i; k < i + 10; k++) {
+                    keys.add(k);
+                }
+                results.add(executor.submit(new Callable<Map>() {
+                    @Override
+                    public Map call() throws Exception {
+                        start.await();
+                        return cache.getAllWithLoader(keys, null);
+                    }
+                }));
+            }
+            start.countDown();
+            for (int i = 0; i < callers; i++) {
+                Map result = results.get(i).get();
+                assertEquals(10, result.size());
+                for (int k = i; k < i + 10; k++) {
+                    assertEquals("value-" + k, result.get(k));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // every key was loaded once, in fewer batches than callers
+        assertEquals(callers + 9, loader.loadedKeys.size());
+        assertEquals(callers + 9, new HashSet<Object>(loader.loadedKeys).size());
+        assertTrue("batches " + loader.batches, loader.batches.size() < callers);
+    }
+
+    @Test
+    public void testLoadedValuesAreReturnedWithoutLookup() {
+        RecordingLoader loader = new RecordingLoader(0);
+        // the cache only holds a single entry, the loaded values are evicted on their way in
+        Cache cache = createCache(1, 0, loader);
+
+        List<Object> keys = new ArrayList<Object>();
+        for (int k = 0; k < 5; k++) {
+            keys.add(k);
+        }
+        Map result = cache.getAllWithLoader(keys, null);
+
+        assertEquals(5, result.size());
+        for (int k = 0; k < 5; k++) {
+            assertEquals("value-" + k, result.get(k));
+        }
+        assertEquals(1, loader.batches.size());
+        assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    public void testLoaderArgumentsAreNotMixed() {
+        RecordingLoader loader = new RecordingLoader(0);
+        Cache cache = createCache(0, 0, loader);
+
+        Map result = cache.getAllWithLoader(Collections.singletonList(1), "a");
+        assertEquals("value-1a", result.get(1));
+        result = cache.getAllWithLoader(Collections.singletonList(2), "b");
+        assertEquals("value-2b", result.get(2));
+        assertEquals(2, loader.batches.size());
+    }
+
+    @Test
+    public void testTimeout() {
+        RecordingLoader loader = new RecordingLoader(1000);
+        Cache cache = createCache(0, 100, loader);
+
+        try {
+            cache.getAllWithLoader(Collections.singletonList(1), null);
+            fail("expected LoaderTimeoutException");
+        } catch (LoaderTimeoutException e) {
+            // expected
+        }
+    }
+
+    private Cache createCache(int maxEntries, long loaderTimeoutMillis, CacheLoader loader) {
+        CacheConfiguration configuration = new CacheConfiguration("loads", maxEntries);
+        configuration.setCacheLoaderTimeoutMillis(loaderTimeoutMillis);
+        Cache cache = new Cache(configuration);
+        manager.addCache(cache);
+        cache.registerCacheLoader(loader);
+        return cache;
+    }
+
+    /**
+     * Loader recording the batches it loads, taking a fixed time per batch
+     */
+    private static final class RecordingLoader implements CacheLoader {
+
+        private final List<Set<Object>> batches = new CopyOnWriteArrayList<Set<Object>>();
+        private final List<Object> loadedKeys = new CopyOnWriteArrayList<Object>();
+        private final long pauseMillis;
+
+        RecordingLoader(long pauseMillis) {
+            this.pauseMillis = pauseMillis;
+        }
+
+        public Object load(Object key) throws CacheException {
+            return load(key, null);
+        }
+
+        public Map loadAll(Collection keys) {
+            return loadAll(keys, null);
+        }
+
+        public Object load(Object key, Object argument) {
+            return loadAll(Collections.singleton(key), argument).get(key);
+        }
+
+        public Map loadAll(Collection keys, Object argument) {
+            batches.add(new HashSet<Object>(keys));
+            try {
+                Thread.sleep(pauseMillis);
+            } catch (InterruptedException e) {
+                throw new CacheException(e);
+            }
+            Map<Object, Object> values = new HashMap<Object, Object>();
+            for (Object key : keys) {
+                loadedKeys.add(key);
+                values.put(key, "value-" + key + (argument == null ? "" : argument));
+            }
+            return values;
+        }
+
+        public String getName() {
+            return "RecordingLoader";
+        }
+
+        public CacheLoader clone(Ehcache cache) throws CloneNotSupportedException {
+            throw new CloneNotSupportedException();
+        }
+
+        public void init() {
+            // nothing to do
+        }
+
+        public void dispose() throws CacheException {
+            // nothing to do
+        }
+
+        public Status getStatus() {
+            return Status.STATUS_ALIVE;
+        }
+    }
+}
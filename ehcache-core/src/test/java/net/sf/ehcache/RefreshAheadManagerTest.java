@@ -0,0 +1,253 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.config.RefreshAheadConfiguration;
+import net.sf.ehcache.loader.CacheLoader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.terracotta.test.categories.CheckShorts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+@Category(CheckShorts.class)
+public class RefreshAheadManagerTest {
+
+    private CacheManager manager;
+
+    @Before
+    public void setUp() {
+        manager = new CacheManager(new Configuration().name("refresh-ahead"));
+    }
+
+    @After
+    public void tearDown() {
+        manager.shutdown();
+    }
+
+    @Test
+    public void testHotEntryIsRefreshedBeforeExpiry() throws InterruptedException {
+        VersionLoader loader = new VersionLoader(50);
+        Cache cache = createCache(1, new RefreshAheadConfiguration().beta(5), loader);
+
+        assertEquals("key-1", cache.getWithLoader("key", null, null).getObjectValue());
+        long end = System.currentTimeMillis() + 2500;
+        while (System.currentTimeMillis() < end) {
+            assertNotNull("entry expired before being refreshed", cache.get("key"));
+            Thread.sleep(10);
+        }
+
+        assertTrue("loads " + loader.loads, loader.loads.size() >= 3);
+        assertTrue(cache.getStatistics().cacheRefreshAheadCount() >= 2);
+        assertEquals(1, cache.getStatistics().cacheMissCount());
+    }
+
+    @Test
+    public void testFrequentlyAccessedEntriesAreRefreshedFirst() throws InterruptedException {
+        VersionLoader loader = new VersionLoader(0);
+        Cache cache = createCache(60, new RefreshAheadConfiguration().beta(1e12).initialLoadTimeFraction(0).maximumBacklogItems(2),
+                loader);
+        for (String key : new String[] {"a", "b", "c", "d", "block"}) {
+            cache.put(new Element(key, "initial"));
+        }
+        // hit counts: a=1, b=3, c=5, d=7, while the load time is unknown nothing is refreshed
+        hit(cache, "a", 1);
+        hit(cache, "b", 3);
+        hit(cache, "c", 5);
+        hit(cache, "d", 7);
+        assertEquals(0, loader.loads.size());
+
+        // a load time is known from now on: hits trigger refreshes. The single refresh thread is held by "block"
+        cache.getWithLoader("seed", null, null);
+        loader.block = new CountDownLatch(1);
+        cache.get("block");
+        assertTrue(loader.blocked.await(10, TimeUnit.SECONDS));
+        hit(cache, "a", 1);
+        hit(cache, "b", 1);
+        hit(cache, "c", 1);
+        hit(cache, "d", 1);
+        // the refresh of "d" is wasted by this put
+        cache.put(new Element("d", "user"));
+        loader.block.countDown();
+
+        long end = System.currentTimeMillis() + 10000;
+        while (cache.getStatistics().cacheRefreshAheadCount() + cache.getStatistics().cacheRefreshAheadWastedCount() < 3
+                && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+
+        // the backlog holds 2 refreshes: "a" and "b", the least frequently accessed, were dropped
+        assertEquals("[seed, block, d, c]", loader.loads.toString());
+        assertEquals(2, cache.getStatistics().cacheRefreshAheadCount());
+        assertEquals(1, cache.getStatistics().cacheRefreshAheadWastedCount());
+        assertEquals("user", cache.getQuiet("d").getObjectValue());
+        assertEquals("c-1", cache.getQuiet("c").getObjectValue());
+        assertEquals("initial", cache.getQuiet("a").getObjectValue());
+        assertTrue(cache.getStatistics().getRefreshAheadLagMillis() >= 0);
+    }
+
+    @Test
+    public void testLoadTimeIsSeededFromTheTimeToLive() throws InterruptedException {
+        VersionLoader loader = new VersionLoader(0);
+        Cache cache = createCache(60, new RefreshAheadConfiguration().beta(10).initialLoadTimeFraction(1), loader);
+        cache.put(new Element("key", "initial"));
+        hit(cache, "key", 20);
+
+        long end = System.currentTimeMillis() + 10000;
+        while (cache.getStatistics().cacheRefreshAheadCount() == 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals("[key]", loader.loads.toString());
+        assertEquals("key-1", cache.getQuiet("key").getObjectValue());
+    }
+
+    @Test
+    public void testBulkLoadsAreTimed() throws InterruptedException {
+        VersionLoader loader = new VersionLoader(1);
+        Cache cache = createCache(60, new RefreshAheadConfiguration().beta(1e12).initialLoadTimeFraction(0), loader);
+        cache.put(new Element("key", "initial"));
+        hit(cache, "key", 1);
+        assertEquals(0, loader.loads.size());
+
+        assertEquals(2, cache.getAllWithLoader(Arrays.asList("a", "b"), null).size());
+        hit(cache, "key", 1);
+        long end = System.currentTimeMillis() + 10000;
+        while (cache.getStatistics().cacheRefreshAheadCount() == 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals("key-1", cache.getQuiet("key").getObjectValue());
+    }
+
+    @Test
+    public void testUnreadRefreshIsWasted() throws InterruptedException {
+        VersionLoader loader = new VersionLoader(0);
+        Cache cache = createCache(1, new RefreshAheadConfiguration().beta(1e12), loader);
+        cache.getWithLoader("key", null, null);
+        cache.get("key");
+
+        long end = System.currentTimeMillis() + 10000;
+        while (cache.getStatistics().cacheRefreshAheadWastedCount() == 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, cache.getStatistics().cacheRefreshAheadCount());
+        assertEquals(1, cache.getStatistics().cacheRefreshAheadWastedCount());
+    }
+
+    private static void hit(Cache cache, String key, int times) {
+        for (int i = 0; i < times; i++) {
+            cache.get(key);
+        }
+    }
+
+    private Cache createCache(int timeToLiveSeconds, RefreshAheadConfiguration refreshAhead, CacheLoader loader) {
+        Cache cache = new Cache(new CacheConfiguration("refreshing", 0).timeToLiveSeconds(timeToLiveSeconds).refreshAhead(refreshAhead));
+        manager.addCache(cache);
+        cache.registerCacheLoader(loader);
+        return cache;
+    }
+
+    /**
+     * Loader returning versioned values, optionally holding the loads once blocked
+     */
+    private static final class VersionLoader implements CacheLoader {
+
+        private final List<Object> loads = new CopyOnWriteArrayList<Object>();
+        private final Map<Object, AtomicInteger> versions = new HashMap<Object, AtomicInteger>();
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private final long pauseMillis;
+        private volatile CountDownLatch block;
+
+        VersionLoader(long pauseMillis) {
+            this.pauseMillis = pauseMillis;
+        }
+
+        public Object load(Object key) throws CacheException {
+            loads.add(key);
+            CountDownLatch latch = block;
+            try {
+                if (latch != null) {
+                    blocked.countDown();
+                    latch.await();
+                }
+                Thread.sleep(pauseMillis);
+            } catch (InterruptedException e) {
+                throw new CacheException(e);
+            }
+            synchronized (versions) {
+                AtomicInteger version = versions.get(key);
+                if (version == null) {
+                    version = new AtomicInteger();
+                    versions.put(key, version);
+                }
+                return key + "-" + version.incrementAndGet();
+            }
+        }
+
+        public Map loadAll(Collection keys) {
+            Map<Object, Object> values = new HashMap<Object, Object>();
+            for (Object key : keys) {
+                values.put(key, load(key));
+            }
+            return values;
+        }
+
+        public Object load(Object key, Object argument) {
+            return load(key);
+        }
+
+        public Map loadAll(Collection keys, Object argument) {
+            return loadAll(keys);
+        }
+
+        public String getName() {
+            return "VersionLoader";
+        }
+
+        public CacheLoader clone(Ehcache cache) throws CloneNotSupportedException {
+            throw new CloneNotSupportedException();
+        }
+
+        public void init() {
+            // nothing to do
+        }
+
+        public void dispose() throws CacheException {
+            // nothing to do
+        }
+
+        public Status getStatus() {
+            return Status.STATUS_ALIVE;
+        }
+    }
+}
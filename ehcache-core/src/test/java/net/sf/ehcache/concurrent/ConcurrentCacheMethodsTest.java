@@ -16,6 +16,8 @@
 
 package net.sf.ehcache.concurrent;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -33,7 +35,10 @@ import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
+import net.sf.ehcache.ElementMerger;
+import net.sf.ehcache.ElementRemapper;
 import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.event.CacheEventListenerAdapter;
 
 import org.hamcrest.CoreMatchers;
 import org.junit.After;
@@ -364,5 +369,173 @@ public class ConcurrentCacheMethodsTest {
         }
     }
 
+    @Test
+    public void testCompute() {
+        ElementRemapper increment = new ElementRemapper() {
+            public Element remap(Object key, Element current) {
+                int value = current == null ? 0 : ((Integer) current.getObjectValue()).intValue();
+                return new Element(key, Integer.valueOf(value + 1));
+            }
+        };
+        Assert.assertEquals(Integer.valueOf(1), cache.compute("key", increment).getObjectValue());
+        Assert.assertEquals(Integer.valueOf(2), cache.compute("key", increment).getObjectValue());
+        Assert.assertEquals(Integer.valueOf(2), cache.get("key").getObjectValue());
+
+        Element current = cache.get("key");
+        Assert.assertSame(current, cache.compute("key", new ElementRemapper() {
+            public Element remap(Object key, Element element) {
+                return element;
+            }
+        }));
+        Assert.assertNull(cache.compute("key", new ElementRemapper() {
+            public Element remap(Object key, Element element) {
+                return null;
+            }
+        }));
+        Assert.assertNull(cache.get("key"));
+
+        try {
+            cache.compute("key", new ElementRemapper() {
+                public Element remap(Object key, Element element) {
+                    return new Element("otherKey", "value");
+                }
+            });
+            Assert.fail("compute returning an element with another key should throw IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+        Assert.assertNull(cache.get("otherKey"));
+
+        try {
+            cache.compute(null, increment);
+            Assert.fail("compute with null key should throw NPE");
+        } catch (NullPointerException npe) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testComputeIfAbsentAndIfPresent() {
+        ElementRemapper remapper = new ElementRemapper() {
+            public Element remap(Object key, Element current) {
+                return new Element(key, current == null ? "absent" : "present");
+            }
+        };
+        Assert.assertNull(cache.computeIfPresent("key", remapper));
+        Assert.assertNull(cache.get("key"));
+        Assert.assertEquals("absent", cache.computeIfAbsent("key", remapper).getObjectValue());
+        Assert.assertEquals("absent", cache.computeIfAbsent("key", remapper).getObjectValue());
+        Assert.assertEquals("present", cache.computeIfPresent("key", remapper).getObjectValue());
+        Assert.assertEquals("present", cache.get("key").getObjectValue());
+    }
+
+    @Test
+    public void testMerge() {
+        ElementMerger concat = new ElementMerger() {
+            public Element merge(Element current, Element element) {
+                return new Element(current.getObjectKey(), current.getObjectValue() + "," + element.getObjectValue());
+            }
+        };
+        Assert.assertEquals("a", cache.merge(new Element("key", "a"), concat).getObjectValue());
+        Assert.assertEquals("a,b", cache.merge(new Element("key", "b"), concat).getObjectValue());
+        Assert.assertEquals("a,b", cache.get("key").getObjectValue());
+    }
+
+    @Test
+    public void testComputeNotifiesAsPutAndRemove() {
+        final List<String> events = new ArrayList<String>();
+        cache.getCacheEventNotificationService().registerListener(new CacheEventListenerAdapter() {
+            @Override
+            public void notifyElementPut(Ehcache c, Element element) {
+                events.add("put " + element.getObjectValue());
+            }
+
+            @Override
+            public void notifyElementUpdated(Ehcache c, Element element) {
+                events.add("update " + element.getObjectValue());
+            }
+
+            @Override
+            public void notifyElementRemoved(Ehcache c, Element element) {
+                events.add("remove " + element.getObjectValue());
+            }
+        });
+        ElementRemapper remapper = new ElementRemapper() {
+            public Element remap(Object key, Element current) {
+                if (current == null) {
+                    return new Element(key, "first");
+                } else if ("first".equals(current.getObjectValue())) {
+                    return new Element(key, "second");
+                } else {
+                    return null;
+                }
+            }
+        };
+        cache.compute("key", remapper);
+        cache.compute("key", remapper);
+        cache.compute("key", remapper);
+        cache.computeIfPresent("key", remapper);
+        Assert.assertEquals(Arrays.asList("put first", "update second", "remove second"), events);
+    }
+
+    @Test
+    public void testComputeOnDiskWithCopies() {
+        Cache copying = new Cache(new CacheConfiguration("copyingCache", 10).overflowToDisk(true)
+                .copyOnRead(true).copyOnWrite(true));
+        manager.addCache(copying);
+        ElementRemapper append = new ElementRemapper() {
+            public Element remap(Object key, Element current) {
+                List<Integer> values = new ArrayList<Integer>();
+                if (current != null) {
+                    values.addAll((List<Integer>) current.getObjectValue());
+                }
+                values.add(Integer.valueOf(values.size()));
+                return new Element(key, values);
+            }
+        };
+        for (int i = 0; i < 100; i++) {
+            copying.compute(Integer.valueOf(i), append);
+            copying.compute(Integer.valueOf(i), append);
+        }
+        Assert.assertEquals(100, copying.getSize());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(Arrays.asList(0, 1), copying.get(Integer.valueOf(i)).getObjectValue());
+        }
+    }
+
+    @Test
+    public void testMultiThreadedCompute() throws InterruptedException, ExecutionException {
+
+        final AtomicInteger remaps = new AtomicInteger();
+        final ElementRemapper increment = new ElementRemapper() {
+            public Element remap(Object key, Element current) {
+                remaps.incrementAndGet();
+                int value = current == null ? 0 : ((Integer) current.getObjectValue()).intValue();
+                return new Element(key, Integer.valueOf(value + 1));
+            }
+        };
+        Callable<Integer> compute = new Callable<Integer>() {
+            public Integer call() throws Exception {
+                return (Integer) cache.compute("key", increment).getObjectValue();
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(4 * Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<Integer>> futures = executor.invokeAll(Collections.nCopies(100, compute));
+
+            Set<Integer> values = new HashSet<Integer>();
+            for (Future<Integer> f : futures) {
+                values.add(f.get());
+            }
+            Assert.assertEquals(futures.size(), values.size());
+            Assert.assertEquals(futures.size(), remaps.get());
+            Assert.assertEquals(Integer.valueOf(futures.size()), cache.get("key").getObjectValue());
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(60, TimeUnit.SECONDS);
+        }
+    }
+
 
 }
@@ -225,6 +225,41 @@ public final class BlockingCacheTest {
     }
 
 
+    /**
+     * A put of a null keyed element releases the lock taken by a get of the null key.
+     */
+    @Test
+    public void testNullKeyPutReleasesTheLock() throws Exception {
+        CacheManager manager = createCacheManager("testNullKeyPutReleasesTheLock");
+        try {
+            for (boolean perKey : new boolean[] {false, true}) {
+                final BlockingCache blockingCache = new BlockingCache(manager.getEhcache("testNullKeyPutReleasesTheLock"), perKey);
+                blockingCache.setTimeoutMillis(1000);
+                assertNull(blockingCache.get((Object) null));
+                blockingCache.put(new Element(null, "value"));
+
+                final List<Object> threadResults = new ArrayList<Object>();
+                Thread secondThread = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            threadResults.add(blockingCache.get((Object) null));
+                            blockingCache.put(new Element(null, "value"));
+                        } catch (LockTimeoutException e) {
+                            threadResults.add(e);
+                        }
+                    }
+                };
+                secondThread.start();
+                secondThread.join();
+                assertEquals(1, threadResults.size());
+                assertNull(threadResults.get(0));
+            }
+        } finally {
+            manager.shutdown();
+        }
+    }
+
     /**
      * Does a second tread block until the first thread puts the entry?
      */
@@ -541,6 +576,102 @@ public final class BlockingCacheTest {
         }
     }
 
+    /**
+     * With per key blocking, a key being loaded must not block the readers of any other key
+     */
+    @Test
+    public void testPerKeyBlockingOnlyBlocksTheSameKey() throws Exception {
+        CacheManager manager = createCacheManager("testPerKeyBlockingOnlyBlocksTheSameKey");
+        try {
+            final BlockingCache blockingCache = new BlockingCache(manager.getEhcache("testPerKeyBlockingOnlyBlocksTheSameKey"), true);
+            assertTrue(blockingCache.isPerKeyBlocking());
+            blockingCache.setTimeoutMillis(200);
+
+            // this thread is now loading "key"
+            assertNull(blockingCache.get("key"));
+
+            // every other key misses without blocking, whatever its stripe
+            for (int i = 0; i < 100; i++) {
+                final Object other = Integer.valueOf(i);
+                final List threadResults = new ArrayList();
+                Thread thread = new Thread() {
+                    @Override
+                    public void run() {
+                        threadResults.add(blockingCache.get(other));
+                        blockingCache.put(new Element(other, "value" + other));
+                    }
+                };
+                thread.start();
+                thread.join();
+                assertEquals(1, threadResults.size());
+                assertNull(threadResults.get(0));
+            }
+            assertEquals("value7", blockingCache.get(Integer.valueOf(7)).getObjectValue());
+
+            // while the readers of "key" time out
+            final List threadResults = new ArrayList();
+            Thread secondThread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        blockingCache.get("key");
+                    } catch (LockTimeoutException e) {
+                        threadResults.add(e);
+                    }
+                }
+            };
+            secondThread.start();
+            secondThread.join();
+            assertEquals(1, threadResults.size());
+
+            blockingCache.put(new Element("key", "value"));
+            assertEquals("value", blockingCache.get("key").getObjectValue());
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    /**
+     * With per key blocking, a failed load lets the next reader have a go, as when blocking on stripes
+     */
+    @Test
+    public void testPerKeyBlockingAfterFailedLoad() throws Exception {
+        CacheManager manager = createCacheManager("testPerKeyBlockingAfterFailedLoad");
+        try {
+            final BlockingCache blockingCache = new BlockingCache(manager.getEhcache("testPerKeyBlockingAfterFailedLoad"), true);
+            final CyclicBarrier barrier = new CyclicBarrier(2);
+            final List threadResults = new ArrayList();
+
+            assertNull(blockingCache.get("key"));
+            Thread secondThread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        barrier.await();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    // blocks, then becomes the loader
+                    threadResults.add(blockingCache.get("key"));
+                    blockingCache.put(new Element("key", "second"));
+                }
+            };
+            secondThread.start();
+            barrier.await();
+            Thread.sleep(100);
+            assertEquals(0, threadResults.size());
+
+            // the load failed: release without a value
+            blockingCache.put(new Element("key", null));
+            secondThread.join();
+            assertEquals(1, threadResults.size());
+            assertNull(threadResults.get(0));
+            assertEquals("second", blockingCache.get("key").getObjectValue());
+        } finally {
+            manager.shutdown();
+        }
+    }
+
     /**
      * Checks we cannot use a cache after shutdown
      */
@@ -27,17 +27,24 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheException;
 import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.CacheStoreHelper;
 import net.sf.ehcache.CacheTest;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
 import net.sf.ehcache.config.Configuration;
 import net.sf.ehcache.config.ConfigurationFactory;
+import net.sf.ehcache.config.MemoryUnit;
 import net.sf.ehcache.event.CountingCacheEventListener;
+import net.sf.ehcache.pool.Pool;
 
 import org.junit.After;
 import org.junit.Before;
@@ -744,6 +751,136 @@ public class SelfPopulatingCacheTest extends CacheTest {
         assertFalse("getLastUpdateTime() should not be the same (" + lastUpdateTime2 + ")", lastUpdateTime2 == e2.getLastUpdateTime());
     }
 
+    /**
+     * Tests that an expired value is returned while a single background reload takes place.
+     */
+    @Test
+    public void testStaleWhileRevalidate() throws Exception {
+        Cache staleCache = new Cache(new CacheConfiguration("staleWhileRevalidate", 100).timeToLiveSeconds(1));
+        manager.addCache(staleCache);
+        VersionCacheEntryFactory factory = new VersionCacheEntryFactory();
+        selfPopulatingCache = new SelfPopulatingCache(staleCache, factory, 5, 0);
+
+        assertEquals("value-1", selfPopulatingCache.get("key").getObjectValue());
+        Thread.sleep(1100);
+
+        factory.block = new CountDownLatch(1);
+        for (int i = 0; i < 5; i++) {
+            assertEquals("value-1", selfPopulatingCache.get("key").getObjectValue());
+        }
+        assertTrue(factory.blocked.await(10, TimeUnit.SECONDS));
+        assertEquals(2, factory.count.get());
+        factory.block.countDown();
+
+        long end = System.currentTimeMillis() + 10000;
+        while ("value-1".equals(selfPopulatingCache.get("key").getObjectValue()) && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        Object value = selfPopulatingCache.get("key").getObjectValue();
+        assertFalse("value-1".equals(value));
+        assertEquals("value-" + factory.count.get(), value);
+    }
+
+    /**
+     * Tests that an expired value is returned when it can't be reloaded, until its grace period ends.
+     */
+    @Test
+    public void testStaleIfError() throws Exception {
+        Cache staleCache = new Cache(new CacheConfiguration("staleIfError", 100).timeToLiveSeconds(1));
+        manager.addCache(staleCache);
+        VersionCacheEntryFactory factory = new VersionCacheEntryFactory();
+        selfPopulatingCache = new SelfPopulatingCache(staleCache, factory, 0, 1);
+
+        Element fresh = selfPopulatingCache.get("key");
+        assertEquals("value-1", fresh.getObjectValue());
+        Thread.sleep(1100);
+
+        // the expired value keeps its time to live, and is only served by get
+        assertTrue(staleCache.isExpired(fresh));
+        assertTrue(selfPopulatingCache.isExpired(fresh));
+        assertNull(selfPopulatingCache.getQuiet("key"));
+        assertNull(staleCache.getQuiet("key"));
+        factory.fail = true;
+        assertEquals("value-1", selfPopulatingCache.get("key").getObjectValue());
+        assertEquals(2, factory.count.get());
+
+        Thread.sleep(1000);
+        try {
+            selfPopulatingCache.get("key");
+            fail("expected CacheException");
+        } catch (CacheException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests that the remembered expired values are charged to the pool of the backing cache until forgotten.
+     */
+    @Test
+    public void testStaleValuesAreChargedToThePool() throws Exception {
+        Cache staleCache = new Cache(new CacheConfiguration().name("stalePooled").maxBytesLocalHeap(1, MemoryUnit.MEGABYTES)
+                .timeToLiveSeconds(1));
+        manager.addCache(staleCache);
+        VersionCacheEntryFactory factory = new VersionCacheEntryFactory();
+        selfPopulatingCache = new SelfPopulatingCache(staleCache, factory, 0, 1);
+        Pool pool = new CacheStoreHelper(staleCache).getOnHeapPool();
+
+        assertEquals("value-1", selfPopulatingCache.get("key").getObjectValue());
+        Thread.sleep(1100);
+
+        factory.fail = true;
+        assertEquals("value-1", selfPopulatingCache.get("key").getObjectValue());
+        assertEquals(0, staleCache.getSize());
+        assertTrue(pool.getSize() > 0);
+
+        selfPopulatingCache.removeAll();
+        assertEquals(0, pool.getSize());
+    }
+
+    /**
+     * Tests that the grace period of an element put with a lifespan of its own starts when that lifespan ends.
+     */
+    @Test
+    public void testStaleGracePeriodStartsAtTheElementExpiry() throws Exception {
+        Cache staleCache = new Cache(new CacheConfiguration("staleElementLifespan", 100).timeToLiveSeconds(1));
+        manager.addCache(staleCache);
+        VersionCacheEntryFactory factory = new VersionCacheEntryFactory();
+        selfPopulatingCache = new SelfPopulatingCache(staleCache, factory, 0, 1);
+
+        Element element = new Element("key", "put");
+        element.setTimeToLive(3);
+        selfPopulatingCache.put(element);
+        Thread.sleep(1100);
+
+        factory.fail = true;
+        assertEquals("put", selfPopulatingCache.get("key").getObjectValue());
+        assertFalse(selfPopulatingCache.isExpired(element));
+        assertEquals(0, factory.count.get());
+    }
+
+    /**
+     * Factory returning versioned values, optionally failing or holding the creations once blocked
+     */
+    private static class VersionCacheEntryFactory implements CacheEntryFactory {
+        private final AtomicInteger count = new AtomicInteger();
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private volatile CountDownLatch block;
+        private volatile boolean fail;
+
+        public Object createEntry(Object key) throws Exception {
+            int version = count.incrementAndGet();
+            CountDownLatch latch = block;
+            if (latch != null) {
+                blocked.countDown();
+                latch.await();
+            }
+            if (fail) {
+                throw new Exception("backend unavailable");
+            }
+            return "value-" + version;
+        }
+    }
+
     /**
      * Much like CountingCacheEntryFactory, but the value in the Element is
      * incremented on every update, in line with the 'count'
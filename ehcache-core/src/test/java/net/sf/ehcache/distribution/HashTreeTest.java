@@ -0,0 +1,130 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.distribution;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+import net.sf.ehcache.Element;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * @author Terracotta
+ */
+public class HashTreeTest {
+
+    private static final int[] ROOT = {1};
+
+    @Test
+    public void testSameEntriesMakeTheSameTreeInAnyOrder() {
+        HashTree tree1 = new HashTree(64);
+        HashTree tree2 = new HashTree(64);
+        for (int i = 0; i < 1000; i++) {
+            tree1.put(i, new Element(i, "value-" + i));
+            tree2.put(999 - i, new Element(999 - i, "old"));
+        }
+        for (int i = 0; i < 1000; i++) {
+            tree2.put(i, new Element(i, "value-" + i));
+        }
+        assertEquals(tree1.getNodes(ROOT)[0], tree2.getNodes(ROOT)[0]);
+        assertEquals(tree1.getNodes(new int[] {64 + tree1.bucketOf(42)})[0], tree2.getNodes(new int[] {64 + tree2.bucketOf(42)})[0]);
+    }
+
+    @Test
+    public void testSwappedValuesAreDetected() {
+        HashTree tree1 = new HashTree(64);
+        HashTree tree2 = new HashTree(64);
+        tree1.put(1, new Element(1, "a"));
+        tree1.put(2, new Element(2, "b"));
+        tree2.put(1, new Element(1, "b"));
+        tree2.put(2, new Element(2, "a"));
+        assertFalse(tree1.getNodes(ROOT)[0] == tree2.getNodes(ROOT)[0]);
+    }
+
+    @Test
+    public void testRemovalsAreRecorded() {
+        HashTree tree = new HashTree(64);
+        tree.put("key", new Element("key", "value"));
+        long root = tree.getNodes(ROOT)[0];
+        tree.put("removed", new Element("removed", "value"));
+        tree.remove("removed", 10);
+        assertEquals(root, tree.getNodes(ROOT)[0]);
+
+        BitSet buckets = new BitSet();
+        buckets.set(tree.bucketOf("key"));
+        buckets.set(tree.bucketOf("removed"));
+        assertEquals(1, tree.getKeys(buckets).size());
+        assertEquals(Long.valueOf(10), tree.getTombstones(buckets).get("removed"));
+        tree.clear(20);
+        assertEquals(0, tree.getNodes(ROOT)[0]);
+        assertEquals(0, tree.getKeys(buckets).size());
+        assertEquals(Long.valueOf(20), tree.getTombstones(buckets).get("key"));
+
+        tree.purgeTombstones(15);
+        assertEquals(1, tree.getTombstones(buckets).size());
+        tree.put("key", new Element("key", "value"));
+        assertEquals(root, tree.getNodes(ROOT)[0]);
+        assertEquals(0, tree.getTombstones(buckets).size());
+    }
+
+    @Test
+    public void testEvictionsLeaveNoTombstone() {
+        HashTree tree = new HashTree(64);
+        tree.put("key", new Element("key", "value"));
+        long root = tree.getNodes(ROOT)[0];
+        tree.put("evicted", new Element("evicted", "value"));
+        tree.evict("evicted", 10);
+        assertEquals(root, tree.getNodes(ROOT)[0]);
+
+        BitSet buckets = new BitSet();
+        buckets.set(tree.bucketOf("evicted"));
+        assertEquals(0, tree.getTombstones(buckets).size());
+        assertEquals(Long.valueOf(10), tree.getEvictions(buckets).get("evicted"));
+
+        tree.purgeTombstones(15);
+        assertEquals(0, tree.getEvictions(buckets).size());
+        tree.put("evicted", new Element("evicted", "value"));
+        tree.evict("evicted", 20);
+        tree.put("evicted", new Element("evicted", "value"));
+        assertEquals(0, tree.getEvictions(buckets).size());
+    }
+
+    @Test
+    public void testEqualCollectionsHashEquallyWhateverTheirHistory() {
+        Set<Integer> set1 = new HashSet<Integer>();
+        Set<Integer> set2 = new HashSet<Integer>(4);
+        for (int i = 0; i < 100; i++) {
+            set1.add(i);
+            set2.add(i * 1000);
+        }
+        set2.clear();
+        for (int i = 99; i >= 0; i--) {
+            set2.add(i);
+        }
+        assertEquals(HashTree.hash("key", new Element("key", set1)), HashTree.hash("key", new Element("key", set2)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLeafCountMustBeAPowerOfTwo() {
+        new HashTree(1000);
+    }
+}
@@ -0,0 +1,205 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.distribution;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.RemoteException;
+import java.rmi.server.RemoteObject;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.terracotta.test.categories.IntegrationTests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests {@link ParallelRMIBootstrapCacheLoader} against RMI cache peers exported on the loopback interface
+ *
+ * @author Terracotta
+ */
+@Category(IntegrationTests.class)
+public class ParallelRMIBootstrapCacheLoaderIT {
+
+    private static final int ELEMENTS = 20000;
+
+    private final List<RMICachePeer> exportedPeers = new ArrayList<RMICachePeer>();
+    private CacheManager manager;
+    private Cache source;
+    private Cache target;
+
+    @Before
+    public void setUp() {
+        manager = new CacheManager(new Configuration().name("ParallelRMIBootstrapCacheLoaderIT")
+                .cache(new CacheConfiguration("source", 0).eternal(true))
+                .cache(new CacheConfiguration("target", 0).eternal(true)));
+        source = manager.getCache("source");
+        target = manager.getCache("target");
+        for (int i = 0; i < ELEMENTS; i++) {
+            source.put(new Element(i, "value-" + i));
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (RMICachePeer peer : exportedPeers) {
+            UnicastRemoteObject.unexportObject(peer, true);
+        }
+        manager.shutdown();
+    }
+
+    @Test
+    public void testLoadsFromAllPeers() throws Exception {
+        AtomicInteger chunks1 = new AtomicInteger();
+        AtomicInteger chunks2 = new AtomicInteger();
+        AtomicInteger chunks3 = new AtomicInteger();
+        List<CachePeer> peers = new ArrayList<CachePeer>();
+        peers.add(streamingPeer(chunks1, Integer.MAX_VALUE));
+        peers.add(streamingPeer(chunks2, Integer.MAX_VALUE));
+        peers.add(streamingPeer(chunks3, Integer.MAX_VALUE));
+
+        loader(peers).doLoad(target);
+
+        assertEquals(ELEMENTS, target.getSize());
+        assertEquals("value-42", target.get(42).getObjectValue());
+        assertTrue(chunks1.get() > 0);
+        assertTrue(chunks2.get() > 0);
+        assertTrue(chunks3.get() > 0);
+    }
+
+    @Test
+    public void testPartitionsOfAFailedPeerAreLoadedFromTheOthers() throws Exception {
+        AtomicInteger failedChunks = new AtomicInteger();
+        List<CachePeer> peers = new ArrayList<CachePeer>();
+        peers.add(streamingPeer(new AtomicInteger(), Integer.MAX_VALUE));
+        peers.add(streamingPeer(failedChunks, 3));
+        peers.add(streamingPeer(new AtomicInteger(), Integer.MAX_VALUE));
+
+        loader(peers).doLoad(target);
+
+        assertEquals(4, failedChunks.get());
+        assertEquals(ELEMENTS, target.getSize());
+    }
+
+    @Test
+    public void testFailsOnceAllPeersFailed() throws Exception {
+        List<CachePeer> peers = new ArrayList<CachePeer>();
+        peers.add(streamingPeer(new AtomicInteger(), 1));
+        peers.add(streamingPeer(new AtomicInteger(), 2));
+        try {
+            loader(peers).doLoad(target);
+            fail("Expected RemoteCacheException");
+        } catch (RemoteCacheException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("could not be loaded"));
+        }
+    }
+
+    @Test
+    public void testEnumKeysArePartitionedTheSameOnEveryJvm() throws Exception {
+        int hash = TimeUnit.class.getName().hashCode() * 31 + "SECONDS".hashCode();
+        assertEquals(Math.abs(hash % 24), RMICachePeer.partitionOf(TimeUnit.SECONDS, 24));
+
+        for (TimeUnit unit : TimeUnit.values()) {
+            source.put(new Element(unit, unit.name()));
+        }
+        List<CachePeer> peers = new ArrayList<CachePeer>();
+        peers.add(streamingPeer(new AtomicInteger(), Integer.MAX_VALUE));
+        peers.add(streamingPeer(new AtomicInteger(), Integer.MAX_VALUE));
+
+        loader(peers).doLoad(target);
+
+        assertEquals(ELEMENTS + TimeUnit.values().length, target.getSize());
+        assertEquals("SECONDS", target.get(TimeUnit.SECONDS).getObjectValue());
+    }
+
+    @Test
+    public void testLoadsFromASinglePeerWhenNoneStreams() throws Exception {
+        List<CachePeer> peers = new ArrayList<CachePeer>();
+        peers.add(plainPeer());
+
+        loader(peers).doLoad(target);
+
+        assertEquals(ELEMENTS, target.getSize());
+    }
+
+    private ParallelRMIBootstrapCacheLoader loader(final List<CachePeer> peers) {
+        return new ParallelRMIBootstrapCacheLoader(false, 20000) {
+            @Override
+            protected List listRemoteCachePeers(Ehcache cache) {
+                return peers;
+            }
+        };
+    }
+
+    private CachePeer exportSourcePeer() throws RemoteException {
+        RMICachePeer peer = new RMICachePeer(source, "localhost", 0, 0, 10000);
+        exportedPeers.add(peer);
+        return (CachePeer) RemoteObject.toStub(peer);
+    }
+
+    /**
+     * A peer counting the chunks requested from it, which fails once more than a given number were requested
+     */
+    private CachePeer streamingPeer(final AtomicInteger chunks, final int chunksBeforeFailure) throws RemoteException {
+        final CachePeer stub = exportSourcePeer();
+        return (CachePeer) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {StreamingCachePeer.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("getNextChunk") && chunks.incrementAndGet() > chunksBeforeFailure) {
+                            throw new RemoteException("Peer dropped");
+                        }
+                        return invokeOn(stub, method, args);
+                    }
+                });
+    }
+
+    private CachePeer plainPeer() throws RemoteException {
+        final CachePeer stub = exportSourcePeer();
+        return (CachePeer) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {CachePeer.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        return invokeOn(stub, method, args);
+                    }
+                });
+    }
+
+    private static Object invokeOn(CachePeer stub, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(stub, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
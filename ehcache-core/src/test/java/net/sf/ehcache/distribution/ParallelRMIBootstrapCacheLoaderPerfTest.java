@@ -0,0 +1,119 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.distribution;
+
+import java.rmi.server.RemoteObject;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.StopWatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the time to warm a cache with {@link RMIBootstrapCacheLoader} and {@link ParallelRMIBootstrapCacheLoader},
+ * from three RMI cache peers exported on the loopback interface.
+ *
+ * @author Terracotta
+ */
+public class ParallelRMIBootstrapCacheLoaderPerfTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelRMIBootstrapCacheLoaderPerfTest.class.getName());
+
+    private static final int ELEMENTS = 200000;
+    private static final int PEERS = 3;
+
+    private final List<RMICachePeer> exportedPeers = new ArrayList<RMICachePeer>();
+    private final List<CachePeer> peers = new ArrayList<CachePeer>();
+    private CacheManager manager;
+
+    @Before
+    public void setUp() throws Exception {
+        manager = new CacheManager(new Configuration().name("ParallelRMIBootstrapCacheLoaderPerfTest")
+                .cache(new CacheConfiguration("source", 0).eternal(true))
+                .cache(new CacheConfiguration("target", 0).eternal(true)));
+        Cache source = manager.getCache("source");
+        char[] value = new char[500];
+        for (int i = 0; i < ELEMENTS; i++) {
+            source.put(new Element(i, new String(value)));
+        }
+        for (int i = 0; i < PEERS; i++) {
+            RMICachePeer peer = new RMICachePeer(source, "localhost", 0, 0, 60000);
+            exportedPeers.add(peer);
+            peers.add((CachePeer) RemoteObject.toStub(peer));
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (RMICachePeer peer : exportedPeers) {
+            UnicastRemoteObject.unexportObject(peer, true);
+        }
+        manager.shutdown();
+    }
+
+    /**
+     * On a single core, with 500 character values and 5MB chunks, RMIBootstrapCacheLoader warms 200000 elements in
+     * about 2500ms and ParallelRMIBootstrapCacheLoader in about 3000ms: over loopback, the peers and the cache being
+     * warmed share that core. With each peer link throttled to 1Gbit/s, it takes about 5000ms and 2800ms respectively.
+     */
+    @Test
+    public void testTimeToWarm() throws Exception {
+        RMIBootstrapCacheLoader single = new RMIBootstrapCacheLoader(false, 5000000) {
+            @Override
+            protected List listRemoteCachePeers(Ehcache cache) {
+                return peers;
+            }
+        };
+        RMIBootstrapCacheLoader parallel = new ParallelRMIBootstrapCacheLoader(false, 5000000) {
+            @Override
+            protected List listRemoteCachePeers(Ehcache cache) {
+                return peers;
+            }
+        };
+        // warmup vm
+        for (int i = 0; i < 2; i++) {
+            timeToWarm(single);
+            timeToWarm(parallel);
+        }
+        LOG.info("RMIBootstrapCacheLoader warmed " + ELEMENTS + " elements in " + timeToWarm(single) + "ms");
+        LOG.info("ParallelRMIBootstrapCacheLoader warmed " + ELEMENTS + " elements in " + timeToWarm(parallel) + "ms");
+    }
+
+    private long timeToWarm(RMIBootstrapCacheLoader loader) {
+        Cache target = manager.getCache("target");
+        target.removeAll();
+        StopWatch stopWatch = new StopWatch();
+        loader.doLoad(target);
+        long elapsed = stopWatch.getElapsedTime();
+        assertEquals(ELEMENTS, target.getSize());
+        return elapsed;
+    }
+}
@@ -0,0 +1,225 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.distribution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.CacheConfiguration.CacheExtensionFactoryConfiguration;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.config.FactoryConfiguration;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link RMIAntiEntropyRepairer} between two peers whose replicators replicate nothing, so that they only
+ * converge through repair.
+ *
+ * @author Terracotta
+ */
+public class RMIAntiEntropyRepairerIT extends AbstractRMITest {
+
+    private CacheManager manager1;
+    private CacheManager manager2;
+
+    @After
+    public void tearDown() {
+        if (manager1 != null) {
+            manager1.shutdown();
+        }
+        if (manager2 != null) {
+            manager2.shutdown();
+        }
+    }
+
+    @Test
+    public void testIdenticalPeersExchangeOnlyTheirRoots() throws Exception {
+        startup("");
+        Cache cache1 = manager1.getCache("repaired");
+        Cache cache2 = manager2.getCache("repaired");
+        for (int i = 0; i < 1000; i++) {
+            cache1.put(new Element(i, "value-" + i));
+            cache2.put(new Element(999 - i, "value-" + (999 - i)));
+        }
+
+        RMIAntiEntropyRepairer repairer = RMIAntiEntropyRepairer.getRepairer(cache1);
+        assertEquals(0, repairer.repair());
+        assertEquals(0, repairer.getDivergentBucketCount());
+        assertEquals(1, repairer.getRepairRoundCount());
+    }
+
+    @Test
+    public void testOnlyDivergentEntriesAreTransferred() throws Exception {
+        startup("");
+        Cache cache1 = manager1.getCache("repaired");
+        Cache cache2 = manager2.getCache("repaired");
+        for (int i = 0; i < 1000; i++) {
+            cache1.put(new Element(i, "value-" + i));
+            cache2.put(new Element(i, "value-" + i));
+        }
+        cache1.put(new Element("only1", "a"));
+        cache2.put(new Element("only2", "b"));
+        cache1.put(new Element(1, "stale"));
+        Thread.sleep(10);
+        cache2.put(new Element(1, "fresh"));
+        cache2.put(new Element(2, "stale"));
+        Thread.sleep(10);
+        cache1.put(new Element(2, "fresh"));
+
+        RMIAntiEntropyRepairer repairer = RMIAntiEntropyRepairer.getRepairer(cache1);
+        assertEquals(4, repairer.repair());
+        assertTrue(repairer.getDivergentBucketCount() <= 4);
+        assertEquals(2, repairer.getPushedEntryCount());
+        assertEquals(2, repairer.getPulledEntryCount());
+
+        assertEquals(1002, cache1.getSize());
+        assertEquals(1002, cache2.getSize());
+        for (Cache cache : new Cache[] {cache1, cache2}) {
+            assertEquals("a", cache.get("only1").getObjectValue());
+            assertEquals("b", cache.get("only2").getObjectValue());
+            assertEquals("fresh", cache.get(1).getObjectValue());
+            assertEquals("fresh", cache.get(2).getObjectValue());
+        }
+        assertEquals(0, repairer.repair());
+        assertEquals(0, RMIAntiEntropyRepairer.getRepairer(cache2).repair());
+    }
+
+    @Test
+    public void testRemovalsAreNotUndone() throws Exception {
+        startup("");
+        Cache cache1 = manager1.getCache("repaired");
+        Cache cache2 = manager2.getCache("repaired");
+        cache1.put(new Element("key", "value"));
+        cache2.put(new Element("key", "value"));
+        cache1.put(new Element("removed", "value"));
+        cache1.remove("removed");
+        assertEquals(0, RMIAntiEntropyRepairer.getRepairer(cache1).repair());
+
+        cache2.put(new Element("removed1", "value"));
+        cache1.put(new Element("removed1", "value"));
+        cache1.put(new Element("removed2", "value"));
+        cache2.put(new Element("removed2", "value"));
+        Thread.sleep(10);
+        cache1.remove("removed1");
+        cache2.remove("removed2");
+        cache2.put(new Element("readded", "old"));
+        cache1.remove("readded");
+        Thread.sleep(10);
+        cache2.put(new Element("readded", "new"));
+
+        RMIAntiEntropyRepairer repairer = RMIAntiEntropyRepairer.getRepairer(cache1);
+        assertEquals(3, repairer.repair());
+        assertEquals(2, repairer.getRemovedEntryCount());
+        for (Cache cache : new Cache[] {cache1, cache2}) {
+            assertNull(cache.get("removed1"));
+            assertNull(cache.get("removed2"));
+            assertEquals("new", cache.get("readded").getObjectValue());
+            assertEquals("value", cache.get("key").getObjectValue());
+        }
+        assertEquals(0, repairer.repair());
+        assertEquals(0, RMIAntiEntropyRepairer.getRepairer(cache2).repair());
+
+        cache2.removeAll();
+        assertEquals(2, repairer.repair());
+        assertNull(cache1.get("key"));
+        assertEquals(0, cache1.getSize());
+    }
+
+    @Test
+    public void testEvictionsAreNotPropagated() throws Exception {
+        startup("", 10);
+        Cache cache1 = manager1.getCache("repaired");
+        Cache cache2 = manager2.getCache("repaired");
+        for (int i = 0; i < 100; i++) {
+            cache1.put(new Element(i, "value-" + i));
+            cache2.put(new Element(i, "value-" + i));
+        }
+        assertEquals(10, cache1.getSize());
+
+        assertEquals(0, RMIAntiEntropyRepairer.getRepairer(cache1).repair());
+        assertEquals(0, RMIAntiEntropyRepairer.getRepairer(cache2).repair());
+        assertEquals(0, RMIAntiEntropyRepairer.getRepairer(cache1).getRemovedEntryCount());
+        assertEquals(0, RMIAntiEntropyRepairer.getRepairer(cache2).getPushedEntryCount());
+        assertEquals(100, cache2.getSize());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("value-" + i, cache2.get(i).getObjectValue());
+        }
+        assertEquals(10, cache1.getSize());
+    }
+
+    @Test
+    public void testTransfersAreCapped() throws Exception {
+        startup(",maximumRepairBytesPerSecond=50000");
+        Cache cache1 = manager1.getCache("repaired");
+        char[] value = new char[1000];
+        for (int i = 0; i < 100; i++) {
+            cache1.put(new Element(i, new String(value)));
+        }
+
+        RMIAntiEntropyRepairer repairer = RMIAntiEntropyRepairer.getRepairer(cache1);
+        long start = System.currentTimeMillis();
+        assertEquals(100, repairer.repair());
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue(repairer.getTransferredBytes() > 100000);
+        assertTrue("took " + elapsed + "ms", elapsed >= repairer.getTransferredBytes() * 1000 / 50000 - 100);
+        assertEquals(100, manager2.getCache("repaired").getSize());
+    }
+
+    private void startup(String repairerProperties) {
+        startup(repairerProperties, 0);
+    }
+
+    private void startup(String repairerProperties, int maxEntriesLocalHeap1) {
+        List<Configuration> configurations = new ArrayList<Configuration>();
+        configurations.add(createConfiguration(1, 5031, 5032, repairerProperties, maxEntriesLocalHeap1));
+        configurations.add(createConfiguration(2, 5032, 5031, repairerProperties, 0));
+        List<CacheManager> managers = startupManagers(configurations);
+        manager1 = managers.get(0);
+        manager2 = managers.get(1);
+        waitForClusterMembership(10, TimeUnit.SECONDS, manager1, manager2);
+    }
+
+    private static Configuration createConfiguration(int index, int port, int peerPort, String repairerProperties,
+                                                     int maxEntriesLocalHeap) {
+        CacheConfiguration cache = new CacheConfiguration("repaired", maxEntriesLocalHeap).eternal(true)
+                .cacheEventListenerFactory(new CacheConfiguration.CacheEventListenerFactoryConfiguration()
+                        .className("net.sf.ehcache.distribution.RMICacheReplicatorFactory")
+                        .properties("replicatePuts=false,replicateUpdates=false,replicateRemovals=false"))
+                .cacheExtensionFactory(new CacheExtensionFactoryConfiguration()
+                        .className("net.sf.ehcache.distribution.RMIAntiEntropyRepairerFactory")
+                        .properties("repairIntervalMillis=0" + repairerProperties));
+        return new Configuration()
+                .cacheManagerPeerListenerFactory(new FactoryConfiguration()
+                        .className("net.sf.ehcache.distribution.RMICacheManagerPeerListenerFactory")
+                        .properties("hostName=localhost, port=" + port + ", socketTimeoutMillis=2000"))
+                .cacheManagerPeerProviderFactory(new FactoryConfiguration()
+                        .className("net.sf.ehcache.distribution.RMICacheManagerPeerProviderFactory")
+                        .properties("peerDiscovery=manual,rmiUrls=//localhost:" + peerPort + "/repaired"))
+                .cache(cache)
+                .name("RMIAntiEntropyRepairerIT-" + index);
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.distribution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.config.FactoryConfiguration;
+import net.sf.ehcache.event.CacheEventListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the coalescing mode of {@link RMIAsynchronousCacheReplicator}
+ *
+ * @author Terracotta
+ */
+public class RMIAsynchronousCacheReplicatorCoalescingIT extends AbstractRMITest {
+
+    private CacheManager manager1;
+    private CacheManager manager2;
+
+    @Before
+    public void setUp() throws Exception {
+        List<Configuration> configurations = new ArrayList<Configuration>();
+        configurations.add(createConfiguration(1, 5021, 5022));
+        configurations.add(createConfiguration(2, 5022, 5021));
+        List<CacheManager> managers = startupManagers(configurations);
+        manager1 = managers.get(0);
+        manager2 = managers.get(1);
+        waitForClusterMembership(10, TimeUnit.SECONDS, manager1, manager2);
+    }
+
+    @After
+    public void tearDown() {
+        if (manager1 != null) {
+            manager1.shutdown();
+        }
+        if (manager2 != null) {
+            manager2.shutdown();
+        }
+    }
+
+    @Test
+    public void testOnlyLatestUpdateOfAKeyIsReplicated() throws InterruptedException {
+        Cache cache1 = manager1.getCache("coalescingCache");
+        Cache cache2 = manager2.getCache("coalescingCache");
+        RMIAsynchronousCacheReplicator replicator = getReplicator(cache1);
+        assertTrue(replicator.isCoalescing());
+
+        // a flush just happened: the next one is a full replication interval away
+        cache1.put(new Element("sync", 0));
+        waitForValue(cache2, "sync", 0);
+        for (int i = 1; i <= 50; i++) {
+            cache1.put(new Element("key", i));
+        }
+        cache1.put(new Element("other", 0));
+        cache1.remove("other");
+
+        waitForValue(cache2, "key", 50);
+        assertNull(cache2.get("other"));
+        assertEquals(53, replicator.getQueuedEventCount());
+        assertEquals(50, replicator.getCoalescedEventCount());
+        assertEquals(50 / 53.0, replicator.getCoalescingRatio(), 0.0001);
+        assertEquals(0, replicator.getDroppedEventCount());
+    }
+
+    @Test
+    public void testRemoveAllSupersedesEarlierUpdates() throws InterruptedException {
+        Cache cache1 = manager1.getCache("coalescingCache");
+        Cache cache2 = manager2.getCache("coalescingCache");
+        RMIAsynchronousCacheReplicator replicator = getReplicator(cache1);
+
+        cache2.put(new Element("remote", 0), true);
+        cache1.put(new Element("sync", 0));
+        waitForValue(cache2, "sync", 0);
+        for (int i = 0; i < 10; i++) {
+            cache1.put(new Element(i, i));
+        }
+        cache1.removeAll();
+        cache1.put(new Element("after", 0));
+
+        waitForValue(cache2, "after", 0);
+        assertEquals(1, cache2.getSize());
+        assertEquals(10, replicator.getCoalescedEventCount());
+    }
+
+    private static Configuration createConfiguration(int index, int port, int peerPort) {
+        CacheConfiguration cache = new CacheConfiguration("coalescingCache", 0).eternal(true);
+        cache.addCacheEventListenerFactory(new CacheConfiguration.CacheEventListenerFactoryConfiguration()
+                .className("net.sf.ehcache.distribution.RMICacheReplicatorFactory")
+                .properties("replicateAsynchronously=true,asynchronousReplicationIntervalMillis=2000,"
+                        + "asynchronousReplicationCoalescing=true"));
+        return new Configuration()
+                .cacheManagerPeerListenerFactory(new FactoryConfiguration()
+                        .className("net.sf.ehcache.distribution.RMICacheManagerPeerListenerFactory")
+                        .properties("hostName=localhost, port=" + port + ", socketTimeoutMillis=2000"))
+                .cacheManagerPeerProviderFactory(new FactoryConfiguration()
+                        .className("net.sf.ehcache.distribution.RMICacheManagerPeerProviderFactory")
+                        .properties("peerDiscovery=manual,rmiUrls=//localhost:" + peerPort + "/coalescingCache"))
+                .cache(cache)
+                .name("RMIAsynchronousCacheReplicatorCoalescingIT-" + index);
+    }
+
+    private static RMIAsynchronousCacheReplicator getReplicator(Cache cache) {
+        for (CacheEventListener listener : cache.getCacheEventNotificationService().getCacheEventListeners()) {
+            if (listener instanceof RMIAsynchronousCacheReplicator) {
+                return (RMIAsynchronousCacheReplicator) listener;
+            }
+        }
+        throw new AssertionError("No asynchronous replicator registered on " + cache.getName());
+    }
+
+    private static void waitForValue(Cache cache, Object key, Object value) throws InterruptedException {
+        long end = System.currentTimeMillis() + 10000;
+        while (cache.get(key) == null || !value.equals(cache.get(key).getObjectValue())) {
+            if (System.currentTimeMillis() > end) {
+                fail(key + "=" + value + " was not replicated");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
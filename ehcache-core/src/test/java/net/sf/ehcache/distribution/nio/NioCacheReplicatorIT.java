@@ -0,0 +1,205 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.distribution.nio;
+
+import java.io.DataOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.CacheConfiguration.CacheEventListenerFactoryConfiguration;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.config.FactoryConfiguration;
+import net.sf.ehcache.distribution.CacheManagerPeerProvider;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.terracotta.test.categories.IntegrationTests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@Category(IntegrationTests.class)
+public class NioCacheReplicatorIT {
+
+    private final List<CacheManager> managers = new ArrayList<CacheManager>();
+
+    @After
+    public void tearDown() {
+        for (CacheManager manager : managers) {
+            manager.shutdown();
+        }
+    }
+
+    @Test
+    public void testChangesAreReplicatedToAllPeers() throws InterruptedException {
+        CacheManager manager1 = createManager("NioCacheReplicatorIT-1", "");
+        CacheManager manager2 = createManager("NioCacheReplicatorIT-2", "");
+        CacheManager manager3 = createManager("NioCacheReplicatorIT-3", "");
+        connect(manager1, manager2, manager3);
+        connect(manager2, manager1, manager3);
+        connect(manager3, manager1, manager2);
+
+        Cache cache1 = manager1.getCache("replicated");
+        Cache cache2 = manager2.getCache("replicated");
+        Cache cache3 = manager3.getCache("replicated");
+        for (int i = 0; i < 100; i++) {
+            cache1.put(new Element(i, "value-" + i));
+        }
+        waitForSize(100, cache2, cache3);
+        assertEquals("value-42", cache2.get(42).getObjectValue());
+        assertEquals("value-42", cache3.get(42).getObjectValue());
+
+        cache2.put(new Element(42, "updated"));
+        cache3.remove(7);
+        waitForSize(99, cache1, cache2);
+        waitForValue("updated", 42, cache1, cache3);
+        assertNull(cache1.get(7));
+
+        cache3.removeAll();
+        waitForSize(0, cache1, cache2);
+        for (NioPeer peer : peers(manager1)) {
+            assertEquals(0, peer.getDroppedFrameCount());
+            assertTrue(peer.getAcknowledgedFrameCount() > 0);
+        }
+    }
+
+    @Test
+    public void testStalledPeerDoesNotHoldUpOthers() throws Exception {
+        ServerSocketChannel stalled = ServerSocketChannel.open();
+        stalled.socket().bind(new InetSocketAddress("localhost", 0));
+        try {
+            CacheManager manager1 = createManager("NioCacheReplicatorIT-1",
+                    ",maximumUnackedFrames=2,maximumQueuedFrames=10");
+            CacheManager manager2 = createManager("NioCacheReplicatorIT-2", "");
+            manager1.getCacheManagerPeerProvider("NIO").registerPeer("localhost:" + stalled.socket().getLocalPort());
+            connect(manager1, manager2);
+            // accepted, but never read from nor acknowledged
+            SocketChannel stalledConnection = stalled.accept();
+
+            Cache cache1 = manager1.getCache("replicated");
+            Cache cache2 = manager2.getCache("replicated");
+            for (int i = 0; i < 100; i++) {
+                cache1.put(new Element(i, "value-" + i));
+                waitForSize(i + 1, cache2);
+            }
+
+            NioPeer stalledPeer = null;
+            NioPeer livePeer = null;
+            for (NioPeer peer : peers(manager1)) {
+                if (peer.getNodeId().endsWith(":" + stalled.socket().getLocalPort())) {
+                    stalledPeer = peer;
+                } else {
+                    livePeer = peer;
+                }
+            }
+            assertEquals(2, stalledPeer.getUnackedFrameCount());
+            assertEquals(10, stalledPeer.getQueuedFrameCount());
+            assertEquals(88, stalledPeer.getDroppedFrameCount());
+            assertEquals(0, livePeer.getDroppedFrameCount());
+            stalledConnection.close();
+        } finally {
+            stalled.close();
+        }
+    }
+
+    @Test
+    public void testOversizedFrameOnlyClosesItsConnection() throws Exception {
+        CacheManager manager1 = createManager("NioCacheReplicatorIT-1", "");
+        CacheManager manager2 = createManager("NioCacheReplicatorIT-2", "");
+        connect(manager1, manager2);
+
+        Socket rogue = new Socket("localhost", ((NioCacheManagerPeerListener) manager2.getCachePeerListener("NIO")).getPort());
+        try {
+            rogue.setSoTimeout(10000);
+            DataOutputStream out = new DataOutputStream(rogue.getOutputStream());
+            out.writeInt(Integer.MAX_VALUE);
+            out.flush();
+            assertEquals(-1, rogue.getInputStream().read());
+        } finally {
+            rogue.close();
+        }
+
+        Cache cache1 = manager1.getCache("replicated");
+        Cache cache2 = manager2.getCache("replicated");
+        for (int i = 0; i < 10; i++) {
+            cache1.put(new Element(i, "value-" + i));
+        }
+        waitForSize(10, cache2);
+    }
+
+    private CacheManager createManager(String name, String providerProperties) {
+        CacheManager manager = new CacheManager(new Configuration().name(name)
+                .cacheManagerPeerListenerFactory(new FactoryConfiguration()
+                        .className(NioCacheManagerPeerListenerFactory.class.getName())
+                        .properties("hostName=localhost"))
+                .cacheManagerPeerProviderFactory(new FactoryConfiguration()
+                        .className(NioCacheManagerPeerProviderFactory.class.getName())
+                        .properties("socketTimeoutMillis=60000" + providerProperties))
+                .cache(new CacheConfiguration("replicated", 0)
+                        .cacheEventListenerFactory(new CacheEventListenerFactoryConfiguration()
+                                .className(NioCacheReplicatorFactory.class.getName())
+                                .properties("asynchronousReplicationMaximumBatchSize=1"))));
+        managers.add(manager);
+        return manager;
+    }
+
+    private static void connect(CacheManager manager, CacheManager... others) {
+        CacheManagerPeerProvider provider = manager.getCacheManagerPeerProvider("NIO");
+        for (CacheManager other : others) {
+            provider.registerPeer("localhost:" + ((NioCacheManagerPeerListener) other.getCachePeerListener("NIO")).getPort());
+        }
+    }
+
+    private static List<NioPeer> peers(CacheManager manager) {
+        return ((NioCacheManagerPeerProvider) manager.getCacheManagerPeerProvider("NIO")).listNioPeers();
+    }
+
+    private static void waitForSize(int size, Cache... caches) throws InterruptedException {
+        long end = System.currentTimeMillis() + 10000;
+        for (Cache cache : caches) {
+            while (cache.getSize() != size) {
+                if (System.currentTimeMillis() > end) {
+                    fail(cache.getCacheManager().getName() + " holds " + cache.getSize() + " elements instead of " + size);
+                }
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private static void waitForValue(Object value, Object key, Cache... caches) throws InterruptedException {
+        long end = System.currentTimeMillis() + 10000;
+        for (Cache cache : caches) {
+            while (cache.get(key) == null || !value.equals(cache.get(key).getObjectValue())) {
+                if (System.currentTimeMillis() > end) {
+                    fail(cache.getCacheManager().getName() + " did not get " + key + "=" + value);
+                }
+                Thread.sleep(10);
+            }
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.event;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.CacheConfiguration.CacheEventListenerFactoryConfiguration;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.config.ConfigurationFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.terracotta.test.categories.CheckShorts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@Category(CheckShorts.class)
+public class AsynchronousEventDispatcherTest {
+
+    private CacheManager manager;
+    private Cache cache;
+
+    @Before
+    public void setUp() {
+        manager = new CacheManager(new Configuration().name("asynchronous-events"));
+        cache = new Cache(new CacheConfiguration("events", 0));
+        manager.addCache(cache);
+    }
+
+    @After
+    public void tearDown() {
+        manager.shutdown();
+    }
+
+    @Test
+    public void testSlowListenerDoesNotHoldUpPuts() throws InterruptedException {
+        RecordingListener listener = new RecordingListener();
+        listener.block = new CountDownLatch(1);
+        register(listener, new CacheEventListenerFactoryConfiguration().asynchronous(true).dispatchThreads(4));
+
+        for (int i = 0; i < 100; i++) {
+            cache.put(new Element(i % 10, i));
+        }
+        assertTrue(cache.getStatistics().getEventDispatchQueueDepth() > 0);
+        listener.block.countDown();
+        listener.await(100);
+
+        // events on a key are delivered in order, the first one as a put
+        for (int key = 0; key < 10; key++) {
+            List<String> events = new ArrayList<String>();
+            for (String event : listener.events) {
+                if (event.contains(" " + key + "=")) {
+                    events.add(event);
+                }
+            }
+            assertEquals(10, events.size());
+            assertEquals("put " + key + "=" + key, events.get(0));
+            for (int i = 1; i < 10; i++) {
+                assertEquals("updated " + key + "=" + (key + 10 * i), events.get(i));
+            }
+        }
+        assertEquals(0, cache.getStatistics().getEventDispatchQueueDepth());
+        assertTrue(cache.getStatistics().getEventDispatchLagMillis() >= 0);
+    }
+
+    @Test
+    public void testDropOldest() throws InterruptedException {
+        RecordingListener listener = new RecordingListener();
+        listener.block = new CountDownLatch(1);
+        register(listener, new CacheEventListenerFactoryConfiguration().asynchronous(true).dispatchQueueSize(2)
+                .dispatchOverflowPolicy(EventOverflowPolicy.DROP_OLDEST));
+
+        cache.put(new Element("a", 1));
+        assertTrue(listener.blocked.await(10, TimeUnit.SECONDS));
+        for (String key : new String[] {"b", "c", "d", "e"}) {
+            cache.put(new Element(key, 1));
+        }
+        assertEquals(2, cache.getCacheEventNotificationService().getEventDispatchDroppedCount());
+        listener.block.countDown();
+
+        listener.await(3);
+        assertEquals("[put a=1, put d=1, put e=1]", listener.events.toString());
+    }
+
+    @Test
+    public void testCoalesce() throws InterruptedException {
+        RecordingListener listener = new RecordingListener();
+        listener.block = new CountDownLatch(1);
+        register(listener, new CacheEventListenerFactoryConfiguration().asynchronous(true).dispatchQueueSize(2)
+                .dispatchOverflowPolicy(EventOverflowPolicy.COALESCE));
+
+        cache.put(new Element("blocking", 0));
+        assertTrue(listener.blocked.await(10, TimeUnit.SECONDS));
+        cache.put(new Element("a", 1));
+        cache.put(new Element("b", 1));
+        cache.put(new Element("a", 2));
+        cache.put(new Element("a", 3));
+        cache.remove("b");
+        assertEquals(3, cache.getCacheEventNotificationService().getEventDispatchCoalescedCount());
+        listener.block.countDown();
+
+        listener.await(3);
+        assertEquals("[put blocking=0, put a=3, removed b=1]", listener.events.toString());
+    }
+
+    @Test
+    public void testCoalesceDeliversEveryEventBelowCapacity() throws InterruptedException {
+        RecordingListener listener = new RecordingListener();
+        listener.block = new CountDownLatch(1);
+        register(listener, new CacheEventListenerFactoryConfiguration().asynchronous(true)
+                .dispatchOverflowPolicy(EventOverflowPolicy.COALESCE));
+
+        cache.put(new Element("blocking", 0));
+        assertTrue(listener.blocked.await(10, TimeUnit.SECONDS));
+        cache.put(new Element("a", 1));
+        cache.put(new Element("a", 2));
+        cache.put(new Element("a", 3));
+        assertEquals(0, cache.getCacheEventNotificationService().getEventDispatchCoalescedCount());
+        listener.block.countDown();
+
+        listener.await(4);
+        assertEquals("[put blocking=0, put a=1, updated a=2, updated a=3]", listener.events.toString());
+    }
+
+    @Test
+    public void testRemoveAllFromTheListenerDoesNotWaitOnAFullLane() throws InterruptedException {
+        RecordingListener listener = new RecordingListener();
+        listener.removeAllOnPutOf = 0;
+        listener.beforeRemoveAll = new CountDownLatch(1);
+        register(listener, new CacheEventListenerFactoryConfiguration().asynchronous(true).dispatchThreads(2)
+                .dispatchQueueSize(2));
+
+        cache.put(new Element(0, 0));
+        assertTrue(listener.blocked.await(10, TimeUnit.SECONDS));
+        // same lane as 0, filling it while its thread is in the listener
+        cache.put(new Element(2, 2));
+        listener.beforeRemoveAll.countDown();
+
+        listener.await(3);
+        assertEquals("[put 0=0, removeAll, put 2=2]", listener.events.toString());
+    }
+
+    @Test
+    public void testRemoveAllIsOrderedAcrossLanes() throws InterruptedException {
+        RecordingListener listener = new RecordingListener();
+        register(listener, new CacheEventListenerFactoryConfiguration().asynchronous(true).dispatchThreads(4));
+
+        for (int i = 0; i < 50; i++) {
+            cache.put(new Element(i, i));
+        }
+        cache.removeAll();
+        cache.put(new Element("after", 0));
+
+        listener.await(52);
+        assertEquals("removeAll", listener.events.get(50));
+        assertEquals("put after=0", listener.events.get(51));
+    }
+
+    @Test
+    public void testConcurrentRemoveAllsAreAllDelivered() throws InterruptedException {
+        final RecordingListener listener = new RecordingListener();
+        register(listener, new CacheEventListenerFactoryConfiguration().asynchronous(true).dispatchThreads(4)
+                .dispatchQueueSize(16));
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t * 1000;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 50; i++) {
+                        cache.put(new Element(offset + i, i));
+                        cache.removeAll();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join(10000);
+            assertFalse("removeAll deadlocked the dispatcher", thread.isAlive());
+        }
+        cache.put(new Element("after", 0));
+
+        long end = System.currentTimeMillis() + 10000;
+        while (!listener.events.contains("put after=0") && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        int removeAlls = 0;
+        for (String event : listener.events) {
+            if ("removeAll".equals(event)) {
+                removeAlls++;
+            }
+        }
+        assertEquals(200, removeAlls);
+        assertEquals("put after=0", listener.events.get(listener.events.size() - 1));
+    }
+
+    @Test
+    public void testUnregisterDeliversPendingEvents() throws InterruptedException {
+        RecordingListener listener = new RecordingListener();
+        register(listener, new CacheEventListenerFactoryConfiguration().asynchronous(true));
+
+        for (int i = 0; i < 20; i++) {
+            cache.put(new Element(i, i));
+        }
+        assertTrue(cache.getCacheEventNotificationService().unregisterListener(listener));
+        assertEquals(20, listener.events.size());
+        cache.put(new Element("after", 0));
+        assertFalse(listener.events.contains("put after=0"));
+    }
+
+    @Test
+    public void testXmlConfiguration() {
+        String xml = "<ehcache name=\"asynchronous-events-xml\">\n"
+                + "<defaultCache maxEntriesLocalHeap=\"10\"/>\n"
+                + "<cache name=\"audited\" maxEntriesLocalHeap=\"10\">\n"
+                + "  <cacheEventListenerFactory class=\"net.sf.ehcache.event.CountingCacheEventListenerFactory\"\n"
+                + "      asynchronous=\"true\" dispatchThreads=\"2\" dispatchQueueSize=\"50\" dispatchBatchSize=\"5\"\n"
+                + "      dispatchOverflowPolicy=\"drop_oldest\"/>\n"
+                + "</cache>\n"
+                + "</ehcache>";
+        Configuration configuration = ConfigurationFactory.parseConfiguration(new ByteArrayInputStream(xml.getBytes()));
+        CacheEventListenerFactoryConfiguration factory = (CacheEventListenerFactoryConfiguration) configuration
+                .getCacheConfigurations().get("audited").getCacheEventListenerConfigurations().get(0);
+        assertTrue(factory.isAsynchronous());
+        assertEquals(2, factory.getDispatchThreads());
+        assertEquals(50, factory.getDispatchQueueSize());
+        assertEquals(5, factory.getDispatchBatchSize());
+        assertEquals(EventOverflowPolicy.DROP_OLDEST, factory.getDispatchOverflowPolicy());
+    }
+
+    private void register(CacheEventListener listener, CacheEventListenerFactoryConfiguration configuration) {
+        assertTrue(cache.getCacheEventNotificationService().registerListener(listener, configuration));
+    }
+
+    /**
+     * Listener recording the events it receives, optionally holding them once blocked
+     */
+    private static final class RecordingListener extends CacheEventListenerAdapter {
+
+        private final List<String> events = new CopyOnWriteArrayList<String>();
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private volatile CountDownLatch block;
+        private volatile Object removeAllOnPutOf;
+        private volatile CountDownLatch beforeRemoveAll;
+
+        @Override
+        public void notifyElementPut(Ehcache cache, Element element) throws CacheException {
+            record("put " + element.getObjectKey() + "=" + element.getObjectValue());
+            if (element.getObjectKey().equals(removeAllOnPutOf)) {
+                blocked.countDown();
+                try {
+                    beforeRemoveAll.await();
+                } catch (InterruptedException e) {
+                    throw new CacheException(e);
+                }
+                cache.removeAll();
+            }
+        }
+
+        @Override
+        public void notifyElementUpdated(Ehcache cache, Element element) throws CacheException {
+            record("updated " + element.getObjectKey() + "=" + element.getObjectValue());
+        }
+
+        @Override
+        public void notifyElementRemoved(Ehcache cache, Element element) throws CacheException {
+            record("removed " + element.getObjectKey() + "=" + element.getObjectValue());
+        }
+
+        @Override
+        public void notifyRemoveAll(Ehcache cache) {
+            record("removeAll");
+        }
+
+        private void record(String event) {
+            CountDownLatch latch = block;
+            if (latch != null) {
+                blocked.countDown();
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    throw new CacheException(e);
+                }
+            }
+            events.add(event);
+        }
+
+        void await(int count) throws InterruptedException {
+            long end = System.currentTimeMillis() + 10000;
+            while (events.size() < count && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+            assertEquals(events.toString(), count, events.size());
+        }
+    }
+}
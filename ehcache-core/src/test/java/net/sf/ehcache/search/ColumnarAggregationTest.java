@@ -0,0 +1,192 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.search;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.config.SearchAttribute;
+import net.sf.ehcache.config.Searchable;
+import net.sf.ehcache.search.aggregator.Aggregators;
+import net.sf.ehcache.search.expression.Criteria;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.terracotta.test.categories.CheckShorts;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@Category(CheckShorts.class)
+public class ColumnarAggregationTest {
+
+    private static final AtomicInteger EXTRACTIONS = new AtomicInteger();
+
+    private CacheManager cacheManager;
+    private Cache columnar;
+    private Cache plain;
+
+    @Before
+    public void setup() {
+        cacheManager = new CacheManager(new Configuration().name("columnar-aggregation"));
+        columnar = createCache("columnar", true);
+        plain = createCache("plain", false);
+        for (int i = 0; i < 200; i++) {
+            Reading reading = new Reading(i, i % 7 == 0 ? null : Long.valueOf(i * 1000L), i / 4.0d, i % 3 == 0 ? "a" : "b");
+            columnar.put(new Element(i, reading));
+            plain.put(new Element(i, reading));
+        }
+    }
+
+    private Cache createCache(String name, boolean columns) {
+        Cache cache = new Cache(new CacheConfiguration(name, 0).searchable(new Searchable()
+                .searchAttribute(new SearchAttribute().name("id"))
+                .searchAttribute(new SearchAttribute().name("total"))
+                .searchAttribute(new SearchAttribute().name("score"))
+                .searchAttribute(new SearchAttribute().name("label"))
+                .columnarAttributes(columns)));
+        cacheManager.addCache(cache);
+        return cache;
+    }
+
+    @After
+    public void tearDown() {
+        cacheManager.shutdown();
+    }
+
+    @Test
+    public void testAggregatesMatchElementEvaluation() {
+        assertSameAggregates();
+        columnar.remove(10);
+        plain.remove(10);
+        columnar.put(new Element(11, new Reading(-5, 42L, -1.5d, "c")));
+        plain.put(new Element(11, new Reading(-5, 42L, -1.5d, "c")));
+        assertSameAggregates();
+    }
+
+    @Test
+    public void testAggregationDoesNotTouchElements() {
+        Attribute<Integer> id = columnar.getSearchAttribute("id");
+        Attribute<Long> total = columnar.getSearchAttribute("total");
+        EXTRACTIONS.set(0);
+        Results results = columnar.createQuery().addCriteria(id.between(10, 100).and(total.ge(20000L)))
+                .includeAggregator(Aggregators.sum(total), Aggregators.count()).execute();
+        assertEquals(0, EXTRACTIONS.get());
+        assertEquals(1, results.size());
+        assertTrue(results.hasAggregators());
+    }
+
+    @Test
+    public void testUnsupportedQueriesFallBack() {
+        Attribute<String> label = columnar.getSearchAttribute("label");
+        Attribute<Integer> id = columnar.getSearchAttribute("id");
+        EXTRACTIONS.set(0);
+        Results results = columnar.createQuery().addCriteria(label.eq("a"))
+                .includeAggregator(Aggregators.max(id)).execute();
+        assertTrue(EXTRACTIONS.get() > 0);
+        assertEquals(198, results.all().get(0).getAggregatorResults().get(0));
+    }
+
+    @Test
+    public void testCopyingCachesDoNotUseColumns() {
+        Cache copying = new Cache(new CacheConfiguration("copying", 0).copyOnRead(true).copyOnWrite(true)
+                .searchable(new Searchable().searchAttribute(new SearchAttribute().name("id")).columnarAttributes(true)));
+        cacheManager.addCache(copying);
+        for (int i = 0; i < 20; i++) {
+            copying.put(new Element(i, new Reading(i, null, 0, "a")));
+        }
+        Attribute<Integer> id = copying.getSearchAttribute("id");
+        EXTRACTIONS.set(0);
+        Results results = copying.createQuery().addCriteria(id.lt(10)).includeAggregator(Aggregators.count()).execute();
+        assertTrue(EXTRACTIONS.get() > 0);
+        assertEquals(10, results.all().get(0).getAggregatorResults().get(0));
+    }
+
+    @Test
+    public void testNoMatchesYieldsEmptyResults() {
+        Attribute<Integer> id = columnar.getSearchAttribute("id");
+        Results results = columnar.createQuery().addCriteria(id.gt(1000)).includeAggregator(Aggregators.count()).execute();
+        assertEquals(0, results.size());
+        assertEquals(plain.createQuery().addCriteria(id.gt(1000)).includeAggregator(Aggregators.count()).execute().size(), 0);
+    }
+
+    private void assertSameAggregates() {
+        Attribute<Integer> id = columnar.getSearchAttribute("id");
+        Attribute<Long> total = columnar.getSearchAttribute("total");
+        Attribute<Double> score = columnar.getSearchAttribute("score");
+        for (Cache cache : new Cache[] {columnar, plain}) {
+            assertEquals(aggregates(plain, id.lt(150).and(score.ge(2.5d))), aggregates(cache, id.lt(150).and(score.ge(2.5d))));
+            assertEquals(aggregates(plain, total.between(5000L, 90000L, false, true)),
+                    aggregates(cache, total.between(5000L, 90000L, false, true)));
+            assertEquals(aggregates(plain, id.eq(21)), aggregates(cache, id.eq(21)));
+        }
+    }
+
+    private static List<Object> aggregates(Cache cache, Criteria criteria) {
+        Attribute<Integer> id = cache.getSearchAttribute("id");
+        Attribute<Long> total = cache.getSearchAttribute("total");
+        Attribute<Double> score = cache.getSearchAttribute("score");
+        Results results = cache.createQuery().addCriteria(criteria)
+                .includeAggregator(Aggregators.count(), Aggregators.sum(id), Aggregators.average(id), Aggregators.min(id),
+                        Aggregators.max(id), Aggregators.sum(total), Aggregators.average(total), Aggregators.min(total),
+                        Aggregators.max(total), Aggregators.min(score), Aggregators.max(score), Aggregators.average(score))
+                .execute();
+        return results.all().get(0).getAggregatorResults();
+    }
+
+    public static class Reading implements Serializable {
+        private final int id;
+        private final Long total;
+        private final double score;
+        private final String label;
+
+        public Reading(int id, Long total, double score, String label) {
+            this.id = id;
+            this.total = total;
+            this.score = score;
+            this.label = label;
+        }
+
+        public int getId() {
+            EXTRACTIONS.incrementAndGet();
+            return id;
+        }
+
+        public Long getTotal() {
+            EXTRACTIONS.incrementAndGet();
+            return total;
+        }
+
+        public double getScore() {
+            EXTRACTIONS.incrementAndGet();
+            return score;
+        }
+
+        public String getLabel() {
+            EXTRACTIONS.incrementAndGet();
+            return label;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.search;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.config.SearchAttribute;
+import net.sf.ehcache.config.Searchable;
+import net.sf.ehcache.search.aggregator.Aggregators;
+import net.sf.ehcache.search.attribute.AttributeExtractor;
+import net.sf.ehcache.search.attribute.AttributeExtractorException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.terracotta.test.categories.CheckShorts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@Category(CheckShorts.class)
+public class QueryProfileTest {
+
+    private CacheManager cacheManager;
+
+    @Before
+    public void setup() {
+        cacheManager = new CacheManager(new Configuration().name("query-profile"));
+    }
+
+    @After
+    public void tearDown() {
+        cacheManager.shutdown();
+    }
+
+    private Cache createCache(String name, Searchable searchable) {
+        Cache cache = new Cache(new CacheConfiguration(name, 0).searchable(searchable
+                .searchAttribute(new SearchAttribute().name("number").expression("value"))));
+        cacheManager.addCache(cache);
+        for (int i = 0; i < 100; i++) {
+            cache.put(new Element(i, i));
+        }
+        return cache;
+    }
+
+    @Test
+    public void testExplainReportsScanAndPhases() {
+        Cache cache = createCache("explain", new Searchable());
+        Attribute<Integer> value = cache.getSearchAttribute("number");
+        Query query = cache.createQuery().includeKeys().addCriteria(value.lt(10)).addOrderBy(value, Direction.DESCENDING);
+
+        QueryProfile profile = query.explain();
+        assertEquals(QueryProfile.FULL_SCAN, profile.getAccessPath());
+        assertEquals(100, profile.getElementsScanned());
+        assertEquals(10, profile.getElementsMatched());
+        assertTrue(profile.getTotalNanos() >= profile.getCriteriaNanos() + profile.getSortNanos());
+
+        // explain leaves the query usable and unprofiled
+        Results results = query.execute();
+        assertEquals(10, results.size());
+        assertNull(results.getProfile());
+    }
+
+    @Test
+    public void testProfilingHintBypassesResultCache() {
+        Cache cache = createCache("cached", new Searchable().resultCacheSize(4));
+        Attribute<Integer> value = cache.getSearchAttribute("number");
+        Query query = cache.createQuery().includeKeys().addCriteria(value.ge(50));
+        query.execute();
+        query.execute();
+
+        Results results = query.execute(new ExecutionHints().setProfiling(true));
+        assertEquals(50, results.size());
+        assertEquals(100, results.getProfile().getElementsScanned());
+        assertEquals(1, cache.getStatistics().searchResultCacheHitCount());
+    }
+
+    @Test
+    public void testColumnarAccessPath() {
+        Cache cache = createCache("columnar", new Searchable().columnarAttributes(true));
+        Attribute<Integer> value = cache.getSearchAttribute("number");
+        QueryProfile profile = cache.createQuery().addCriteria(value.between(10, 19))
+                .includeAggregator(Aggregators.sum(value)).explain();
+        assertEquals(QueryProfile.COLUMNAR_SCAN, profile.getAccessPath());
+        assertEquals(100, profile.getElementsScanned());
+        assertEquals(10, profile.getElementsMatched());
+    }
+
+    @Test
+    public void testScanAndSlowQueryStatistics() {
+        Cache cache = createCache("slow", new Searchable().slowQueryThresholdMillis(5)
+                .searchAttribute(new SearchAttribute().name("slow").className(SlowExtractor.class.getName())));
+        Attribute<Integer> value = cache.getSearchAttribute("number");
+        cache.createQuery().includeKeys().addCriteria(value.eq(3)).execute();
+        assertEquals(100, cache.getStatistics().searchElementsScannedCount());
+        assertEquals(1, cache.getStatistics().searchElementsMatchedCount());
+        assertEquals(0, cache.getStatistics().searchSlowQueryCount());
+
+        Attribute<Integer> slow = cache.getSearchAttribute("slow");
+        cache.createQuery().includeKeys().addCriteria(slow.eq(3)).execute();
+        assertEquals(1, cache.getStatistics().searchSlowQueryCount());
+
+        cache.getCacheConfiguration().getSearchable().setSlowQueryThresholdMillis(0);
+        cache.createQuery().includeKeys().addCriteria(slow.eq(3)).execute();
+        assertEquals(1, cache.getStatistics().searchSlowQueryCount());
+    }
+
+    @Test
+    public void testStreamedQueriesAreRecordedOnCompletion() {
+        Cache cache = createCache("streamed", new Searchable().slowQueryThresholdMillis(5)
+                .searchAttribute(new SearchAttribute().name("slow").className(SlowExtractor.class.getName())));
+        Attribute<Integer> slow = cache.getSearchAttribute("slow");
+        ExecutionHints streaming = new ExecutionHints().setStreamingResults(true).setResultBatchSize(10);
+
+        StreamingResults exhausted = (StreamingResults) cache.createQuery().includeKeys().addCriteria(slow.ge(0))
+                .execute(streaming);
+        exhausted.nextBatch();
+        assertEquals(0, cache.getStatistics().searchSlowQueryCount());
+        exhausted.all();
+        assertEquals(1, cache.getStatistics().searchSlowQueryCount());
+        assertEquals(100, cache.getStatistics().searchElementsScannedCount());
+        assertEquals(100, cache.getStatistics().searchElementsMatchedCount());
+
+        StreamingResults discarded = (StreamingResults) cache.createQuery().includeKeys().addCriteria(slow.ge(0))
+                .execute(streaming);
+        discarded.nextBatch();
+        assertEquals(100, cache.getStatistics().searchElementsScannedCount());
+        discarded.discard();
+        discarded.discard();
+        assertEquals(110, cache.getStatistics().searchElementsScannedCount());
+        assertEquals(110, cache.getStatistics().searchElementsMatchedCount());
+    }
+
+    public static class SlowExtractor implements AttributeExtractor {
+
+        @Override
+        public Object attributeFor(Element element, String attributeName) throws AttributeExtractorException {
+            if (element.getObjectKey().equals(0)) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return element.getObjectValue();
+        }
+    }
+}
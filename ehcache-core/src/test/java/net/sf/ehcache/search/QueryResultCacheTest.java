@@ -0,0 +1,199 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.search;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.config.SearchAttribute;
+import net.sf.ehcache.config.Searchable;
+import net.sf.ehcache.search.Person.Gender;
+import net.sf.ehcache.search.aggregator.Aggregators;
+import net.sf.ehcache.statistics.StatisticsGateway;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.terracotta.test.categories.CheckShorts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+@Category(CheckShorts.class)
+public class QueryResultCacheTest {
+    private CacheManager cacheManager;
+    private Cache cache;
+    private Attribute<Integer> age;
+    private Attribute<Gender> gender;
+
+    @Before
+    public void setup() {
+        cacheManager = new CacheManager(new Configuration().name("query-result-cache"));
+        CacheConfiguration config = new CacheConfiguration("cache", 0).searchable(new Searchable()
+                .searchAttribute(new SearchAttribute().name("age").expression("value.getAge()"))
+                .searchAttribute(new SearchAttribute().name("gender").expression("value.getGender()"))
+                .resultCacheSize(2));
+        cache = new Cache(config);
+        cacheManager.addCache(cache);
+        for (int i = 0; i < 10; i++) {
+            cache.put(new Element(i, new Person("person-" + i, i * 10, i % 2 == 0 ? Gender.MALE : Gender.FEMALE)));
+        }
+        age = cache.getSearchAttribute("age");
+        gender = cache.getSearchAttribute("gender");
+    }
+
+    @After
+    public void tearDown() {
+        cacheManager.shutdown();
+    }
+
+    @Test
+    public void testRepeatedQueryIsServedFromCache() {
+        Results first = cache.createQuery().includeKeys().addCriteria(age.ge(50)).execute();
+        Results second = cache.createQuery().includeKeys().addCriteria(age.ge(50)).execute();
+        assertSame(first, second);
+        assertEquals(5, second.size());
+
+        StatisticsGateway statistics = cache.getStatistics();
+        assertEquals(1, statistics.searchResultCacheMissCount());
+        assertEquals(1, statistics.searchResultCacheHitCount());
+    }
+
+    @Test
+    public void testEquivalentQueriesShareEntry() {
+        Results first = cache.createQuery().includeKeys().addCriteria(age.ge(50).and(gender.eq(Gender.MALE))).execute();
+        Results second = cache.createQuery().includeKeys().addCriteria(gender.eq(Gender.MALE).and(age.ge(50))).execute();
+        assertSame(first, second);
+
+        Results differentProjection = cache.createQuery().includeKeys().includeValues()
+                .addCriteria(age.ge(50).and(gender.eq(Gender.MALE))).execute();
+        assertNotSame(first, differentProjection);
+        Results differentLimit = cache.createQuery().includeKeys().addCriteria(age.ge(50).and(gender.eq(Gender.MALE)))
+                .maxResults(1).execute();
+        assertNotSame(first, differentLimit);
+        assertEquals(1, differentLimit.size());
+    }
+
+    @Test
+    public void testMutationOutsideCriteriaKeepsEntry() {
+        Results first = cache.createQuery().includeKeys().addCriteria(age.ge(50)).execute();
+        cache.put(new Element(1, new Person("person-1", 11, Gender.FEMALE)));
+        cache.remove(2);
+        cache.put(new Element(100, new Person("person-100", 1, Gender.MALE)));
+        assertSame(first, cache.createQuery().includeKeys().addCriteria(age.ge(50)).execute());
+        assertEquals(0, cache.getStatistics().searchResultCacheInvalidationCount());
+    }
+
+    @Test
+    public void testMatchingPutInvalidates() {
+        Results first = cache.createQuery().includeKeys().addCriteria(age.ge(50)).execute();
+        cache.put(new Element(100, new Person("person-100", 99, Gender.MALE)));
+        Results second = cache.createQuery().includeKeys().addCriteria(age.ge(50)).execute();
+        assertNotSame(first, second);
+        assertEquals(6, second.size());
+        assertEquals(1, cache.getStatistics().searchResultCacheInvalidationCount());
+    }
+
+    @Test
+    public void testUpdateMovingOutOfCriteriaInvalidates() {
+        Results first = cache.createQuery().includeKeys().addCriteria(age.ge(50)).execute();
+        cache.put(new Element(9, new Person("person-9", 9, Gender.FEMALE)));
+        Results second = cache.createQuery().includeKeys().addCriteria(age.ge(50)).execute();
+        assertNotSame(first, second);
+        assertEquals(4, second.size());
+    }
+
+    @Test
+    public void testMatchingRemoveInvalidatesAggregates() {
+        Results first = cache.createQuery().addCriteria(age.ge(50)).includeAggregator(Aggregators.count()).execute();
+        assertEquals(5, first.all().get(0).getAggregatorResults().get(0));
+        cache.remove(9);
+        Results second = cache.createQuery().addCriteria(age.ge(50)).includeAggregator(Aggregators.count()).execute();
+        assertEquals(4, second.all().get(0).getAggregatorResults().get(0));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsDropped() {
+        Results first = cache.createQuery().includeKeys().addCriteria(age.ge(10)).execute();
+        cache.createQuery().includeKeys().addCriteria(age.ge(20)).execute();
+        cache.createQuery().includeKeys().addCriteria(age.ge(30)).execute();
+        assertNotSame(first, cache.createQuery().includeKeys().addCriteria(age.ge(10)).execute());
+    }
+
+    @Test
+    public void testStreamingQueriesBypassCache() {
+        ExecutionHints hints = new ExecutionHints().setStreamingResults(true);
+        Results first = cache.createQuery().includeKeys().addCriteria(age.ge(50)).execute(hints);
+        Results second = cache.createQuery().includeKeys().addCriteria(age.ge(50)).execute(hints);
+        assertNotSame(first, second);
+        assertEquals(0, cache.getStatistics().searchResultCacheMissCount());
+    }
+
+    @Test
+    public void testQueriesRacingMutationsNeverRetainStaleResults() throws Exception {
+        final int writers = 4;
+        final int puts = 500;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(writers * 2);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int w = 0; w < writers; w++) {
+                final int base = 1000 + w * puts;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        for (int i = 0; i < puts; i++) {
+                            cache.put(new Element(base + i, new Person("person-" + (base + i), 99, Gender.MALE)));
+                        }
+                        return null;
+                    }
+                }));
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        for (int i = 0; i < puts; i++) {
+                            cache.createQuery().includeKeys().addCriteria(age.ge(50)).execute();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(5 + writers * puts, cache.createQuery().includeKeys().addCriteria(age.ge(50)).execute().size());
+    }
+}
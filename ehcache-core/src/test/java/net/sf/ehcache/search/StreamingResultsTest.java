@@ -0,0 +1,157 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.search;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.search.Person.Gender;
+import net.sf.ehcache.search.aggregator.Aggregators;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.terracotta.test.categories.CheckShorts;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@Category(CheckShorts.class)
+public class StreamingResultsTest {
+    private CacheManager cacheManager;
+    private Cache cache;
+
+    @Before
+    public void setup() {
+        cacheManager = new CacheManager(getClass().getResource("/ehcache-search.xml"));
+        cache = cacheManager.getCache("cache1");
+        for (int i = 0; i < 100; i++) {
+            cache.put(new Element(i, new Person("person-" + i, i, i % 2 == 0 ? Gender.MALE : Gender.FEMALE)));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        cacheManager.shutdown();
+    }
+
+    @Test
+    public void testBatchesCoverAllMatches() {
+        Attribute<Integer> age = cache.getSearchAttribute("age");
+        Results results = cache.createQuery().includeKeys().addCriteria(age.lt(50))
+                .execute(new ExecutionHints().setStreamingResults(true).setResultBatchSize(7));
+        assertTrue(results instanceof StreamingResults);
+        StreamingResults cursor = (StreamingResults) results;
+        // what results hold is known before any of them is consumed
+        assertTrue(cursor.hasKeys());
+        assertFalse(cursor.hasValues());
+
+        Set<Object> keys = new HashSet<Object>();
+        while (cursor.hasNext()) {
+            List<Result> batch = cursor.nextBatch();
+            assertTrue(batch.size() <= 7);
+            for (Result result : batch) {
+                assertTrue(keys.add(result.getKey()));
+                assertTrue((Integer) result.getKey() < 50);
+            }
+        }
+        assertEquals(50, keys.size());
+        assertEquals(50, cursor.size());
+        assertTrue(cursor.nextBatch().isEmpty());
+        assertTrue(cursor.hasKeys());
+    }
+
+    @Test
+    public void testMaxResultsIsHonoured() {
+        StreamingResults cursor = (StreamingResults) cache.createQuery().includeKeys().maxResults(12)
+                .execute(new ExecutionHints().setStreamingResults(true).setResultBatchSize(5));
+        assertEquals(5, cursor.nextBatch().size());
+        assertEquals(7, cursor.all().size());
+        assertFalse(cursor.hasNext());
+        assertEquals(12, cursor.consumed());
+    }
+
+    @Test
+    public void testRangeIsForwardOnly() {
+        StreamingResults cursor = (StreamingResults) cache.createQuery().includeKeys()
+                .execute(new ExecutionHints().setStreamingResults(true));
+        assertEquals(10, cursor.range(0, 10).size());
+        assertEquals(10, cursor.range(20, 10).size());
+        assertEquals(30, cursor.consumed());
+        try {
+            cursor.range(5, 10);
+            fail();
+        } catch (SearchException e) {
+            // expected
+        }
+        try {
+            cursor.size();
+            fail();
+        } catch (SearchException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testOrderedQueryIsPagedOverMaterializedResults() {
+        Attribute<Integer> age = cache.getSearchAttribute("age");
+        StreamingResults cursor = (StreamingResults) cache.createQuery().includeKeys().addOrderBy(age, Direction.DESCENDING)
+                .execute(new ExecutionHints().setStreamingResults(true).setResultBatchSize(30));
+        List<Result> first = cursor.nextBatch();
+        assertEquals(30, first.size());
+        assertEquals(99, first.get(0).getKey());
+        assertEquals(70, first.get(29).getKey());
+    }
+
+    @Test
+    public void testAggregatorQuery() {
+        Attribute<Integer> age = cache.getSearchAttribute("age");
+        StreamingResults cursor = (StreamingResults) cache.createQuery().includeAggregator(Aggregators.count(), age.max())
+                .execute(new ExecutionHints().setStreamingResults(true));
+        List<Result> all = cursor.all();
+        assertEquals(1, all.size());
+        assertEquals(100, all.get(0).getAggregatorResults().get(0));
+        assertEquals(99, all.get(0).getAggregatorResults().get(1));
+    }
+
+    @Test
+    public void testDiscard() {
+        StreamingResults cursor = (StreamingResults) cache.createQuery().includeKeys()
+                .execute(new ExecutionHints().setStreamingResults(true));
+        cursor.discard();
+        try {
+            cursor.nextBatch();
+            fail();
+        } catch (SearchException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testNonStreamingExecutionIsUnchanged() {
+        Results results = cache.createQuery().includeKeys().execute(new ExecutionHints().setResultBatchSize(10));
+        assertFalse(results instanceof StreamingResults);
+        assertEquals(100, results.size());
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.statistics;
+
+import net.sf.ehcache.CacheOperationOutcomes.GetOutcome;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.terracotta.statistics.observer.OperationObserver;
+import org.terracotta.test.categories.CheckShorts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+@Category(CheckShorts.class)
+public class SampledOperationObserverTest {
+
+    @Test
+    public void testCountsStayExactWhileTimingIsSampled() {
+        CountingObserver cache = new CountingObserver();
+        OperationObserver<GetOutcome> observer = SampledOperationObserver.sampled(cache, 16);
+        for (int i = 0; i < 1600; i++) {
+            observer.begin();
+            observer.end(GetOutcome.HIT);
+        }
+        assertEquals(1600, cache.ends);
+        assertEquals(100, cache.begins);
+    }
+
+    @Test
+    public void testFusedTiersFollowTheCacheOperation() {
+        CountingObserver cache = new CountingObserver();
+        CountingObserver tier = new CountingObserver();
+        OperationObserver<GetOutcome> cacheObserver = SampledOperationObserver.sampled(cache, 16);
+        OperationObserver<GetOutcome> tierObserver = SampledOperationObserver.fused(tier, 16);
+        for (int i = 0; i < 1600; i++) {
+            cacheObserver.begin();
+            tierObserver.begin();
+            assertEquals(cache.begins, tier.begins);
+            tierObserver.end(GetOutcome.MISS_NOT_FOUND);
+            cacheObserver.end(GetOutcome.MISS_NOT_FOUND);
+        }
+        assertEquals(100, tier.begins);
+        assertEquals(1600, tier.ends);
+    }
+
+    @Test
+    public void testNestedCacheOperationRestoresTheEnclosingDecision() {
+        CountingObserver outer = new CountingObserver();
+        CountingObserver inner = new CountingObserver();
+        CountingObserver tier = new CountingObserver();
+        OperationObserver<GetOutcome> outerObserver = SampledOperationObserver.sampled(outer, 2);
+        OperationObserver<GetOutcome> innerObserver = SampledOperationObserver.sampled(inner, 2);
+        OperationObserver<GetOutcome> tierObserver = SampledOperationObserver.fused(tier, 2);
+        for (int i = 0; i < 100; i++) {
+            int outerBegins = outer.begins;
+            outerObserver.begin();
+            boolean outerTimed = outer.begins > outerBegins;
+            innerObserver.begin();
+            innerObserver.end(GetOutcome.HIT);
+            int before = tier.begins;
+            tierObserver.begin();
+            tierObserver.end(GetOutcome.HIT);
+            assertEquals(outerTimed, tier.begins > before);
+            outerObserver.end(GetOutcome.HIT);
+        }
+        assertEquals(100, outer.ends);
+        assertEquals(100, inner.ends);
+    }
+
+    @Test
+    public void testTierOperationsOutsideACacheOperationAreSampledOnTheirOwn() {
+        CountingObserver cache = new CountingObserver();
+        CountingObserver tier = new CountingObserver();
+        OperationObserver<GetOutcome> cacheObserver = SampledOperationObserver.sampled(cache, 16);
+        OperationObserver<GetOutcome> tierObserver = SampledOperationObserver.fused(tier, 16);
+        cacheObserver.begin();
+        cacheObserver.end(GetOutcome.HIT);
+        assertEquals(1, cache.begins);
+        for (int i = 0; i < 1600; i++) {
+            tierObserver.begin();
+            tierObserver.end(GetOutcome.HIT);
+        }
+        assertEquals(100, tier.begins);
+        assertEquals(1600, tier.ends);
+    }
+
+    @Test
+    public void testIntervalOfOneDoesNotWrap() {
+        CountingObserver cache = new CountingObserver();
+        assertSame(cache, SampledOperationObserver.sampled(cache, 1));
+        assertSame(cache, SampledOperationObserver.fused(cache, 1));
+    }
+
+    /**
+     * Observer counting begin and end calls
+     */
+    private static class CountingObserver implements OperationObserver<GetOutcome> {
+
+        private int begins;
+        private int ends;
+
+        @Override
+        public void begin() {
+            begins++;
+        }
+
+        @Override
+        public void end(GetOutcome result) {
+            ends++;
+        }
+
+        @Override
+        public void end(GetOutcome result, long... parameters) {
+            ends++;
+        }
+    }
+}
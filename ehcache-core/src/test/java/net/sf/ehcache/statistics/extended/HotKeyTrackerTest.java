@@ -0,0 +1,126 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.statistics.extended;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.statistics.extended.HotKeyTracker.HotKey;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.terracotta.test.categories.CheckShorts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@Category(CheckShorts.class)
+public class HotKeyTrackerTest {
+
+    @Test
+    public void testDisabledTrackerReportsNothing() {
+        HotKeyTracker tracker = new HotKeyTracker();
+        tracker.record("a");
+        assertFalse(tracker.isEnabled());
+        assertTrue(tracker.topKeys(10).isEmpty());
+    }
+
+    @Test
+    public void testHeavyHittersSurfaceAboveLongTail() {
+        HotKeyTracker tracker = new HotKeyTracker();
+        tracker.enable(32, 1);
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            int dice = random.nextInt(100);
+            if (dice < 20) {
+                tracker.record("viral");
+            } else if (dice < 30) {
+                tracker.record("popular");
+            } else {
+                tracker.record("tail-" + random.nextInt(10000));
+            }
+        }
+        List<HotKey> top = tracker.topKeys(2);
+        assertEquals(2, top.size());
+        assertEquals("viral", top.get(0).getKey());
+        assertEquals("popular", top.get(1).getKey());
+        HotKey viral = top.get(0);
+        assertTrue(viral.getEstimatedCount() - viral.getError() <= 20000 * 1.05);
+        assertTrue(viral.getEstimatedCount() >= 20000 * 0.95);
+        assertTrue(viral.getShare() > 0.15 && viral.getShare() < 0.3);
+    }
+
+    @Test
+    public void testSamplingScalesEstimates() {
+        HotKeyTracker tracker = new HotKeyTracker();
+        tracker.enable(64, 4);
+        for (int i = 0; i < 40000; i++) {
+            tracker.record(i % 2 == 0 ? "even" : "odd-" + (i % 10));
+        }
+        HotKey top = tracker.topKeys(1).get(0);
+        assertEquals("even", top.getKey());
+        assertEquals(20000, top.getEstimatedCount(), 2000);
+    }
+
+    @Test
+    public void testCacheFeedsTracker() {
+        CacheManager manager = new CacheManager(new Configuration().name("hot-keys"));
+        try {
+            Cache cache = new Cache(new CacheConfiguration("hot", 100));
+            manager.addCache(cache);
+            HotKeyTracker tracker = cache.getStatistics().getExtended().hotKeys();
+            tracker.enable(16, 1);
+            cache.put(new Element("hot", "value"));
+            for (int i = 0; i < 50; i++) {
+                cache.get("hot");
+                cache.get("cold-" + i);
+            }
+            HotKey top = tracker.topKeys(1).get(0);
+            assertEquals("hot", top.getKey());
+            assertEquals(51, top.getEstimatedCount());
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    @Test
+    public void testBulkOperationsFeedTracker() {
+        CacheManager manager = new CacheManager(new Configuration().name("hot-bulk-keys"));
+        try {
+            Cache cache = new Cache(new CacheConfiguration("hot", 100));
+            manager.addCache(cache);
+            HotKeyTracker tracker = cache.getStatistics().getExtended().hotKeys();
+            tracker.enable(16, 1);
+            cache.putAll(Arrays.asList(new Element("hot", "value"), new Element("cold", "value")));
+            for (int i = 0; i < 20; i++) {
+                cache.getAll(Arrays.asList("hot", "cold-" + i));
+            }
+            HotKey top = tracker.topKeys(1).get(0);
+            assertEquals("hot", top.getKey());
+            assertEquals(21, top.getEstimatedCount());
+        } finally {
+            manager.shutdown();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.statistics.extended;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.terracotta.statistics.Time;
+import org.terracotta.test.categories.CheckShorts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@Category(CheckShorts.class)
+public class LatencyHistogramTest {
+
+    private static final long WINDOW = TimeUnit.MINUTES.toNanos(1);
+
+    @Test
+    public void testBucketBoundsContainValue() {
+        for (long value = 0; value < LatencyHistogram.highestValueOf(LatencyHistogram.BUCKETS - 1); value = value * 3 / 2 + 1) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(index < LatencyHistogram.BUCKETS);
+            long highest = LatencyHistogram.highestValueOf(index);
+            assertTrue(highest >= value);
+            assertTrue("relative error too large for " + value, highest - value <= Math.max(0, value / 32));
+            if (index > 0) {
+                assertTrue(LatencyHistogram.highestValueOf(index - 1) < value);
+            }
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram(WINDOW);
+        long now = Time.time();
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(now, TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        histogram.record(now, TimeUnit.MILLISECONDS.toNanos(5));
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(1001, snapshot.getTotalCount());
+        assertWithin(TimeUnit.MICROSECONDS.toNanos(501), snapshot.valueAtPercentile(50));
+        assertWithin(TimeUnit.MICROSECONDS.toNanos(901), snapshot.valueAtPercentile(90));
+        assertWithin(TimeUnit.MICROSECONDS.toNanos(991), snapshot.valueAtPercentile(99));
+        assertWithin(TimeUnit.MICROSECONDS.toNanos(1000), snapshot.valueAtPercentile(99.9));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(5), snapshot.valueAtPercentile(100).longValue());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(5), snapshot.getMaximum().longValue());
+    }
+
+    @Test
+    public void testOldSlotsLeaveTheWindow() {
+        LatencyHistogram histogram = new LatencyHistogram(WINDOW);
+        long now = Time.time();
+        histogram.record(now - WINDOW * 2, 100);
+        histogram.record(now, 200);
+        assertEquals(1, histogram.snapshot().getTotalCount());
+        assertEquals(200L, histogram.snapshot().getMaximum().longValue());
+
+        histogram.setWindow(WINDOW);
+        assertNull(histogram.snapshot().valueAtPercentile(50));
+    }
+
+    @Test
+    public void testSnapshotsMerge() {
+        LatencyHistogram a = new LatencyHistogram(WINDOW);
+        LatencyHistogram b = new LatencyHistogram(WINDOW);
+        long now = Time.time();
+        for (int i = 0; i < 90; i++) {
+            a.record(now, 1000);
+        }
+        for (int i = 0; i < 10; i++) {
+            b.record(now, 1000000);
+        }
+        LatencyHistogram.Snapshot merged = a.snapshot().merge(b.snapshot());
+        assertEquals(100, merged.getTotalCount());
+        assertWithin(1000, merged.valueAtPercentile(90));
+        assertWithin(1000000, merged.valueAtPercentile(91));
+    }
+
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram(WINDOW);
+        final int threads = 4;
+        final int perThread = 100000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final long now = Time.time();
+        Thread[] recorders = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            recorders[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        histogram.record(now, i);
+                    }
+                }
+            };
+            recorders[t].start();
+        }
+        start.countDown();
+        for (Thread recorder : recorders) {
+            recorder.join();
+        }
+        assertEquals(threads * perThread, histogram.snapshot().getTotalCount());
+        assertEquals(perThread - 1, histogram.snapshot().getMaximum().longValue());
+    }
+
+    private static void assertWithin(long expected, Long actual) {
+        assertTrue("expected ~" + expected + " but was " + actual, actual >= expected && actual <= expected + expected / 32);
+    }
+}
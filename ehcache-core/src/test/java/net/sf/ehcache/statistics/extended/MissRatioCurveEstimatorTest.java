@@ -0,0 +1,145 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.statistics.extended;
+
+import java.util.Map;
+import java.util.Random;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.management.sampled.CacheSamplerImpl;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.terracotta.test.categories.CheckShorts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@Category(CheckShorts.class)
+public class MissRatioCurveEstimatorTest {
+
+    @Test
+    public void testDisabledEstimatorReportsNothing() {
+        MissRatioCurveEstimator estimator = new MissRatioCurveEstimator();
+        estimator.recordGet("a");
+        assertFalse(estimator.isEnabled());
+        assertTrue(Double.isNaN(estimator.hitRatio(100)));
+        assertEquals(-1, estimator.entriesForHitRatio(0.5));
+    }
+
+    @Test
+    public void testCyclicAccessNeedsTheWholeLoop() {
+        MissRatioCurveEstimator estimator = new MissRatioCurveEstimator();
+        estimator.enable(4096, 1);
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 1000; i++) {
+                estimator.recordGet(i);
+            }
+        }
+        assertEquals(0, estimator.hitRatio(500), 0);
+        assertEquals(0, estimator.hitRatio(990), 0);
+        assertEquals(0.95, estimator.hitRatio(1100), 0.001);
+        long entries = estimator.entriesForHitRatio(0.9);
+        assertTrue("recommended " + entries, entries >= 1000 && entries <= 1032);
+        assertEquals(-1, estimator.entriesForHitRatio(0.99));
+    }
+
+    @Test
+    public void testUniformAccessWithSpatialSampling() {
+        MissRatioCurveEstimator estimator = new MissRatioCurveEstimator();
+        estimator.enable(256, 0.2);
+        Random random = new Random(42);
+        for (int i = 0; i < 1000000; i++) {
+            estimator.recordGet(random.nextInt(10000));
+        }
+        // an LRU cache of C entries over N uniformly accessed keys hits C / N of the time
+        assertEquals(0.25, estimator.hitRatio(2500), 0.05);
+        assertEquals(0.5, estimator.hitRatio(5000), 0.05);
+        assertEquals(0.75, estimator.hitRatio(7500), 0.05);
+        assertEquals(5000, estimator.entriesForHitRatio(0.5), 750);
+    }
+
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        final MissRatioCurveEstimator estimator = new MissRatioCurveEstimator();
+        estimator.enable(256, 0.2);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long seed = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 250000; i++) {
+                        estimator.recordGet(random.nextInt(10000));
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long reads = estimator.getSampledReads();
+        assertTrue("sampled reads " + reads, reads > 0 && reads <= 1000000);
+        assertEquals(0.5, estimator.hitRatio(5000), 0.1);
+    }
+
+    @Test
+    public void testWritesRefreshRecencyWithoutCounting() {
+        MissRatioCurveEstimator estimator = new MissRatioCurveEstimator();
+        estimator.enable(64, 1);
+        estimator.recordPut("a");
+        estimator.recordPut("b");
+        estimator.recordGet("a");
+        assertEquals(1, estimator.getSampledReads());
+        assertEquals(0, estimator.hitRatio(1), 0);
+        assertEquals(1, estimator.hitRatio(2), 0);
+    }
+
+    @Test
+    public void testCacheFeedsEstimator() {
+        CacheManager manager = new CacheManager(new Configuration().name("miss-ratio-curve"));
+        try {
+            Cache cache = new Cache(new CacheConfiguration("mrc", 100));
+            manager.addCache(cache);
+            CacheSamplerImpl sampler = new CacheSamplerImpl(cache);
+            sampler.setMissRatioCurveEnabled(true);
+            cache.getStatistics().getExtended().missRatioCurve().enable(1024, 1);
+            for (int round = 0; round < 10; round++) {
+                for (int i = 0; i < 150; i++) {
+                    if (cache.get(i) == null) {
+                        cache.put(new Element(i, i));
+                    }
+                }
+            }
+            Map<String, Double> curve = sampler.getMissRatioCurve();
+            assertEquals(8, curve.size());
+            assertEquals(0, curve.get("1x"), 0);
+            assertEquals(0.9, curve.get("2x"), 0.001);
+            long recommended = sampler.getRecommendedMaxEntriesLocalHeap(0.5);
+            assertTrue("recommended " + recommended, recommended >= 150 && recommended <= 160);
+        } finally {
+            manager.shutdown();
+        }
+    }
+}
@@ -7,6 +7,10 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -359,6 +363,41 @@ public class MemoryStorePoolingTest {
         assertEquals(0, onHeapPool.getSize());
     }
 
+    @Test
+    public void testBulkOperations() throws Exception {
+        // a batch fitting in the pool is reserved at once
+        memoryStore.putAll(Arrays.asList(new Element(1, "1"), new Element(2, "2")));
+
+        assertEquals(2, memoryStore.getSize());
+        assertEquals(16384 * 2, onHeapPool.getSize());
+
+        Map<Object, Element> elements = memoryStore.getAll(Arrays.asList(1, 2, 3));
+        assertEquals(3, elements.size());
+        assertEquals("1", elements.get(1).getObjectValue());
+        assertEquals("2", elements.get(2).getObjectValue());
+        assertNull(elements.get(3));
+
+        memoryStore.removeAll(Arrays.asList(1, 3));
+
+        assertEquals(1, memoryStore.getSize());
+        assertEquals(16384, onHeapPool.getSize());
+
+        // a batch too big for the pool falls back to evicting puts
+        List<Element> batch = new ArrayList<Element>();
+        for (int i = 0; i < 20; i++) {
+            batch.add(new Element(i, "" + i));
+        }
+        memoryStore.putAll(batch);
+
+        assertEquals(2, memoryStore.getSize());
+        assertEquals(16384 * 2, onHeapPool.getSize());
+
+        memoryStore.removeAll(memoryStore.getKeys());
+
+        assertEquals(0, memoryStore.getSize());
+        assertEquals(0, onHeapPool.getSize());
+    }
+
     @Test
     public void testMultithreaded() throws Exception {
         final int nThreads = 1;
@@ -228,6 +228,11 @@ public class PooledBasedBackEndTest {
             return size;
         }
 
+        @Override
+        public long addAll(final Object[] keys, final Object[] values, final Object[] containers, final long[] sizes, final boolean force) {
+            throw new UnsupportedOperationException("Someone... i.e. YOU! should think about implementing this someday!");
+        }
+
         @Override
         public boolean canAddWithoutEvicting(final Object key, final Object value, final Object container) {
             throw new UnsupportedOperationException("Someone... i.e. YOU! should think about implementing this someday!");
@@ -56,6 +56,36 @@ public class SelectableConcurrentHashMapTest {
         assertThat(expectedKeySet.isEmpty(), is(true));
     }
 
+    @Test
+    public void testBulkOperations() {
+        Object[] keys = new Object[1001];
+        Element[] elements = new Element[keys.length];
+        for (int i = 0; i < 1000; i++) {
+            keys[i] = i;
+            elements[i] = new Element(i, "value-" + i);
+        }
+        keys[1000] = 0;
+        elements[1000] = new Element(0, "last");
+
+        Element[] oldValues = map.putAll(keys, elements, new long[keys.length]);
+        assertThat(oldValues[0], nullValue());
+        assertThat(oldValues[1].getObjectValue(), is((Object) 1));
+        assertThat(oldValues[5], nullValue());
+        assertThat(oldValues[1000], sameInstance(elements[0]));
+        assertThat(map.size(), is(1000));
+
+        Element[] values = map.getAll(new Object[] {0, 500, 1000});
+        assertThat(values[0], sameInstance(elements[1000]));
+        assertThat(values[1], sameInstance(elements[500]));
+        assertThat(values[2], nullValue());
+
+        Element[] removed = map.removeAll(new Object[] {500, 1000, 500});
+        assertThat(removed[0], sameInstance(elements[500]));
+        assertThat(removed[1], nullValue());
+        assertThat(removed[2], nullValue());
+        assertThat(map.size(), is(999));
+    }
+
     @Test
     public void testClockEvictionHonorsMaxSize() {
         final int maximumSize = 1000;
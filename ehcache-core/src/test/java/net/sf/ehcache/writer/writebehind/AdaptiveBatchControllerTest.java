@@ -0,0 +1,137 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.writer.writebehind;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.CacheWriterConfiguration;
+import net.sf.ehcache.writer.AbstractCacheWriter;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.terracotta.test.categories.CheckShorts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@Category(CheckShorts.class)
+public class AdaptiveBatchControllerTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testSlowOrFailingWriterShrinksBatches() {
+        AdaptiveBatchController controller = new AdaptiveBatchController(64, 0, 1000, 10000, 0);
+        assertEquals(64, controller.getBatchSize());
+        controller.batchCompleted(64, 500 * MS, false, 0);
+        assertEquals(32, controller.getBatchSize());
+        assertEquals(64, controller.getRate(), 0.001);
+        controller.batchCompleted(32, 10 * MS, true, 0);
+        assertEquals(16, controller.getBatchSize());
+        assertEquals(32, controller.getRate(), 0.001);
+        for (int i = 0; i < 10; i++) {
+            controller.batchCompleted(16, 0, true, 0);
+        }
+        assertEquals(1, controller.getBatchSize());
+        assertEquals(1, controller.getRate(), 0.001);
+    }
+
+    @Test
+    public void testHealthyWriterGrowsBackWithinBounds() {
+        AdaptiveBatchController controller = new AdaptiveBatchController(64, 100, 1000, 10000, 0);
+        controller.batchCompleted(64, 0, true, 0);
+        assertEquals(32, controller.getBatchSize());
+        controller.batchCompleted(32, MS, false, 0);
+        assertEquals(36, controller.getBatchSize());
+        for (int i = 0; i < 100; i++) {
+            controller.batchCompleted(64, MS, false, 0);
+        }
+        assertEquals(64, controller.getBatchSize());
+        assertEquals(100, controller.getRate(), 0.001);
+    }
+
+    @Test
+    public void testDispatchIsPacedUnlessBehind() {
+        AdaptiveBatchController controller = new AdaptiveBatchController(10, 10, 1000, 10000, 100);
+        // a partial batch is held back for up to a quarter of the target lag
+        assertEquals(200, controller.dispatchDelay(1000, 5, 950));
+        assertEquals(0, controller.dispatchDelay(1000, 10, 950));
+        assertEquals(0, controller.dispatchDelay(1000, 5, 700));
+
+        // 10 operations at 10 per second: the next batch is due a second later
+        controller.batchCompleted(10, MS, false, 1000);
+        assertEquals(900, controller.dispatchDelay(1100, 10, 1050));
+        // unless the lag target is exceeded or the queue half full
+        assertEquals(0, controller.dispatchDelay(1100, 10, 50));
+        assertEquals(0, controller.dispatchDelay(1100, 50, 1050));
+    }
+
+    @Test
+    public void testQueueAdaptsToSlowWriter() throws InterruptedException {
+        // 2 ms per element: batches of more than 25 elements exceed a quarter of the target lag
+        BatchRecordingWriter writer = new BatchRecordingWriter(2);
+        WriteBehindQueue queue = new WriteBehindQueue(new CacheConfiguration("adaptive", 10).cacheWriter(new CacheWriterConfiguration()
+                .writeMode(CacheWriterConfiguration.WriteMode.WRITE_BEHIND).writeBatching(true).writeBatchSize(64).maxWriteDelay(1)
+                .adaptiveWriteBatching(true).targetWriteLagMillis(200)));
+        queue.start(writer);
+        assertEquals(64, queue.getWriteBatchSize());
+
+        for (int i = 0; i < 256; i++) {
+            queue.write(new Element(i, i));
+        }
+        queue.stop();
+
+        assertEquals(256, writer.written);
+        assertTrue("batches " + writer.batches, writer.batches.size() > 4);
+        for (int batch : writer.batches.subList(2, writer.batches.size())) {
+            assertTrue("batches " + writer.batches, batch <= 40);
+        }
+        assertTrue(queue.getWriteBatchSize() <= 40);
+        assertTrue(queue.getWriteLagMillis() > 0);
+    }
+
+    /**
+     * Writer recording the size of the batches, taking a fixed time per element
+     */
+    private static final class BatchRecordingWriter extends AbstractCacheWriter {
+
+        private final List<Integer> batches = new ArrayList<Integer>();
+        private final long pauseMillisPerElement;
+        private int written;
+
+        BatchRecordingWriter(long pauseMillisPerElement) {
+            this.pauseMillisPerElement = pauseMillisPerElement;
+        }
+
+        @Override
+        public void writeAll(Collection<Element> elements) throws CacheException {
+            try {
+                Thread.sleep(pauseMillisPerElement * elements.size());
+            } catch (InterruptedException e) {
+                throw new CacheException(e);
+            }
+            batches.add(elements.size());
+            written += elements.size();
+        }
+    }
+}
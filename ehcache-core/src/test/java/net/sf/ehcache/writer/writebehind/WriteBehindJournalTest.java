@@ -0,0 +1,288 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.writer.writebehind;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import net.sf.ehcache.CacheEntry;
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.DiskStorePathManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.CacheWriterConfiguration;
+import net.sf.ehcache.writer.AbstractCacheWriter;
+import net.sf.ehcache.writer.writebehind.operations.DeleteOperation;
+import net.sf.ehcache.writer.writebehind.operations.SingleOperation;
+import net.sf.ehcache.writer.writebehind.operations.SingleOperationType;
+import net.sf.ehcache.writer.writebehind.operations.WriteOperation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.terracotta.test.categories.CheckShorts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@Category(CheckShorts.class)
+public class WriteBehindJournalTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("write-behind", "journal");
+        directory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testUnacknowledgedOperationsAreReplayedInOrder() {
+        WriteBehindJournal journal = openEmpty();
+        journal.append(new WriteOperation(new Element("a", "1"), 1));
+        journal.append(new DeleteOperation(new CacheEntry("b", null), 2));
+        journal.append(new WriteOperation(new Element("c", "3"), 3));
+        journal.close();
+
+        List<SingleOperation> replayed = new ArrayList<SingleOperation>(open().recover().values());
+        assertEquals(3, replayed.size());
+        assertEquals(SingleOperationType.WRITE, replayed.get(0).getType());
+        assertEquals("1", ((WriteOperation) replayed.get(0)).getElement().getObjectValue());
+        assertEquals(SingleOperationType.DELETE, replayed.get(1).getType());
+        assertEquals("b", replayed.get(1).getKey());
+        assertEquals(2, replayed.get(1).getCreationTime());
+        assertEquals("c", replayed.get(2).getKey());
+    }
+
+    @Test
+    public void testAcknowledgedOperationsAreReleased() {
+        WriteBehindJournal journal = openEmpty();
+        long a = journal.append(new WriteOperation(new Element("a", "1")));
+        long b = journal.append(new WriteOperation(new Element("b", "2")));
+        long c = journal.append(new WriteOperation(new Element("c", "3")));
+        journal.acknowledge(Arrays.asList(a, c));
+        journal.close();
+
+        journal = open();
+        Map<Long, SingleOperation> replayed = journal.recover();
+        assertEquals(1, replayed.size());
+        assertEquals("b", replayed.values().iterator().next().getKey());
+        journal.acknowledge(replayed.keySet());
+        journal.close();
+
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    @Test
+    public void testTornTailIsIgnored() throws IOException {
+        WriteBehindJournal journal = openEmpty();
+        journal.append(new WriteOperation(new Element("a", "1")));
+        journal.append(new WriteOperation(new Element("b", "2")));
+        journal.close();
+
+        File segment = directory.listFiles()[0];
+        FileOutputStream out = new FileOutputStream(segment, true);
+        try {
+            out.write(new byte[] {0, 0, 1, 0, 42, 42});
+        } finally {
+            out.close();
+        }
+        assertEquals(2, open().recover().size());
+    }
+
+    @Test
+    public void testCorruptLengthIsIgnored() throws IOException {
+        WriteBehindJournal journal = openEmpty();
+        journal.append(new WriteOperation(new Element("a", "1")));
+        journal.close();
+
+        File segment = directory.listFiles()[0];
+        FileOutputStream out = new FileOutputStream(segment, true);
+        try {
+            out.write(new byte[] {0x7f, -1, -1, -1, 42, 42, 42, 42, 1, 2, 3});
+        } finally {
+            out.close();
+        }
+        assertEquals(1, open().recover().size());
+    }
+
+    @Test
+    public void testJournalsAreRestripedWhenTheConcurrencyChanges() {
+        DiskStorePathManager pathManager = new DiskStorePathManager(directory.getPath());
+        try {
+            // journals left by two stripes, from before the stripe count was recorded
+            for (int stripe = 0; stripe < 2; stripe++) {
+                WriteBehindJournal journal = new WriteBehindJournal(pathManager.getFile("journaled", "-write-behind-" + stripe),
+                        getClass().getClassLoader());
+                journal.recover();
+                for (int i = stripe; i < 20; i += 2) {
+                    journal.append(new WriteOperation(new Element(i, "first-" + i)));
+                    journal.append(new WriteOperation(new Element(i, "second-" + i)));
+                }
+                journal.close();
+            }
+
+            WriteBehindQueueManager.JournaledWriteBehindQueueFactory factory =
+                    new WriteBehindQueueManager.JournaledWriteBehindQueueFactory(pathManager);
+            CacheConfiguration config = config();
+            config.getCacheWriterConfiguration().setWriteBehindConcurrency(3);
+            WriteBehindQueueManager restriped = new WriteBehindQueueManager(config, factory);
+            assertEquals(40, restriped.getQueueSize());
+            assertFalse(pathManager.getFile("journaled", "-write-behind-0.restripe").exists());
+
+            RecordingWriter writer = new RecordingWriter();
+            restriped.start(writer);
+            restriped.stop();
+            Map<Object, Object> last = new HashMap<Object, Object>();
+            for (Element element : writer.written) {
+                last.put(element.getObjectKey(), element.getObjectValue());
+            }
+            assertEquals(40, writer.written.size());
+            for (int i = 0; i < 20; i++) {
+                assertEquals("second-" + i, last.get(i));
+            }
+
+            assertEquals(0, new WriteBehindQueueManager(config, new WriteBehindQueueManager.JournaledWriteBehindQueueFactory(
+                    pathManager)).getQueueSize());
+        } finally {
+            pathManager.releaseLock();
+            deleteRecursively(directory);
+        }
+    }
+
+    @Test
+    public void testQueueReplaysPendingOperations() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        WriteBehindQueue crashed = new WriteBehindQueue(config(), open());
+        crashed.start(new AbstractCacheWriter() {
+            @Override
+            public void write(Element element) throws CacheException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new CacheException(e);
+                }
+            }
+        });
+        for (int i = 0; i < 5; i++) {
+            crashed.write(new Element(i, "value-" + i));
+        }
+
+        // a second queue opening the same journal sees everything not yet written
+        RecordingWriter writer = new RecordingWriter();
+        WriteBehindQueue recovered = new WriteBehindQueue(config(), open());
+        assertEquals(5, recovered.getQueueSize());
+        release.countDown();
+        crashed.stop();
+
+        recovered.start(writer);
+        recovered.stop();
+        assertEquals(5, writer.written.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, writer.written.get(i).getObjectKey());
+        }
+        assertTrue(open().recover().isEmpty());
+    }
+
+    @Test
+    public void testStopFromTheProcessingThreadKeepsTheJournalOpenWhileDraining() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final WriteBehindQueue[] queue = new WriteBehindQueue[1];
+        final List<Element> written = new ArrayList<Element>();
+        queue[0] = new WriteBehindQueue(config(), open());
+        queue[0].start(new AbstractCacheWriter() {
+            @Override
+            public void write(Element element) throws CacheException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new CacheException(e);
+                }
+                if (written.isEmpty()) {
+                    queue[0].stop();
+                }
+                written.add(element);
+            }
+        });
+        for (int i = 0; i < 5; i++) {
+            queue[0].write(new Element(i, "value-" + i));
+        }
+        release.countDown();
+        queue[0].getProcessingThread().join();
+
+        assertEquals(5, written.size());
+        assertTrue(open().recover().isEmpty());
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private WriteBehindJournal open() {
+        return new WriteBehindJournal(directory, getClass().getClassLoader());
+    }
+
+    private WriteBehindJournal openEmpty() {
+        WriteBehindJournal journal = open();
+        assertTrue(journal.recover().isEmpty());
+        return journal;
+    }
+
+    private static CacheConfiguration config() {
+        return new CacheConfiguration("journaled", 10).cacheWriter(new CacheWriterConfiguration()
+                .writeMode(CacheWriterConfiguration.WriteMode.WRITE_BEHIND).minWriteDelay(0).writeBehindJournal(true));
+    }
+
+    /**
+     * Writer recording the written elements
+     */
+    private static final class RecordingWriter extends AbstractCacheWriter {
+
+        private final List<Element> written = new ArrayList<Element>();
+
+        @Override
+        public synchronized void write(Element element) throws CacheException {
+            written.add(element);
+        }
+    }
+}
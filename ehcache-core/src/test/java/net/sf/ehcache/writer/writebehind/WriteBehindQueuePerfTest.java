@@ -0,0 +1,104 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.writer.writebehind;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.CacheWriterConfiguration;
+import net.sf.ehcache.writer.AbstractCacheWriter;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the enqueue throughput of {@link WriteBehindQueue} as the number of concurrent producers grows.
+ *
+ * @author Terracotta
+ */
+public class WriteBehindQueuePerfTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBehindQueuePerfTest.class);
+
+    private static final int OPERATIONS = 200000;
+
+    @Test
+    public void testBenchmarkProducerThroughput() throws InterruptedException {
+        for (int producers = 1; producers <= 64; producers *= 2) {
+            CountingWriter writer = new CountingWriter();
+            WriteBehindQueue queue = new WriteBehindQueue(new CacheConfiguration("writeBehindQueue", 10).cacheWriter(
+                    new CacheWriterConfiguration().writeMode(CacheWriterConfiguration.WriteMode.WRITE_BEHIND).minWriteDelay(0)));
+            queue.start(writer);
+            int perProducer = OPERATIONS / producers;
+            long start = System.nanoTime();
+            runProducers(queue, producers, perProducer);
+            long elapsed = System.nanoTime() - start;
+            queue.stop();
+            assertEquals(producers * perProducer, writer.written.get());
+            LOG.info("Write-behind enqueue throughput with " + producers + " producers: "
+                    + (producers * perProducer * 1000000000L / elapsed) + " ops/s");
+        }
+    }
+
+    private static void runProducers(final WriteBehindQueue queue, int producers, final int perProducer) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perProducer; i++) {
+                        queue.write(new Element(producer, i));
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Writer counting the written elements
+     */
+    private static final class CountingWriter extends AbstractCacheWriter {
+
+        private final AtomicLong written = new AtomicLong();
+
+        @Override
+        public void write(Element element) throws CacheException {
+            written.incrementAndGet();
+        }
+    }
+}
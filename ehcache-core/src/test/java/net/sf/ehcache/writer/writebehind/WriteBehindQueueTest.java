@@ -0,0 +1,318 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.writer.writebehind;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.ehcache.CacheEntry;
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.CacheWriterConfiguration;
+import net.sf.ehcache.writer.AbstractCacheWriter;
+import net.sf.ehcache.writer.writebehind.operations.SingleOperationType;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.terracotta.test.categories.CheckShorts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@Category(CheckShorts.class)
+public class WriteBehindQueueTest {
+
+    @Test
+    public void testConcurrentProducersKeepTheirOrder() throws InterruptedException {
+        final int producers = 8;
+        final int perProducer = 10000;
+        final RecordingWriter writer = new RecordingWriter(0);
+        final WriteBehindQueue queue = new WriteBehindQueue(config(0));
+        queue.start(writer);
+
+        runProducers(queue, producers, perProducer);
+        queue.stop();
+
+        assertEquals(0, queue.getQueueSize());
+        assertEquals(producers * perProducer, writer.written.size());
+        int[] next = new int[producers];
+        for (Element element : writer.written) {
+            int producer = (Integer) element.getObjectKey();
+            assertEquals(next[producer]++, ((Integer) element.getObjectValue()).intValue());
+        }
+    }
+
+    @Test
+    public void testProducersBlockWhenFull() throws InterruptedException {
+        final int maxQueueSize = 16;
+        final int producers = 4;
+        final RecordingWriter writer = new RecordingWriter(20);
+        final WriteBehindQueue queue = new WriteBehindQueue(config(maxQueueSize));
+        queue.start(writer);
+        final AtomicLong largestSize = new AtomicLong();
+        Thread monitor = new Thread() {
+            @Override
+            public void run() {
+                while (!isInterrupted()) {
+                    long size = queue.getQueueSize();
+                    if (size > largestSize.get()) {
+                        largestSize.set(size);
+                    }
+                }
+            }
+        };
+        monitor.start();
+
+        runProducers(queue, producers, 500);
+        monitor.interrupt();
+        monitor.join();
+        queue.stop();
+
+        assertEquals(producers * 500, writer.written.size());
+        assertTrue("queue grew to " + largestSize.get(), largestSize.get() <= maxQueueSize + producers);
+    }
+
+    @Test
+    public void testStoppedQueueRejectsWrites() {
+        WriteBehindQueue queue = new WriteBehindQueue(config(0));
+        queue.start(new RecordingWriter(0));
+        queue.write(new Element(0, 0));
+        queue.stop();
+        try {
+            queue.write(new Element(0, 1));
+            fail("expected CacheException");
+        } catch (CacheException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testWriterThreadsKeepPerKeyOrder() throws InterruptedException {
+        final int producers = 8;
+        final int perProducer = 2000;
+        final ConcurrentRecordingWriter writer = new ConcurrentRecordingWriter();
+        final WriteBehindQueue queue = new WriteBehindQueue(new CacheConfiguration("writeBehindLanes", 10).cacheWriter(
+                new CacheWriterConfiguration().writeMode(CacheWriterConfiguration.WriteMode.WRITE_BEHIND).minWriteDelay(0)
+                        .writeBatching(true).writeBatchSize(50).maxWriteDelay(0).writeBehindWriterThreads(4)));
+        queue.start(writer);
+
+        runProducers(queue, producers, perProducer);
+        queue.stop();
+
+        assertEquals(producers * perProducer, writer.count.get());
+        assertTrue("concurrent writers " + writer.maxConcurrentWriters.get(), writer.maxConcurrentWriters.get() > 1);
+        for (int producer = 0; producer < producers; producer++) {
+            List<Integer> values = writer.valuesByKey.get(producer);
+            for (int i = 0; i < perProducer; i++) {
+                assertEquals(i, values.get(i).intValue());
+            }
+        }
+    }
+
+    @Test
+    public void testWriterThreadsCoalesceAcrossTheQueue() {
+        final ConcurrentRecordingWriter writer = new ConcurrentRecordingWriter();
+        final WriteBehindQueue queue = new WriteBehindQueue(new CacheConfiguration("writeBehindLanes", 10).cacheWriter(
+                new CacheWriterConfiguration().writeMode(CacheWriterConfiguration.WriteMode.WRITE_BEHIND).writeBatching(true)
+                        .writeBatchSize(1000).maxWriteDelay(1).writeCoalescing(true).writeBehindWriterThreads(4)));
+        queue.setOperationsFilter(new CoalesceKeysFilter());
+        queue.start(writer);
+        for (int round = 0; round < 10; round++) {
+            for (int key = 0; key < 20; key++) {
+                queue.write(new Element(key, round));
+            }
+        }
+        queue.stop();
+
+        assertEquals(20, writer.count.get());
+        for (int key = 0; key < 20; key++) {
+            assertEquals(9, writer.valuesByKey.get(key).get(0).intValue());
+        }
+    }
+
+    @Test
+    public void testFailedLaneOnlyReinsertsItsOwnWork() throws InterruptedException {
+        final int lanes = 4;
+        final PoisonedWriter writer = new PoisonedWriter();
+        final WriteBehindQueue queue = new WriteBehindQueue(new CacheConfiguration("writeBehindLanes", 10).cacheWriter(
+                new CacheWriterConfiguration().writeMode(CacheWriterConfiguration.WriteMode.WRITE_BEHIND).minWriteDelay(1)
+                        .writeBatching(true).writeBatchSize(1000).maxWriteDelay(0).retryAttempts(0)
+                        .writeBehindWriterThreads(lanes)));
+        queue.start(writer);
+        for (int key = 0; key < 100; key++) {
+            queue.write(new Element(key, key));
+        }
+        queue.write(new Element("poison", 0));
+
+        assertTrue(writer.failed.await(10, TimeUnit.SECONDS));
+
+        int poisonedLane = Math.abs("poison".hashCode() % lanes);
+        int poisonedItems = 1;
+        for (int key = 0; key < 100; key++) {
+            if (key % lanes == poisonedLane) {
+                poisonedItems++;
+            }
+        }
+        // the other lanes may still be writing when the poisoned one fails
+        long end = System.currentTimeMillis() + 10000;
+        while (queue.getQueueSize() != poisonedItems && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(poisonedItems, queue.getQueueSize());
+        synchronized (writer.writes) {
+            for (int key = 0; key < 100; key++) {
+                assertEquals(key % lanes == poisonedLane ? null : Integer.valueOf(1), writer.writes.get(key));
+            }
+        }
+    }
+
+    private static void runProducers(final WriteBehindQueue queue, int producers, final int perProducer) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perProducer; i++) {
+                        queue.write(new Element(producer, i));
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private static CacheConfiguration config(int maxQueueSize) {
+        return new CacheConfiguration("writeBehindQueue", 10).cacheWriter(new CacheWriterConfiguration()
+                .writeMode(CacheWriterConfiguration.WriteMode.WRITE_BEHIND).minWriteDelay(0).writeBehindMaxQueueSize(maxQueueSize));
+    }
+
+    /**
+     * Batching writer recording the values written per key, slowly enough for batches of different lanes to overlap
+     */
+    private static final class ConcurrentRecordingWriter extends AbstractCacheWriter {
+
+        private final Map<Object, List<Integer>> valuesByKey = new HashMap<Object, List<Integer>>();
+        private final AtomicInteger count = new AtomicInteger();
+        private final AtomicInteger concurrentWriters = new AtomicInteger();
+        private final AtomicInteger maxConcurrentWriters = new AtomicInteger();
+
+        @Override
+        public void writeAll(Collection<Element> elements) throws CacheException {
+            int writers = concurrentWriters.incrementAndGet();
+            if (writers > maxConcurrentWriters.get()) {
+                maxConcurrentWriters.set(writers);
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                throw new CacheException(e);
+            }
+            synchronized (valuesByKey) {
+                for (Element element : elements) {
+                    List<Integer> values = valuesByKey.get(element.getObjectKey());
+                    if (values == null) {
+                        values = new ArrayList<Integer>();
+                        valuesByKey.put(element.getObjectKey(), values);
+                    }
+                    values.add((Integer) element.getObjectValue());
+                }
+            }
+            count.addAndGet(elements.size());
+            concurrentWriters.decrementAndGet();
+        }
+    }
+
+    /**
+     * Batching writer failing the batches holding the poison key, and failing to throw them away as well
+     */
+    private static final class PoisonedWriter extends AbstractCacheWriter {
+
+        private final Map<Object, Integer> writes = new HashMap<Object, Integer>();
+        private final CountDownLatch failed = new CountDownLatch(1);
+
+        @Override
+        public void writeAll(Collection<Element> elements) throws CacheException {
+            for (Element element : elements) {
+                if ("poison".equals(element.getObjectKey())) {
+                    throw new CacheException("poisoned batch");
+                }
+            }
+            synchronized (writes) {
+                for (Element element : elements) {
+                    Integer count = writes.get(element.getObjectKey());
+                    writes.put(element.getObjectKey(), count == null ? 1 : count + 1);
+                }
+            }
+        }
+
+        @Override
+        public void throwAway(Element element, SingleOperationType operationType, RuntimeException e) {
+            failed.countDown();
+            throw e;
+        }
+    }
+
+    /**
+     * Writer recording the written elements, optionally slowly
+     */
+    private static final class RecordingWriter extends AbstractCacheWriter {
+
+        private final List<Element> written = new ArrayList<Element>();
+        private final long pauseMicros;
+
+        RecordingWriter(long pauseMicros) {
+            this.pauseMicros = pauseMicros;
+        }
+
+        @Override
+        public void write(Element element) throws CacheException {
+            if (pauseMicros > 0) {
+                long end = System.nanoTime() + pauseMicros * 1000;
+                while (System.nanoTime() < end) {
+                    Thread.yield();
+                }
+            }
+            written.add(element);
+        }
+
+        @Override
+        public void delete(CacheEntry entry) throws CacheException {
+            // not used
+        }
+    }
+}
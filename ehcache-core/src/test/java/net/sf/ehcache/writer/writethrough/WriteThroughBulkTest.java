@@ -0,0 +1,265 @@
+/**
+ *  Copyright Terracotta, Inc.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package net.sf.ehcache.writer.writethrough;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheEntry;
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.CacheWriterConfiguration;
+import net.sf.ehcache.config.Configuration;
+import net.sf.ehcache.writer.AbstractCacheWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.terracotta.test.categories.CheckShorts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@Category(CheckShorts.class)
+public class WriteThroughBulkTest {
+
+    private CacheManager manager;
+
+    @Before
+    public void setUp() {
+        manager = new CacheManager(new Configuration().name("write-through-bulk"));
+    }
+
+    @After
+    public void tearDown() {
+        manager.shutdown();
+    }
+
+    @Test
+    public void testPutAllIsWrittenInBatches() {
+        BatchWriter writer = new BatchWriter(-1);
+        Cache cache = createCache(1000, 1, writer);
+
+        cache.putAllWithWriter(elements(0, 2500));
+
+        assertEquals(3, writer.batchSizes.size());
+        assertEquals(1000, writer.batchSizes.get(0).intValue());
+        assertEquals(500, writer.batchSizes.get(2).intValue());
+        assertEquals(2500, cache.getSize());
+        assertEquals(2500, writer.written.size());
+    }
+
+    @Test
+    public void testFailedBatchLeavesTheCacheUntouched() {
+        // the writer fails half way through the second batch, leaving the failed elements in the batch
+        BatchWriter writer = new BatchWriter(1500);
+        Cache cache = createCache(1000, 1, writer);
+        cache.put(new Element(2000, "old"));
+
+        try {
+            cache.putAllWithWriter(elements(0, 3000));
+            fail("expected CacheException");
+        } catch (CacheException e) {
+            assertEquals("writer failed", e.getMessage());
+        }
+
+        assertEquals(1500, writer.written.size());
+        for (int i = 0; i < 1500; i++) {
+            assertEquals(i, cache.get(i).getObjectValue());
+        }
+        assertNull(cache.get(1500));
+        assertNull(cache.get(2999));
+        assertEquals("old", cache.get(2000).getObjectValue());
+        assertEquals(1501, cache.getSize());
+    }
+
+    @Test
+    public void testConcurrentBatches() {
+        BatchWriter writer = new BatchWriter(-1);
+        Cache cache = createCache(100, 4, writer);
+
+        cache.putAllWithWriter(elements(0, 1000));
+
+        assertEquals(10, writer.batchSizes.size());
+        assertEquals(1000, cache.getSize());
+        assertTrue("threads " + writer.threads, writer.threads.size() > 1);
+        assertFalse(writer.threads.contains(Thread.currentThread().getName()));
+    }
+
+    @Test
+    public void testBatchesWrittenBeforeAnErrorAreKept() {
+        final BatchWriter writer = new BatchWriter(-1) {
+            @Override
+            public void writeAll(Collection<Element> elements) throws CacheException {
+                for (Element element : elements) {
+                    if (element.getObjectKey().equals(500)) {
+                        throw new AssertionError("writer died");
+                    }
+                }
+                super.writeAll(elements);
+            }
+        };
+        Cache cache = createCache(100, 4, writer);
+
+        try {
+            cache.putAllWithWriter(elements(0, 1000));
+            fail("expected AssertionError");
+        } catch (AssertionError e) {
+            assertEquals("writer died", e.getMessage());
+        }
+
+        assertEquals(900, writer.written.size());
+        assertEquals(900, cache.getSize());
+        assertNull(cache.get(500));
+        assertEquals(600, cache.get(600).getObjectValue());
+    }
+
+    @Test
+    public void testRemoveAllIsDeletedInBatches() {
+        BatchWriter writer = new BatchWriter(-1);
+        Cache cache = createCache(10, 1, writer);
+        cache.putAll(elements(0, 25));
+
+        List<Object> keys = new ArrayList<Object>();
+        for (int i = 0; i < 25; i++) {
+            keys.add(i);
+        }
+        writer.failAfter = 15;
+        try {
+            cache.removeAllWithWriter(keys);
+            fail("expected CacheException");
+        } catch (CacheException e) {
+            // expected
+        }
+
+        assertEquals(2, writer.batchSizes.size());
+        assertEquals(15, writer.deleted.size());
+        assertEquals(10, cache.getSize());
+        assertNull(cache.get(14));
+        assertEquals(15, cache.get(15).getObjectValue());
+    }
+
+    @Test
+    public void testPutDuringABatchIsNotOverwritten() throws Exception {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final Cache cache = createCache(100, 1, new BatchWriter(-1) {
+            @Override
+            public void writeAll(Collection<Element> elements) throws CacheException {
+                writing.countDown();
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    throw new CacheException(e);
+                }
+                super.writeAll(elements);
+            }
+        });
+
+        Thread racer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    writing.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                cache.putWithWriter(new Element(5, "racer"));
+            }
+        };
+        racer.start();
+        cache.putAllWithWriter(elements(0, 10));
+        racer.join(TimeUnit.SECONDS.toMillis(10));
+
+        // the racing put was written after the batch, so it must be the one left in the cache
+        assertEquals("racer", cache.get(5).getObjectValue());
+    }
+
+    private Cache createCache(int batchSize, int concurrency, BatchWriter writer) {
+        Cache cache = new Cache(new CacheConfiguration("bulk", 0).cacheWriter(new CacheWriterConfiguration()
+                .writeThroughBatchSize(batchSize).writeThroughConcurrency(concurrency)));
+        manager.addCache(cache);
+        cache.registerCacheWriter(writer);
+        return cache;
+    }
+
+    private static List<Element> elements(int from, int to) {
+        List<Element> elements = new ArrayList<Element>();
+        for (int i = from; i < to; i++) {
+            elements.add(new Element(i, i));
+        }
+        return elements;
+    }
+
+    /**
+     * Writer recording batches, optionally failing once a number of items was handled. On failure the items that were
+     * handled are removed from the batch, as per the CacheWriter contract.
+     */
+    private static class BatchWriter extends AbstractCacheWriter {
+
+        private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+        private final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+        private final List<Object> written = Collections.synchronizedList(new ArrayList<Object>());
+        private final List<Object> deleted = Collections.synchronizedList(new ArrayList<Object>());
+        private volatile int failAfter;
+
+        BatchWriter(int failAfter) {
+            this.failAfter = failAfter;
+        }
+
+        @Override
+        public void writeAll(Collection<Element> elements) throws CacheException {
+            record(elements, written);
+        }
+
+        @Override
+        public void deleteAll(Collection<CacheEntry> entries) throws CacheException {
+            record(entries, deleted);
+        }
+
+        private <T> void record(Collection<T> batch, List<Object> handled) {
+            batchSizes.add(batch.size());
+            threads.add(Thread.currentThread().getName());
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                throw new CacheException(e);
+            }
+            for (Iterator<T> it = batch.iterator(); it.hasNext();) {
+                if (failAfter >= 0 && handled.size() >= failAfter) {
+                    throw new CacheException("writer failed");
+                }
+                T item = it.next();
+                handled.add(item instanceof Element ? ((Element) item).getObjectKey() : ((CacheEntry) item).getKey());
+                it.remove();
+            }
+        }
+    }
+}